@@ -0,0 +1,248 @@
+package org.rmatil.sync.core;
+
+import org.rmatil.sync.event.aggregator.core.events.IEvent;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds events which should be suppressed once they occur, e.g.
+ * the modify events caused by writing a file received from another client.
+ * <p>
+ * Events are matched weakly, i.e. by their name and their path only.
+ * Suppressions are indexed by these two properties, so that matching
+ * and consuming a suppression does not depend on the number of registered ones.
+ * Each suppression expires after a fixed time, if no matching event occurred until then.
+ * <p>
+ * Additionally, all events with a given name affecting a path or any path below it
+ * can be suppressed at once, e.g. the delete events caused by deleting a whole directory.
+ * Such a subtree suppression is not consumed by matching events but only expires.
+ */
+public class EventSuppressionRegistry {
+
+    /**
+     * The expiry times of the registered suppressions, oldest first, keyed by event name and path
+     */
+    protected final Map<String, Deque<Long>> suppressions = new ConcurrentHashMap<>();
+
+    /**
+     * The expiry times of the registered subtree suppressions, keyed by event name and path of the subtree
+     */
+    protected final Map<String, Long> subtreeSuppressions = new ConcurrentHashMap<>();
+
+    /**
+     * The time in milliseconds after which a suppression expires
+     */
+    protected final long ttl;
+
+    /**
+     * The time at which expired suppressions have been removed the last time
+     */
+    protected final AtomicLong lastPurge;
+
+    protected final AtomicInteger size = new AtomicInteger(0);
+
+    protected final AtomicLong nrOfMatchedSuppressions = new AtomicLong(0L);
+
+    protected final AtomicLong nrOfExpiredSuppressions = new AtomicLong(0L);
+
+    /**
+     * @param ttl The time in milliseconds after which a suppression expires
+     */
+    public EventSuppressionRegistry(long ttl) {
+        this.ttl = ttl;
+        this.lastPurge = new AtomicLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Suppresses the next occurrence of an event with the same name and path as the given one
+     *
+     * @param event The event to suppress
+     */
+    public void suppress(IEvent event) {
+        long now = System.currentTimeMillis();
+
+        this.suppressions.compute(getKey(event.getEventName(), event.getPath().toString()), (key, expiryTimes) -> {
+            if (null == expiryTimes) {
+                expiryTimes = new ArrayDeque<>();
+            }
+
+            expiryTimes.addLast(now + this.ttl);
+            this.size.incrementAndGet();
+
+            return expiryTimes;
+        });
+
+        this.purgeExpiredIfDue(now);
+    }
+
+    /**
+     * Suppresses all occurrences of events with the same name as the given one
+     * for its path and all paths below it until the suppression expires
+     *
+     * @param event The event of which the path is the root of the subtree
+     */
+    public void suppressSubtree(IEvent event) {
+        long now = System.currentTimeMillis();
+
+        this.subtreeSuppressions.put(getKey(event.getEventName(), event.getPath().normalize().toString()), now + this.ttl);
+
+        this.purgeExpiredIfDue(now);
+    }
+
+    /**
+     * Consumes a suppression matching the given event
+     *
+     * @param event The occurred event
+     *
+     * @return True, if the event has to be suppressed
+     */
+    public boolean consume(IEvent event) {
+        long now = System.currentTimeMillis();
+        boolean[] isMatched = new boolean[]{false};
+
+        this.suppressions.computeIfPresent(getKey(event.getEventName(), event.getPath().toString()), (key, expiryTimes) -> {
+            this.removeExpired(expiryTimes, now);
+
+            if (! expiryTimes.isEmpty()) {
+                expiryTimes.removeFirst();
+                this.size.decrementAndGet();
+                isMatched[0] = true;
+            }
+
+            return expiryTimes.isEmpty() ? null : expiryTimes;
+        });
+
+        if (! isMatched[0] && ! this.subtreeSuppressions.isEmpty()) {
+            isMatched[0] = this.isInSuppressedSubtree(event, now);
+        }
+
+        if (isMatched[0]) {
+            this.nrOfMatchedSuppressions.incrementAndGet();
+        }
+
+        return isMatched[0];
+    }
+
+    /**
+     * Removes all suppressions of events with the given name for the given path
+     *
+     * @param eventName    The name of the event
+     * @param relativePath The relative path of the event
+     */
+    public void clear(String eventName, String relativePath) {
+        Deque<Long> expiryTimes = this.suppressions.remove(getKey(eventName, relativePath));
+
+        if (null != expiryTimes) {
+            this.size.addAndGet(- expiryTimes.size());
+        }
+    }
+
+    /**
+     * Removes all expired suppressions
+     */
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        this.lastPurge.set(now);
+
+        Iterator<String> itr = this.suppressions.keySet().iterator();
+        while (itr.hasNext()) {
+            this.suppressions.computeIfPresent(itr.next(), (key, expiryTimes) -> {
+                this.removeExpired(expiryTimes, now);
+
+                return expiryTimes.isEmpty() ? null : expiryTimes;
+            });
+        }
+
+        this.subtreeSuppressions.values().removeIf(expiryTime -> expiryTime <= now);
+    }
+
+    /**
+     * Returns the number of registered suppressions, including expired ones which have not been removed yet
+     *
+     * @return The number of suppressions
+     */
+    public int getSize() {
+        return this.size.get();
+    }
+
+    /**
+     * Returns the number of events which have been suppressed
+     *
+     * @return The number of matched suppressions
+     */
+    public long getNrOfMatchedSuppressions() {
+        return this.nrOfMatchedSuppressions.get();
+    }
+
+    /**
+     * Returns the number of suppressions which expired without a matching event
+     *
+     * @return The number of expired suppressions
+     */
+    public long getNrOfExpiredSuppressions() {
+        return this.nrOfExpiredSuppressions.get();
+    }
+
+    /**
+     * Removes expired suppressions of all paths at most once per ttl,
+     * so that suppressions of events which never occur do not accumulate
+     *
+     * @param now The current time in milliseconds
+     */
+    protected void purgeExpiredIfDue(long now) {
+        long lastPurge = this.lastPurge.get();
+
+        if (now - lastPurge >= this.ttl && this.lastPurge.compareAndSet(lastPurge, now)) {
+            this.purgeExpired();
+        }
+    }
+
+    /**
+     * Removes the expired suppressions at the head of the given expiry times
+     *
+     * @param expiryTimes The expiry times, oldest first
+     * @param now         The current time in milliseconds
+     */
+    protected void removeExpired(Deque<Long> expiryTimes, long now) {
+        while (! expiryTimes.isEmpty() && expiryTimes.peekFirst() <= now) {
+            expiryTimes.removeFirst();
+            this.size.decrementAndGet();
+            this.nrOfExpiredSuppressions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks whether the path of the given event or any of its parents is suppressed
+     *
+     * @param event The occurred event
+     * @param now   The current time in milliseconds
+     *
+     * @return True, if a subtree suppression matches
+     */
+    protected boolean isInSuppressedSubtree(IEvent event, long now) {
+        Path path = event.getPath().normalize();
+
+        while (null != path) {
+            Long expiryTime = this.subtreeSuppressions.get(getKey(event.getEventName(), path.toString()));
+
+            if (null != expiryTime && expiryTime > now) {
+                return true;
+            }
+
+            path = path.getParent();
+        }
+
+        return false;
+    }
+
+    protected static String getKey(String eventName, String relativePath) {
+        return eventName + ":" + relativePath;
+    }
+}
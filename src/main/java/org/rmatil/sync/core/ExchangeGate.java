@@ -0,0 +1,103 @@
+package org.rmatil.sync.core;
+
+/**
+ * Holds back new exchanges while the background syncer merges
+ * the object stores although exchanges had been running.
+ * <p>
+ * Local syncs enter the gate before starting their exchanges and
+ * leave it once they are completed. While the gate is closed, entering
+ * blocks until it is opened again and offers of other clients are denied,
+ * so that the exchanges already running can drain.
+ */
+public class ExchangeGate {
+
+    /**
+     * Whether new exchanges are held back
+     */
+    protected boolean isClosed;
+
+    /**
+     * The number of local syncs which entered the gate and did not leave it yet
+     */
+    protected int nrOfActiveSyncs;
+
+    public ExchangeGate() {
+        this.isClosed = false;
+        this.nrOfActiveSyncs = 0;
+    }
+
+    /**
+     * Enters the gate before starting a local sync.
+     * Blocks as long as the gate is closed.
+     *
+     * @throws InterruptedException If interrupted while waiting for the gate to open
+     */
+    public synchronized void enter()
+            throws InterruptedException {
+        while (this.isClosed) {
+            this.wait();
+        }
+
+        this.nrOfActiveSyncs++;
+    }
+
+    /**
+     * Leaves the gate after a local sync entered by {@link ExchangeGate#enter()} is completed
+     */
+    public synchronized void leave() {
+        if (0 < this.nrOfActiveSyncs) {
+            this.nrOfActiveSyncs--;
+        }
+
+        this.notifyAll();
+    }
+
+    /**
+     * Holds back all exchanges started from now on
+     */
+    public synchronized void close() {
+        this.isClosed = true;
+    }
+
+    /**
+     * Lets held back exchanges start again
+     */
+    public synchronized void open() {
+        this.isClosed = false;
+        this.notifyAll();
+    }
+
+    /**
+     * Returns whether new exchanges are held back
+     *
+     * @return True, if the gate is closed
+     */
+    public synchronized boolean isClosed() {
+        return isClosed;
+    }
+
+    /**
+     * Waits until all local syncs which entered the gate have left it
+     *
+     * @param timeout The maximum time to wait in milliseconds
+     *
+     * @return True, if no local sync is active anymore, false if the timeout elapsed before
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized boolean awaitActiveSyncs(long timeout)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        while (0 < this.nrOfActiveSyncs) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+
+            this.wait(remaining);
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,366 @@
+package org.rmatil.sync.core;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.rmatil.sync.network.api.INode;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local write-through cache of the mapping between relative paths
+ * and file ids which is maintained by the identifier manager of a node.
+ * <p>
+ * Each lookup in the identifier manager is a round trip to the DHT.
+ * Lookups are therefore answered from the cache and only misses are
+ * fetched from the identifier manager. Changes made by this client are
+ * written to the identifier manager first and then applied to the cache.
+ * Changes made by other clients have to be announced by calling
+ * {@link IdentifierCache#invalidate(String)} resp. {@link IdentifierCache#invalidateSubtree(String)},
+ * e.g. when receiving their delete or move requests.
+ * <p>
+ * The cache can be persisted to a file, so that it is warm after a restart.
+ */
+public class IdentifierCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdentifierCache.class);
+
+    protected static final Gson gson = new Gson();
+
+    /**
+     * The client of which the identifier manager is used
+     */
+    protected INode node;
+
+    /**
+     * The file to persist the cache to, may be null
+     */
+    protected Path cacheFile;
+
+    /**
+     * The file ids keyed by their relative path
+     */
+    protected final Map<String, UUID> fileIds;
+
+    /**
+     * The relative paths keyed by their file id
+     */
+    protected final Map<UUID, String> paths;
+
+    protected final AtomicLong nrOfHits;
+    protected final AtomicLong nrOfMisses;
+
+    /**
+     * Creates a cache which is not persisted
+     *
+     * @param node The client of which the identifier manager is used
+     */
+    public IdentifierCache(INode node) {
+        this(node, null);
+    }
+
+    /**
+     * Creates a cache which is persisted to the given file.
+     * If the file exists, the cache is filled with its content.
+     *
+     * @param node      The client of which the identifier manager is used
+     * @param cacheFile The file to persist the cache to, may be null
+     */
+    public IdentifierCache(INode node, Path cacheFile) {
+        this.node = node;
+        this.cacheFile = cacheFile;
+        this.fileIds = new ConcurrentHashMap<>();
+        this.paths = new ConcurrentHashMap<>();
+        this.nrOfHits = new AtomicLong(0L);
+        this.nrOfMisses = new AtomicLong(0L);
+
+        if (null != cacheFile && Files.exists(cacheFile)) {
+            try {
+                this.load();
+            } catch (IOException | RuntimeException e) {
+                // an unreadable cache is just cold
+                logger.warn("Failed to load the identifier cache from " + cacheFile + ". Starting with an empty cache. Message: " + e.getMessage());
+                this.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the file id of the given path
+     *
+     * @param path The relative path
+     *
+     * @return The file id or null, if none is registered for the path
+     *
+     * @throws InputOutputException If fetching the file id from the identifier manager failed
+     */
+    public UUID getValue(String path)
+            throws InputOutputException {
+        UUID fileId = this.fileIds.get(path);
+        if (null != fileId) {
+            this.nrOfHits.incrementAndGet();
+            return fileId;
+        }
+
+        this.nrOfMisses.incrementAndGet();
+        fileId = this.fetchValue(path);
+
+        // absent mappings are not cached, since other clients may add them at any time
+        if (null != fileId) {
+            this.put(path, fileId);
+        }
+
+        return fileId;
+    }
+
+    /**
+     * Returns the path of the given file id
+     *
+     * @param fileId The file id
+     *
+     * @return The relative path or null, if the file id is not registered
+     *
+     * @throws InputOutputException If fetching the path from the identifier manager failed
+     */
+    public String getKey(UUID fileId)
+            throws InputOutputException {
+        String path = this.paths.get(fileId);
+        if (null != path) {
+            this.nrOfHits.incrementAndGet();
+            return path;
+        }
+
+        this.nrOfMisses.incrementAndGet();
+        path = this.fetchKey(fileId);
+
+        if (null != path) {
+            this.put(path, fileId);
+        }
+
+        return path;
+    }
+
+    /**
+     * Registers the file id for the given path in the identifier manager and the cache
+     *
+     * @param path   The relative path
+     * @param fileId The file id
+     *
+     * @throws InputOutputException If writing to the identifier manager failed
+     */
+    public void addIdentifier(String path, UUID fileId)
+            throws InputOutputException {
+        this.storeIdentifier(path, fileId);
+        this.put(path, fileId);
+    }
+
+    /**
+     * Removes the file id of the given path from the identifier manager and the cache
+     *
+     * @param path The relative path
+     *
+     * @throws InputOutputException If writing to the identifier manager failed
+     */
+    public void removeIdentifier(String path)
+            throws InputOutputException {
+        try {
+            this.deleteIdentifier(path);
+        } finally {
+            this.invalidate(path);
+        }
+    }
+
+    /**
+     * Moves the file id of the given path to the new path in the identifier manager and the cache
+     *
+     * @param oldPath The old relative path
+     * @param newPath The new relative path
+     *
+     * @throws InputOutputException If writing to the identifier manager failed
+     */
+    public void moveKey(String oldPath, String newPath)
+            throws InputOutputException {
+        try {
+            this.moveIdentifier(oldPath, newPath);
+        } catch (InputOutputException e) {
+            // we do not know which state the identifier manager is in
+            this.invalidate(oldPath);
+            this.invalidate(newPath);
+            throw e;
+        }
+
+        synchronized (this) {
+            UUID fileId = this.fileIds.remove(oldPath);
+            this.invalidate(newPath);
+
+            if (null != fileId) {
+                this.put(newPath, fileId);
+            }
+        }
+    }
+
+    /**
+     * Removes the cached mapping of the given path, e.g. since
+     * another client has changed it in the identifier manager
+     *
+     * @param path The relative path
+     */
+    public synchronized void invalidate(String path) {
+        UUID fileId = this.fileIds.remove(path);
+
+        if (null != fileId) {
+            this.paths.remove(fileId);
+        }
+    }
+
+    /**
+     * Removes the cached mappings of the given path and all paths below it
+     *
+     * @param path The relative path
+     */
+    public synchronized void invalidateSubtree(String path) {
+        Path subtreeRoot = Paths.get(path).normalize();
+
+        this.fileIds.entrySet().removeIf(entry -> {
+            if (Paths.get(entry.getKey()).normalize().startsWith(subtreeRoot)) {
+                this.paths.remove(entry.getValue());
+                return true;
+            }
+
+            return false;
+        });
+    }
+
+    /**
+     * Removes all cached mappings
+     */
+    public synchronized void clear() {
+        this.fileIds.clear();
+        this.paths.clear();
+    }
+
+    /**
+     * Returns the number of cached mappings
+     *
+     * @return The number of cached mappings
+     */
+    public int size() {
+        return this.fileIds.size();
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache
+     *
+     * @return The number of hits
+     */
+    public long getNrOfHits() {
+        return this.nrOfHits.get();
+    }
+
+    /**
+     * Returns the number of lookups which had to be fetched from the identifier manager
+     *
+     * @return The number of misses
+     */
+    public long getNrOfMisses() {
+        return this.nrOfMisses.get();
+    }
+
+    /**
+     * Writes the cached mappings to the cache file. Does nothing if no cache file is set.
+     *
+     * @throws IOException If writing the file failed
+     */
+    public void persist()
+            throws IOException {
+        if (null == this.cacheFile) {
+            return;
+        }
+
+        Map<String, String> entries = new HashMap<>();
+        for (Map.Entry<String, UUID> entry : this.fileIds.entrySet()) {
+            entries.put(entry.getKey(), entry.getValue().toString());
+        }
+
+        // write to a temporary file first to not leave a truncated cache behind
+        Path tmpFile = this.cacheFile.resolveSibling(this.cacheFile.getFileName().toString() + ".tmp");
+        Files.write(tmpFile, gson.toJson(entries).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpFile, this.cacheFile, StandardCopyOption.REPLACE_EXISTING);
+
+        logger.debug("Persisted " + entries.size() + " identifiers to " + this.cacheFile);
+    }
+
+    /**
+     * Replaces the cached mappings with the content of the cache file
+     *
+     * @throws IOException If reading the file failed
+     */
+    protected void load()
+            throws IOException {
+        String json = new String(Files.readAllBytes(this.cacheFile), StandardCharsets.UTF_8);
+        Map<String, String> entries = gson.fromJson(json, new TypeToken<HashMap<String, String>>() {
+        }.getType());
+
+        this.clear();
+
+        if (null == entries) {
+            return;
+        }
+
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            this.put(entry.getKey(), UUID.fromString(entry.getValue()));
+        }
+
+        logger.debug("Loaded " + entries.size() + " identifiers from " + this.cacheFile);
+    }
+
+    protected synchronized void put(String path, UUID fileId) {
+        // a file id is registered for a single path only
+        String previousPath = this.paths.put(fileId, path);
+        if (null != previousPath && ! previousPath.equals(path)) {
+            this.fileIds.remove(previousPath);
+        }
+
+        UUID previousFileId = this.fileIds.put(path, fileId);
+        if (null != previousFileId && ! previousFileId.equals(fileId)) {
+            this.paths.remove(previousFileId);
+        }
+    }
+
+    protected UUID fetchValue(String path)
+            throws InputOutputException {
+        return this.node.getIdentifierManager().getValue(path);
+    }
+
+    protected String fetchKey(UUID fileId)
+            throws InputOutputException {
+        return this.node.getIdentifierManager().getKey(fileId);
+    }
+
+    protected void storeIdentifier(String path, UUID fileId)
+            throws InputOutputException {
+        this.node.getIdentifierManager().addIdentifier(path, fileId);
+    }
+
+    protected void deleteIdentifier(String path)
+            throws InputOutputException {
+        this.node.getIdentifierManager().removeIdentifier(path);
+    }
+
+    protected void moveIdentifier(String oldPath, String newPath)
+            throws InputOutputException {
+        this.node.getIdentifierManager().moveKey(oldPath, newPath);
+    }
+}
@@ -0,0 +1,222 @@
+package org.rmatil.sync.core;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * The paths and glob patterns which are excluded from synchronisation,
+ * compiled once so that checking a path does not depend on parsing them again.
+ * <p>
+ * Ignored paths are stored in a tree following the directory hierarchy, so that
+ * checking whether a path is below any of them is a single descent. Patterns without
+ * any glob meta characters are matched by string equality, patterns consisting of
+ * <i>**</i> followed by a literal suffix (e.g. <i>**.DS_Store</i>) by the suffix only.
+ * All other patterns are compiled to a {@link PathMatcher} once.
+ * <p>
+ * The glob patterns follow the specification of {@link java.nio.file.FileSystem#getPathMatcher(String)}.
+ */
+public class IgnoreRuleSet {
+
+    /**
+     * The characters having a special meaning in glob patterns
+     */
+    protected static final String GLOB_META_CHARS = "*?[]{}\\";
+
+    protected final List<Path>   ignoredPaths;
+    protected final List<String> ignorePatterns;
+
+    /**
+     * The root of the tree of ignored relative paths
+     */
+    protected final Node root;
+
+    /**
+     * Ignored absolute paths, which can not be stored in the tree
+     */
+    protected final List<Path> absoluteIgnoredPaths;
+
+    /**
+     * Patterns without any glob meta characters
+     */
+    protected final Set<String> literalPatterns;
+
+    /**
+     * Literal suffixes of patterns starting with <i>**</i>
+     */
+    protected final List<String> suffixPatterns;
+
+    /**
+     * All other patterns
+     */
+    protected final List<PathMatcher> matchers;
+
+    /**
+     * @param ignoredPaths   The paths which are ignored including all paths below them, may be null
+     * @param ignorePatterns The glob patterns of paths which are ignored, may be null
+     */
+    public IgnoreRuleSet(List<Path> ignoredPaths, List<String> ignorePatterns) {
+        this.ignoredPaths = null == ignoredPaths ? new ArrayList<>() : new ArrayList<>(ignoredPaths);
+        this.ignorePatterns = null == ignorePatterns ? new ArrayList<>() : new ArrayList<>(ignorePatterns);
+        this.root = new Node();
+        this.absoluteIgnoredPaths = new ArrayList<>();
+        this.literalPatterns = new HashSet<>();
+        this.suffixPatterns = new ArrayList<>();
+        this.matchers = new ArrayList<>();
+
+        for (Path ignoredPath : this.ignoredPaths) {
+            this.addIgnoredPath(ignoredPath);
+        }
+
+        for (String pattern : this.ignorePatterns) {
+            this.addPattern(pattern);
+        }
+    }
+
+    /**
+     * Checks whether the given path is ignored
+     *
+     * @param path The relative path to check
+     *
+     * @return True, if the path is below an ignored path or matches an ignore pattern
+     */
+    public boolean isIgnored(String path) {
+        return this.isIgnored(Paths.get(path));
+    }
+
+    /**
+     * Checks whether the given path is ignored
+     *
+     * @param path The relative path to check
+     *
+     * @return True, if the path is below an ignored path or matches an ignore pattern
+     */
+    public boolean isIgnored(Path path) {
+        return this.isBelowIgnoredPath(path) || this.matchesPattern(path);
+    }
+
+    /**
+     * Returns the ignored paths this rule set has been built from
+     *
+     * @return The ignored paths
+     */
+    public List<Path> getIgnoredPaths() {
+        return Collections.unmodifiableList(this.ignoredPaths);
+    }
+
+    /**
+     * Returns the ignore patterns this rule set has been built from
+     *
+     * @return The glob patterns
+     */
+    public List<String> getIgnorePatterns() {
+        return Collections.unmodifiableList(this.ignorePatterns);
+    }
+
+    protected boolean isBelowIgnoredPath(Path path) {
+        if (path.isAbsolute()) {
+            for (Path ignoredPath : this.absoluteIgnoredPaths) {
+                if (path.startsWith(ignoredPath)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        Node node = this.root;
+        for (Path element : path) {
+            node = node.children.get(element.toString());
+
+            if (null == node) {
+                return false;
+            }
+
+            if (node.isIgnored) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    protected boolean matchesPattern(Path path) {
+        String pathString = path.toString();
+
+        if (this.literalPatterns.contains(pathString)) {
+            return true;
+        }
+
+        for (String suffix : this.suffixPatterns) {
+            if (pathString.endsWith(suffix)) {
+                return true;
+            }
+        }
+
+        for (PathMatcher matcher : this.matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    protected void addIgnoredPath(Path ignoredPath) {
+        if (ignoredPath.isAbsolute()) {
+            this.absoluteIgnoredPaths.add(ignoredPath);
+            return;
+        }
+
+        if (ignoredPath.toString().isEmpty()) {
+            // an empty path only is a prefix of itself
+            return;
+        }
+
+        Node node = this.root;
+        for (Path element : ignoredPath) {
+            node = node.children.computeIfAbsent(element.toString(), name -> new Node());
+        }
+
+        node.isIgnored = true;
+    }
+
+    protected void addPattern(String pattern) {
+        if (! containsGlobMetaChar(pattern, 0)) {
+            this.literalPatterns.add(pattern);
+        } else if (pattern.startsWith("**") && ! containsGlobMetaChar(pattern, 2)) {
+            // ** matches any characters including directory boundaries
+            this.suffixPatterns.add(pattern.substring(2));
+        } else {
+            this.matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        }
+    }
+
+    protected static boolean containsGlobMetaChar(String pattern, int fromIndex) {
+        for (int i = fromIndex; i < pattern.length(); i++) {
+            if (- 1 != GLOB_META_CHARS.indexOf(pattern.charAt(i))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A path in the tree of ignored paths
+     */
+    protected static class Node {
+
+        /**
+         * The child paths keyed by their name
+         */
+        protected final Map<String, Node> children = new HashMap<>();
+
+        /**
+         * Whether this path and all paths below it are ignored
+         */
+        protected boolean isIgnored = false;
+    }
+}
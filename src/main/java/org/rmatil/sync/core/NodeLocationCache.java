@@ -0,0 +1,207 @@
+package org.rmatil.sync.core;
+
+import net.engio.mbassy.listener.Handler;
+import org.rmatil.sync.core.eventbus.BackgroundSyncHintBusEvent;
+import org.rmatil.sync.network.api.INodeManager;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the locations of the clients of a user, which are otherwise
+ * looked up in the DHT by the {@link INodeManager} for each exchange.
+ * <p>
+ * Cached locations expire after a time to live. Additionally, all cached
+ * locations are discarded if a client joined or an exchange timed out,
+ * i.e. a client may have left. Subscribe the cache to the global event
+ * bus to receive these hints. If sending to a client fails, only the
+ * cached locations containing this client are discarded.
+ */
+public class NodeLocationCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(NodeLocationCache.class);
+
+    /**
+     * The node manager to fetch client locations from
+     */
+    protected INodeManager nodeManager;
+
+    /**
+     * The time in milliseconds after which cached locations are fetched again.
+     * If zero, nothing is cached
+     */
+    protected long timeToLive;
+
+    /**
+     * The cached locations keyed by the name of their user
+     */
+    protected final Map<String, CachedLocations> locations;
+
+    protected final AtomicLong nrOfHits;
+    protected final AtomicLong nrOfMisses;
+
+    /**
+     * @param nodeManager The node manager to fetch client locations from
+     * @param timeToLive  The time in milliseconds after which cached locations are fetched again. If zero, nothing is cached
+     */
+    public NodeLocationCache(INodeManager nodeManager, long timeToLive) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("The time to live must not be negative");
+        }
+
+        this.nodeManager = nodeManager;
+        this.timeToLive = timeToLive;
+        this.locations = new ConcurrentHashMap<>();
+        this.nrOfHits = new AtomicLong(0L);
+        this.nrOfMisses = new AtomicLong(0L);
+    }
+
+    public void setNodeManager(INodeManager nodeManager) {
+        this.nodeManager = nodeManager;
+        this.invalidateAll();
+    }
+
+    @Handler
+    public void handleHint(BackgroundSyncHintBusEvent event) {
+        switch (event.getReason()) {
+            case CLIENT_JOINED:
+            case EXCHANGE_TIMED_OUT:
+                logger.debug("Discarding cached client locations since clients may have joined or left (" + event.getReason() + ")");
+                this.invalidateAll();
+                break;
+            case EXCHANGE_DENIED:
+                // the other client is still there
+                break;
+        }
+    }
+
+    /**
+     * Returns the locations of all clients of the given user
+     *
+     * @param username The name of the user
+     *
+     * @return A modifiable copy of the client locations
+     *
+     * @throws InputOutputException If fetching the locations from the node manager failed
+     */
+    public List<NodeLocation> getNodeLocations(String username)
+            throws InputOutputException {
+        long now = System.currentTimeMillis();
+
+        CachedLocations cachedLocations = this.locations.get(username);
+        if (null != cachedLocations && now - cachedLocations.fetchedAt < this.timeToLive) {
+            this.nrOfHits.incrementAndGet();
+            return new ArrayList<>(cachedLocations.nodeLocations);
+        }
+
+        this.nrOfMisses.incrementAndGet();
+        List<NodeLocation> nodeLocations = this.fetchNodeLocations(username);
+
+        // users without any client online are looked up again, since their clients may connect at any time
+        if (0 < this.timeToLive && null != nodeLocations && ! nodeLocations.isEmpty()) {
+            this.locations.put(username, new CachedLocations(new ArrayList<>(nodeLocations), now));
+        }
+
+        return null == nodeLocations ? null : new ArrayList<>(nodeLocations);
+    }
+
+    /**
+     * Discards the cached locations of the given user
+     *
+     * @param username The name of the user
+     */
+    public void invalidate(String username) {
+        this.locations.remove(username);
+    }
+
+    /**
+     * Discards the cached locations containing the given client, e.g.
+     * since sending to it failed. They are fetched again on the next lookup.
+     *
+     * @param nodeLocation The location of the client
+     */
+    public void invalidate(NodeLocation nodeLocation) {
+        this.locations.values().removeIf(cachedLocations -> cachedLocations.contains(nodeLocation));
+    }
+
+    /**
+     * Discards the cached locations containing any of the given clients
+     *
+     * @param nodeLocations The locations of the clients
+     */
+    public void invalidate(List<NodeLocation> nodeLocations) {
+        if (null == nodeLocations) {
+            return;
+        }
+
+        for (NodeLocation nodeLocation : nodeLocations) {
+            this.invalidate(nodeLocation);
+        }
+    }
+
+    /**
+     * Discards the cached locations of all users
+     */
+    public void invalidateAll() {
+        this.locations.clear();
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache
+     *
+     * @return The number of hits
+     */
+    public long getNrOfHits() {
+        return this.nrOfHits.get();
+    }
+
+    /**
+     * Returns the number of lookups which had to be fetched from the node manager
+     *
+     * @return The number of misses
+     */
+    public long getNrOfMisses() {
+        return this.nrOfMisses.get();
+    }
+
+    protected List<NodeLocation> fetchNodeLocations(String username)
+            throws InputOutputException {
+        return this.nodeManager.getNodeLocations(username);
+    }
+
+    protected static class CachedLocations {
+
+        protected final List<NodeLocation> nodeLocations;
+
+        protected final long fetchedAt;
+
+        protected CachedLocations(List<NodeLocation> nodeLocations, long fetchedAt) {
+            this.nodeLocations = nodeLocations;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /**
+         * Checks whether the given client is one of the cached locations
+         *
+         * @param nodeLocation The location of the client
+         *
+         * @return True, if a location of the same client is cached
+         */
+        protected boolean contains(NodeLocation nodeLocation) {
+            for (NodeLocation cachedLocation : this.nodeLocations) {
+                if (cachedLocation.getClientDeviceId().equals(nodeLocation.getClientDeviceId())) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -1,21 +1,39 @@
 package org.rmatil.sync.core;
 
-import org.rmatil.sync.commons.path.Naming;
+import org.rmatil.sync.core.security.SharedPathTrie;
 import org.rmatil.sync.persistence.api.StorageType;
 import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
 import org.rmatil.sync.persistence.core.tree.TreePathElement;
 import org.rmatil.sync.persistence.exceptions.InputOutputException;
 import org.rmatil.sync.version.api.AccessType;
 import org.rmatil.sync.version.api.IObjectStore;
-import org.rmatil.sync.version.core.model.PathObject;
-import org.rmatil.sync.version.core.model.Sharer;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ShareNaming {
 
 
+    /**
+     * Relativizes the given path like {@link ShareNaming#getRelativePathToSharedFolderBySharer(SharedPathTrie, String, String, AccessType)},
+     * reading owner and sharers of the parents directly from the given object store.
+     *
+     * @param objectStore      The object store to get path objects of sub-paths
+     * @param relativeFilePath The relative path of the file in the synced folder
+     * @param sharerUsername   The sharer to check for
+     * @param accessType       The access type
+     *
+     * @return The relativized path
+     *
+     * @throws InputOutputException If reading the object store failed
+     */
+    public static String getRelativePathToSharedFolderBySharer(IObjectStore objectStore, String relativeFilePath, String sharerUsername, AccessType accessType)
+            throws InputOutputException {
+        return getRelativePathToSharedFolderBySharer(new SharedPathTrie(objectStore), relativeFilePath, sharerUsername, accessType);
+    }
+
     /**
      * Relativizes the given path to its most upper parent which is also shared with the given sharer.
      * Example:
@@ -23,69 +41,55 @@ public class ShareNaming {
      * given sharer at <i>syncedFolder/aDir/bDir</i>, then this method will return <i>cDir/myFile.txt</i>,
      * so that the file can be placed in the sharers directory at the correct path.
      *
-     * @param storageAdapter   The storage adapter to access the synchronised folder
-     * @param objectStore      The object store to get path objects of sub-paths
+     * @param sharedPathTrie   The owners and sharers of all paths
      * @param relativeFilePath The relative path of the file in the synced folder
      * @param sharerUsername   The sharer to check for
      * @param accessType       The access type
      *
      * @return The relativized path
      *
-     * @throws InputOutputException If reading the storage adapter / object store failed
+     * @throws InputOutputException If reading the object store failed
      */
-    public static String getRelativePathToSharedFolderBySharer(ITreeStorageAdapter storageAdapter, IObjectStore objectStore, String relativeFilePath, String sharerUsername, AccessType accessType)
+    public static String getRelativePathToSharedFolderBySharer(SharedPathTrie sharedPathTrie, String relativeFilePath, String sharerUsername, AccessType accessType)
             throws InputOutputException {
         // look up if there is any direct parent directory which is also shared with the given path.
         // if so, then we "add" the given file to that directory, resolving the path relatively to that one
-
         Path origPath = Paths.get(relativeFilePath);
-        Path path = Paths.get(relativeFilePath);
-
-        int pathCtr = path.getNameCount() - 1;
-        while (path.getNameCount() > 1) {
-            Path subPath = path.subpath(0, path.getNameCount() - 1); // endIndex is exclusive
-            TreePathElement subPathElement = new TreePathElement(subPath.toString());
-
-            if (storageAdapter.exists(StorageType.DIRECTORY, subPathElement) ||
-                    storageAdapter.exists(StorageType.FILE, subPathElement)) {
-                // check whether the parent is shared
-                PathObject parentObject = objectStore.getObjectManager().getObjectForPath(subPathElement.getPath());
-
-
-                if (! parentObject.isShared()) {
-                    // parent is not shared at all
-                    break;
-                } else {
-                    // now check if there is a sharer present for the given username and access type
-                    boolean sharerIsPresent = false;
-                    for (Sharer sharer : parentObject.getSharers()) {
-                        if (sharer.getUsername().equals(sharerUsername) && sharer.getAccessType().equals(accessType)) {
-                            // ok, we found him
-                            sharerIsPresent = true;
-                        }
-                    }
-
-                    if (! sharerIsPresent) {
-                        break;
-                    }
-                }
-
-                // there is a parent which is also shared with the given user
-                if (subPath.getNameCount() == 1) {
-                    // we tested the most upper path, so we can break safely here
-                    // -> actually prevent an IllegalArgumentException for subpath
-                    pathCtr--;
-                    break;
-                } else {
-                    path = path.subpath(0, path.getNameCount() - 1); // endIndex is exclusive
-                    pathCtr--;
-                }
+        List<SharedPathTrie.PathEntry> parentEntries = getParentEntries(sharedPathTrie, origPath);
+
+        int pathCtr = origPath.getNameCount() - 1;
+        for (int i = parentEntries.size() - 1; i >= 0; i--) {
+            SharedPathTrie.PathEntry parentEntry = parentEntries.get(i);
+
+            if (! parentEntry.exists() || ! parentEntry.isShared() || ! parentEntry.hasSharer(sharerUsername, accessType)) {
+                // parent is not shared at all or not with the given user
+                break;
             }
+
+            // there is a parent which is also shared with the given user
+            pathCtr--;
         }
 
         return origPath.subpath(pathCtr, origPath.getNameCount()).toString();
     }
 
+    /**
+     * Relativizes the given path like {@link ShareNaming#getRelativePathToSharedFolderByOwner(SharedPathTrie, String, String)},
+     * reading owner and sharers of the parents directly from the given object store.
+     *
+     * @param objectStore      The object store to get path objects of sub-paths
+     * @param relativeFilePath The relative path of the file in the synced folder
+     * @param ownerUsername    The sharer to check for
+     *
+     * @return The relativized path
+     *
+     * @throws InputOutputException If reading the object store failed
+     */
+    public static String getRelativePathToSharedFolderByOwner(IObjectStore objectStore, String relativeFilePath, String ownerUsername)
+            throws InputOutputException {
+        return getRelativePathToSharedFolderByOwner(new SharedPathTrie(objectStore), relativeFilePath, ownerUsername);
+    }
+
     /**
      * Relativizes the given path to its most upper parent which is also owned by the given owner.
      * Example:
@@ -93,80 +97,75 @@ public class ShareNaming {
      * given owner at <i>syncedFolder/aDir/bDir</i>, then this method will return <i>cDir/myFile.txt</i>,
      * so that the file can be placed in the sharers directory at the correct path.
      *
-     * @param storageAdapter   The storage adapter to access the synchronised folder
-     * @param objectStore      The object store to get path objects of sub-paths
+     * @param sharedPathTrie   The owners and sharers of all paths
      * @param relativeFilePath The relative path of the file in the synced folder
      * @param ownerUsername    The sharer to check for
      *
      * @return The relativized path
      *
-     * @throws InputOutputException If reading the storage adapter / object store failed
+     * @throws InputOutputException If reading the object store failed
      */
-    public static String getRelativePathToSharedFolderByOwner(ITreeStorageAdapter storageAdapter, IObjectStore objectStore, String relativeFilePath, String ownerUsername)
+    public static String getRelativePathToSharedFolderByOwner(SharedPathTrie sharedPathTrie, String relativeFilePath, String ownerUsername)
             throws InputOutputException {
-        // look up if there is any direct parent directory which is also shared with the given path.
+        // look up if there is any direct parent directory which is also owned by the given owner.
         // if so, then we "add" the given file to that directory, resolving the path relatively to that one
-
         Path origPath = Paths.get(relativeFilePath);
-        Path path = Paths.get(relativeFilePath);
-
-        int pathCtr = path.getNameCount() - 1;
-        while (path.getNameCount() > 1) {
-            Path subPath = path.subpath(0, path.getNameCount() - 1); // endIndex is exclusive
-            TreePathElement subPathElement = new TreePathElement(subPath.toString());
-
-            boolean ownerIsPresent = false;
-            if (storageAdapter.exists(StorageType.DIRECTORY, subPathElement) ||
-                    storageAdapter.exists(StorageType.FILE, subPathElement)) {
-                // check whether the parent is shared
-                PathObject parentObject = objectStore.getObjectManager().getObjectForPath(subPathElement.getPath());
-
-                if (ownerUsername.equals(parentObject.getOwner())) {
-                    ownerIsPresent = true;
-                }
-            }
+        List<SharedPathTrie.PathEntry> parentEntries = getParentEntries(sharedPathTrie, origPath);
 
-            if (! ownerIsPresent) {
-                break;
-            }
+        int pathCtr = origPath.getNameCount() - 1;
+        for (int i = parentEntries.size() - 1; i >= 0; i--) {
+            SharedPathTrie.PathEntry parentEntry = parentEntries.get(i);
 
-            // there is a parent which is also shared with the given user
-            if (subPath.getNameCount() == 1) {
-                // we tested the most upper path, so we can break safely here
-                // -> actually prevent an IllegalArgumentException for subpath
-                pathCtr--;
+            if (! parentEntry.exists() || ! ownerUsername.equals(parentEntry.getOwner())) {
                 break;
-            } else {
-                path = path.subpath(0, path.getNameCount() - 1); // endIndex is exclusive
-                pathCtr--;
             }
+
+            // there is a parent which is also owned by the given user
+            pathCtr--;
         }
 
         return origPath.subpath(pathCtr, origPath.getNameCount()).toString();
     }
 
     /**
-     * Returns a unique filename for the given relative path
+     * Returns the entries of all parents of the given path, top most parent first
+     *
+     * @param sharedPathTrie The owners and sharers of all paths
+     * @param path           The relative path
+     *
+     * @return The entries of the parents, empty if the path has no parent
+     *
+     * @throws InputOutputException If reading the object store failed
+     */
+    protected static List<SharedPathTrie.PathEntry> getParentEntries(SharedPathTrie sharedPathTrie, Path path)
+            throws InputOutputException {
+        if (null == path.getParent()) {
+            return new ArrayList<>();
+        }
+
+        return sharedPathTrie.getEntries(path.getParent().toString());
+    }
+
+    /**
+     * Returns a unique filename for the given relative path.
+     * Note, that a name is taken if a file or a directory with it exists.
      *
      * @param storageAdapter The storage adapter to check for existence of the given path
      * @param relativePath   The relative path to find a unique filename for
-     * @param isFile         Whether the given path is a file or not
      *
      * @return The unique file name
      *
-     * @throws InputOutputException If checking whether the path exists or not fails
+     * @throws InputOutputException If checking the existence of a path fails
      */
-    public static String getUniqueFileName(ITreeStorageAdapter storageAdapter, String relativePath, boolean isFile)
+    public static String getUniqueFileName(ITreeStorageAdapter storageAdapter, String relativePath)
             throws InputOutputException {
         String oldFileName = Paths.get(relativePath).getFileName().toString();
         String newFileName = oldFileName;
 
-        StorageType storageType = isFile ? StorageType.FILE : StorageType.DIRECTORY;
-
-        String pathToFileWithoutFileName = Naming.getPathWithoutFileName(oldFileName, relativePath);
+        Path parent = Paths.get(relativePath).getParent();
 
         int ctr = 1;
-        while (storageAdapter.exists(storageType, new TreePathElement(pathToFileWithoutFileName + "/" + newFileName))) {
+        while (isTaken(storageAdapter, null == parent ? Paths.get(newFileName) : parent.resolve(newFileName))) {
             int firstIndexOfDot = oldFileName.indexOf(".");
 
             if (- 1 != firstIndexOfDot) {
@@ -192,4 +191,21 @@ public class ShareNaming {
 
         return relativePath.substring(0, lastIndex).concat(newFileName);
     }
+
+    /**
+     * Checks whether a file or a directory exists at the given path
+     *
+     * @param storageAdapter The storage adapter of the synchronised folder
+     * @param relativePath   The relative path to check
+     *
+     * @return True, if the path is taken
+     *
+     * @throws InputOutputException If checking the existence fails
+     */
+    protected static boolean isTaken(ITreeStorageAdapter storageAdapter, Path relativePath)
+            throws InputOutputException {
+        TreePathElement pathElement = new TreePathElement(relativePath.toString());
+
+        return storageAdapter.exists(StorageType.FILE, pathElement) || storageAdapter.exists(StorageType.DIRECTORY, pathElement);
+    }
 }
@@ -0,0 +1,131 @@
+package org.rmatil.sync.core;
+
+import org.rmatil.sync.event.aggregator.core.events.DeleteEvent;
+import org.rmatil.sync.event.aggregator.core.events.IEvent;
+import org.rmatil.sync.event.aggregator.core.events.MoveEvent;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Collapses the delete events of a list of events into the
+ * delete events of the top-most deleted directories.
+ * <p>
+ * Deleting a directory results in a delete event for the directory
+ * and for each path below it. Since deleting a directory is recursive,
+ * the delete events of its descendants are dropped as long as no other
+ * event in the list affects the deleted subtree.
+ */
+public class SubtreeDeletes {
+
+    /**
+     * The events with the delete events of descendants removed, in their original order
+     */
+    protected final List<IEvent> events;
+
+    /**
+     * The paths of the remaining delete events of which descendant events have been dropped
+     */
+    protected final Set<String> subtreeRoots;
+
+    protected int nrOfCollapsedEvents;
+
+    /**
+     * @param events The events to collapse
+     */
+    public SubtreeDeletes(List<IEvent> events) {
+        this.events = new ArrayList<>();
+        this.subtreeRoots = new HashSet<>();
+        this.nrOfCollapsedEvents = 0;
+
+        Set<Path> deletedPaths = new HashSet<>();
+        // all paths affected by other events and their ancestors
+        Set<Path> changedPaths = new HashSet<>();
+
+        for (IEvent event : events) {
+            if (event instanceof DeleteEvent) {
+                deletedPaths.add(event.getPath().normalize());
+            } else {
+                addWithAncestors(event.getPath().normalize(), changedPaths);
+
+                if (event instanceof MoveEvent) {
+                    addWithAncestors(((MoveEvent) event).getNewPath().normalize(), changedPaths);
+                }
+            }
+        }
+
+        for (IEvent event : events) {
+            if (event instanceof DeleteEvent) {
+                Path deletedAncestor = getTopMostDeletedAncestor(event.getPath().normalize(), deletedPaths, changedPaths);
+
+                if (null != deletedAncestor) {
+                    this.subtreeRoots.add(deletedAncestor.toString());
+                    this.nrOfCollapsedEvents++;
+                    continue;
+                }
+            }
+
+            this.events.add(event);
+        }
+    }
+
+    /**
+     * Returns the events with the delete events of descendants of deleted directories removed
+     *
+     * @return The events in their original order
+     */
+    public List<IEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Returns the paths of the deleted directories of which the deletes of descendants have been collapsed
+     *
+     * @return The relative paths of the deleted directories
+     */
+    public Set<String> getSubtreeRoots() {
+        return subtreeRoots;
+    }
+
+    /**
+     * Returns the number of delete events which have been dropped
+     *
+     * @return The number of collapsed events
+     */
+    public int getNrOfCollapsedEvents() {
+        return nrOfCollapsedEvents;
+    }
+
+    /**
+     * Returns the top-most ancestor of the given path which has been deleted,
+     * if neither it nor any path below it is affected by another event
+     *
+     * @param path         The deleted path
+     * @param deletedPaths The paths of all delete events
+     * @param changedPaths The paths of all other events and their ancestors
+     *
+     * @return The ancestor or null, if the delete of the path can not be collapsed
+     */
+    protected static Path getTopMostDeletedAncestor(Path path, Set<Path> deletedPaths, Set<Path> changedPaths) {
+        Path topMostAncestor = null;
+        Path parent = path.getParent();
+
+        while (null != parent) {
+            if (deletedPaths.contains(parent) && ! changedPaths.contains(parent)) {
+                topMostAncestor = parent;
+            }
+
+            parent = parent.getParent();
+        }
+
+        return topMostAncestor;
+    }
+
+    protected static void addWithAncestors(Path path, Set<Path> paths) {
+        Path current = path;
+
+        while (null != current && paths.add(current)) {
+            current = current.getParent();
+        }
+    }
+}
@@ -13,12 +13,21 @@ import org.rmatil.sync.core.init.client.LocalStateObjectDataReplyHandler;
 import org.rmatil.sync.core.init.eventaggregator.EventAggregatorInitializer;
 import org.rmatil.sync.core.init.objecstore.ObjectStoreFileChangeListener;
 import org.rmatil.sync.core.init.objecstore.ObjectStoreInitializer;
+import org.rmatil.sync.core.init.objecstore.PathHashTree;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleRequest;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleRequestHandler;
 import org.rmatil.sync.core.messaging.fileexchange.delete.FileDeleteRequest;
 import org.rmatil.sync.core.messaging.fileexchange.delete.FileDeleteRequestHandler;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileDeltaRequest;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileDeltaRequestHandler;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileSignatureRequest;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileSignatureRequestHandler;
 import org.rmatil.sync.core.messaging.fileexchange.demand.FileDemandRequest;
 import org.rmatil.sync.core.messaging.fileexchange.demand.FileDemandRequestHandler;
 import org.rmatil.sync.core.messaging.fileexchange.move.FileMoveRequest;
 import org.rmatil.sync.core.messaging.fileexchange.move.FileMoveRequestHandler;
+import org.rmatil.sync.core.messaging.fileexchange.offer.BatchFileOfferRequest;
+import org.rmatil.sync.core.messaging.fileexchange.offer.BatchFileOfferRequestHandler;
 import org.rmatil.sync.core.messaging.fileexchange.offer.FileOfferRequest;
 import org.rmatil.sync.core.messaging.fileexchange.offer.FileOfferRequestHandler;
 import org.rmatil.sync.core.messaging.fileexchange.push.FilePushRequest;
@@ -33,8 +42,10 @@ import org.rmatil.sync.core.messaging.sharingexchange.unshared.UnsharedRequest;
 import org.rmatil.sync.core.messaging.sharingexchange.unshared.UnsharedRequestHandler;
 import org.rmatil.sync.core.model.ApplicationConfig;
 import org.rmatil.sync.core.security.AccessManager;
-import org.rmatil.sync.core.syncer.background.IBackgroundSyncer;
+import org.rmatil.sync.core.syncer.background.BackgroundSyncScheduler;
+import org.rmatil.sync.core.syncer.background.DirtyPathSet;
 import org.rmatil.sync.core.syncer.background.NonBlockingBackgroundSyncer;
+import org.rmatil.sync.core.syncer.background.SyncWindowEventListener;
 import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreRequest;
 import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreRequestHandler;
 import org.rmatil.sync.core.syncer.file.FileSyncer;
@@ -54,7 +65,10 @@ import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
 import org.rmatil.sync.persistence.core.tree.TreePathElement;
 import org.rmatil.sync.persistence.exceptions.InputOutputException;
 import org.rmatil.sync.version.api.IObjectStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -63,7 +77,6 @@ import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /**
  * The main application. Provides functionality to synchronise
@@ -72,6 +85,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class Sync {
 
+    private static final Logger logger = LoggerFactory.getLogger(Sync.class);
+
     /**
      * The storage adapter managing the synced folder
      */
@@ -112,11 +127,26 @@ public class Sync {
      */
     protected ScheduledExecutorService backgroundSyncerExecutorService;
 
+    /**
+     * Schedules the runs of the background syncer
+     */
+    protected BackgroundSyncScheduler backgroundSyncScheduler;
+
     /**
      * The sync file change listener
      */
     protected SyncFileChangeListener syncFileChangeListener;
 
+    /**
+     * The local cache of the file ids of the synchronised folder
+     */
+    protected IdentifierCache identifierCache;
+
+    /**
+     * The cache of the client locations of users
+     */
+    protected NodeLocationCache nodeLocationCache;
+
     /**
      * Initializes the app by means of creating
      * all required app folders and files. This includes
@@ -225,6 +255,10 @@ public class Sync {
         this.objectStore = objectStoreInitializer.init();
         objectStoreInitializer.start();
 
+        // caches access of other users, invalidated when owners and sharers change
+        AccessManager accessManager = new AccessManager(objectStore);
+        globalEventBus.subscribe(accessManager);
+
         // Init client
         this.node = new Node(null, user, null);
         LocalStateObjectDataReplyHandler objectDataReplyHandler = new LocalStateObjectDataReplyHandler(
@@ -234,12 +268,16 @@ public class Sync {
                 globalEventBus,
                 null,
                 null,
-                new AccessManager(objectStore)
+                accessManager
         );
 
         // specify protocol
         objectDataReplyHandler.addRequestCallbackHandler(FileOfferRequest.class, FileOfferRequestHandler.class);
+        objectDataReplyHandler.addRequestCallbackHandler(BatchFileOfferRequest.class, BatchFileOfferRequestHandler.class);
         objectDataReplyHandler.addRequestCallbackHandler(FilePushRequest.class, FilePushRequestHandler.class);
+        objectDataReplyHandler.addRequestCallbackHandler(FileSignatureRequest.class, FileSignatureRequestHandler.class);
+        objectDataReplyHandler.addRequestCallbackHandler(FileDeltaRequest.class, FileDeltaRequestHandler.class);
+        objectDataReplyHandler.addRequestCallbackHandler(FileBundleRequest.class, FileBundleRequestHandler.class);
         objectDataReplyHandler.addRequestCallbackHandler(FileDeleteRequest.class, FileDeleteRequestHandler.class);
         objectDataReplyHandler.addRequestCallbackHandler(FileMoveRequest.class, FileMoveRequestHandler.class);
         objectDataReplyHandler.addRequestCallbackHandler(FetchObjectStoreRequest.class, FetchObjectStoreRequestHandler.class);
@@ -275,6 +313,24 @@ public class Sync {
 
         objectDataReplyHandler.setNodeManager(this.nodeManager);
 
+        // known client devices are forgotten on timeouts, so that their next request counts as a join
+        globalEventBus.subscribe(objectDataReplyHandler);
+
+        // answers file id lookups locally, persisted next to the object store
+        this.identifierCache = new IdentifierCache(
+                this.node,
+                Paths.get(this.storageAdapter.getRootDir().getPath()).resolve(Config.DEFAULT.getOsFolderName()).resolve(Config.DEFAULT.getIdentifierCacheName())
+        );
+        objectDataReplyHandler.setIdentifierCache(this.identifierCache);
+
+        // client locations are invalidated on joins and timeouts published on the global event bus
+        this.nodeLocationCache = new NodeLocationCache(this.nodeManager, Config.DEFAULT.getNodeLocationCacheTtl());
+        globalEventBus.subscribe(this.nodeLocationCache);
+
+        // forced background syncs hold back new exchanges until the running ones completed
+        ExchangeGate exchangeGate = new ExchangeGate();
+        objectDataReplyHandler.setExchangeGate(exchangeGate);
+
         this.fileSyncer = new FileSyncer(
                 this.node.getUser(),
                 this.node,
@@ -284,21 +340,32 @@ public class Sync {
                 globalEventBus
         );
 
+        this.fileSyncer.setIdentifierCache(this.identifierCache);
+        this.fileSyncer.setNodeLocationCache(this.nodeLocationCache);
         globalEventBus.subscribe(fileSyncer);
 
         // Add sync file change listener to event aggregator
         this.syncFileChangeListener = new SyncFileChangeListener(fileSyncer);
+        this.syncFileChangeListener.setExchangeGate(exchangeGate);
         ExecutorService executorService = Executors.newSingleThreadExecutor();
         executorService.execute(syncFileChangeListener);
 
         globalEventBus.subscribe(syncFileChangeListener);
 
-        IEventListener objectStoreFileChangeListener = new ObjectStoreFileChangeListener(objectStore);
+        PathHashTree pathHashTree = new PathHashTree();
+        ObjectStoreFileChangeListener objectStoreFileChangeListener = new ObjectStoreFileChangeListener(objectStore, pathHashTree);
+        objectStoreFileChangeListener.setAccessManager(accessManager);
         globalEventBus.subscribe(objectStoreFileChangeListener);
 
+        List<IEventListener> nodeEventListeners = new ArrayList<>();
+        nodeEventListeners.add(objectStoreFileChangeListener);
+        nodeEventListeners.add(syncFileChangeListener);
+
+        // events are recorded as dirty paths instead while the background syncer merges the object stores
+        SyncWindowEventListener syncWindowEventListener = new SyncWindowEventListener(nodeEventListeners);
+
         List<IEventListener> eventListeners = new ArrayList<>();
-        eventListeners.add(objectStoreFileChangeListener);
-        eventListeners.add(syncFileChangeListener);
+        eventListeners.add(syncWindowEventListener);
 
         // Init event aggregator
         List<Path> ignoredPaths = new ArrayList<>();
@@ -307,6 +374,14 @@ public class Sync {
                         .relativize(Paths.get(this.storageAdapter.getRootDir().getPath()).resolve(Config.DEFAULT.getOsFolderName()))
         );
 
+        try {
+            pathHashTree.build(this.storageAdapter, objectStore, ignoredPaths);
+        } catch (InputOutputException e) {
+            throw new InitializationStartException(e);
+        }
+
+        objectDataReplyHandler.setPathHashTree(pathHashTree);
+
         EventAggregatorInitializer eventAggregatorInitializer = new EventAggregatorInitializer(
                 this.storageAdapter,
                 objectStore,
@@ -320,7 +395,7 @@ public class Sync {
 
         objectDataReplyHandler.setEventAggregator(this.eventAggregator);
 
-        IBackgroundSyncer backgroundSyncer = new NonBlockingBackgroundSyncer(
+        NonBlockingBackgroundSyncer backgroundSyncer = new NonBlockingBackgroundSyncer(
                 this.eventAggregator,
                 this.node,
                 this.nodeManager,
@@ -328,8 +403,17 @@ public class Sync {
                 this.storageAdapter,
                 globalEventBus,
                 ignoredPaths,
-                applicationConfig.getIgnorePatterns()
+                applicationConfig.getIgnorePatterns(),
+                pathHashTree
         );
+        backgroundSyncer.setAccessManager(accessManager);
+        backgroundSyncer.setIdentifierCache(this.identifierCache);
+        backgroundSyncer.setNodeLocationCache(this.nodeLocationCache);
+        backgroundSyncer.setExchangeGate(exchangeGate);
+        backgroundSyncer.setSyncWindowEventListener(syncWindowEventListener);
+        backgroundSyncer.setDirtyPaths(new DirtyPathSet(
+                Paths.get(this.storageAdapter.getRootDir().getPath()).resolve(Config.DEFAULT.getOsFolderName()).resolve(Config.DEFAULT.getDirtyPathsName())
+        ));
 
         this.sharingSyncer = new SharingSyncer(
                 this.node,
@@ -337,10 +421,15 @@ public class Sync {
                 this.storageAdapter,
                 objectStore
         );
+        this.sharingSyncer.setAccessManager(accessManager);
+        this.sharingSyncer.setIdentifierCache(this.identifierCache);
+        this.sharingSyncer.setNodeLocationCache(this.nodeLocationCache);
 
-        // start the background syncer as first task, then reconcile every 5 minutes
+        // start the background syncer as first task, then reconcile adaptively
         this.backgroundSyncerExecutorService = Executors.newSingleThreadScheduledExecutor();
-        this.backgroundSyncerExecutorService.scheduleAtFixedRate(backgroundSyncer, 0L, 300L, TimeUnit.SECONDS);
+        this.backgroundSyncScheduler = new BackgroundSyncScheduler(backgroundSyncer, this.backgroundSyncerExecutorService);
+        globalEventBus.subscribe(this.backgroundSyncScheduler);
+        this.backgroundSyncScheduler.start();
 
         // now set the peer address once we know it
         return new NodeLocation(
@@ -357,13 +446,26 @@ public class Sync {
      * <li>Background Syncer</li>
      * <li>Event Aggregator</li>
      * <li>Sync File Change Listener</li>
+     * <li>Identifier Cache, which is persisted</li>
      * <li>Node</li>
      * </ol>
      */
     public void shutdown() {
+        this.backgroundSyncScheduler.stop();
         this.backgroundSyncerExecutorService.shutdownNow();
         this.eventAggregator.stop();
         this.syncFileChangeListener.shutdown();
+
+        if (this.node.getObjectDataReplyHandler() instanceof LocalStateObjectDataReplyHandler) {
+            ((LocalStateObjectDataReplyHandler) this.node.getObjectDataReplyHandler()).getRequestCallbackExecutor().shutdown();
+        }
+
+        try {
+            this.identifierCache.persist();
+        } catch (IOException e) {
+            logger.warn("Failed to persist the identifier cache. Message: " + e.getMessage());
+        }
+
         this.node.shutdown();
     }
 
@@ -409,6 +511,26 @@ public class Sync {
         return this.backgroundSyncerExecutorService;
     }
 
+    /**
+     * Get the scheduler of the Background Syncer.
+     * <b>Note</b>: This method may return null before the node is connected.
+     *
+     * @return The scheduler of the Background Syncer or null, if this peer is not yet connected
+     */
+    public BackgroundSyncScheduler getBackgroundSyncScheduler() {
+        return this.backgroundSyncScheduler;
+    }
+
+    /**
+     * Get the cache of the client locations of users.
+     * <b>Note</b>: This method may return null before the node is connected.
+     *
+     * @return The node location cache or null, if this peer is not yet connected
+     */
+    public NodeLocationCache getNodeLocationCache() {
+        return this.nodeLocationCache;
+    }
+
     /**
      * Get the object store of the synchronised folder.
      * <b>Note</b>: This method may return null before the node is connected.
@@ -1,7 +1,9 @@
 package org.rmatil.sync.core;
 
+import org.rmatil.sync.core.config.Config;
 import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreExchangeHandlerResult;
 import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreResponse;
+import org.rmatil.sync.core.syncer.background.fetchobjectstore.ObjectStoreManifest;
 import org.rmatil.sync.network.core.model.ClientDevice;
 import org.rmatil.sync.persistence.api.StorageType;
 import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
@@ -13,15 +15,11 @@ import org.rmatil.sync.version.core.ObjectStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -33,6 +31,11 @@ public class Zip {
 
     private static final Logger logger = LoggerFactory.getLogger(Zip.class);
 
+    /**
+     * The maximum number of bytes of a single file which are held in memory while zipping or unzipping
+     */
+    public static final int SEGMENT_SIZE = 64 * 1024; // 64KB
+
     /**
      * Zips the given object store and returns the zip archive in bytes
      *
@@ -47,12 +50,44 @@ public class Zip {
             throws IOException, InputOutputException {
 
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        zipObjectStore(objectStore, byteArrayOutputStream);
+
+        byteArrayOutputStream.flush();
+        byte[] zipFile = byteArrayOutputStream.toByteArray();
+        byteArrayOutputStream.close();
+
+        return zipFile;
+    }
+
+    /**
+     * Zips the given object store and writes the zip archive to the given stream.
+     * Files are read in segments of {@link Zip#SEGMENT_SIZE}, i.e.
+     * the memory used does not depend on the size of the object store.
+     *
+     * @param objectStore  The object store to zip
+     * @param outputStream The stream to write the zip archive to. It is closed afterwards
+     *
+     * @throws IOException          If creating the ZipOutputStream fails
+     * @throws InputOutputException If reading the object store using its storageAdapter fails
+     */
+    public static void zipObjectStore(IObjectStore objectStore, OutputStream outputStream)
+            throws IOException, InputOutputException {
+
         ITreeStorageAdapter objectStorageAdapter = objectStore.getObjectManager().getStorageAdapater();
 
         List<TreePathElement> directoryContents = objectStorageAdapter.getDirectoryContents(new TreePathElement("."));
 
-        try (ZipOutputStream zipOutputStream = new ZipOutputStream(byteArrayOutputStream)) {
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
             for (TreePathElement pathElement : directoryContents) {
+                // only the index and the objects belong to the object store,
+                // the kept copies of the other clients' object stores do not
+                Path relativePath = Paths.get(pathElement.getPath()).normalize();
+                String rootName = 0 < relativePath.getNameCount() ? relativePath.getName(0).toString() : "";
+                if (! rootName.equals(Config.DEFAULT.getOsIndexName()) &&
+                        ! rootName.equals(Config.DEFAULT.getOsObjectFolderName())) {
+                    continue;
+                }
+
                 // zip entries are only detected as directories if they are ending
                 // with a slash..?!?
 
@@ -68,23 +103,80 @@ public class Zip {
                 zipOutputStream.putNextEntry(zipEntry);
 
                 if (objectStorageAdapter.isFile(pathElement)) {
-                    zipOutputStream.write(objectStorageAdapter.read(pathElement));
+                    write(objectStorageAdapter, pathElement, zipOutputStream);
                 }
 
                 zipOutputStream.closeEntry();
             }
         }
+    }
 
-        byteArrayOutputStream.flush();
-        byte[] zipFile = byteArrayOutputStream.toByteArray();
-        byteArrayOutputStream.close();
+    /**
+     * Zips only the given files of the object store and writes the zip archive to the given stream.
+     * The parent directories of the files are added as well.
+     *
+     * @param objectStore  The object store of which to zip the files
+     * @param paths        The paths of the files to zip, relative to the folder of the object store
+     * @param outputStream The stream to write the zip archive to. It is closed afterwards
+     *
+     * @throws IOException          If creating the ZipOutputStream fails
+     * @throws InputOutputException If reading the object store using its storageAdapter fails
+     */
+    public static void zipObjectStore(IObjectStore objectStore, Collection<String> paths, OutputStream outputStream)
+            throws IOException, InputOutputException {
 
-        return zipFile;
+        ITreeStorageAdapter objectStorageAdapter = objectStore.getObjectManager().getStorageAdapater();
+
+        // parents have to be extracted before their children
+        Set<String> directories = new TreeSet<>();
+        for (String path : paths) {
+            Path parent = Paths.get(path).getParent();
+            while (null != parent) {
+                directories.add(parent.toString());
+                parent = parent.getParent();
+            }
+        }
+
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+            for (String directory : directories) {
+                zipOutputStream.putNextEntry(new ZipEntry(directory.concat("/")));
+                zipOutputStream.closeEntry();
+            }
+
+            for (String path : paths) {
+                zipOutputStream.putNextEntry(new ZipEntry(path));
+                write(objectStorageAdapter, new TreePathElement(path), zipOutputStream);
+                zipOutputStream.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Writes the content of the given file segment by segment to the given stream
+     *
+     * @param storageAdapter The storage adapter to read the file from
+     * @param pathElement    The file to write
+     * @param outputStream   The stream to write to
+     *
+     * @throws IOException          If writing to the stream fails
+     * @throws InputOutputException If reading the file fails
+     */
+    protected static void write(ITreeStorageAdapter storageAdapter, TreePathElement pathElement, OutputStream outputStream)
+            throws IOException, InputOutputException {
+        long totalFileSize = storageAdapter.getMetaInformation(pathElement).getTotalFileSize();
+
+        for (long offset = 0; offset < totalFileSize; offset += SEGMENT_SIZE) {
+            int length = (int) Math.min(SEGMENT_SIZE, totalFileSize - offset);
+            outputStream.write(storageAdapter.read(pathElement, offset, length));
+        }
     }
 
     /**
      * Unzips the given object store and creates its instance in the given object store's folder.
-     * Each client has gets its own object store, which is identified by the clients id
+     * Each client has gets its own object store, which is identified by the clients id.
+     * The extracted object stores are kept to allow fetching only their changes in the next synchronisation.
+     * If a response is a delta, all files of its stale buckets are replaced in the existing copy,
+     * otherwise, the existing copy is replaced completely.
      *
      * @param objectStore The object store of which we use its folder to extract the other object stores
      * @param result      The fetch object store result having the zipped object stores in it
@@ -97,24 +189,50 @@ public class Zip {
         ITreeStorageAdapter objectStoreStorageAdapter = objectStore.getObjectManager().getStorageAdapater();
 
         for (FetchObjectStoreResponse response : result.getResponses()) {
+            if (null == response.getObjectStore() && null == result.getArchive(response.getClientDevice().getClientDeviceId())) {
+                logger.trace("Client " + response.getClientDevice().getClientDeviceId() + " did not send an object store");
+                continue;
+            }
+
             try {
                 logger.trace("Creating object store directory for client " + response.getClientDevice().getClientDeviceId());
                 // path is .sync/<ClientDevice>
                 Path objectStorePath = Paths.get(response.getClientDevice().getClientDeviceId().toString());
-                objectStoreStorageAdapter.persist(StorageType.DIRECTORY, new TreePathElement(objectStorePath.toString()), null);
+                TreePathElement objectStoreElement = new TreePathElement(objectStorePath.toString());
+
+                if (! response.isDelta() && objectStoreStorageAdapter.exists(StorageType.DIRECTORY, objectStoreElement)) {
+                    // an outdated copy must not survive a complete transfer
+                    objectStoreStorageAdapter.delete(objectStoreElement);
+                }
+
+                if (! objectStoreStorageAdapter.exists(StorageType.DIRECTORY, objectStoreElement)) {
+                    objectStoreStorageAdapter.persist(StorageType.DIRECTORY, objectStoreElement, null);
+                }
 
                 // create .sync folder in it
-                objectStoreStorageAdapter.persist(StorageType.DIRECTORY, new TreePathElement(objectStorePath.resolve(".sync").toString()), null);
+                TreePathElement syncFolderElement = new TreePathElement(objectStorePath.resolve(".sync").toString());
+                if (! objectStoreStorageAdapter.exists(StorageType.DIRECTORY, syncFolderElement)) {
+                    objectStoreStorageAdapter.persist(StorageType.DIRECTORY, syncFolderElement, null);
+                }
 
                 // create storage adapter for object store
                 ITreeStorageAdapter localStorageAdapter = new LocalStorageAdapter(
                         Paths.get(objectStoreStorageAdapter.getRootDir().getPath()).resolve(objectStorePath).resolve(".sync")
                 );
 
+                if (response.isDelta()) {
+                    logger.trace("Removing " + response.getStaleBuckets().size() + " stale buckets of the object store of client " + response.getClientDevice().getClientDeviceId());
+                    ObjectStoreManifest manifest = new ObjectStoreManifest(localStorageAdapter);
+                    for (String stalePath : manifest.getPaths(response.getStaleBuckets())) {
+                        localStorageAdapter.delete(new TreePathElement(stalePath));
+                    }
+                }
 
                 logger.trace("Extracting zip file from client " + response.getClientDevice().getClientDeviceId());
 
-                ByteArrayInputStream inputStream = new ByteArrayInputStream(response.getObjectStore());
+                // large object stores are received in chunks and written to an archive file
+                Path archive = result.getArchive(response.getClientDevice().getClientDeviceId());
+                InputStream inputStream = null == archive ? new ByteArrayInputStream(response.getObjectStore()) : Files.newInputStream(archive);
                 ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(inputStream));
 
                 // actually unzip
@@ -183,22 +301,12 @@ public class Zip {
      */
     protected static void unzip(ZipInputStream zipInputStream, ITreeStorageAdapter storageAdapter)
             throws IOException, InputOutputException {
+        byte[] segment = new byte[SEGMENT_SIZE];
+
         ZipEntry entry;
         while ((entry = zipInputStream.getNextEntry()) != null) {
             logger.trace("Extracting " + entry);
 
-            int count;
-            byte data[] = new byte[2048];
-
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
-            while ((count = zipInputStream.read(data, 0, 2048)) != - 1) {
-                outputStream.write(data, 0, count);
-            }
-
-            outputStream.flush();
-            outputStream.close();
-
             if (entry.isDirectory()) {
                 // zip entries rely on an ending slash to detect directories,
                 // therefore, we remove them before writing to disk
@@ -208,12 +316,54 @@ public class Zip {
                     path = path.substring(0, path.length() - 1);
                 }
 
-                storageAdapter.persist(StorageType.DIRECTORY, new TreePathElement(path), null);
-            } else {
-                storageAdapter.persist(StorageType.FILE, new TreePathElement(entry.getName()), outputStream.toByteArray());
+                // directories may already exist when applying a delta
+                TreePathElement directoryElement = new TreePathElement(path);
+                if (! storageAdapter.exists(StorageType.DIRECTORY, directoryElement)) {
+                    storageAdapter.persist(StorageType.DIRECTORY, directoryElement, null);
+                }
+
+                continue;
             }
+
+            // write the file segment by segment instead of buffering it completely
+            TreePathElement fileElement = new TreePathElement(entry.getName());
+            long offset = 0;
+            int length;
+            do {
+                length = fill(zipInputStream, segment);
+
+                if (0 == offset) {
+                    // creates the file, even if it is empty
+                    storageAdapter.persist(StorageType.FILE, fileElement, Arrays.copyOf(segment, length));
+                } else if (0 < length) {
+                    storageAdapter.persist(StorageType.FILE, fileElement, offset, Arrays.copyOf(segment, length));
+                }
+
+                offset += length;
+            } while (length == segment.length);
         }
 
         zipInputStream.close();
     }
+
+    /**
+     * Reads from the given stream until the buffer is full or the stream is exhausted
+     *
+     * @param inputStream The stream to read from
+     * @param buffer      The buffer to fill
+     *
+     * @return The number of bytes read
+     *
+     * @throws IOException If reading fails
+     */
+    protected static int fill(InputStream inputStream, byte[] buffer)
+            throws IOException {
+        int length = 0;
+        int count;
+        while (length < buffer.length && (count = inputStream.read(buffer, length, buffer.length - length)) != - 1) {
+            length += count;
+        }
+
+        return length;
+    }
 }
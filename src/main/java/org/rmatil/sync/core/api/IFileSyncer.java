@@ -2,6 +2,8 @@ package org.rmatil.sync.core.api;
 
 import org.rmatil.sync.event.aggregator.core.events.IEvent;
 
+import java.util.List;
+
 /**
  * A synchroniser which propagates file system events to other clients
  */
@@ -14,4 +16,13 @@ public interface IFileSyncer {
      */
     void sync(IEvent event);
 
+    /**
+     * Syncs the given events to other clients.
+     * The events must not depend on each other, i.e.
+     * they may be synced in any order.
+     *
+     * @param events The events to sync
+     */
+    void sync(List<IEvent> events);
+
 }
@@ -1,7 +1,7 @@
 package org.rmatil.sync.core.config;
 
 public enum Config {
-    DEFAULT(".sync", "config", 0L, 20000L, 20000L, 5000L, 4003, "index.json", "object", "sharedWithOthers (read-only)", "sharedWithOthers (read-write)");
+    DEFAULT(".sync", "config", 0L, 20000L, 20000L, 5000L, 4003, "index.json", "object", "sharedWithOthers (read-only)", "sharedWithOthers (read-write)", 4, 32, 1024, false, 60000L, 4, "identifiers.json", 30000L, 1, "dirtyPaths.json");
 
     private String osFolderName;
 
@@ -25,7 +25,27 @@ public enum Config {
 
     private String sharedWithOthersReadWriteFolderName;
 
-    Config(String osFolderName, String configFileName, long cacheTtl, long peerDiscoveryTimeout, long peerBootstrapTimeout, long shutdownAnnounceTimeout, int defaultPort, String osIndexName, String osObjectFolderName, String sharedWithOthersReadOnlyFolderName, String sharedWithOthersReadWriteFolderName) {
+    private int numberOfSyncWorkers;
+
+    private int numberOfRequestWorkers;
+
+    private int maxPendingRequests;
+
+    private boolean useVirtualRequestThreads;
+
+    private long eventSuppressionTtl;
+
+    private int numberOfConcurrentDownloads;
+
+    private String identifierCacheName;
+
+    private long nodeLocationCacheTtl;
+
+    private int chunkCompressionLevel;
+
+    private String dirtyPathsName;
+
+    Config(String osFolderName, String configFileName, long cacheTtl, long peerDiscoveryTimeout, long peerBootstrapTimeout, long shutdownAnnounceTimeout, int defaultPort, String osIndexName, String osObjectFolderName, String sharedWithOthersReadOnlyFolderName, String sharedWithOthersReadWriteFolderName, int numberOfSyncWorkers, int numberOfRequestWorkers, int maxPendingRequests, boolean useVirtualRequestThreads, long eventSuppressionTtl, int numberOfConcurrentDownloads, String identifierCacheName, long nodeLocationCacheTtl, int chunkCompressionLevel, String dirtyPathsName) {
         this.osFolderName = osFolderName;
         this.configFileName = configFileName;
         this.cacheTtl = cacheTtl;
@@ -37,6 +57,16 @@ public enum Config {
         this.osObjectFolderName = osObjectFolderName;
         this.sharedWithOthersReadOnlyFolderName = sharedWithOthersReadOnlyFolderName;
         this.sharedWithOthersReadWriteFolderName = sharedWithOthersReadWriteFolderName;
+        this.numberOfSyncWorkers = numberOfSyncWorkers;
+        this.numberOfRequestWorkers = numberOfRequestWorkers;
+        this.maxPendingRequests = maxPendingRequests;
+        this.useVirtualRequestThreads = useVirtualRequestThreads;
+        this.eventSuppressionTtl = eventSuppressionTtl;
+        this.numberOfConcurrentDownloads = numberOfConcurrentDownloads;
+        this.identifierCacheName = identifierCacheName;
+        this.nodeLocationCacheTtl = nodeLocationCacheTtl;
+        this.chunkCompressionLevel = chunkCompressionLevel;
+        this.dirtyPathsName = dirtyPathsName;
     }
 
     public String getOsFolderName() {
@@ -82,4 +112,44 @@ public enum Config {
     public String getSharedWithOthersReadWriteFolderName() {
         return sharedWithOthersReadWriteFolderName;
     }
+
+    public int getNumberOfSyncWorkers() {
+        return numberOfSyncWorkers;
+    }
+
+    public int getNumberOfRequestWorkers() {
+        return numberOfRequestWorkers;
+    }
+
+    public int getMaxPendingRequests() {
+        return maxPendingRequests;
+    }
+
+    public boolean useVirtualRequestThreads() {
+        return useVirtualRequestThreads;
+    }
+
+    public long getEventSuppressionTtl() {
+        return eventSuppressionTtl;
+    }
+
+    public int getNumberOfConcurrentDownloads() {
+        return numberOfConcurrentDownloads;
+    }
+
+    public String getIdentifierCacheName() {
+        return identifierCacheName;
+    }
+
+    public long getNodeLocationCacheTtl() {
+        return nodeLocationCacheTtl;
+    }
+
+    public int getChunkCompressionLevel() {
+        return chunkCompressionLevel;
+    }
+
+    public String getDirtyPathsName() {
+        return dirtyPathsName;
+    }
 }
@@ -0,0 +1,44 @@
+package org.rmatil.sync.core.eventbus;
+
+import org.rmatil.sync.event.aggregator.core.events.IEvent;
+
+/**
+ * Hints that the clients may have diverged, e.g. because another
+ * client joined or exchanges with other clients failed.
+ * The background sync may be scheduled earlier on such hints.
+ */
+public class BackgroundSyncHintBusEvent implements IBusEvent {
+
+    public enum Reason {
+        /**
+         * A client has been seen for the first time, from another address
+         * or after a long time without any request
+         */
+        CLIENT_JOINED,
+
+        /**
+         * Another client denied an exchange
+         */
+        EXCHANGE_DENIED,
+
+        /**
+         * Another client did not respond to an exchange in time
+         */
+        EXCHANGE_TIMED_OUT
+    }
+
+    protected Reason reason;
+
+    public BackgroundSyncHintBusEvent(Reason reason) {
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    @Override
+    public IEvent getEvent() {
+        return null;
+    }
+}
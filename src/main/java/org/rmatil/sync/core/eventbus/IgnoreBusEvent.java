@@ -13,15 +13,38 @@ public class IgnoreBusEvent implements IBusEvent {
      */
     protected IEvent event;
 
+    /**
+     * Whether events for all paths below the path of the event should be ignored too
+     */
+    protected boolean isSubtree;
+
     /**
      * @param event The event to ignore during the synchronization
      */
     public IgnoreBusEvent(IEvent event) {
+        this(event, false);
+    }
+
+    /**
+     * @param event     The event to ignore during the synchronization
+     * @param isSubtree Whether events with the same name for all paths below the path of the event should be ignored too
+     */
+    public IgnoreBusEvent(IEvent event, boolean isSubtree) {
         this.event = event;
+        this.isSubtree = isSubtree;
     }
 
     @Override
     public IEvent getEvent() {
         return this.event;
     }
+
+    /**
+     * Returns whether events for all paths below the path of the event should be ignored too
+     *
+     * @return True, if the whole subtree should be ignored
+     */
+    public boolean isSubtree() {
+        return isSubtree;
+    }
 }
@@ -0,0 +1,18 @@
+package org.rmatil.sync.core.init.client;
+
+import org.rmatil.sync.core.IdentifierCache;
+
+/**
+ * An interface for a {@link ILocalStateRequestCallback}
+ * which looks up or changes file ids using the {@link IdentifierCache} of the node.
+ */
+public interface IIdentifierCacheRequestCallback extends ILocalStateRequestCallback {
+
+    /**
+     * Set the identifier cache of the node
+     *
+     * @param identifierCache The identifier cache
+     */
+    void setIdentifierCache(IdentifierCache identifierCache);
+
+}
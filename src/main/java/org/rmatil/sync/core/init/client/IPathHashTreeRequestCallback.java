@@ -0,0 +1,18 @@
+package org.rmatil.sync.core.init.client;
+
+import org.rmatil.sync.core.init.objecstore.PathHashTree;
+
+/**
+ * An interface for a {@link ILocalStateRequestCallback}
+ * which additionally uses the {@link PathHashTree} of the synchronised folder.
+ */
+public interface IPathHashTreeRequestCallback extends ILocalStateRequestCallback {
+
+    /**
+     * Set the hash tree of the synchronised folder
+     *
+     * @param pathHashTree The hash tree, may be null if none is maintained
+     */
+    void setPathHashTree(PathHashTree pathHashTree);
+
+}
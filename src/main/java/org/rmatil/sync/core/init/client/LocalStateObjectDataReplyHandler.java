@@ -1,15 +1,50 @@
 package org.rmatil.sync.core.init.client;
 
 import net.engio.mbassy.bus.MBassador;
+import net.engio.mbassy.listener.Handler;
 import net.tomp2p.peers.PeerAddress;
+import org.rmatil.sync.core.ExchangeGate;
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.core.config.Config;
+import org.rmatil.sync.core.eventbus.BackgroundSyncHintBusEvent;
 import org.rmatil.sync.core.eventbus.IBusEvent;
+import org.rmatil.sync.core.init.objecstore.PathHashTree;
 import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.BundledFile;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleRequest;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleRequestHandler;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleResponse;
+import org.rmatil.sync.core.messaging.fileexchange.delete.FileDeleteRequest;
+import org.rmatil.sync.core.messaging.fileexchange.delete.FileDeleteResponse;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileDeltaRequest;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileDeltaRequestHandler;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileDeltaResponse;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileSignatureRequest;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileSignatureResponse;
 import org.rmatil.sync.core.messaging.fileexchange.demand.FileDemandRequest;
 import org.rmatil.sync.core.messaging.fileexchange.demand.FileDemandResponse;
+import org.rmatil.sync.core.messaging.fileexchange.move.FileMoveRequest;
+import org.rmatil.sync.core.messaging.fileexchange.move.FileMoveResponse;
+import org.rmatil.sync.core.messaging.fileexchange.offer.BatchFileOfferRequest;
+import org.rmatil.sync.core.messaging.fileexchange.offer.BatchFileOfferResponse;
+import org.rmatil.sync.core.messaging.fileexchange.offer.FileOffer;
 import org.rmatil.sync.core.messaging.fileexchange.offer.FileOfferRequest;
 import org.rmatil.sync.core.messaging.fileexchange.offer.FileOfferResponse;
+import org.rmatil.sync.core.messaging.fileexchange.push.FilePushRequest;
 import org.rmatil.sync.core.messaging.fileexchange.push.FilePushRequestHandler;
+import org.rmatil.sync.core.messaging.fileexchange.push.FilePushResponse;
+import org.rmatil.sync.core.messaging.sharingexchange.share.ShareRequest;
+import org.rmatil.sync.core.messaging.sharingexchange.share.ShareResponse;
+import org.rmatil.sync.core.messaging.sharingexchange.shared.SharedRequest;
+import org.rmatil.sync.core.messaging.sharingexchange.shared.SharedResponse;
+import org.rmatil.sync.core.messaging.sharingexchange.unshare.UnshareRequest;
+import org.rmatil.sync.core.messaging.sharingexchange.unshare.UnshareResponse;
+import org.rmatil.sync.core.messaging.sharingexchange.unshared.UnsharedRequest;
+import org.rmatil.sync.core.messaging.sharingexchange.unshared.UnsharedResponse;
 import org.rmatil.sync.core.security.IAccessManager;
+import org.rmatil.sync.core.syncer.background.BackgroundSyncScheduler;
+import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreRequest;
+import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreResponse;
 import org.rmatil.sync.event.aggregator.api.IEventAggregator;
 import org.rmatil.sync.network.api.*;
 import org.rmatil.sync.network.core.ANetworkHandler;
@@ -19,32 +54,80 @@ import org.rmatil.sync.network.core.model.NodeLocation;
 import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
 import org.rmatil.sync.version.api.IObjectStore;
 
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Maps incoming {@link IRequest} resp. {@link IResponse} with
  * their associated callback, i.e. {@link ILocalStateRequestCallback} resp. {@link ILocalStateResponseCallback}.
- * Each callback is executed in its own thread, allowing concurrent information to be handled.
+ * Callbacks are executed concurrently by a {@link RequestCallbackExecutor}, allowing concurrent information to be handled.
+ * If too many requests are pending, further requests are deferred and new offers are denied until some have completed.
  * <p>
  * If a incoming object can not be handled by any of the registered callbacks, <code>null</code> is returned
  * to the originating node.
  * <p>
  * {@link ILocalStateResponseCallback} can define a list of file paths which are affected of
  * the operation. If any other request affects such an element, it gets denied, forcing the
- * originating node to send the request again.
+ * originating node to send the request again. The same applies to all offers
+ * while the {@link ExchangeGate} is closed by a forced background synchronisation.
  */
 public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
 
+    /**
+     * The request callbacks which write files into the synced folder
+     */
+    protected static final List<Class<? extends IRequestCallback>> WRITING_REQUEST_CALLBACKS = Arrays.asList(
+            FilePushRequestHandler.class,
+            FileBundleRequestHandler.class,
+            FileDeltaRequestHandler.class
+    );
+
+    /**
+     * The time in milliseconds after which a client device without any request is considered gone.
+     * Online clients send requests at least on each of their background synchronisations
+     */
+    protected static final long CLIENT_DEVICE_INACTIVITY_TIMEOUT = 2 * BackgroundSyncScheduler.MAX_INTERVAL;
+
     protected ITreeStorageAdapter  storageAdapter;
     protected IObjectStore         objectStore;
     protected MBassador<IBusEvent> globalEventBus;
     protected IEventAggregator     eventAggregator;
     protected INodeManager         nodeManager;
     protected IAccessManager       accessManager;
+    protected PathHashTree         pathHashTree;
+
+    /**
+     * The cache of the file ids of the node, may be null
+     */
+    protected IdentifierCache identifierCache;
+
+    /**
+     * The paths affected by the exchanges currently in progress
+     */
+    protected PathLeaseTable pathLeases = new PathLeaseTable();
 
-    protected Map<String, Set<UUID>> pathsInProgress = new HashMap<>();
+    /**
+     * The gate holding back new exchanges while the background syncer drains running exchanges, may be null
+     */
+    protected ExchangeGate exchangeGate;
+
+    /**
+     * Runs the request callbacks on a bounded number of threads
+     */
+    protected RequestCallbackExecutor requestCallbackExecutor;
+
+    /**
+     * The constructors of the request callbacks, looked up once per callback class
+     */
+    protected Map<Class<? extends IRequestCallback>, Constructor<? extends IRequestCallback>> callbackConstructors = new ConcurrentHashMap<>();
+
+    /**
+     * The client devices from which requests have been received
+     * with the address and time of their last request
+     */
+    protected Map<UUID, SeenClientDevice> knownClientDevices = new ConcurrentHashMap<>();
 
     public LocalStateObjectDataReplyHandler(ITreeStorageAdapter storageAdapter, IObjectStore objectStore, INode node, MBassador<IBusEvent> globalEventBus, IEventAggregator eventAggregator, INodeManager nodeManager, IAccessManager accessManager, Map<UUID, IResponseCallback> responseCallbackHandlers, Map<Class<? extends IRequest>, Class<? extends IRequestCallback>> requestCallbackHandlers) {
         super(node, responseCallbackHandlers, requestCallbackHandlers);
@@ -54,6 +137,11 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
         this.eventAggregator = eventAggregator;
         this.nodeManager = nodeManager;
         this.accessManager = accessManager;
+        this.requestCallbackExecutor = new RequestCallbackExecutor(
+                Config.DEFAULT.getNumberOfRequestWorkers(),
+                Config.DEFAULT.getMaxPendingRequests(),
+                Config.DEFAULT.useVirtualRequestThreads()
+        );
     }
 
     public LocalStateObjectDataReplyHandler(ITreeStorageAdapter storageAdapter, IObjectStore objectStore, INode client, MBassador<IBusEvent> globalEventBus, IEventAggregator eventAggregator, INodeManager nodeManager, IAccessManager accessManager) {
@@ -64,6 +152,11 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
         this.eventAggregator = eventAggregator;
         this.nodeManager = nodeManager;
         this.accessManager = accessManager;
+        this.requestCallbackExecutor = new RequestCallbackExecutor(
+                Config.DEFAULT.getNumberOfRequestWorkers(),
+                Config.DEFAULT.getMaxPendingRequests(),
+                Config.DEFAULT.useVirtualRequestThreads()
+        );
     }
 
     public void setNode(INode client) {
@@ -78,6 +171,45 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
         this.nodeManager = nodeManager;
     }
 
+    public void setPathHashTree(PathHashTree pathHashTree) {
+        this.pathHashTree = pathHashTree;
+    }
+
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
+    public void setExchangeGate(ExchangeGate exchangeGate) {
+        this.exchangeGate = exchangeGate;
+    }
+
+    public void setRequestCallbackExecutor(RequestCallbackExecutor requestCallbackExecutor) {
+        this.requestCallbackExecutor = requestCallbackExecutor;
+    }
+
+    /**
+     * Returns the executor running the request callbacks, e.g. to inspect its queue depth
+     *
+     * @return The request callback executor
+     */
+    public RequestCallbackExecutor getRequestCallbackExecutor() {
+        return requestCallbackExecutor;
+    }
+
+    /**
+     * Returns the cache of the file ids of the node. If none has been set,
+     * a cache is created which is not persisted
+     *
+     * @return The identifier cache
+     */
+    public synchronized IdentifierCache getIdentifierCache() {
+        if (null == this.identifierCache) {
+            this.identifierCache = new IdentifierCache(this.node);
+        }
+
+        return identifierCache;
+    }
+
     /**
      * Add a response callback for a particular file.
      * This ensures that if a file offer request is received for the same file
@@ -95,13 +227,7 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
 
         if (responseCallback instanceof ILocalStateResponseCallback) {
             for (String entry : ((ILocalStateResponseCallback) responseCallback).getAffectedFilePaths()) {
-                Set<UUID> exchangesInProgress = this.pathsInProgress.get(entry);
-
-                if (null == exchangesInProgress) {
-                    exchangesInProgress = new HashSet<>();
-                }
-
-                exchangesInProgress.add(requestExchangeId);
+                this.pathLeases.acquire(requestExchangeId, entry);
             }
         }
     }
@@ -119,12 +245,40 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
     public void removeResponseCallbackHandler(UUID requestExchangeId) {
         super.removeResponseCallbackHandler(requestExchangeId);
 
-        for (Map.Entry<String, Set<UUID>> entry : this.pathsInProgress.entrySet()) {
-            Set<UUID> exchangeIdsInProgress = entry.getValue();
+        this.pathLeases.release(requestExchangeId);
+    }
 
-            if (null != exchangeIdsInProgress && exchangeIdsInProgress.contains(requestExchangeId)) {
-                exchangeIdsInProgress.remove(requestExchangeId);
-            }
+    /**
+     * Hints the background syncer to run soon if the given client device (re)joined, i.e.
+     * it sends its first request, it sends from another address than before or it did not send
+     * any request for longer than {@link LocalStateObjectDataReplyHandler#CLIENT_DEVICE_INACTIVITY_TIMEOUT}
+     *
+     * @param clientDevice The client device which sent a request
+     */
+    protected void registerClientDevice(ClientDevice clientDevice) {
+        if (null == clientDevice || null == this.globalEventBus || this.node.getClientDeviceId().equals(clientDevice.getClientDeviceId())) {
+            return;
+        }
+
+        SeenClientDevice seenClientDevice = new SeenClientDevice(clientDevice.getPeerAddress(), System.currentTimeMillis());
+        SeenClientDevice previouslySeenClientDevice = this.knownClientDevices.put(clientDevice.getClientDeviceId(), seenClientDevice);
+
+        if (null == previouslySeenClientDevice || previouslySeenClientDevice.hasRejoined(seenClientDevice)) {
+            this.globalEventBus.publish(new BackgroundSyncHintBusEvent(BackgroundSyncHintBusEvent.Reason.CLIENT_JOINED));
+        }
+    }
+
+    /**
+     * Forgets all known client devices if an exchange timed out, since any of them may have left.
+     * The next request of each client device is then treated as a join.
+     *
+     * @param event The hint published on the global event bus
+     */
+    @Handler
+    public void handleHint(BackgroundSyncHintBusEvent event) {
+        if (BackgroundSyncHintBusEvent.Reason.EXCHANGE_TIMED_OUT.equals(event.getReason())) {
+            logger.debug("Forgetting " + this.knownClientDevices.size() + " known client devices since an exchange timed out");
+            this.knownClientDevices.clear();
         }
     }
 
@@ -133,32 +287,100 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
 
         // forward the request to the correct data reply instance
         if (request instanceof IRequest) {
+            this.registerClientDevice(((IRequest) request).getClientDevice());
 
             // check if any other exchange is in progress
 
             if (request instanceof FileOfferRequest) {
                 FileOfferRequest fileOfferRequest = (FileOfferRequest) request;
 
-                if (! this.exchangeInProgress(fileOfferRequest.getExchangeId(), fileOfferRequest.getEvent().getPath()) &&
-                        this.affectedFileIsInProgress(fileOfferRequest.getEvent().getPath())) {
+                if (this.isHoldingBackExchanges()) {
+                    logger.info("Denying offer request " + fileOfferRequest.getExchangeId() + " while running exchanges are drained for the background synchronisation");
+                    this.sendDeniedFileOfferResponse(fileOfferRequest);
+
+                    return null;
+                }
+
+                if (this.requestCallbackExecutor.isSaturated()) {
+                    logger.info("Denying offer request " + fileOfferRequest.getExchangeId() + " since too many requests are pending");
+                    this.sendDeniedFileOfferResponse(fileOfferRequest);
+
+                    return null;
+                }
+
+                // a move also affects the path it moves the file to
+                String newPath = fileOfferRequest.getEvent().getNewPath();
+
+                if (this.affectedFileIsInProgress(fileOfferRequest.getExchangeId(), fileOfferRequest.getEvent().getPath()) ||
+                        (null != newPath && this.affectedFileIsInProgress(fileOfferRequest.getExchangeId(), newPath))) {
 
                     logger.error("There are already exchanges in progress for the file affected by offer request " + ((IRequest) request).getExchangeId() + ". Returning a denied file offer response");
+                    this.sendDeniedFileOfferResponse(fileOfferRequest);
 
-                    NodeLocation receiver = new NodeLocation(
-                            ((IRequest) request).getClientDevice().getUserName(),
-                            ((IRequest) request).getClientDevice().getClientDeviceId(),
-                            ((IRequest) request).getClientDevice().getPeerAddress()
-                    );
+                    return null;
+                }
 
-                    this.node.sendDirect(
-                            receiver,
-                            new FileOfferResponse(
-                                    ((IRequest) request).getExchangeId(),
-                                    StatusCode.DENIED,
-                                    new ClientDevice(this.node.getUser().getUserName(), this.node.getClientDeviceId(), this.node.getPeerAddress()),
-                                    receiver
-                            )
-                    );
+            } else if (request instanceof BatchFileOfferRequest) {
+                BatchFileOfferRequest batchFileOfferRequest = (BatchFileOfferRequest) request;
+
+                if (this.isHoldingBackExchanges()) {
+                    logger.info("Denying batch offer request " + batchFileOfferRequest.getExchangeId() + " while running exchanges are drained for the background synchronisation");
+                    this.sendDeniedBatchFileOfferResponse(batchFileOfferRequest);
+
+                    return null;
+                }
+
+                if (this.requestCallbackExecutor.isSaturated()) {
+                    logger.info("Denying batch offer request " + batchFileOfferRequest.getExchangeId() + " since too many requests are pending");
+                    this.sendDeniedBatchFileOfferResponse(batchFileOfferRequest);
+
+                    return null;
+                }
+
+                for (FileOffer offer : batchFileOfferRequest.getOffers()) {
+                    if (this.affectedFileIsInProgress(batchFileOfferRequest.getExchangeId(), offer.getEvent().getPath())) {
+
+                        logger.error("There are already exchanges in progress for the file " + offer.getEvent().getPath() + " affected by batch offer request " + batchFileOfferRequest.getExchangeId() + ". Returning a denied batch file offer response");
+                        this.sendDeniedBatchFileOfferResponse(batchFileOfferRequest);
+
+                        return null;
+                    }
+                }
+
+            } else if (request instanceof FileBundleRequest) {
+                FileBundleRequest fileBundleRequest = (FileBundleRequest) request;
+
+                for (BundledFile bundledFile : fileBundleRequest.getBundledFiles()) {
+                    if (this.affectedFileIsInProgress(fileBundleRequest.getExchangeId(), bundledFile.getRelativeFilePath())) {
+
+                        logger.error("There are already exchanges in progress for the file " + bundledFile.getRelativeFilePath() + " affected by bundle request " + fileBundleRequest.getExchangeId() + ". Returning a denied file bundle response");
+                        this.sendDeniedResponse(fileBundleRequest);
+
+                        return null;
+                    }
+                }
+
+            } else if (request instanceof FileSignatureRequest) {
+                FileSignatureRequest fileSignatureRequest = (FileSignatureRequest) request;
+
+                if (this.affectedFileIsInProgress(fileSignatureRequest.getExchangeId(), fileSignatureRequest.getRelativeFilePath())) {
+
+                    logger.error("There are already exchanges in progress for the file affected by signature request " + fileSignatureRequest.getExchangeId() + ". Returning a denied file signature response");
+                    this.sendDeniedResponse(fileSignatureRequest);
+
+                    return null;
+                }
+
+            } else if (request instanceof FileDeltaRequest) {
+                FileDeltaRequest fileDeltaRequest = (FileDeltaRequest) request;
+
+                // cancelling a delta exchange must always reach its handler to drop the staging file
+                if (! StatusCode.REQUEST_OBSOLETE.equals(fileDeltaRequest.getStatusCode()) &&
+                        this.affectedFileIsInProgress(fileDeltaRequest.getExchangeId(), fileDeltaRequest.getRelativeFilePath())) {
+
+                    // already staged batches are removed once they become stale
+                    logger.error("There are already exchanges in progress for the file affected by delta request " + fileDeltaRequest.getExchangeId() + ". Returning a denied file delta response");
+                    this.sendDeniedResponse(fileDeltaRequest);
 
                     return null;
                 }
@@ -166,35 +388,10 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
             } else if (request instanceof FileDemandRequest) {
                 FileDemandRequest fileDemandRequest = (FileDemandRequest) request;
 
-                if (! this.exchangeInProgress(fileDemandRequest.getExchangeId(), fileDemandRequest.getRelativeFilePath()) &&
-                        this.affectedFileIsInProgress(fileDemandRequest.getRelativeFilePath())) {
+                if (this.affectedFileIsInProgress(fileDemandRequest.getExchangeId(), fileDemandRequest.getRelativeFilePath())) {
 
                     logger.error("There are already exchanges in progress for the file affected by demand request " + ((IRequest) request).getExchangeId() + ". Returning a denied file demand response");
-
-                    NodeLocation receiver = new NodeLocation(
-                            ((IRequest) request).getClientDevice().getUserName(),
-                            ((IRequest) request).getClientDevice().getClientDeviceId(),
-                            ((IRequest) request).getClientDevice().getPeerAddress()
-                    );
-
-                    this.node.sendDirect(
-                            receiver,
-                            new FileDemandResponse(
-                                    ((IRequest) request).getExchangeId(),
-                                    StatusCode.DENIED,
-                                    new ClientDevice(this.node.getUser().getUserName(), this.node.getClientDeviceId(), this.node.getPeerAddress()),
-                                    null,
-                                    ((FileDemandRequest) request).getRelativeFilePath(),
-                                    true,
-                                    - 1,
-                                    - 1,
-                                    - 1,
-                                    - 1,
-                                    null,
-                                    receiver,
-                                    null
-                            )
-                    );
+                    this.sendDeniedResponse(fileDemandRequest);
 
                     return null;
                 }
@@ -204,9 +401,9 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
                 logger.debug("Using " + this.requestCallbackHandlers.get(request.getClass()).getName() + " as handler for request " + ((IRequest) request).getExchangeId());
                 Class<? extends IRequestCallback> requestCallbackClass = this.requestCallbackHandlers.get(request.getClass());
 
-                // if there is a file push request we prevent the
-                // background syncer from running
-                if (FilePushRequestHandler.class.isAssignableFrom(requestCallbackClass)) {
+                // if there is a request writing into the synced folder
+                // we prevent the background syncer from running
+                if (this.isWritingRequestCallback(requestCallbackClass)) {
                     super.runningRequestCallbacks.put(
                             System.currentTimeMillis() + ANetworkHandler.MAX_WAITING_TIME,
                             ((IRequest) request).getExchangeId()
@@ -214,8 +411,8 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
                 }
 
                 if (IExtendedLocalStateRequestCallback.class.isAssignableFrom(requestCallbackClass)) {
-                    // create a new instance running in its own thread
-                    IExtendedLocalStateRequestCallback requestCallback = (IExtendedLocalStateRequestCallback) requestCallbackClass.newInstance();
+                    // create a new instance running on the request callback executor
+                    IExtendedLocalStateRequestCallback requestCallback = (IExtendedLocalStateRequestCallback) this.createRequestCallback(requestCallbackClass);
                     requestCallback.setNode(this.node);
                     requestCallback.setStorageAdapter(this.storageAdapter);
                     requestCallback.setObjectStore(this.objectStore);
@@ -225,16 +422,18 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
                     requestCallback.setClientManager(this.nodeManager);
                     requestCallback.setAccessManager(this.accessManager);
 
-                    Thread thread = new Thread(requestCallback);
-                    thread.setName("RequestCallback-" + ((IRequest) request).getExchangeId());
-                    thread.start();
+                    if (requestCallback instanceof IIdentifierCacheRequestCallback) {
+                        ((IIdentifierCacheRequestCallback) requestCallback).setIdentifierCache(this.getIdentifierCache());
+                    }
+
+                    this.executeRequestCallback((IRequest) request, requestCallback);
 
                     return null;
                 }
 
                 if (ILocalStateRequestCallback.class.isAssignableFrom(requestCallbackClass)) {
-                    // create a new instance running in its own thread
-                    ILocalStateRequestCallback requestCallback = (ILocalStateRequestCallback) requestCallbackClass.newInstance();
+                    // create a new instance running on the request callback executor
+                    ILocalStateRequestCallback requestCallback = (ILocalStateRequestCallback) this.createRequestCallback(requestCallbackClass);
                     requestCallback.setNode(this.node);
                     requestCallback.setStorageAdapter(this.storageAdapter);
                     requestCallback.setObjectStore(this.objectStore);
@@ -242,9 +441,15 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
                     requestCallback.setRequest((IRequest) request);
                     requestCallback.setAccessManager(this.accessManager);
 
-                    Thread thread = new Thread(requestCallback);
-                    thread.setName("RequestCallback-" + ((IRequest) request).getExchangeId());
-                    thread.start();
+                    if (requestCallback instanceof IPathHashTreeRequestCallback) {
+                        ((IPathHashTreeRequestCallback) requestCallback).setPathHashTree(this.pathHashTree);
+                    }
+
+                    if (requestCallback instanceof IIdentifierCacheRequestCallback) {
+                        ((IIdentifierCacheRequestCallback) requestCallback).setIdentifierCache(this.getIdentifierCache());
+                    }
+
+                    this.executeRequestCallback((IRequest) request, requestCallback);
 
                     return null;
                 }
@@ -269,35 +474,264 @@ public class LocalStateObjectDataReplyHandler extends ObjectDataReplyHandler {
         return null;
     }
 
-    protected boolean exchangeInProgress(UUID exchangeId, String relativePath) {
-        Set<UUID> exchangesInProgress = this.pathsInProgress.get(relativePath);
+    /**
+     * Checks whether new exchanges of other clients have to be denied,
+     * since the background syncer drains the running exchanges
+     *
+     * @return True, if new exchanges are held back
+     */
+    protected boolean isHoldingBackExchanges() {
+        return null != this.exchangeGate && this.exchangeGate.isClosed();
+    }
 
-        if (null != exchangesInProgress && exchangesInProgress.contains(exchangeId)) {
-            // exchange is still in progress, we allow incoming requests for this exchange
-            return true;
+    /**
+     * Returns the location of the client which sent the given request
+     *
+     * @param request The received request
+     *
+     * @return The location of the sender
+     */
+    protected NodeLocation getSenderLocation(IRequest request) {
+        return new NodeLocation(
+                request.getClientDevice().getUserName(),
+                request.getClientDevice().getClientDeviceId(),
+                request.getClientDevice().getPeerAddress()
+        );
+    }
+
+    /**
+     * Returns the client device of this node to send along with responses
+     *
+     * @return The client device of this node
+     */
+    protected ClientDevice getOwnClientDevice() {
+        return new ClientDevice(this.node.getUser().getUserName(), this.node.getClientDeviceId(), this.node.getPeerAddress());
+    }
+
+    /**
+     * Denies the given file offer request, forcing its sender to offer the file again later
+     *
+     * @param request The file offer request to deny
+     */
+    protected void sendDeniedFileOfferResponse(FileOfferRequest request) {
+        NodeLocation receiver = new NodeLocation(
+                request.getClientDevice().getUserName(),
+                request.getClientDevice().getClientDeviceId(),
+                request.getClientDevice().getPeerAddress()
+        );
+
+        this.node.sendDirect(
+                receiver,
+                new FileOfferResponse(
+                        request.getExchangeId(),
+                        StatusCode.DENIED,
+                        new ClientDevice(this.node.getUser().getUserName(), this.node.getClientDeviceId(), this.node.getPeerAddress()),
+                        receiver
+                )
+        );
+    }
+
+    /**
+     * Denies all offers of the given batch file offer request, forcing its sender to offer the files again later
+     *
+     * @param request The batch file offer request to deny
+     */
+    protected void sendDeniedBatchFileOfferResponse(BatchFileOfferRequest request) {
+        NodeLocation receiver = new NodeLocation(
+                request.getClientDevice().getUserName(),
+                request.getClientDevice().getClientDeviceId(),
+                request.getClientDevice().getPeerAddress()
+        );
+
+        List<StatusCode> offerStatusCodes = new ArrayList<>();
+        for (int i = 0; i < request.getOffers().size(); i++) {
+            offerStatusCodes.add(StatusCode.DENIED);
         }
 
-        // exchange is not registered
-        return false;
+        this.node.sendDirect(
+                receiver,
+                new BatchFileOfferResponse(
+                        request.getExchangeId(),
+                        StatusCode.DENIED,
+                        new ClientDevice(this.node.getUser().getUserName(), this.node.getClientDeviceId(), this.node.getPeerAddress()),
+                        receiver,
+                        offerStatusCodes
+                )
+        );
     }
 
-    protected boolean affectedFileIsInProgress(String relativePath) {
-        Set<UUID> exchangesInProgress = this.pathsInProgress.get(relativePath);
+    /**
+     * Hands over the given request callback to the request callback executor.
+     * If the executor has been shut down already, the request is denied instead,
+     * since the exception must not reach the thread replying to the request.
+     *
+     * @param request         The received request
+     * @param requestCallback The callback handling the request
+     */
+    protected void executeRequestCallback(IRequest request, Runnable requestCallback) {
+        try {
+            this.requestCallbackExecutor.execute("RequestCallback-" + request.getExchangeId(), requestCallback);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Denying request " + request.getExchangeId() + " since request callbacks are not accepted anymore");
 
-        Path path = Paths.get(relativePath);
-        while (null == exchangesInProgress) {
+            // the callback will never run, so it must not hold back the background syncer
+            super.runningRequestCallbacks.values().remove(request.getExchangeId());
 
-            path = path.subpath(0, Math.max(1, path.getNameCount() - 1));
+            this.sendDeniedResponse(request);
+        }
+    }
 
-            exchangesInProgress = this.pathsInProgress.get(path.getFileName().toString());
+    /**
+     * Denies the given request by sending a response of the matching type, forcing its sender to send the request again later
+     *
+     * @param request The request to deny
+     */
+    protected void sendDeniedResponse(IRequest request) {
+        NodeLocation receiver = this.getSenderLocation(request);
+        IResponse response;
+
+        if (request instanceof FileOfferRequest) {
+            this.sendDeniedFileOfferResponse((FileOfferRequest) request);
+            return;
+        } else if (request instanceof BatchFileOfferRequest) {
+            this.sendDeniedBatchFileOfferResponse((BatchFileOfferRequest) request);
+            return;
+        } else if (request instanceof FileBundleRequest) {
+            List<StatusCode> fileStatusCodes = new ArrayList<>();
+            for (int i = 0; i < ((FileBundleRequest) request).getBundledFiles().size(); i++) {
+                fileStatusCodes.add(StatusCode.DENIED);
+            }
+
+            response = new FileBundleResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), receiver, fileStatusCodes);
+        } else if (request instanceof FileSignatureRequest) {
+            response = new FileSignatureResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), receiver, ((FileSignatureRequest) request).getRelativeFilePath(), - 1, new ArrayList<>());
+        } else if (request instanceof FileDeltaRequest) {
+            response = new FileDeltaResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), receiver, ((FileDeltaRequest) request).getRelativeFilePath(), - 1);
+        } else if (request instanceof FileDemandRequest) {
+            response = new FileDemandResponse(
+                    request.getExchangeId(),
+                    StatusCode.DENIED,
+                    this.getOwnClientDevice(),
+                    null,
+                    ((FileDemandRequest) request).getRelativeFilePath(),
+                    true,
+                    - 1,
+                    - 1,
+                    - 1,
+                    - 1,
+                    null,
+                    receiver,
+                    null
+            );
+        } else if (request instanceof FilePushRequest) {
+            response = new FilePushResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), ((FilePushRequest) request).getRelativeFilePath(), receiver, - 1);
+        } else if (request instanceof FileDeleteRequest) {
+            response = new FileDeleteResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), receiver);
+        } else if (request instanceof FileMoveRequest) {
+            response = new FileMoveResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), receiver);
+        } else if (request instanceof FetchObjectStoreRequest) {
+            response = new FetchObjectStoreResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), receiver, null);
+        } else if (request instanceof ShareRequest) {
+            response = new ShareResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), ((ShareRequest) request).getFileId(), receiver, - 1);
+        } else if (request instanceof SharedRequest) {
+            response = new SharedResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), receiver);
+        } else if (request instanceof UnshareRequest) {
+            response = new UnshareResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), receiver);
+        } else if (request instanceof UnsharedRequest) {
+            response = new UnsharedResponse(request.getExchangeId(), StatusCode.DENIED, this.getOwnClientDevice(), receiver);
+        } else {
+            logger.warn("Can not deny unknown request " + request.getClass().getName() + " of exchange " + request.getExchangeId());
+            return;
+        }
 
-            // only the top level is left
-            if (1 == path.getNameCount()) {
-                break;
+        this.node.sendDirect(receiver, response);
+    }
+
+    /**
+     * Checks whether the given request callback writes files into the synced folder.
+     * While such callbacks are running, the background syncer must not merge object stores.
+     *
+     * @param requestCallbackClass The class of the request callback
+     *
+     * @return True, if the callback writes files
+     */
+    protected boolean isWritingRequestCallback(Class<? extends IRequestCallback> requestCallbackClass) {
+        for (Class<? extends IRequestCallback> writingRequestCallback : WRITING_REQUEST_CALLBACKS) {
+            if (writingRequestCallback.isAssignableFrom(requestCallbackClass)) {
+                return true;
             }
         }
 
-        // if there are any exchanges in progress, affected file is in progress
-        return null != exchangesInProgress;
+        return false;
+    }
+
+    /**
+     * Creates a new instance of the given request callback using its cached constructor
+     *
+     * @param requestCallbackClass The class of the request callback
+     *
+     * @return The new instance
+     *
+     * @throws ReflectiveOperationException If the callback has no accessible default constructor or creating it fails
+     */
+    protected IRequestCallback createRequestCallback(Class<? extends IRequestCallback> requestCallbackClass)
+            throws ReflectiveOperationException {
+        Constructor<? extends IRequestCallback> constructor = this.callbackConstructors.get(requestCallbackClass);
+
+        if (null == constructor) {
+            constructor = requestCallbackClass.getDeclaredConstructor();
+            this.callbackConstructors.put(requestCallbackClass, constructor);
+        }
+
+        return constructor.newInstance();
+    }
+
+    /**
+     * Returns the paths leased by the exchanges currently in progress
+     *
+     * @return The path lease table
+     */
+    public PathLeaseTable getPathLeases() {
+        return pathLeases;
+    }
+
+    /**
+     * Checks whether any other exchange is in progress for the given path,
+     * one of its parent directories or any path below it
+     *
+     * @param exchangeId   The exchange id of the incoming request, its own exchanges do not block it
+     * @param relativePath The relative path affected by the request
+     *
+     * @return True, if the request has to be denied
+     */
+    protected boolean affectedFileIsInProgress(UUID exchangeId, String relativePath) {
+        return this.pathLeases.isConflicting(exchangeId, relativePath);
+    }
+
+    /**
+     * The address and the time of the last request of a client device
+     */
+    protected static class SeenClientDevice {
+
+        protected final PeerAddress peerAddress;
+
+        protected final long lastSeen;
+
+        protected SeenClientDevice(PeerAddress peerAddress, long lastSeen) {
+            this.peerAddress = peerAddress;
+            this.lastSeen = lastSeen;
+        }
+
+        /**
+         * Checks whether the client device reconnected between this and the given request
+         *
+         * @param next The client device seen on its next request
+         *
+         * @return True, if the address changed or the client device has been inactive for too long
+         */
+        protected boolean hasRejoined(SeenClientDevice next) {
+            return ! Objects.equals(this.peerAddress, next.peerAddress) ||
+                    next.lastSeen - this.lastSeen > CLIENT_DEVICE_INACTIVITY_TIMEOUT;
+        }
     }
 }
@@ -0,0 +1,260 @@
+package org.rmatil.sync.core.init.client;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps track of the paths which are leased by exchanges currently in progress.
+ * <p>
+ * Leases are stored in a tree following the directory hierarchy. Each path
+ * knows the exchanges leasing it directly as well as the exchanges leasing
+ * any path below it. A lease therefore conflicts with leases of other exchanges
+ * on the same path, on any of its ancestors (e.g. a move of a parent directory)
+ * and on any of its descendants, while leases on sibling paths do not conflict at all.
+ * <p>
+ * Acquiring, releasing and checking a single path costs O(depth) of the path.
+ * Checks may run concurrently, modifications are exclusive.
+ */
+public class PathLeaseTable {
+
+    /**
+     * The root of the tree, i.e. the synchronised folder itself
+     */
+    protected final Node root = new Node();
+
+    /**
+     * The paths leased by each exchange
+     */
+    protected final Map<UUID, List<Path>> leasesByExchange = new HashMap<>();
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Leases the given path for the given exchange
+     *
+     * @param exchangeId   The exchange leasing the path
+     * @param relativePath The relative path to lease
+     */
+    public void acquire(UUID exchangeId, String relativePath) {
+        Path path = Paths.get(relativePath).normalize();
+
+        this.lock.writeLock().lock();
+        try {
+            Node node = this.root;
+            for (Path element : path) {
+                if (element.toString().isEmpty()) {
+                    continue;
+                }
+
+                increment(node.descendantHolders, exchangeId);
+                node = node.children.computeIfAbsent(element.toString(), name -> new Node());
+            }
+
+            increment(node.holders, exchangeId);
+            this.leasesByExchange.computeIfAbsent(exchangeId, id -> new ArrayList<>()).add(path);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Releases all paths leased by the given exchange
+     *
+     * @param exchangeId The exchange of which to release the leases
+     */
+    public void release(UUID exchangeId) {
+        this.lock.writeLock().lock();
+        try {
+            List<Path> paths = this.leasesByExchange.remove(exchangeId);
+
+            if (null == paths) {
+                return;
+            }
+
+            for (Path path : paths) {
+                this.release(exchangeId, path);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether the given exchange holds a lease on exactly the given path
+     *
+     * @param exchangeId   The exchange to check
+     * @param relativePath The relative path
+     *
+     * @return True, if the exchange has leased the path
+     */
+    public boolean isLeasedBy(UUID exchangeId, String relativePath) {
+        this.lock.readLock().lock();
+        try {
+            Node node = this.find(Paths.get(relativePath).normalize());
+
+            return null != node && node.holders.containsKey(exchangeId);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether any exchange other than the given one holds a lease
+     * on the given path, on one of its ancestors or on one of its descendants
+     *
+     * @param exchangeId   The exchange requesting access to the path, its own leases never conflict
+     * @param relativePath The relative path
+     *
+     * @return True, if another exchange is in progress for the path
+     */
+    public boolean isConflicting(UUID exchangeId, String relativePath) {
+        Path path = Paths.get(relativePath).normalize();
+
+        this.lock.readLock().lock();
+        try {
+            Node node = this.root;
+            for (Path element : path) {
+                if (element.toString().isEmpty()) {
+                    continue;
+                }
+
+                if (hasOtherHolder(node.holders, exchangeId)) {
+                    // an ancestor is leased
+                    return true;
+                }
+
+                node = node.children.get(element.toString());
+
+                if (null == node) {
+                    return false;
+                }
+            }
+
+            return hasOtherHolder(node.holders, exchangeId) || hasOtherHolder(node.descendantHolders, exchangeId);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of exchanges currently holding any lease
+     *
+     * @return The number of exchanges
+     */
+    public int getNrOfExchanges() {
+        this.lock.readLock().lock();
+        try {
+            return this.leasesByExchange.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a single lease of the given exchange, pruning nodes which are no longer used.
+     * Must be called while holding the write lock.
+     *
+     * @param exchangeId The exchange holding the lease
+     * @param path       The normalized leased path
+     */
+    protected void release(UUID exchangeId, Path path) {
+        Deque<Node> ancestors = new ArrayDeque<>();
+        Deque<String> names = new ArrayDeque<>();
+
+        Node node = this.root;
+        for (Path element : path) {
+            if (element.toString().isEmpty()) {
+                continue;
+            }
+
+            decrement(node.descendantHolders, exchangeId);
+            ancestors.push(node);
+            names.push(element.toString());
+
+            node = node.children.get(element.toString());
+
+            if (null == node) {
+                return;
+            }
+        }
+
+        decrement(node.holders, exchangeId);
+
+        // remove nodes without any leases bottom up
+        while (! ancestors.isEmpty() && node.isUnused()) {
+            Node parent = ancestors.pop();
+            parent.children.remove(names.pop());
+            node = parent;
+        }
+    }
+
+    /**
+     * Returns the node at the given path
+     *
+     * @param path The normalized relative path
+     *
+     * @return The node or null, if no lease exists on or below the path
+     */
+    protected Node find(Path path) {
+        Node node = this.root;
+        for (Path element : path) {
+            if (element.toString().isEmpty()) {
+                continue;
+            }
+
+            node = node.children.get(element.toString());
+
+            if (null == node) {
+                return null;
+            }
+        }
+
+        return node;
+    }
+
+    protected static void increment(Map<UUID, Integer> counts, UUID exchangeId) {
+        counts.merge(exchangeId, 1, Integer::sum);
+    }
+
+    protected static void decrement(Map<UUID, Integer> counts, UUID exchangeId) {
+        Integer count = counts.get(exchangeId);
+
+        if (null == count || 1 >= count) {
+            counts.remove(exchangeId);
+        } else {
+            counts.put(exchangeId, count - 1);
+        }
+    }
+
+    protected static boolean hasOtherHolder(Map<UUID, Integer> counts, UUID exchangeId) {
+        return counts.size() > 1 || (1 == counts.size() && ! counts.containsKey(exchangeId));
+    }
+
+    /**
+     * A path in the tree
+     */
+    protected static class Node {
+
+        /**
+         * The child paths keyed by their name
+         */
+        protected final Map<String, Node> children = new HashMap<>();
+
+        /**
+         * The number of leases each exchange holds on this path
+         */
+        protected final Map<UUID, Integer> holders = new HashMap<>();
+
+        /**
+         * The number of leases each exchange holds on paths below this path
+         */
+        protected final Map<UUID, Integer> descendantHolders = new HashMap<>();
+
+        protected boolean isUnused() {
+            return this.holders.isEmpty() && this.descendantHolders.isEmpty() && this.children.isEmpty();
+        }
+    }
+}
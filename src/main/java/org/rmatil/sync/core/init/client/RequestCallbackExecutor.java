@@ -0,0 +1,285 @@
+package org.rmatil.sync.core.init.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes request callbacks on a bounded number of threads
+ * instead of starting a new thread for every incoming request.
+ * <p>
+ * At most {@link RequestCallbackExecutor#maxPendingRequests} callbacks may be handed over to the
+ * threads at the same time. If this limit is reached, further callbacks are deferred until
+ * another callback has completed. Handing over a callback never blocks, since the network
+ * thread must keep delivering the responses the running callbacks are waiting for.
+ * Instead, new exchanges should be denied while the executor is saturated
+ * (see {@link RequestCallbackExecutor#isSaturated()}), so that the deferred callbacks stay few.
+ * <p>
+ * If requested and supported by the JVM, each callback is run in its own
+ * virtual thread. Otherwise, a fixed number of platform threads is used.
+ */
+public class RequestCallbackExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestCallbackExecutor.class);
+
+    /**
+     * The executor running the callbacks
+     */
+    protected ExecutorService executorService;
+
+    /**
+     * Limits the number of queued and running callbacks
+     */
+    protected Semaphore pendingRequests;
+
+    /**
+     * The callbacks waiting for a free slot
+     */
+    protected Queue<Runnable> deferredCallbacks;
+
+    /**
+     * The maximum number of queued and running callbacks
+     */
+    protected int maxPendingRequests;
+
+    /**
+     * Whether virtual threads are used
+     */
+    protected boolean isVirtual;
+
+    /**
+     * The number of callbacks waiting for a thread
+     */
+    protected AtomicInteger queueDepth;
+
+    /**
+     * The highest number of callbacks which have been waiting for a thread at once
+     */
+    protected AtomicInteger maxQueueDepth;
+
+    /**
+     * The number of callbacks currently running
+     */
+    protected AtomicInteger nrOfRunningCallbacks;
+
+    /**
+     * The number of completed callbacks
+     */
+    protected AtomicLong nrOfCompletedCallbacks;
+
+    /**
+     * The number of times a callback had to be deferred until a slot was free
+     */
+    protected AtomicLong nrOfDeferredSubmissions;
+
+    /**
+     * @param numberOfWorkers    The number of platform threads running callbacks
+     * @param maxPendingRequests The maximum number of queued and running callbacks
+     * @param useVirtualThreads  Whether to run each callback in its own virtual thread if supported by the JVM
+     */
+    public RequestCallbackExecutor(int numberOfWorkers, int maxPendingRequests, boolean useVirtualThreads) {
+        this.maxPendingRequests = Math.max(1, maxPendingRequests);
+        this.pendingRequests = new Semaphore(this.maxPendingRequests);
+        this.deferredCallbacks = new ConcurrentLinkedQueue<>();
+        this.queueDepth = new AtomicInteger(0);
+        this.maxQueueDepth = new AtomicInteger(0);
+        this.nrOfRunningCallbacks = new AtomicInteger(0);
+        this.nrOfCompletedCallbacks = new AtomicLong(0L);
+        this.nrOfDeferredSubmissions = new AtomicLong(0L);
+
+        if (useVirtualThreads) {
+            this.executorService = createVirtualThreadExecutor();
+        }
+
+        this.isVirtual = null != this.executorService;
+
+        if (! this.isVirtual) {
+            AtomicInteger threadCounter = new AtomicInteger(0);
+            this.executorService = Executors.newFixedThreadPool(Math.max(1, numberOfWorkers), runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setName("RequestCallbackWorker-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        logger.debug("Running request callbacks on " + (this.isVirtual ? "virtual threads" : Math.max(1, numberOfWorkers) + " platform threads") + " with at most " + this.maxPendingRequests + " pending requests");
+    }
+
+    /**
+     * Creates an executor starting a new virtual thread for each task.
+     * Virtual threads are looked up reflectively, since they are not available on every JVM.
+     *
+     * @return The executor or null, if virtual threads are not supported
+     */
+    protected static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            logger.info("Virtual threads are not supported by this JVM. Falling back to platform threads");
+            return null;
+        }
+    }
+
+    /**
+     * Runs the given callback as soon as a thread is available.
+     * If the maximum number of pending requests is reached, the callback
+     * is deferred until another one has completed. Never blocks.
+     *
+     * @param name     The name of the thread while running the callback
+     * @param callback The callback to run
+     */
+    public void execute(String name, Runnable callback) {
+        this.maxQueueDepth.accumulateAndGet(this.queueDepth.incrementAndGet(), Math::max);
+
+        Runnable task = () -> {
+            this.queueDepth.decrementAndGet();
+            this.nrOfRunningCallbacks.incrementAndGet();
+
+            Thread currentThread = Thread.currentThread();
+            String workerName = currentThread.getName();
+            currentThread.setName(name);
+
+            try {
+                callback.run();
+            } catch (Exception e) {
+                logger.error("Got exception in request callback " + name + ". Message: " + e.getMessage(), e);
+            } finally {
+                currentThread.setName(workerName);
+
+                this.nrOfRunningCallbacks.decrementAndGet();
+                this.nrOfCompletedCallbacks.incrementAndGet();
+                this.pendingRequests.release();
+
+                this.submitDeferredCallbacks();
+            }
+        };
+
+        // deferred callbacks are handed over first
+        if (this.deferredCallbacks.isEmpty() && this.pendingRequests.tryAcquire()) {
+            this.submit(task);
+            return;
+        }
+
+        this.nrOfDeferredSubmissions.incrementAndGet();
+        logger.debug("Reached the maximum of " + this.maxPendingRequests + " pending requests. Deferring request callback " + name);
+        this.deferredCallbacks.add(task);
+
+        // a slot may have been released before the callback was deferred
+        this.submitDeferredCallbacks();
+    }
+
+    /**
+     * Hands over deferred callbacks as long as slots are free
+     */
+    protected void submitDeferredCallbacks() {
+        while (! this.deferredCallbacks.isEmpty() && this.pendingRequests.tryAcquire()) {
+            Runnable task = this.deferredCallbacks.poll();
+
+            if (null == task) {
+                // another thread took the last deferred callback
+                this.pendingRequests.release();
+                return;
+            }
+
+            try {
+                this.submit(task);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Dropping deferred request callback since the executor has been shut down");
+            }
+        }
+    }
+
+    /**
+     * Hands over the given task, which holds a slot, to the threads
+     *
+     * @param task The task to run
+     */
+    protected void submit(Runnable task) {
+        try {
+            this.executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            this.queueDepth.decrementAndGet();
+            this.pendingRequests.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the maximum number of pending requests is reached,
+     * i.e. further callbacks are deferred
+     *
+     * @return True, if no slot is free
+     */
+    public boolean isSaturated() {
+        return 0 == this.pendingRequests.availablePermits();
+    }
+
+    /**
+     * Stops accepting new callbacks. Already handed over callbacks are still run.
+     */
+    public void shutdown() {
+        this.executorService.shutdown();
+    }
+
+    /**
+     * Returns whether virtual threads are used
+     *
+     * @return True, if each callback is run in its own virtual thread
+     */
+    public boolean isVirtual() {
+        return isVirtual;
+    }
+
+    /**
+     * Returns the number of callbacks waiting for a thread
+     *
+     * @return The current queue depth
+     */
+    public int getQueueDepth() {
+        return this.queueDepth.get();
+    }
+
+    /**
+     * Returns the highest number of callbacks which have been waiting for a thread at once
+     *
+     * @return The maximum queue depth
+     */
+    public int getMaxQueueDepth() {
+        return this.maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of callbacks currently running
+     *
+     * @return The number of running callbacks
+     */
+    public int getNrOfRunningCallbacks() {
+        return this.nrOfRunningCallbacks.get();
+    }
+
+    /**
+     * Returns the number of completed callbacks
+     *
+     * @return The number of completed callbacks
+     */
+    public long getNrOfCompletedCallbacks() {
+        return this.nrOfCompletedCallbacks.get();
+    }
+
+    /**
+     * Returns how many times a callback had to be deferred
+     * until another one completed
+     *
+     * @return The number of deferred submissions
+     */
+    public long getNrOfDeferredSubmissions() {
+        return this.nrOfDeferredSubmissions.get();
+    }
+}
@@ -1,23 +1,29 @@
 package org.rmatil.sync.core.init.objecstore;
 
 import net.engio.mbassy.listener.Handler;
+import org.rmatil.sync.core.EventSuppressionRegistry;
+import org.rmatil.sync.core.SubtreeDeletes;
+import org.rmatil.sync.core.config.Config;
 import org.rmatil.sync.core.eventbus.AddOwnerAndAccessTypeToObjectStoreBusEvent;
 import org.rmatil.sync.core.eventbus.AddSharerToObjectStoreBusEvent;
 import org.rmatil.sync.core.eventbus.CleanModifyOsIgnoreEventsBusEvent;
 import org.rmatil.sync.core.eventbus.IgnoreObjectStoreUpdateBusEvent;
+import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.event.aggregator.api.IEventListener;
 import org.rmatil.sync.event.aggregator.core.events.*;
 import org.rmatil.sync.persistence.exceptions.InputOutputException;
 import org.rmatil.sync.version.api.AccessType;
+import org.rmatil.sync.version.api.DeleteType;
 import org.rmatil.sync.version.api.IObjectStore;
 import org.rmatil.sync.version.core.model.PathObject;
 import org.rmatil.sync.version.core.model.Sharer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class ObjectStoreFileChangeListener implements IEventListener {
 
@@ -25,39 +31,70 @@ public class ObjectStoreFileChangeListener implements IEventListener {
 
     protected IObjectStore objectStore;
 
-    protected final Queue<IEvent> ignoredEvents;
+    protected final EventSuppressionRegistry ignoredEvents;
 
     protected final Map<String, Set<Sharer>> sharerToAdd;
 
     protected final Map<String, AddOwnerAndAccessTypeToObjectStoreBusEvent> ownersToAdd;
 
+    /**
+     * The hash tree over the synchronised folder which is kept up to date with all events
+     */
+    protected PathHashTree pathHashTree;
+
+    /**
+     * The access manager of which the cached access is invalidated after changing sharers or owners
+     */
+    protected IAccessManager accessManager;
+
     public ObjectStoreFileChangeListener(IObjectStore objectStore) {
+        this(objectStore, new PathHashTree());
+    }
+
+    /**
+     * @param objectStore  The object store to update
+     * @param pathHashTree The hash tree to update
+     */
+    public ObjectStoreFileChangeListener(IObjectStore objectStore, PathHashTree pathHashTree) {
         this.objectStore = objectStore;
-        this.ignoredEvents = new ConcurrentLinkedQueue<>();
+        this.pathHashTree = pathHashTree;
+        this.ignoredEvents = new EventSuppressionRegistry(Config.DEFAULT.getEventSuppressionTtl());
         this.sharerToAdd = new ConcurrentHashMap<>();
         this.ownersToAdd = new ConcurrentHashMap<>();
     }
 
+    /**
+     * Returns the hash tree over the synchronised folder
+     *
+     * @return The hash tree
+     */
+    public PathHashTree getPathHashTree() {
+        return pathHashTree;
+    }
+
+    public void setAccessManager(IAccessManager accessManager) {
+        this.accessManager = accessManager;
+    }
+
+    /**
+     * Returns the events for which the object store must not be updated
+     *
+     * @return The registry of suppressed events
+     */
+    public EventSuppressionRegistry getIgnoredEvents() {
+        return ignoredEvents;
+    }
+
     @Handler
     public void handleBusEvent(IgnoreObjectStoreUpdateBusEvent ignoreBusEvent) {
         logger.debug("Got notified from event bus: IgnoreObjectStoreUpdateBusEvent " + ignoreBusEvent.getEvent().getEventName() + " for file " + ignoreBusEvent.getEvent().getPath().toString());
-        this.ignoredEvents.add(ignoreBusEvent.getEvent());
+        this.ignoredEvents.suppress(ignoreBusEvent.getEvent());
     }
 
     @Handler
     public void handleCleanOsIgnoreEvents(CleanModifyOsIgnoreEventsBusEvent event) {
         logger.debug("Got clean up ignore events event from global event bus for file " + event.getRelativePath());
-        synchronized (this.ignoredEvents) {
-            Iterator<IEvent> itr = this.ignoredEvents.iterator();
-            while (itr.hasNext()) {
-                IEvent ev = itr.next();
-                if (ev.getPath().toString().equals(event.getRelativePath()) &&
-                        ev instanceof ModifyEvent) {
-                    logger.trace("Remove modify event " + ev.getEventName());
-                    itr.remove();
-                }
-            }
-        }
+        this.ignoredEvents.clear(ModifyEvent.EVENT_NAME, event.getRelativePath());
     }
 
 
@@ -85,108 +122,300 @@ public class ObjectStoreFileChangeListener implements IEventListener {
         }
     }
 
+    /**
+     * Applies all events of the given list to the object store.
+     * <p>
+     * Events for the same path are merged first: consecutive modifications
+     * of a path only store the last version and a creation followed by modifications
+     * is stored as a single creation. Sharers, owner and access type waiting
+     * for a path are written together, once per path and list.
+     *
+     * @param list The aggregated events
+     */
     public void onChange(List<IEvent> list) {
         logger.trace("Got notified about " + list.size() + " new events");
 
+        // the disk has changed even if the object store update is ignored
         for (IEvent event : list) {
+            this.updatePathHashTree(event);
+        }
 
-            synchronized (this.ignoredEvents) {
-                for (IEvent eventToCheck : this.ignoredEvents) {
-                    // weak ignoring events
-                    if (eventToCheck.getEventName().equals(event.getEventName()) &&
-                            eventToCheck.getPath().toString().equals(event.getPath().toString())) {
+        // deletes of paths below a deleted directory are applied together with the directory
+        SubtreeDeletes subtreeDeletes = new SubtreeDeletes(this.mergeEvents(list));
+        List<IEvent> eventsToApply = subtreeDeletes.getEvents();
 
-                        logger.info("Ignoring changing objectStore for event " + event.getEventName() + " for path " + event.getPath().toString());
-                        this.ignoredEvents.remove(event);
-                        return;
-                    }
-                }
+        if (eventsToApply.size() < list.size()) {
+            logger.debug("Applying " + eventsToApply.size() + " merged events of " + list.size() + " events to the object store");
+        }
+
+        // the last event applied to each path
+        Map<String, IEvent> lastEvents = new LinkedHashMap<>();
+        for (IEvent event : eventsToApply) {
+            if (event instanceof DeleteEvent && subtreeDeletes.getSubtreeRoots().contains(event.getPath().toString())) {
+                this.removeSubtree(event.getPath().toString());
+            } else {
+                this.applyEvent(event);
             }
 
-            switch (event.getEventName()) {
-                case ModifyEvent.EVENT_NAME:
-                    logger.trace("ModifyEvent for file " + event.getPath().toString());
-                    try {
-                        objectStore.onModifyFile(event.getPath().toString(), event.getHash());
-                    } catch (InputOutputException e) {
-                        logger.error("Failed to execute modifyEvent. Message: " + e.getMessage());
-                    }
-                    break;
-                case CreateEvent.EVENT_NAME:
-                    logger.trace("CreateEvent for file " + event.getPath().toString());
-                    try {
-                        objectStore.onCreateFile(event.getPath().toString(), event.getHash());
-                    } catch (InputOutputException e) {
-                        logger.error("Failed to execute CreateEvent. Message: " + e.getMessage());
-                    }
-                    break;
-                case DeleteEvent.EVENT_NAME:
-                    logger.trace("DeleteEvent for file " + event.getPath().toString());
-                    try {
-                        objectStore.onRemoveFile(event.getPath().toString());
-                    } catch (InputOutputException e) {
-                        logger.error("Failed to execute DeleteEvent. Message: " + e.getMessage());
-                    }
-                    break;
-                case MoveEvent.EVENT_NAME:
-                    logger.trace("MoveEvent for file " + event.getPath().toString());
-                    try {
-                        objectStore.onMoveFile(event.getPath().toString(), ((MoveEvent) event).getNewPath().toString());
-                    } catch (InputOutputException e) {
-                        logger.error("Failed to execute MoveEvent. Message: " + e.getMessage());
-                    }
-                    break;
-                default:
-                    logger.error("Failed to execute unknown event " + event.getClass().getName());
+            lastEvents.put(event.getPath().toString(), event);
+        }
+
+        for (IEvent event : lastEvents.values()) {
+            this.applySharersAndOwner(event);
+        }
+    }
+
+    /**
+     * Removes ignored events from the given list and merges
+     * consecutive creations and modifications of the same path
+     *
+     * @param list The aggregated events
+     *
+     * @return The events which have to be applied to the object store, in their original order
+     */
+    protected List<IEvent> mergeEvents(List<IEvent> list) {
+        List<IEvent> eventsToApply = new ArrayList<>();
+        // the index of the last event in eventsToApply for each path
+        Map<String, Integer> lastEventIndices = new HashMap<>();
+
+        for (IEvent event : list) {
+            // weak ignoring events
+            if (this.ignoredEvents.consume(event)) {
+                logger.info("Ignoring changing objectStore for event " + event.getEventName() + " for path " + event.getPath().toString());
+                continue;
             }
 
-            // add sharers to the file, if there should be any
-            synchronized (this.sharerToAdd) {
-                logger.trace("Looking for sharers to add to file " + event.getPath().toString());
-
-                Set<Sharer> sharers = this.sharerToAdd.get(event.getPath().toString());
-                // set the sharers only if not a delete event, since all sharers should be removed then
-                if (null != sharers && ! sharers.isEmpty() && ! (event instanceof DeleteEvent)) {
-                    logger.trace("Adding " + sharers.size() + " sharers to file " + event.getPath().toString());
-
-                    try {
-                        this.setSharers(event.getPath().toString(), sharers);
-                        // remove all sharers
-                        this.sharerToAdd.get(event.getPath().toString()).clear();
-                    } catch (InputOutputException e) {
-                        logger.error("Failed to write sharers for file " + event.getPath().toString() + ". Message: " + e.getMessage(), e);
-                    }
-                } else if (null != sharers && ! sharers.isEmpty() && (event instanceof DeleteEvent)) {
-                    logger.trace("Removing sharers to add due to a delete event for file " + event.getPath().toString());
-                    // remove all sharers
-                    this.sharerToAdd.get(event.getPath().toString()).clear();
+            String path = event.getPath().toString();
+            Integer lastEventIndex = lastEventIndices.get(path);
+
+            if (event instanceof ModifyEvent && null != lastEventIndex) {
+                IEvent lastEvent = eventsToApply.get(lastEventIndex);
+
+                if (lastEvent instanceof ModifyEvent) {
+                    // only the last version is stored
+                    eventsToApply.set(lastEventIndex, event);
+                    continue;
+                }
+
+                if (lastEvent instanceof CreateEvent) {
+                    // create the path directly with its latest content
+                    eventsToApply.set(lastEventIndex, new CreateEvent(
+                            lastEvent.getPath(),
+                            lastEvent.getName(),
+                            event.getHash(),
+                            event.getTimestamp()
+                    ));
+                    continue;
                 }
             }
 
-            synchronized (this.ownersToAdd) {
-                logger.trace("Looking for owner and access type to add to file " + event.getPath().toString());
-
-                AddOwnerAndAccessTypeToObjectStoreBusEvent addOwnerAndAccessTypeToObjectStoreBusEvent = this.ownersToAdd.get(event.getPath().toString());
-                if (null != addOwnerAndAccessTypeToObjectStoreBusEvent && ! (event instanceof DeleteEvent)) {
-                    logger.trace("Adding owner and access type to file " + event.getPath().toString());
-                    try {
-                        this.setOwnerAndAccessType(
-                                addOwnerAndAccessTypeToObjectStoreBusEvent.getRelativeFilePath(),
-                                addOwnerAndAccessTypeToObjectStoreBusEvent.getOwner(),
-                                addOwnerAndAccessTypeToObjectStoreBusEvent.getAccessType()
-                        );
-
-                        // remove entry
-                        this.ownersToAdd.remove(event.getPath().toString());
-                    } catch (InputOutputException e) {
-                        logger.error("Failed to write owner and access type for file " + event.getPath().toString() + ". Message: " + e.getMessage(), e);
-                    }
-                } else if (null != addOwnerAndAccessTypeToObjectStoreBusEvent && (event instanceof DeleteEvent)) {
-                    logger.trace("Removing owner and access type to add due to a delete event for file " + event.getPath().toString());
-                    this.ownersToAdd.remove(event.getPath().toString());
+            if (event instanceof MoveEvent) {
+                // a move may affect whole directories, later
+                // events must not be merged with earlier ones
+                lastEventIndices.clear();
+            }
+
+            lastEventIndices.put(path, eventsToApply.size());
+            eventsToApply.add(event);
+        }
+
+        return eventsToApply;
+    }
+
+    /**
+     * Applies a single event to the object store
+     *
+     * @param event The event to apply
+     */
+    protected void applyEvent(IEvent event) {
+        switch (event.getEventName()) {
+            case ModifyEvent.EVENT_NAME:
+                logger.trace("ModifyEvent for file " + event.getPath().toString());
+                try {
+                    objectStore.onModifyFile(event.getPath().toString(), event.getHash());
+                } catch (InputOutputException e) {
+                    logger.error("Failed to execute modifyEvent. Message: " + e.getMessage());
                 }
+                break;
+            case CreateEvent.EVENT_NAME:
+                logger.trace("CreateEvent for file " + event.getPath().toString());
+                try {
+                    objectStore.onCreateFile(event.getPath().toString(), event.getHash());
+                } catch (InputOutputException e) {
+                    logger.error("Failed to execute CreateEvent. Message: " + e.getMessage());
+                }
+                break;
+            case DeleteEvent.EVENT_NAME:
+                logger.trace("DeleteEvent for file " + event.getPath().toString());
+                try {
+                    objectStore.onRemoveFile(event.getPath().toString());
+                    this.invalidateAccess(event.getPath().toString());
+                } catch (InputOutputException e) {
+                    logger.error("Failed to execute DeleteEvent. Message: " + e.getMessage());
+                }
+                break;
+            case MoveEvent.EVENT_NAME:
+                logger.trace("MoveEvent for file " + event.getPath().toString());
+                try {
+                    objectStore.onMoveFile(event.getPath().toString(), ((MoveEvent) event).getNewPath().toString());
+                    this.invalidateAccess(event.getPath().toString());
+                    this.invalidateAccess(((MoveEvent) event).getNewPath().toString());
+                } catch (InputOutputException e) {
+                    logger.error("Failed to execute MoveEvent. Message: " + e.getMessage());
+                }
+                break;
+            default:
+                logger.error("Failed to execute unknown event " + event.getClass().getName());
+        }
+    }
+
+    /**
+     * Removes the given directory and all paths below it from the object store in a single pass,
+     * instead of applying the delete event of each path on its own. The paths below the directory
+     * are read at once and removed deepest first, skipping the ones which are deleted already.
+     * Sharers, owners and access types waiting for any of the paths are discarded.
+     *
+     * @param path The relative path of the deleted directory
+     */
+    protected void removeSubtree(String path) {
+        logger.trace("DeleteEvent for directory " + path + " and all of its contents");
+
+        try {
+            List<PathObject> children = new ArrayList<>(this.objectStore.getObjectManager().getChildren(path));
+            children.sort((o1, o2) -> Integer.compare(
+                    Paths.get(o2.getAbsolutePath()).getNameCount(),
+                    Paths.get(o1.getAbsolutePath()).getNameCount()
+            ));
+
+            for (PathObject child : children) {
+                if (DeleteType.EXISTENT == child.getDeleted().getDeleteType()) {
+                    this.objectStore.onRemoveFile(child.getAbsolutePath());
+                }
+            }
+
+            this.objectStore.onRemoveFile(path);
+        } catch (InputOutputException e) {
+            logger.error("Failed to execute DeleteEvent for directory " + path + ". Message: " + e.getMessage());
+        }
+
+        this.invalidateAccess(path);
+
+        Path subtreeRoot = Paths.get(path);
+        synchronized (this.sharerToAdd) {
+            this.sharerToAdd.keySet().removeIf(filePath -> Paths.get(filePath).startsWith(subtreeRoot));
+        }
+
+        synchronized (this.ownersToAdd) {
+            this.ownersToAdd.keySet().removeIf(filePath -> Paths.get(filePath).startsWith(subtreeRoot));
+        }
+    }
+
+    /**
+     * Adds the sharers, owner and access type waiting for the path of the given event
+     * with a single write of its path object. If the event is a delete event,
+     * they are discarded, since all sharers should be removed then.
+     *
+     * @param event The last event applied to the path
+     */
+    protected void applySharersAndOwner(IEvent event) {
+        String path = event.getPath().toString();
+        Set<Sharer> sharers = null;
+        AddOwnerAndAccessTypeToObjectStoreBusEvent ownerEvent;
+
+        logger.trace("Looking for sharers, owner and access type to add to file " + path);
+
+        synchronized (this.sharerToAdd) {
+            Set<Sharer> pendingSharers = this.sharerToAdd.get(path);
+            if (null != pendingSharers && ! pendingSharers.isEmpty()) {
+                sharers = new HashSet<>(pendingSharers);
+                // remove all sharers
+                pendingSharers.clear();
             }
         }
+
+        synchronized (this.ownersToAdd) {
+            ownerEvent = this.ownersToAdd.remove(path);
+        }
+
+        if (null == sharers && null == ownerEvent) {
+            return;
+        }
+
+        if (event instanceof DeleteEvent) {
+            logger.trace("Removing sharers, owner and access type to add due to a delete event for file " + path);
+            return;
+        }
+
+        try {
+            this.writeSharersAndOwner(path, sharers, ownerEvent);
+        } catch (InputOutputException e) {
+            logger.error("Failed to write sharers, owner and access type for file " + path + ". Message: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Applies the given event to the hash tree
+     *
+     * @param event The event to apply
+     */
+    protected void updatePathHashTree(IEvent event) {
+        switch (event.getEventName()) {
+            case ModifyEvent.EVENT_NAME:
+            case CreateEvent.EVENT_NAME:
+                this.pathHashTree.update(event.getPath(), event.getHash());
+                break;
+            case DeleteEvent.EVENT_NAME:
+                this.pathHashTree.remove(event.getPath());
+                break;
+            case MoveEvent.EVENT_NAME:
+                this.pathHashTree.move(event.getPath(), ((MoveEvent) event).getNewPath());
+                break;
+        }
+    }
+
+    /**
+     * Adds sharers and sets owner and access type of a path object, writing it only once
+     *
+     * @param filePath   The file path of the path object
+     * @param sharers    The sharers to add, may be null
+     * @param ownerEvent The owner and access type to set, may be null
+     *
+     * @throws InputOutputException If accessing the object manager fails
+     */
+    protected void writeSharersAndOwner(String filePath, Set<Sharer> sharers, AddOwnerAndAccessTypeToObjectStoreBusEvent ownerEvent)
+            throws InputOutputException {
+        PathObject pathObject = this.objectStore.getObjectManager().getObjectForPath(filePath);
+
+        if (null == pathObject) {
+            logger.error("Could not add sharers, owner and access type to the file on path " + filePath + ". Aborting on this client and relying on the next background sync");
+            return;
+        }
+
+        if (null != sharers && ! sharers.isEmpty()) {
+            logger.trace("Adding " + sharers.size() + " sharers to file " + filePath);
+            pathObject.setIsShared(true);
+            pathObject.getSharers().addAll(sharers);
+        }
+
+        if (null != ownerEvent) {
+            logger.trace("Adding owner and access type to file " + filePath);
+            pathObject.setOwner(ownerEvent.getOwner());
+            pathObject.setAccessType(ownerEvent.getAccessType());
+        }
+
+        this.objectStore.getObjectManager().writeObject(pathObject);
+        this.invalidateAccess(filePath);
+    }
+
+    /**
+     * Discards the cached access of the given path
+     *
+     * @param filePath The path of which the sharers, owner or access type have changed
+     */
+    protected void invalidateAccess(String filePath) {
+        if (null != this.accessManager) {
+            this.accessManager.invalidate(filePath);
+        }
     }
 
     /**
@@ -215,6 +444,7 @@ public class ObjectStoreFileChangeListener implements IEventListener {
         }
 
         this.objectStore.getObjectManager().writeObject(pathObject);
+        this.invalidateAccess(filePath);
     }
 
     public void setOwnerAndAccessType(String filePath, String owner, AccessType accessType)
@@ -230,5 +460,6 @@ public class ObjectStoreFileChangeListener implements IEventListener {
         pathObject.setAccessType(accessType);
 
         this.objectStore.getObjectManager().writeObject(pathObject);
+        this.invalidateAccess(filePath);
     }
 }
@@ -0,0 +1,299 @@
+package org.rmatil.sync.core.init.objecstore;
+
+import org.rmatil.sync.commons.hashing.Hash;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.persistence.core.tree.TreePathElement;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.rmatil.sync.version.api.IObjectStore;
+import org.rmatil.sync.version.core.model.PathObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A hash tree (Merkle tree) over the directory hierarchy of the synchronised folder.
+ * <p>
+ * Each path holds the hash of its content, each directory additionally the hashes
+ * of all of its children. Two clients having the same root hash have the same
+ * paths with the same contents, i.e. the background syncer does not have to
+ * fetch the object store of such a client.
+ * <p>
+ * The tree is built once on start and then updated for each file system event
+ * and each path changed by the background syncer. Hashes of changed subtrees are
+ * recomputed lazily, i.e. a change costs only the hashing of its ancestors once
+ * the root hash is requested again.
+ */
+public class PathHashTree {
+
+    private static final Logger logger = LoggerFactory.getLogger(PathHashTree.class);
+
+    /**
+     * The root of the tree, i.e. the synchronised folder itself
+     */
+    protected final Node root;
+
+    public PathHashTree() {
+        this.root = new Node();
+    }
+
+    /**
+     * Rebuilds the tree from all paths which are currently on disk
+     * using the hashes of their last version in the object store
+     *
+     * @param storageAdapter The storage adapter of the synchronised folder
+     * @param objectStore    The object store of the synchronised folder
+     * @param ignoredPaths   Paths (e.g. the object store folder) which are not part of the tree
+     *
+     * @throws InputOutputException If reading the synchronised folder or the object store fails
+     */
+    public synchronized void build(ITreeStorageAdapter storageAdapter, IObjectStore objectStore, List<Path> ignoredPaths)
+            throws InputOutputException {
+        this.root.children.clear();
+        this.root.isDirty = true;
+
+        for (TreePathElement pathElement : storageAdapter.getDirectoryContents(new TreePathElement("."))) {
+            Path path = Paths.get(pathElement.getPath()).normalize();
+
+            if (0 == path.getNameCount() || path.toString().isEmpty() || this.isIgnored(path, ignoredPaths)) {
+                continue;
+            }
+
+            String hash = null;
+            PathObject pathObject = objectStore.getObjectManager().getObjectForPath(path.toString());
+            if (null != pathObject && ! pathObject.getVersions().isEmpty()) {
+                hash = pathObject.getVersions().get(pathObject.getVersions().size() - 1).getHash();
+            }
+
+            this.update(path, hash);
+        }
+
+        logger.debug("Built path hash tree with root hash " + this.getRootHash());
+    }
+
+    /**
+     * Sets the content hash of the given path, creating it and all of its ancestors if necessary
+     *
+     * @param path The relative path
+     * @param hash The hash of the content of the path, may be null for directories
+     */
+    public synchronized void update(Path path, String hash) {
+        Node node = this.getOrCreate(path);
+        node.contentHash = hash;
+    }
+
+    /**
+     * Removes the given path and its whole subtree
+     *
+     * @param path The relative path to remove
+     */
+    public synchronized void remove(Path path) {
+        Path normalizedPath = path.normalize();
+        Node parent = this.find(normalizedPath.getParent());
+
+        if (null != parent && null != normalizedPath.getFileName()) {
+            this.markDirty(normalizedPath.getParent());
+            parent.children.remove(normalizedPath.getFileName().toString());
+        }
+    }
+
+    /**
+     * Moves the subtree at the given path to the new path
+     *
+     * @param oldPath The relative path of the subtree
+     * @param newPath The relative path to which the subtree is moved
+     */
+    public synchronized void move(Path oldPath, Path newPath) {
+        Node node = this.find(oldPath.normalize());
+
+        if (null == node || node == this.root) {
+            // we do not know about the moved path, at least create it
+            this.getOrCreate(newPath);
+            return;
+        }
+
+        this.remove(oldPath);
+
+        Path normalizedNewPath = newPath.normalize();
+        Node newParent = null == normalizedNewPath.getParent() ? this.root : this.getOrCreate(normalizedNewPath.getParent());
+        this.root.isDirty = true;
+        newParent.children.put(normalizedNewPath.getFileName().toString(), node);
+    }
+
+    /**
+     * Returns the hash of the whole tree
+     *
+     * @return The root hash
+     */
+    public synchronized String getRootHash() {
+        return this.computeHash(this.root);
+    }
+
+    /**
+     * Returns the hash of the subtree at the given path
+     *
+     * @param path The relative path
+     *
+     * @return The hash of the subtree or null, if the path does not exist
+     */
+    public synchronized String getHash(Path path) {
+        Node node = this.find(path.normalize());
+
+        return null == node ? null : this.computeHash(node);
+    }
+
+    /**
+     * Returns the node at the given path, creating all missing
+     * nodes on the way. All nodes on the way are marked as dirty.
+     *
+     * @param path The relative path
+     *
+     * @return The node
+     */
+    protected Node getOrCreate(Path path) {
+        Node node = this.root;
+        node.isDirty = true;
+
+        for (Path element : path.normalize()) {
+            if (element.toString().isEmpty()) {
+                continue;
+            }
+
+            node = node.children.computeIfAbsent(element.toString(), name -> new Node());
+            node.isDirty = true;
+        }
+
+        return node;
+    }
+
+    /**
+     * Returns the node at the given path
+     *
+     * @param path The normalized relative path or null for the root
+     *
+     * @return The node or null, if it does not exist
+     */
+    protected Node find(Path path) {
+        Node node = this.root;
+
+        if (null == path) {
+            return node;
+        }
+
+        for (Path element : path) {
+            if (element.toString().isEmpty()) {
+                continue;
+            }
+
+            node = node.children.get(element.toString());
+
+            if (null == node) {
+                return null;
+            }
+        }
+
+        return node;
+    }
+
+    /**
+     * Marks all existing nodes from the root to the given path as dirty
+     *
+     * @param path The normalized relative path or null for the root
+     */
+    protected void markDirty(Path path) {
+        Node node = this.root;
+        node.isDirty = true;
+
+        if (null == path) {
+            return;
+        }
+
+        for (Path element : path) {
+            node = node.children.get(element.toString());
+
+            if (null == node) {
+                return;
+            }
+
+            node.isDirty = true;
+        }
+    }
+
+    /**
+     * Returns the hash of the given node, recomputing it and
+     * all of its descendants if they are dirty
+     *
+     * @param node The node
+     *
+     * @return The hash of the node
+     */
+    protected String computeHash(Node node) {
+        if (! node.isDirty) {
+            return node.hash;
+        }
+
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(null == node.contentHash ? "" : node.contentHash);
+
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            stringBuilder.append('\n').append(entry.getKey()).append(':').append(this.computeHash(entry.getValue()));
+        }
+
+        node.hash = Hash.hash(org.rmatil.sync.event.aggregator.config.Config.DEFAULT.getHashingAlgorithm(), stringBuilder.toString());
+        node.isDirty = false;
+
+        return node.hash;
+    }
+
+    /**
+     * Checks whether the given path is one of the ignored paths or inside of one
+     *
+     * @param path         The path to check
+     * @param ignoredPaths The ignored paths
+     *
+     * @return True, if the path should not be part of the tree
+     */
+    protected boolean isIgnored(Path path, List<Path> ignoredPaths) {
+        if (null == ignoredPaths) {
+            return false;
+        }
+
+        for (Path ignoredPath : ignoredPaths) {
+            if (path.startsWith(ignoredPath)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A path in the tree
+     */
+    protected static class Node {
+
+        /**
+         * The children keyed by their name, sorted to get the same hash on each client
+         */
+        protected final Map<String, Node> children = new TreeMap<>();
+
+        /**
+         * The hash of the content of this path
+         */
+        protected String contentHash;
+
+        /**
+         * The hash over the content and all children
+         */
+        protected String hash;
+
+        /**
+         * Whether the hash has to be recomputed
+         */
+        protected boolean isDirty = true;
+    }
+}
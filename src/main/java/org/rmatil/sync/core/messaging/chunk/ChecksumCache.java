@@ -0,0 +1,182 @@
+package org.rmatil.sync.core.messaging.chunk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Caches the checksums of whole files, so that sending a file
+ * chunk by chunk does not require to hash the complete file
+ * for every chunk. An entry is only valid as long as the file
+ * has the same state as when the checksum was computed, i.e. a
+ * change during a transfer is still detected.
+ * <p>
+ * The state consists of the size, the modification time in the precision
+ * of the file system, the file key (e.g. the inode) and the status change time.
+ * The status change time can not be set by applications and changes on each
+ * write, so that even writes restoring the modification time are detected.
+ * On file systems which neither provide a file key nor a status change time
+ * (e.g. on Windows), a write keeping the size within the precision
+ * of the modification time may still be served the old checksum.
+ */
+public class ChecksumCache {
+
+    /**
+     * The maximum number of files of which the checksum is kept
+     */
+    public static final int MAX_ENTRIES = 1000;
+
+    /**
+     * The cached checksums, keyed by the absolute path of the file
+     */
+    protected Map<String, Entry> entries;
+
+    public ChecksumCache() {
+        this(MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries The maximum number of files of which the checksum is kept
+     */
+    public ChecksumCache(int maxEntries) {
+        // access ordered to evict the least recently used checksum
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return this.size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Reads the current state of the given file
+     *
+     * @param file The absolute path of the file
+     *
+     * @return The state of the file
+     *
+     * @throws IOException If reading the attributes of the file failed
+     */
+    public static FileState readState(Path file)
+            throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+        FileTime changeTime = null;
+        try {
+            changeTime = (FileTime) Files.getAttribute(file, "unix:ctime", LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // not available on this file system
+        }
+
+        return new FileState(attributes.size(), attributes.lastModifiedTime(), attributes.fileKey(), changeTime);
+    }
+
+    /**
+     * Returns the cached checksum of the given file
+     *
+     * @param absolutePath The absolute path of the file
+     * @param fileState    The current state of the file
+     *
+     * @return The checksum or null, if none is cached or the file has changed since
+     */
+    public synchronized String get(String absolutePath, FileState fileState) {
+        Entry entry = this.entries.get(absolutePath);
+
+        if (null == entry || ! entry.fileState.equals(fileState)) {
+            return null;
+        }
+
+        return entry.checksum;
+    }
+
+    /**
+     * Stores the checksum of the given file
+     *
+     * @param absolutePath The absolute path of the file
+     * @param fileState    The state of the file at the time of computing the checksum
+     * @param checksum     The checksum of the whole file
+     */
+    public synchronized void put(String absolutePath, FileState fileState, String checksum) {
+        this.entries.put(absolutePath, new Entry(fileState, checksum));
+    }
+
+    /**
+     * Removes the cached checksum of the given file
+     *
+     * @param absolutePath The absolute path of the file
+     */
+    public synchronized void invalidate(String absolutePath) {
+        this.entries.remove(absolutePath);
+    }
+
+    /**
+     * The attributes of a file which change if its content is written
+     */
+    public static class FileState {
+
+        protected final long totalFileSize;
+
+        protected final FileTime lastModified;
+
+        /**
+         * Identifies the file on the file system, may be null
+         */
+        protected final Object fileKey;
+
+        /**
+         * The time of the last status change, may be null
+         */
+        protected final FileTime changeTime;
+
+        public FileState(long totalFileSize, FileTime lastModified, Object fileKey, FileTime changeTime) {
+            this.totalFileSize = totalFileSize;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.changeTime = changeTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (null == o || getClass() != o.getClass()) {
+                return false;
+            }
+
+            FileState fileState = (FileState) o;
+
+            return totalFileSize == fileState.totalFileSize &&
+                    Objects.equals(lastModified, fileState.lastModified) &&
+                    Objects.equals(fileKey, fileState.fileKey) &&
+                    Objects.equals(changeTime, fileState.changeTime);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(totalFileSize, lastModified, fileKey, changeTime);
+        }
+    }
+
+    /**
+     * A checksum along with the file state it was computed for
+     */
+    protected static class Entry {
+
+        protected final FileState fileState;
+
+        protected final String checksum;
+
+        protected Entry(FileState fileState, String checksum) {
+            this.fileState = fileState;
+            this.checksum = checksum;
+        }
+    }
+}
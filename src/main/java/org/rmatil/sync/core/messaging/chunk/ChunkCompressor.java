@@ -0,0 +1,199 @@
+package org.rmatil.sync.core.messaging.chunk;
+
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the content of chunks before sending them to other clients.
+ * <p>
+ * Compression is skipped for chunks which do not get considerably smaller,
+ * e.g. parts of media files or archives. To not waste a full compression run
+ * on such chunks, a sample from the start of the chunk is compressed first
+ * and the whole chunk is only compressed if the sample did shrink enough.
+ * <p>
+ * The sender of a chunk marks compressed content in its request resp. response,
+ * the receiver then restores the original content using {@link ChunkCompressor#decompress(byte[], int)}.
+ */
+public class ChunkCompressor {
+
+    /**
+     * The number of bytes from the start of a chunk which are compressed
+     * to decide whether compressing the whole chunk is worth it
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 16 * 1024;
+
+    /**
+     * The default fraction of the size by which a chunk must shrink to be sent compressed
+     */
+    public static final double DEFAULT_MIN_SAVINGS = 0.1d;
+
+    /**
+     * Chunks smaller than this are always sent uncompressed
+     */
+    public static final int MIN_CHUNK_SIZE = 512;
+
+    protected static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The deflate compression level, {@link Deflater#NO_COMPRESSION} disables compression
+     */
+    protected int level;
+
+    /**
+     * The number of bytes compressed on trial
+     */
+    protected int sampleSize;
+
+    /**
+     * The fraction of the size by which a chunk must shrink to be sent compressed
+     */
+    protected double minSavings;
+
+    /**
+     * @param level The deflate compression level, {@link Deflater#NO_COMPRESSION} disables compression
+     */
+    public ChunkCompressor(int level) {
+        this(level, DEFAULT_SAMPLE_SIZE, DEFAULT_MIN_SAVINGS);
+    }
+
+    /**
+     * @param level      The deflate compression level, {@link Deflater#NO_COMPRESSION} disables compression
+     * @param sampleSize The number of bytes from the start of a chunk which are compressed on trial
+     * @param minSavings The fraction of the size by which a chunk must shrink to be sent compressed
+     */
+    public ChunkCompressor(int level, int sampleSize, double minSavings) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("The compression level must be between " + Deflater.NO_COMPRESSION + " and " + Deflater.BEST_COMPRESSION);
+        }
+
+        if (minSavings < 0d || minSavings >= 1d) {
+            throw new IllegalArgumentException("The minimal savings must be a fraction between 0 and 1");
+        }
+
+        this.level = level;
+        this.sampleSize = sampleSize;
+        this.minSavings = minSavings;
+    }
+
+    /**
+     * Whether chunks are compressed at all
+     *
+     * @return True, if a compression level is set, false otherwise
+     */
+    public boolean isEnabled() {
+        return Deflater.NO_COMPRESSION != this.level;
+    }
+
+    /**
+     * Compresses the given chunk content, if this is worth it
+     *
+     * @param content The content of the chunk
+     *
+     * @return The compressed content or null, if the content should be sent uncompressed
+     */
+    public byte[] compress(byte[] content) {
+        if (! this.isEnabled() || null == content || content.length < MIN_CHUNK_SIZE) {
+            return null;
+        }
+
+        // try a sample first, if the chunk is considerably larger than it
+        if (content.length > 2 * this.sampleSize) {
+            if (null == this.deflate(content, this.sampleSize, this.getMaxCompressedLength(this.sampleSize))) {
+                return null;
+            }
+        }
+
+        return this.deflate(content, content.length, this.getMaxCompressedLength(content.length));
+    }
+
+    /**
+     * Restores the content of a chunk compressed by {@link ChunkCompressor#compress(byte[])}
+     *
+     * @param compressedContent The compressed content
+     * @param chunkSize         The chunk size of the file exchange, i.e. the maximal size of the content
+     *
+     * @return The original content
+     *
+     * @throws InputOutputException If the compressed content is corrupt or larger than the chunk size
+     */
+    public static byte[] decompress(byte[] compressedContent, int chunkSize)
+            throws InputOutputException {
+        Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(compressedContent);
+
+            // one more byte to detect chunks exceeding the chunk size
+            byte[] content = new byte[chunkSize + 1];
+            int length = 0;
+            while (! inflater.finished()) {
+                int inflated = inflater.inflate(content, length, content.length - length);
+                length += inflated;
+
+                if (length > chunkSize) {
+                    throw new InputOutputException("Decompressed chunk exceeds the chunk size of " + chunkSize + " bytes");
+                }
+
+                if (0 == inflated && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new InputOutputException("Compressed chunk is truncated");
+                }
+            }
+
+            return Arrays.copyOf(content, length);
+        } catch (DataFormatException e) {
+            throw new InputOutputException("Could not decompress chunk: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the size a compressed content must not reach to be worth sending
+     *
+     * @param length The length of the uncompressed content
+     *
+     * @return The exclusive upper bound of the compressed size
+     */
+    protected int getMaxCompressedLength(int length) {
+        return (int) (length * (1d - this.minSavings));
+    }
+
+    /**
+     * Compresses the first bytes of the given content. Stops as soon
+     * as the compressed content reaches the given maximal length.
+     *
+     * @param content   The content to compress
+     * @param length    The number of bytes from the start of the content to compress
+     * @param maxLength The exclusive upper bound of the compressed size
+     *
+     * @return The compressed bytes or null, if they reached the maximal length
+     */
+    protected byte[] deflate(byte[] content, int length, int maxLength) {
+        Deflater deflater = new Deflater(this.level);
+
+        try {
+            deflater.setInput(content, 0, length);
+            deflater.finish();
+
+            ByteArrayOutputStream compressedContent = new ByteArrayOutputStream(BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (! deflater.finished()) {
+                int deflated = deflater.deflate(buffer);
+                compressedContent.write(buffer, 0, deflated);
+
+                if (compressedContent.size() >= maxLength) {
+                    return null;
+                }
+            }
+
+            return compressedContent.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -10,6 +10,9 @@ import org.rmatil.sync.version.api.IObjectStore;
 import org.rmatil.sync.version.core.model.PathObject;
 import org.rmatil.sync.version.core.model.Sharer;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Set;
 
 /**
@@ -17,6 +20,17 @@ import java.util.Set;
  */
 public class ChunkProvider {
 
+    /**
+     * The checksums of the files, shared among all providers
+     * so that concurrent exchanges of the same file hash it only once
+     */
+    protected static final ChecksumCache sharedChecksumCache = new ChecksumCache();
+
+    /**
+     * The cache to look up the checksum of the file
+     */
+    protected ChecksumCache checksumCache;
+
     /**
      * The storage adapter to access files
      */
@@ -38,9 +52,20 @@ public class ChunkProvider {
      * @param pathElement    The path element from which to get chunks
      */
     public ChunkProvider(ITreeStorageAdapter storageAdapter, IObjectStore objectStore, TreePathElement pathElement) {
+        this(storageAdapter, objectStore, pathElement, sharedChecksumCache);
+    }
+
+    /**
+     * @param storageAdapter The storage adapter to access files
+     * @param objectStore    The object store to fetch information of the files, like sharers
+     * @param pathElement    The path element from which to get chunks
+     * @param checksumCache  The cache to look up the checksum of the file
+     */
+    public ChunkProvider(ITreeStorageAdapter storageAdapter, IObjectStore objectStore, TreePathElement pathElement, ChecksumCache checksumCache) {
         this.storageAdapter = storageAdapter;
         this.objectStore = objectStore;
         this.pathElement = pathElement;
+        this.checksumCache = checksumCache;
     }
 
     /**
@@ -77,7 +102,7 @@ public class ChunkProvider {
 
             data = new Data(content, false);
 
-            checksum = this.storageAdapter.getChecksum(pathElement);
+            checksum = this.getChecksum();
         }
 
         PathObject pathObject = this.objectStore.getObjectManager().getObjectForPath(pathElement.getPath());
@@ -98,4 +123,43 @@ public class ChunkProvider {
                 data
         );
     }
+
+    /**
+     * Returns the checksum of the whole file. The checksum is only
+     * computed, if the file has changed since the last computation.
+     * Otherwise the cached checksum is returned.
+     *
+     * @return The checksum of the file
+     *
+     * @throws InputOutputException If computing the checksum failed
+     */
+    protected String getChecksum()
+            throws InputOutputException {
+        Path absolutePath = Paths.get(this.storageAdapter.getRootDir().getPath()).resolve(this.pathElement.getPath());
+
+        ChecksumCache.FileState fileState;
+        try {
+            fileState = ChecksumCache.readState(absolutePath);
+        } catch (IOException e) {
+            // let the storage adapter report the failure, if any
+            return this.storageAdapter.getChecksum(this.pathElement);
+        }
+
+        String checksum = this.checksumCache.get(absolutePath.toString(), fileState);
+
+        if (null == checksum) {
+            checksum = this.storageAdapter.getChecksum(this.pathElement);
+
+            // only cache the checksum if the file has not been modified while hashing it
+            try {
+                if (fileState.equals(ChecksumCache.readState(absolutePath))) {
+                    this.checksumCache.put(absolutePath.toString(), fileState, checksum);
+                }
+            } catch (IOException e) {
+                // removed in the mean time, nothing to cache
+            }
+        }
+
+        return checksum;
+    }
 }
@@ -0,0 +1,102 @@
+package org.rmatil.sync.core.messaging.chunk;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of the chunks of a file which have already
+ * been written on the receiving side of a file exchange.
+ * Since chunks may arrive in any order, the receiver
+ * uses this to find missing chunks and to detect
+ * when the file is complete.
+ */
+public class ReceivedChunks {
+
+    /**
+     * The chunk numbers which have been received
+     */
+    protected BitSet chunks;
+
+    /**
+     * The total number of chunks of the file
+     */
+    protected long totalNrOfChunks;
+
+    /**
+     * Whether completion of the file has already been reported
+     */
+    protected boolean isCompleted;
+
+    /**
+     * The time in milliseconds when this state has been modified the last time
+     */
+    protected long lastModified;
+
+    public ReceivedChunks() {
+        this.chunks = new BitSet();
+        this.totalNrOfChunks = - 1;
+        this.isCompleted = false;
+        this.lastModified = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the given chunk as received.
+     *
+     * @param chunkCounter    The number of the received chunk
+     * @param totalNrOfChunks The total number of chunks of the file
+     *
+     * @return True, exactly once, if all chunks of the file have been received after this call
+     */
+    public synchronized boolean markReceived(long chunkCounter, long totalNrOfChunks) {
+        // an empty file or a directory is still transmitted as a single chunk
+        this.totalNrOfChunks = Math.max(1L, totalNrOfChunks);
+        this.chunks.set((int) chunkCounter);
+        this.lastModified = System.currentTimeMillis();
+
+        if (! this.isCompleted && this.chunks.nextClearBit(0) >= this.totalNrOfChunks) {
+            this.isCompleted = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns whether the given chunk has already been received
+     *
+     * @param chunkCounter The chunk number to check
+     *
+     * @return True, if the chunk has been received
+     */
+    public synchronized boolean isReceived(long chunkCounter) {
+        return this.chunks.get((int) chunkCounter);
+    }
+
+    /**
+     * Returns the lowest chunk number which has not been received yet.
+     * If all chunks have been received, the total number of chunks is returned.
+     *
+     * @return The lowest missing chunk number
+     */
+    public synchronized long getNextMissingChunk() {
+        return this.chunks.nextClearBit(0);
+    }
+
+    /**
+     * Forgets about all received chunks, e.g. if
+     * the file has to be transmitted again
+     */
+    public synchronized void clear() {
+        this.chunks.clear();
+        this.isCompleted = false;
+        this.lastModified = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the time in milliseconds of the last modification
+     *
+     * @return The time of the last modification
+     */
+    public synchronized long getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,168 @@
+package org.rmatil.sync.core.messaging.fileexchange.bundle;
+
+import org.rmatil.sync.network.core.model.Data;
+import org.rmatil.sync.version.api.AccessType;
+import org.rmatil.sync.version.core.model.Sharer;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A single small file or directory which is transferred
+ * as part of a {@link FileBundleRequest}.
+ */
+public class BundledFile implements Serializable {
+
+    private static final long serialVersionUID = 6375021946352781640L;
+
+    /**
+     * The relative path of the file
+     */
+    protected String relativeFilePath;
+
+    /**
+     * The id of the file. Only present if the file is shared
+     */
+    protected UUID fileId;
+
+    /**
+     * The owner of the file, may be null, if the file is not shared
+     */
+    protected String owner;
+
+    /**
+     * The access type we got for the file. May be null, if
+     * the file is not shared
+     */
+    protected AccessType accessType;
+
+    /**
+     * The set of sharers of the file
+     */
+    protected Set<Sharer> sharers;
+
+    /**
+     * The checksum over the complete content of the file
+     */
+    protected String checksum;
+
+    /**
+     * Whether the path represents a directory or a file
+     */
+    protected boolean isFile;
+
+    /**
+     * The file size in bytes
+     */
+    protected long totalFileSize;
+
+    /**
+     * The complete content of the file. Null for a directory
+     */
+    protected Data data;
+
+    /**
+     * @param relativeFilePath The relative path of the file
+     * @param fileId           The id of the file. May be null if the file is not shared
+     * @param owner            The owner of the file. May be null if the file is not shared
+     * @param accessType       The access type to this file. May be null if not shared
+     * @param sharers          The set of sharers stored on this client
+     * @param checksum         The checksum of the complete file
+     * @param isFile           Whether the path represents a file or a directory
+     * @param totalFileSize    The size of the file in bytes
+     * @param data             The complete content of the file. May be null for a directory
+     */
+    public BundledFile(String relativeFilePath, UUID fileId, String owner, AccessType accessType, Set<Sharer> sharers, String checksum, boolean isFile, long totalFileSize, Data data) {
+        this.relativeFilePath = relativeFilePath;
+        this.fileId = fileId;
+        this.owner = owner;
+        this.accessType = accessType;
+        this.sharers = sharers;
+        this.checksum = checksum;
+        this.isFile = isFile;
+        this.totalFileSize = totalFileSize;
+        this.data = data;
+    }
+
+    /**
+     * Returns the relative path of the file
+     *
+     * @return The relative path
+     */
+    public String getRelativeFilePath() {
+        return relativeFilePath;
+    }
+
+    /**
+     * Returns the file id. May be null
+     *
+     * @return The file id
+     */
+    public UUID getFileId() {
+        return fileId;
+    }
+
+    /**
+     * Returns the owner. May be null.
+     *
+     * @return The owner of the file
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Returns the access type to the file. May be null
+     *
+     * @return The access type
+     */
+    public AccessType getAccessType() {
+        return accessType;
+    }
+
+    /**
+     * Returns the sharers of the file
+     *
+     * @return The sharers
+     */
+    public Set<Sharer> getSharers() {
+        return sharers;
+    }
+
+    /**
+     * Returns the checksum of the complete file
+     *
+     * @return The checksum
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns whether the path represents a file or a directory
+     *
+     * @return True, if it is a file
+     */
+    public boolean isFile() {
+        return isFile;
+    }
+
+    /**
+     * Returns the size of the file in bytes
+     *
+     * @return The file size
+     */
+    public long getTotalFileSize() {
+        return totalFileSize;
+    }
+
+    /**
+     * Returns the complete content of the file
+     *
+     * @return The content. May be null for a directory
+     */
+    public Data getData() {
+        return data;
+    }
+}
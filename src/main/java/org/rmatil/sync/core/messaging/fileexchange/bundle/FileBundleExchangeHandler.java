@@ -0,0 +1,309 @@
+package org.rmatil.sync.core.messaging.fileexchange.bundle;
+
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.core.init.client.ILocalStateResponseCallback;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.chunk.Chunk;
+import org.rmatil.sync.core.messaging.chunk.ChunkProvider;
+import org.rmatil.sync.network.api.INode;
+import org.rmatil.sync.network.api.IRequest;
+import org.rmatil.sync.network.api.IResponse;
+import org.rmatil.sync.network.core.ANetworkHandler;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.persistence.core.tree.TreePathElement;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.rmatil.sync.version.api.AccessType;
+import org.rmatil.sync.version.api.IObjectStore;
+import org.rmatil.sync.version.core.model.PathObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Pushes multiple small files or directories to other clients
+ * using a single {@link FileBundleRequest}, instead of running
+ * a {@link org.rmatil.sync.core.messaging.fileexchange.push.FilePushExchangeHandler}
+ * for each of them.
+ * <p>
+ * Files which are larger than {@link FileBundleExchangeHandler#MAX_BUNDLED_FILE_SIZE}
+ * (e.g. since they have grown in the mean time) or which could not have been
+ * written on a receiver are reported in the {@link FileBundleExchangeHandlerResult}
+ * and have to be pushed separately.
+ */
+public class FileBundleExchangeHandler extends ANetworkHandler<FileBundleExchangeHandlerResult> implements ILocalStateResponseCallback {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileBundleExchangeHandler.class);
+
+    /**
+     * The maximum size in bytes of a file to be pushed in a bundle
+     */
+    public static final int MAX_BUNDLED_FILE_SIZE = 64 * 1024; // 64KB
+
+    /**
+     * The maximum size in bytes of all files in a single bundle
+     */
+    public static final int MAX_BUNDLE_SIZE = 1024 * 1024; // 1MB
+
+    /**
+     * The id of the exchange
+     */
+    protected UUID exchangeId;
+
+    /**
+     * The client device information
+     */
+    protected ClientDevice clientDevice;
+
+    /**
+     * A storage adapter to access the synchronized folder
+     */
+    protected ITreeStorageAdapter storageAdapter;
+
+    /**
+     * The object store to read the sharers from
+     */
+    protected IObjectStore objectStore;
+
+    /**
+     * The client locations which should receive the bundle
+     */
+    protected List<NodeLocation> receivers;
+
+    /**
+     * The relative paths of the files to push
+     */
+    protected List<String> relativeFilePaths;
+
+    /**
+     * The relative paths of the files contained in the sent bundle, in the order of the bundle
+     */
+    protected List<String> bundledFilePaths;
+
+    /**
+     * The relative paths of the files which could not have been added to the bundle
+     */
+    protected List<String> skippedFilePaths;
+
+    /**
+     * A list of clients which responded to the bundle
+     */
+    protected List<IResponse> respondedClients;
+
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
+    /**
+     * @param exchangeId        The id of the exchange
+     * @param clientDevice      The client device information
+     * @param storageAdapter    A storage adapter to access the synchronized folder
+     * @param client            The client to send requests
+     * @param objectStore       The object store to read the sharers from
+     * @param receivers         A list of client locations which should receive the files
+     * @param relativeFilePaths The relative paths to the files/directories which should be pushed
+     */
+    public FileBundleExchangeHandler(UUID exchangeId, ClientDevice clientDevice, ITreeStorageAdapter storageAdapter, INode client, IObjectStore objectStore, List<NodeLocation> receivers, List<String> relativeFilePaths) {
+        super(client);
+        this.exchangeId = exchangeId;
+        this.clientDevice = clientDevice;
+        this.storageAdapter = storageAdapter;
+        this.objectStore = objectStore;
+        this.receivers = receivers;
+        this.relativeFilePaths = relativeFilePaths;
+        this.bundledFilePaths = new ArrayList<>();
+        this.skippedFilePaths = new ArrayList<>();
+        this.respondedClients = Collections.synchronizedList(new ArrayList<>());
+
+        this.identifierCache = new IdentifierCache(client);
+    }
+
+    /**
+     * Set the cache of the file ids of the node to use instead of a cache for this exchange only
+     *
+     * @param identifierCache The identifier cache
+     */
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
+    @Override
+    public void run() {
+        try {
+            List<BundledFile> bundledFiles = new ArrayList<>();
+
+            for (String relativeFilePath : this.relativeFilePaths) {
+                BundledFile bundledFile = this.createBundledFile(relativeFilePath);
+
+                if (null == bundledFile) {
+                    this.skippedFilePaths.add(relativeFilePath);
+                    continue;
+                }
+
+                bundledFiles.add(bundledFile);
+                this.bundledFilePaths.add(relativeFilePath);
+            }
+
+            logger.info("Sending bundle of " + bundledFiles.size() + " files for exchange " + this.exchangeId + " (" + this.skippedFilePaths.size() + " files have to be pushed separately)");
+
+            IRequest request = new FileBundleRequest(
+                    this.exchangeId,
+                    StatusCode.NONE,
+                    this.clientDevice,
+                    bundledFiles,
+                    this.receivers
+            );
+
+            super.sendRequest(request);
+        } catch (Exception e) {
+            logger.error("Got exception in FileBundleExchangeHandler for exchange " + this.exchangeId + ". Message: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the given file completely and creates its bundle entry
+     *
+     * @param relativeFilePath The relative path of the file to bundle
+     *
+     * @return The bundle entry or null, if the file can not be bundled
+     */
+    protected BundledFile createBundledFile(String relativeFilePath) {
+        Chunk chunk;
+        try {
+            // the whole file fits into a single chunk
+            chunk = new ChunkProvider(this.storageAdapter, this.objectStore, new TreePathElement(relativeFilePath)).getChunk(0, MAX_BUNDLED_FILE_SIZE);
+        } catch (InputOutputException | IllegalArgumentException e) {
+            logger.warn("Failed to read " + relativeFilePath + " for bundle exchange " + this.exchangeId + ". Message: " + e.getMessage());
+            return null;
+        }
+
+        if (chunk.getTotalNrOfChunks() > 1) {
+            logger.info("File " + relativeFilePath + " has grown too large to be bundled in exchange " + this.exchangeId);
+            return null;
+        }
+
+        // set the file id and owner in the same manner as for a single file push
+        UUID fileId = null;
+        String owner = null;
+        try {
+            PathObject pathObject = this.objectStore.getObjectManager().getObjectForPath(relativeFilePath);
+            if ((null != pathObject.getOwner() &&
+                    ! this.node.getUser().getUserName().equals(pathObject.getOwner()) &&
+                    AccessType.WRITE.equals(pathObject.getAccessType())) ||
+                    pathObject.isShared()) {
+                fileId = this.identifierCache.getValue(relativeFilePath);
+            }
+
+            if (null != pathObject.getOwner() &&
+                    ! this.node.getUser().getUserName().equals(pathObject.getOwner()) &&
+                    AccessType.WRITE.equals(pathObject.getAccessType())) {
+                owner = pathObject.getOwner();
+            }
+        } catch (InputOutputException e) {
+            logger.error("Failed to read path object for " + relativeFilePath + ". Message: " + e.getMessage());
+        }
+
+        return new BundledFile(
+                relativeFilePath,
+                fileId,
+                owner,
+                chunk.getAccessType(),
+                chunk.getSharers(),
+                chunk.getChecksum(),
+                chunk.isFile(),
+                chunk.getTotalFileSize(),
+                chunk.getData()
+        );
+    }
+
+    @Override
+    public List<String> getAffectedFilePaths() {
+        return new ArrayList<>(this.relativeFilePaths);
+    }
+
+    @Override
+    public void onResponse(IResponse response) {
+        if (! (response instanceof FileBundleResponse)) {
+            logger.error("Expected response to be instance of " + FileBundleResponse.class.getName() + " but got " + response.getClass().getName());
+            return;
+        }
+
+        this.respondedClients.add(response);
+        super.onResponse(response);
+    }
+
+    @Override
+    public FileBundleExchangeHandlerResult getResult() {
+        Map<String, List<NodeLocation>> failedFiles = new HashMap<>();
+        Set<String> deniedFiles = new HashSet<>();
+
+        for (String skippedFilePath : this.skippedFilePaths) {
+            failedFiles.put(skippedFilePath, new ArrayList<>(this.receivers));
+        }
+
+        List<IResponse> respondedClients;
+        synchronized (this.respondedClients) {
+            respondedClients = new ArrayList<>(this.respondedClients);
+        }
+
+        Set<UUID> respondedClientDeviceIds = new HashSet<>();
+
+        for (IResponse response : respondedClients) {
+            respondedClientDeviceIds.add(response.getClientDevice().getClientDeviceId());
+
+            NodeLocation receiver = new NodeLocation(
+                    response.getClientDevice().getUserName(),
+                    response.getClientDevice().getClientDeviceId(),
+                    response.getClientDevice().getPeerAddress()
+            );
+
+            List<StatusCode> fileStatusCodes = ((FileBundleResponse) response).getFileStatusCodes();
+            boolean isComplete = null != fileStatusCodes && fileStatusCodes.size() == this.bundledFilePaths.size();
+
+            if (! isComplete) {
+                logger.warn("Received incomplete file bundle response from client " + response.getClientDevice().getClientDeviceId() + " in exchange " + this.exchangeId);
+            }
+
+            for (int i = 0; i < this.bundledFilePaths.size(); i++) {
+                if (isComplete && StatusCode.DENIED.equals(fileStatusCodes.get(i))) {
+                    deniedFiles.add(this.bundledFilePaths.get(i));
+                    continue;
+                }
+
+                if (! isComplete || ! StatusCode.ACCEPTED.equals(fileStatusCodes.get(i))) {
+                    failedFiles.computeIfAbsent(this.bundledFilePaths.get(i), key -> new ArrayList<>()).add(receiver);
+                }
+            }
+        }
+
+        // receivers which did not respond may not have written any file
+        for (NodeLocation receiver : this.receivers) {
+            if (receiver.getClientDeviceId().equals(super.node.getClientDeviceId()) || respondedClientDeviceIds.contains(receiver.getClientDeviceId())) {
+                continue;
+            }
+
+            logger.warn("Client " + receiver.getClientDeviceId() + " did not respond to the file bundle of exchange " + this.exchangeId);
+
+            for (String bundledFilePath : this.bundledFilePaths) {
+                failedFiles.computeIfAbsent(bundledFilePath, key -> new ArrayList<>()).add(receiver);
+            }
+        }
+
+        // denied files are offered again to all clients
+        for (String deniedFile : deniedFiles) {
+            failedFiles.remove(deniedFile);
+        }
+
+        return new FileBundleExchangeHandlerResult(failedFiles, deniedFiles);
+    }
+}
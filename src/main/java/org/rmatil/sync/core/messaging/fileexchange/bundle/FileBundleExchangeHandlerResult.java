@@ -0,0 +1,55 @@
+package org.rmatil.sync.core.messaging.fileexchange.bundle;
+
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes the result of a file bundle exchange
+ */
+public class FileBundleExchangeHandlerResult {
+
+    /**
+     * The relative paths of all files which have not been written by
+     * some receivers, mapped to these receivers
+     */
+    protected Map<String, List<NodeLocation>> failedFiles;
+
+    /**
+     * The relative paths of all files which have been denied by at least one receiver
+     */
+    protected Set<String> deniedFiles;
+
+    /**
+     * @param failedFiles The relative paths of all files which have not been written, mapped to the affected receivers
+     * @param deniedFiles The relative paths of all files which have been denied by at least one receiver
+     */
+    public FileBundleExchangeHandlerResult(Map<String, List<NodeLocation>> failedFiles, Set<String> deniedFiles) {
+        this.failedFiles = failedFiles;
+        this.deniedFiles = deniedFiles;
+    }
+
+    /**
+     * Returns the relative paths of all files which have not been
+     * written by some receivers, mapped to these receivers.
+     * These files have to be pushed separately.
+     *
+     * @return The failed files
+     */
+    public Map<String, List<NodeLocation>> getFailedFiles() {
+        return failedFiles;
+    }
+
+    /**
+     * Returns the relative paths of all files which have been denied by
+     * at least one receiver since other exchanges are in progress for them.
+     * Their changes have to be offered again instead of being pushed.
+     *
+     * @return The denied files
+     */
+    public Set<String> getDeniedFiles() {
+        return deniedFiles;
+    }
+}
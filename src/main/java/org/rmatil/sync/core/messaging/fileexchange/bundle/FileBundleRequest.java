@@ -0,0 +1,44 @@
+package org.rmatil.sync.core.messaging.fileexchange.bundle;
+
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.base.ARequest;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Send this request object to clients, to push
+ * multiple small files or directories at once
+ */
+public class FileBundleRequest extends ARequest {
+
+    private static final long serialVersionUID = - 1893520147416538022L;
+
+    /**
+     * The files contained in this bundle
+     */
+    protected List<BundledFile> bundledFiles;
+
+    /**
+     * @param exchangeId        The exchange id of the request
+     * @param statusCode        The status code of the request
+     * @param clientDevice      The client device which is sending this request
+     * @param bundledFiles      The files to push
+     * @param receiverAddresses All client locations which should receive this request
+     */
+    public FileBundleRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, List<BundledFile> bundledFiles, List<NodeLocation> receiverAddresses) {
+        super(exchangeId, statusCode, clientDevice, receiverAddresses);
+        this.bundledFiles = bundledFiles;
+    }
+
+    /**
+     * Returns the files contained in this bundle
+     *
+     * @return The bundled files
+     */
+    public List<BundledFile> getBundledFiles() {
+        return bundledFiles;
+    }
+}
@@ -0,0 +1,241 @@
+package org.rmatil.sync.core.messaging.fileexchange.bundle;
+
+import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.core.eventbus.IBusEvent;
+import org.rmatil.sync.core.init.client.IIdentifierCacheRequestCallback;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.fileexchange.push.FilePushRequest;
+import org.rmatil.sync.core.messaging.fileexchange.push.FilePushRequestHandler;
+import org.rmatil.sync.core.messaging.fileexchange.push.FilePushResponse;
+import org.rmatil.sync.core.security.IAccessManager;
+import org.rmatil.sync.network.api.INode;
+import org.rmatil.sync.network.api.IRequest;
+import org.rmatil.sync.network.api.IResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.version.api.IObjectStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Handles an incoming {@link FileBundleRequest} by writing each bundled file
+ * in the same way as the {@link FilePushRequestHandler} writes a file consisting
+ * of a single chunk, i.e. including the publishing of ignore events and
+ * of owners and sharers.
+ * <p>
+ * Sends a {@link FileBundleResponse} containing a status code per file
+ * back to the client which has sent the request.
+ */
+public class FileBundleRequestHandler implements IIdentifierCacheRequestCallback {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileBundleRequestHandler.class);
+
+    /**
+     * The storage adapter to access the synchronized folder
+     */
+    protected ITreeStorageAdapter storageAdapter;
+
+    /**
+     * The object store to access versions
+     */
+    protected IObjectStore objectStore;
+
+    /**
+     * The client to send back messages
+     */
+    protected INode node;
+
+    /**
+     * The file bundle request from the sender
+     */
+    protected FileBundleRequest request;
+
+    /**
+     * The global event bus to add ignore events
+     */
+    protected MBassador<IBusEvent> globalEventBus;
+
+    /**
+     * The access manager to check for sharer's access to files
+     */
+    protected IAccessManager accessManager;
+
+    /**
+     * The cache of the file ids of the node, passed to the handlers writing the bundled files
+     */
+    protected IdentifierCache identifierCache;
+
+    @Override
+    public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
+        this.storageAdapter = storageAdapter;
+    }
+
+    @Override
+    public void setObjectStore(IObjectStore objectStore) {
+        this.objectStore = objectStore;
+    }
+
+    @Override
+    public void setGlobalEventBus(MBassador<IBusEvent> globalEventBus) {
+        this.globalEventBus = globalEventBus;
+    }
+
+    @Override
+    public void setNode(INode INode) {
+        this.node = INode;
+    }
+
+    @Override
+    public void setAccessManager(IAccessManager accessManager) {
+        this.accessManager = accessManager;
+    }
+
+    @Override
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
+    @Override
+    public void setRequest(IRequest iRequest) {
+        if (! (iRequest instanceof FileBundleRequest)) {
+            throw new IllegalArgumentException("Got request " + iRequest.getClass().getName() + " but expected " + FileBundleRequest.class.getName());
+        }
+
+        this.request = (FileBundleRequest) iRequest;
+    }
+
+    @Override
+    public void run() {
+        try {
+            logger.info("Writing bundle of " + this.request.getBundledFiles().size() + " files for exchangeId " + this.request.getExchangeId());
+
+            List<StatusCode> fileStatusCodes = new ArrayList<>();
+            for (BundledFile bundledFile : this.request.getBundledFiles()) {
+                StatusCode statusCode;
+                try {
+                    statusCode = this.writeFile(bundledFile);
+                } catch (Exception e) {
+                    logger.error("Failed to write bundled file " + bundledFile.getRelativeFilePath() + " of exchange " + this.request.getExchangeId() + ". Message: " + e.getMessage(), e);
+                    statusCode = StatusCode.ERROR;
+                }
+
+                fileStatusCodes.add(statusCode);
+            }
+
+            this.sendResponse(this.createResponse(StatusCode.ACCEPTED, fileStatusCodes));
+        } catch (Exception e) {
+            logger.error("Error in FileBundleRequestHandler for exchangeId " + this.request.getExchangeId() + ". Message: " + e.getMessage(), e);
+
+            try {
+                this.sendResponse(this.createResponse(StatusCode.ERROR, new ArrayList<>()));
+            } catch (Exception e1) {
+                logger.error("Failed to notify originating node about error in exchange " + this.request.getExchangeId() + ". Message: " + e1.getMessage(), e1);
+            }
+        }
+    }
+
+    /**
+     * Writes the given file by passing it as single chunk to a {@link FilePushRequestHandler}
+     *
+     * @param bundledFile The file to write
+     *
+     * @return {@link StatusCode#ACCEPTED} if the file has been written and its checksum matches
+     */
+    protected StatusCode writeFile(BundledFile bundledFile) {
+        // each file gets its own exchange id to keep track of its chunk
+        FilePushRequest filePushRequest = new FilePushRequest(
+                UUID.randomUUID(),
+                StatusCode.NONE,
+                this.request.getClientDevice(),
+                bundledFile.getChecksum(),
+                bundledFile.getFileId(),
+                bundledFile.getOwner(),
+                bundledFile.getAccessType(),
+                bundledFile.getSharers(),
+                bundledFile.getRelativeFilePath(),
+                bundledFile.isFile(),
+                0,
+                FileBundleExchangeHandler.MAX_BUNDLED_FILE_SIZE,
+                1,
+                bundledFile.getTotalFileSize(),
+                bundledFile.getData(),
+                null
+        );
+
+        List<IResponse> responses = new ArrayList<>();
+        FilePushRequestHandler filePushRequestHandler = new FilePushRequestHandler() {
+            @Override
+            protected void sendResponse(IResponse iResponse) {
+                // the result is returned as part of the bundle response
+                responses.add(iResponse);
+            }
+        };
+
+        filePushRequestHandler.setStorageAdapter(this.storageAdapter);
+        filePushRequestHandler.setObjectStore(this.objectStore);
+        filePushRequestHandler.setGlobalEventBus(this.globalEventBus);
+        filePushRequestHandler.setNode(this.node);
+        filePushRequestHandler.setAccessManager(this.accessManager);
+        filePushRequestHandler.setIdentifierCache(this.identifierCache);
+        filePushRequestHandler.setRequest(filePushRequest);
+        filePushRequestHandler.run();
+
+        if (responses.isEmpty()) {
+            return StatusCode.ERROR;
+        }
+
+        FilePushResponse filePushResponse = (FilePushResponse) responses.get(0);
+
+        // the push handler requests no further chunk once the file is complete
+        if (StatusCode.ACCEPTED.equals(filePushResponse.getStatusCode()) && 0 > filePushResponse.getChunkCounter()) {
+            return StatusCode.ACCEPTED;
+        }
+
+        return StatusCode.FILE_CHANGED.equals(filePushResponse.getStatusCode()) ? StatusCode.FILE_CHANGED : StatusCode.ERROR;
+    }
+
+    /**
+     * Sends the given response back to the client
+     *
+     * @param iResponse The response to send back
+     */
+    protected void sendResponse(IResponse iResponse) {
+        if (null == this.node) {
+            throw new IllegalStateException("A client instance is required to send a response back");
+        }
+
+        this.node.sendDirect(iResponse.getReceiverAddress(), iResponse);
+    }
+
+    /**
+     * Creates a new FileBundleResponse with the given status codes
+     *
+     * @param statusCode      The status code of the whole response
+     * @param fileStatusCodes The status code of each bundled file
+     *
+     * @return The created FileBundleResponse
+     */
+    protected FileBundleResponse createResponse(StatusCode statusCode, List<StatusCode> fileStatusCodes) {
+        return new FileBundleResponse(
+                this.request.getExchangeId(),
+                statusCode,
+                new ClientDevice(
+                        this.node.getUser().getUserName(),
+                        this.node.getClientDeviceId(),
+                        this.node.getPeerAddress()
+                ),
+                new NodeLocation(
+                        this.request.getClientDevice().getUserName(),
+                        this.request.getClientDevice().getClientDeviceId(),
+                        this.request.getClientDevice().getPeerAddress()
+                ),
+                fileStatusCodes
+        );
+    }
+}
@@ -0,0 +1,47 @@
+package org.rmatil.sync.core.messaging.fileexchange.bundle;
+
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.base.AResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Send this response object to clients which have
+ * previously sent a file bundle request
+ */
+public class FileBundleResponse extends AResponse {
+
+    private static final long serialVersionUID = 3107658720338926518L;
+
+    /**
+     * The status code of each bundled file, in the same
+     * order as the files of the corresponding request
+     */
+    protected List<StatusCode> fileStatusCodes;
+
+    /**
+     * @param exchangeId      The id of the file exchange
+     * @param statusCode      The status code of the response
+     * @param clientDevice    The client device which is sending this response
+     * @param receiverAddress The address of the client to which this response should be sent
+     * @param fileStatusCodes The status code of each bundled file, in the order of the request.
+     *                        {@link StatusCode#ACCEPTED} if the file has been written successfully
+     */
+    public FileBundleResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, List<StatusCode> fileStatusCodes) {
+        super(exchangeId, statusCode, clientDevice, receiverAddress);
+        this.fileStatusCodes = fileStatusCodes;
+    }
+
+    /**
+     * Returns the status code of each bundled file, in
+     * the same order as the files of the request
+     *
+     * @return The status codes of all bundled files
+     */
+    public List<StatusCode> getFileStatusCodes() {
+        return fileStatusCodes;
+    }
+}
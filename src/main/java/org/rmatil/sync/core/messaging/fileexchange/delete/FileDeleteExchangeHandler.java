@@ -1,6 +1,8 @@
 package org.rmatil.sync.core.messaging.fileexchange.delete;
 
 import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.core.NodeLocationCache;
 import org.rmatil.sync.core.eventbus.IBusEvent;
 import org.rmatil.sync.core.eventbus.IgnoreBusEvent;
 import org.rmatil.sync.core.init.client.ILocalStateResponseCallback;
@@ -20,7 +22,6 @@ import org.rmatil.sync.version.core.model.Sharer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
@@ -76,6 +77,16 @@ public class FileDeleteExchangeHandler extends ANetworkHandler<FileDeleteExchang
      */
     protected List<NodeLocation> receivers;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
+    /**
+     * The cache of the client locations of users
+     */
+    protected NodeLocationCache nodeLocationCache;
+
     /**
      * @param exchangeId     The exchange id for this exchange
      * @param clientDevice   The client device from the client starting the exchange
@@ -97,6 +108,27 @@ public class FileDeleteExchangeHandler extends ANetworkHandler<FileDeleteExchang
         this.objectStore = objectStore;
         this.receivers = receivers;
         this.deleteEvent = deleteEvent;
+
+        this.identifierCache = new IdentifierCache(client);
+        this.nodeLocationCache = new NodeLocationCache(nodeManager, 0L);
+    }
+
+    /**
+     * Set the cache of the file ids of the node to use instead of a cache for this exchange only
+     *
+     * @param identifierCache The identifier cache
+     */
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
+    /**
+     * Set the cache of the client locations of the node to use instead of fetching each lookup from the node manager
+     *
+     * @param nodeLocationCache The node location cache
+     */
+    public void setNodeLocationCache(NodeLocationCache nodeLocationCache) {
+        this.nodeLocationCache = nodeLocationCache;
     }
 
     @Override
@@ -104,25 +136,27 @@ public class FileDeleteExchangeHandler extends ANetworkHandler<FileDeleteExchang
         try {
             List<PathObject> deletedPaths = this.objectStore.getObjectManager().getChildren(this.deleteEvent.getPath().toString());
 
-            // ignore delete events from children
-            for (PathObject entry : deletedPaths) {
-                Path filePathToDelete = Paths.get(entry.getAbsolutePath());
-
-                // remove the fileId
-                this.node.getIdentifierManager().removeIdentifier(filePathToDelete.toString());
-
+            // the receivers delete the whole subtree recursively,
+            // therefore ignore delete events from children at once
+            if (! deletedPaths.isEmpty()) {
                 this.globalEventBus.publish(
                         new IgnoreBusEvent(
                                 new DeleteEvent(
-                                        filePathToDelete,
-                                        entry.getName(),
+                                        this.deleteEvent.getPath(),
+                                        this.deleteEvent.getName(),
                                         "weIgnoreTheHash",
                                         System.currentTimeMillis()
-                                )
+                                ),
+                                true
                         )
                 );
             }
 
+            for (PathObject entry : deletedPaths) {
+                // remove the fileId
+                this.identifierCache.removeIdentifier(Paths.get(entry.getAbsolutePath()).toString());
+            }
+
             PathObject deletedPath = this.objectStore.getObjectManager().getObjectForPath(this.deleteEvent.getPath().toString());
 
             String owner = null;
@@ -132,7 +166,7 @@ public class FileDeleteExchangeHandler extends ANetworkHandler<FileDeleteExchang
                     AccessType.WRITE.equals(deletedPath.getAccessType())) {
                 // we got write permissions, so we send the changes also back to the original owner of the file
                 try {
-                    fileId = super.node.getIdentifierManager().getValue(deletedPath.getAbsolutePath());
+                    fileId = this.identifierCache.getValue(deletedPath.getAbsolutePath());
                     owner = deletedPath.getOwner();
 
                 } catch (InputOutputException e) {
@@ -145,12 +179,12 @@ public class FileDeleteExchangeHandler extends ANetworkHandler<FileDeleteExchang
                 for (Sharer entry : deletedPath.getSharers()) {
                     try {
                         // ask sharer's clients to get the changes too
-                        List<NodeLocation> sharerLocations = this.nodeManager.getNodeLocations(entry.getUsername());
+                        List<NodeLocation> sharerLocations = this.nodeLocationCache.getNodeLocations(entry.getUsername());
 
                         // only add one client of the sharer. He may propagate the change then
                         // to his clients, and if a conflict occurs, there will be a new file
                         if (! sharerLocations.isEmpty()) {
-                            fileId = super.node.getIdentifierManager().getValue(deletedPath.getAbsolutePath());
+                            fileId = this.identifierCache.getValue(deletedPath.getAbsolutePath());
                             this.receivers.add(sharerLocations.get(0));
                         }
                     } catch (InputOutputException e) {
@@ -171,7 +205,13 @@ public class FileDeleteExchangeHandler extends ANetworkHandler<FileDeleteExchang
                     this.deleteEvent.getPath().toString()
             );
 
-            super.sendRequest(fileDeleteRequest);
+            try {
+                super.sendRequest(fileDeleteRequest);
+            } catch (RuntimeException e) {
+                // a receiver may have changed its location since it was cached
+                this.nodeLocationCache.invalidate(fileDeleteRequest.getReceiverAddresses());
+                throw e;
+            }
 
         } catch (Exception e) {
             logger.error("Failed to execute FileDeleteExchange. Message: " + e.getMessage(), e);
@@ -1,9 +1,10 @@
 package org.rmatil.sync.core.messaging.fileexchange.delete;
 
 import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.IdentifierCache;
 import org.rmatil.sync.core.eventbus.IBusEvent;
 import org.rmatil.sync.core.eventbus.IgnoreBusEvent;
-import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
+import org.rmatil.sync.core.init.client.IIdentifierCacheRequestCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.event.aggregator.core.events.DeleteEvent;
@@ -31,7 +32,7 @@ import java.util.List;
  *
  * @see FileDeleteExchangeHandler
  */
-public class FileDeleteRequestHandler implements ILocalStateRequestCallback {
+public class FileDeleteRequestHandler implements IIdentifierCacheRequestCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(FileDeleteExchangeHandler.class);
 
@@ -65,6 +66,11 @@ public class FileDeleteRequestHandler implements ILocalStateRequestCallback {
      */
     protected IAccessManager accessManager;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
     @Override
     public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
         this.storageAdapter = storageAdapter;
@@ -90,6 +96,11 @@ public class FileDeleteRequestHandler implements ILocalStateRequestCallback {
         this.accessManager = accessManager;
     }
 
+    @Override
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
     @Override
     public void setRequest(IRequest request) {
         if (! (request instanceof FileDeleteRequest)) {
@@ -108,7 +119,7 @@ public class FileDeleteRequestHandler implements ILocalStateRequestCallback {
             if ((null != this.request.getOwner() && this.node.getUser().getUserName().equals(this.request.getOwner())) ||
                     null != this.request.getFileId()) {
                 // we have to use our path: if we are either the owner or a sharer
-                pathToDelete = new TreePathElement(this.node.getIdentifierManager().getKey(this.request.getFileId()));
+                pathToDelete = new TreePathElement(this.identifierCache.getKey(this.request.getFileId()));
             } else {
                 pathToDelete = new TreePathElement(this.request.getPathToDelete());
             }
@@ -122,29 +133,35 @@ public class FileDeleteRequestHandler implements ILocalStateRequestCallback {
 
             try {
                 if (this.storageAdapter.exists(StorageType.DIRECTORY, pathToDelete) || this.storageAdapter.exists(StorageType.FILE, pathToDelete)) {
-                    // create ignore events for all dir contents
-                    List<TreePathElement> elementsToIgnore = new ArrayList<>();
-                    elementsToIgnore.add(pathToDelete);
-
-                    if (this.storageAdapter.isDir(pathToDelete)) {
-                        // add all directory contents to the ignored files too
-                        elementsToIgnore.addAll(this.storageAdapter.getDirectoryContents(pathToDelete));
+                    // the directory is deleted recursively: ignore the delete events
+                    // of the path and of all of its contents at once
+                    this.globalEventBus.publish(new IgnoreBusEvent(
+                            new DeleteEvent(
+                                    Paths.get(pathToDelete.getPath()),
+                                    Paths.get(pathToDelete.getPath()).getFileName().toString(),
+                                    "weIgnoreTheHash",
+                                    System.currentTimeMillis()
+                            ),
+                            this.storageAdapter.isDir(pathToDelete)
+                    ));
+
+                    List<PathObject> deletedObjects = new ArrayList<>();
+                    try {
+                        deletedObjects.add(this.objectStore.getObjectManager().getObjectForPath(pathToDelete.getPath()));
+                        deletedObjects.addAll(this.objectStore.getObjectManager().getChildren(pathToDelete.getPath()));
+                    } catch (InputOutputException e) {
+                        logger.error("Failed to read the path objects to delete from the object store: " + e.getMessage());
                     }
 
-                    for (TreePathElement element : elementsToIgnore) {
-                        this.globalEventBus.publish(new IgnoreBusEvent(
-                                new DeleteEvent(
-                                        Paths.get(element.getPath()),
-                                        Paths.get(element.getPath()).getFileName().toString(),
-                                        "weIgnoreTheHash",
-                                        System.currentTimeMillis()
-                                )
-                        ));
+                    logger.trace("Removing sharing information from object store for " + deletedObjects.size() + " paths and exchange " + this.request.getExchangeId());
+                    for (PathObject deletedObject : deletedObjects) {
+                        // only rewrite path objects which actually have connections to any sharers
+                        if (null == deletedObject || ! hasSharingInformation(deletedObject)) {
+                            continue;
+                        }
 
                         try {
-                            logger.trace("Removing sharing information from object store for file " + element.getPath() + " and exchange " + this.request.getExchangeId());
                             // remove all connections to any sharers
-                            PathObject deletedObject = this.objectStore.getObjectManager().getObjectForPath(element.getPath());
                             deletedObject.setSharers(new HashSet<>());
                             deletedObject.setIsShared(false);
                             deletedObject.setAccessType(null);
@@ -156,6 +173,11 @@ public class FileDeleteRequestHandler implements ILocalStateRequestCallback {
                         }
                     }
 
+                    // invalidates the cached access of the whole subtree
+                    this.accessManager.invalidate(pathToDelete.getPath());
+                    // the sender has already removed the file ids from the identifier manager
+                    this.identifierCache.invalidateSubtree(pathToDelete.getPath());
+
                     this.storageAdapter.delete(pathToDelete);
                 }
             } catch (InputOutputException e) {
@@ -175,6 +197,20 @@ public class FileDeleteRequestHandler implements ILocalStateRequestCallback {
         }
     }
 
+    /**
+     * Checks whether the given path object has any sharers, an owner or an access type
+     *
+     * @param pathObject The path object to check
+     *
+     * @return True, if any sharing information has to be removed
+     */
+    protected static boolean hasSharingInformation(PathObject pathObject) {
+        return pathObject.isShared() ||
+                null != pathObject.getOwner() ||
+                null != pathObject.getAccessType() ||
+                (null != pathObject.getSharers() && ! pathObject.getSharers().isEmpty());
+    }
+
     /**
      * Sends a response with the given status code back to the sender
      *
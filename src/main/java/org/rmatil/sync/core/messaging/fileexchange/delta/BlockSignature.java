@@ -0,0 +1,65 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import java.io.Serializable;
+
+/**
+ * The checksums of a single block of a file
+ * which the receiver of a delta already has
+ */
+public class BlockSignature implements Serializable {
+
+    private static final long serialVersionUID = - 3178513596243407466L;
+
+    /**
+     * The index of the block in the file, starting at 0
+     */
+    protected long blockIndex;
+
+    /**
+     * The rolling checksum of the block
+     */
+    protected int weakChecksum;
+
+    /**
+     * The hash of the block
+     */
+    protected byte[] strongChecksum;
+
+    /**
+     * @param blockIndex     The index of the block in the file, starting at 0
+     * @param weakChecksum   The rolling checksum of the block
+     * @param strongChecksum The hash of the block
+     */
+    public BlockSignature(long blockIndex, int weakChecksum, byte[] strongChecksum) {
+        this.blockIndex = blockIndex;
+        this.weakChecksum = weakChecksum;
+        this.strongChecksum = strongChecksum;
+    }
+
+    /**
+     * Returns the index of the block in the file
+     *
+     * @return The block index, starting at 0
+     */
+    public long getBlockIndex() {
+        return blockIndex;
+    }
+
+    /**
+     * Returns the rolling checksum of the block
+     *
+     * @return The weak checksum
+     */
+    public int getWeakChecksum() {
+        return weakChecksum;
+    }
+
+    /**
+     * Returns the hash of the block
+     *
+     * @return The strong checksum
+     */
+    public byte[] getStrongChecksum() {
+        return strongChecksum;
+    }
+}
@@ -0,0 +1,124 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import java.io.Serializable;
+
+/**
+ * A single step to reconstruct the new version of a file:
+ * Either copy a range of the version the receiver already has
+ * or write literal bytes of the new version.
+ */
+public class DeltaInstruction implements Serializable {
+
+    private static final long serialVersionUID = 6841077962870917034L;
+
+    /**
+     * Whether to copy from the receiver's version
+     */
+    protected boolean isCopy;
+
+    /**
+     * The offset in the receiver's version for copies,
+     * resp. in the new version for literals
+     */
+    protected long offset;
+
+    /**
+     * The number of bytes
+     */
+    protected long length;
+
+    /**
+     * The literal bytes. Null for copies and for literals which are not yet read
+     */
+    protected byte[] data;
+
+    /**
+     * @param isCopy Whether to copy from the receiver's version
+     * @param offset The offset in the receiver's version for copies, resp. in the new version for literals
+     * @param length The number of bytes
+     * @param data   The literal bytes, may be null
+     */
+    protected DeltaInstruction(boolean isCopy, long offset, long length, byte[] data) {
+        this.isCopy = isCopy;
+        this.offset = offset;
+        this.length = length;
+        this.data = data;
+    }
+
+    /**
+     * Creates an instruction to copy a range of the receiver's version
+     *
+     * @param offset The offset in the receiver's version
+     * @param length The number of bytes to copy
+     *
+     * @return The instruction
+     */
+    public static DeltaInstruction copy(long offset, long length) {
+        return new DeltaInstruction(true, offset, length, null);
+    }
+
+    /**
+     * Creates an instruction to write a range of the new version.
+     * The bytes have to be attached using {@link DeltaInstruction#withData(byte[])} before sending it.
+     *
+     * @param offset The offset in the new version
+     * @param length The number of bytes
+     *
+     * @return The instruction
+     */
+    public static DeltaInstruction literal(long offset, long length) {
+        return new DeltaInstruction(false, offset, length, null);
+    }
+
+    /**
+     * Returns a copy of this literal instruction containing the given bytes
+     *
+     * @param data The literal bytes
+     *
+     * @return The instruction with its data
+     */
+    public DeltaInstruction withData(byte[] data) {
+        if (this.isCopy) {
+            throw new IllegalStateException("Copy instructions do not have any data");
+        }
+
+        return new DeltaInstruction(false, this.offset, this.length, data);
+    }
+
+    /**
+     * Whether to copy from the receiver's version
+     *
+     * @return True, if a copy, false if a literal
+     */
+    public boolean isCopy() {
+        return isCopy;
+    }
+
+    /**
+     * Returns the offset in the receiver's version for copies,
+     * resp. in the new version for literals
+     *
+     * @return The offset in bytes
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the number of bytes
+     *
+     * @return The length in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the literal bytes
+     *
+     * @return The data or null, if this is a copy
+     */
+    public byte[] getData() {
+        return data;
+    }
+}
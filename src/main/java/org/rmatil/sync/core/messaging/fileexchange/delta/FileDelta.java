@@ -0,0 +1,394 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes and applies rsync-like deltas between two versions of a file.
+ * <p>
+ * The receiver splits its version into blocks and computes
+ * a {@link BlockSignature} for each of them. The sender then searches
+ * these blocks at every offset of its version using a {@link RollingChecksum}
+ * and verifies candidates by their hash. Found blocks are described
+ * as copies, everything else is sent as literal bytes.
+ */
+public class FileDelta {
+
+    /**
+     * The minimal size of a block
+     */
+    public static final int MIN_BLOCK_SIZE = 2 * 1024;
+
+    /**
+     * The maximal size of a block
+     */
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    protected static final int BLOCK_SIZE_ALIGNMENT = 1024;
+
+    protected static final int MIN_BUFFER_SIZE = 1024 * 1024;
+
+    protected static final String STRONG_CHECKSUM_ALGORITHM = "MD5";
+
+    /**
+     * Returns the block size to use for a file of the given size.
+     * Like rsync, the square root of the file size is used, bounded by
+     * {@link FileDelta#MIN_BLOCK_SIZE} and {@link FileDelta#MAX_BLOCK_SIZE}.
+     *
+     * @param fileSize The size of the receiver's version in bytes
+     *
+     * @return The block size in bytes
+     */
+    public static int getBlockSize(long fileSize) {
+        long blockSize = (long) Math.sqrt(fileSize);
+        blockSize = (blockSize / BLOCK_SIZE_ALIGNMENT) * BLOCK_SIZE_ALIGNMENT;
+
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+
+    /**
+     * Computes the signatures of all full blocks of the given file.
+     * A trailing partial block is not included, its bytes are sent as literal.
+     *
+     * @param file      The file of which to compute the signatures
+     * @param blockSize The block size in bytes
+     *
+     * @return The signatures ordered by their block index
+     *
+     * @throws IOException If reading the file failed
+     */
+    public static List<BlockSignature> computeSignatures(Path file, int blockSize)
+            throws IOException {
+        List<BlockSignature> signatures = new ArrayList<>();
+        MessageDigest messageDigest = createMessageDigest();
+
+        byte[] block = new byte[blockSize];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            long blockIndex = 0;
+            while (readFully(inputStream, block) == blockSize) {
+                RollingChecksum rollingChecksum = new RollingChecksum(block, 0, blockSize);
+                signatures.add(new BlockSignature(blockIndex, rollingChecksum.getValue(), messageDigest.digest(block)));
+                blockIndex++;
+            }
+        }
+
+        return signatures;
+    }
+
+    /**
+     * Computes the instructions to reconstruct the given file
+     * from the version described by the signatures.
+     * Literal instructions only contain the range of the given file,
+     * see {@link FileDelta#toBatches(List, long)} and {@link DeltaInstruction#withData(byte[])}.
+     *
+     * @param file       The new version of the file
+     * @param blockSize  The block size used to compute the signatures
+     * @param signatures The signatures of the receiver's version
+     *
+     * @return The instructions in the order they have to be applied
+     *
+     * @throws IOException If reading the file failed
+     */
+    public static List<DeltaInstruction> computeDelta(Path file, int blockSize, List<BlockSignature> signatures)
+            throws IOException {
+        Map<Integer, List<BlockSignature>> signaturesByWeakChecksum = new HashMap<>();
+        for (BlockSignature signature : signatures) {
+            signaturesByWeakChecksum.computeIfAbsent(signature.getWeakChecksum(), k -> new ArrayList<>()).add(signature);
+        }
+
+        List<DeltaInstruction> delta = new ArrayList<>();
+        MessageDigest messageDigest = createMessageDigest();
+
+        byte[] buffer = new byte[Math.max(MIN_BUFFER_SIZE, 2 * blockSize)];
+
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            // the offset in the file of the first byte in the buffer
+            long bufferOffset = 0;
+            int bufferLength = readFully(inputStream, buffer);
+            boolean isEndOfFile = bufferLength < buffer.length;
+
+            // the start of the current window and the start of bytes not yet described by an instruction
+            int windowStart = 0;
+            int literalStart = 0;
+            RollingChecksum rollingChecksum = null;
+
+            while (true) {
+                if (windowStart + blockSize > bufferLength && ! isEndOfFile) {
+                    // keep the pending literal bytes and the current window, drop everything before
+                    int keepFrom = Math.min(literalStart, windowStart);
+                    System.arraycopy(buffer, keepFrom, buffer, 0, bufferLength - keepFrom);
+                    bufferLength -= keepFrom;
+                    bufferOffset += keepFrom;
+                    windowStart -= keepFrom;
+                    literalStart -= keepFrom;
+
+                    int read = readFully(inputStream, buffer, bufferLength, buffer.length - bufferLength);
+                    bufferLength += read;
+                    isEndOfFile = bufferLength < buffer.length;
+                }
+
+                if (windowStart + blockSize > bufferLength) {
+                    break;
+                }
+
+                if (null == rollingChecksum) {
+                    rollingChecksum = new RollingChecksum(buffer, windowStart, blockSize);
+                }
+
+                BlockSignature match = null;
+                List<BlockSignature> candidates = signaturesByWeakChecksum.get(rollingChecksum.getValue());
+                if (null != candidates) {
+                    messageDigest.update(buffer, windowStart, blockSize);
+                    byte[] strongChecksum = messageDigest.digest();
+
+                    for (BlockSignature candidate : candidates) {
+                        if (Arrays.equals(strongChecksum, candidate.getStrongChecksum())) {
+                            match = candidate;
+                            break;
+                        }
+                    }
+                }
+
+                if (null != match) {
+                    if (literalStart < windowStart) {
+                        addLiteral(delta, bufferOffset + literalStart, windowStart - literalStart);
+                    }
+
+                    addCopy(delta, match.getBlockIndex() * blockSize, blockSize);
+
+                    windowStart += blockSize;
+                    literalStart = windowStart;
+                    rollingChecksum = null;
+                    continue;
+                }
+
+                if (windowStart + blockSize < bufferLength) {
+                    rollingChecksum.roll(buffer[windowStart], buffer[windowStart + blockSize]);
+                } else {
+                    // the next byte is not yet buffered
+                    rollingChecksum = null;
+                }
+
+                windowStart++;
+
+                // bound the pending literal range to not keep it in the buffer forever
+                if (windowStart - literalStart >= buffer.length / 2) {
+                    addLiteral(delta, bufferOffset + literalStart, windowStart - literalStart);
+                    literalStart = windowStart;
+                }
+            }
+
+            if (literalStart < bufferLength) {
+                addLiteral(delta, bufferOffset + literalStart, bufferLength - literalStart);
+            }
+        }
+
+        return delta;
+    }
+
+    /**
+     * Splits the given instructions into batches, each containing
+     * at most the given number of literal bytes. Literal ranges
+     * exceeding this size are split.
+     *
+     * @param delta          The instructions to split
+     * @param maxLiteralSize The maximal number of literal bytes per batch
+     *
+     * @return The batches in the order they have to be applied, at least one
+     */
+    public static List<List<DeltaInstruction>> toBatches(List<DeltaInstruction> delta, long maxLiteralSize) {
+        List<List<DeltaInstruction>> batches = new ArrayList<>();
+        List<DeltaInstruction> batch = new ArrayList<>();
+        long batchLiteralSize = 0;
+
+        for (DeltaInstruction instruction : delta) {
+            if (instruction.isCopy()) {
+                batch.add(instruction);
+                continue;
+            }
+
+            long offset = instruction.getOffset();
+            long remaining = instruction.getLength();
+            while (remaining > 0) {
+                if (batchLiteralSize >= maxLiteralSize) {
+                    batches.add(batch);
+                    batch = new ArrayList<>();
+                    batchLiteralSize = 0;
+                }
+
+                long length = Math.min(remaining, maxLiteralSize - batchLiteralSize);
+                batch.add(DeltaInstruction.literal(offset, length));
+                batchLiteralSize += length;
+                offset += length;
+                remaining -= length;
+            }
+        }
+
+        batches.add(batch);
+
+        return batches;
+    }
+
+    /**
+     * Returns the number of literal bytes of the given instructions
+     *
+     * @param delta The instructions
+     *
+     * @return The number of bytes which have to be sent
+     */
+    public static long getLiteralSize(List<DeltaInstruction> delta) {
+        long literalSize = 0;
+        for (DeltaInstruction instruction : delta) {
+            if (! instruction.isCopy()) {
+                literalSize += instruction.getLength();
+            }
+        }
+
+        return literalSize;
+    }
+
+    /**
+     * Writes the bytes described by the given instructions to the output stream
+     *
+     * @param baseFile     The version of the file the signatures were computed of
+     * @param instructions The instructions, literals must contain their data
+     * @param outputStream The stream to write the reconstructed bytes to
+     *
+     * @throws IOException If the base file is shorter than expected, literal data is missing or writing failed
+     */
+    public static void apply(Path baseFile, List<DeltaInstruction> instructions, OutputStream outputStream)
+            throws IOException {
+        byte[] buffer = null;
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(baseFile.toFile(), "r")) {
+            for (DeltaInstruction instruction : instructions) {
+                if (! instruction.isCopy()) {
+                    if (null == instruction.getData() || instruction.getData().length != instruction.getLength()) {
+                        throw new IOException("Literal at offset " + instruction.getOffset() + " does not contain its " + instruction.getLength() + " bytes");
+                    }
+
+                    outputStream.write(instruction.getData());
+                    continue;
+                }
+
+                if (null == buffer) {
+                    buffer = new byte[MAX_BLOCK_SIZE];
+                }
+
+                randomAccessFile.seek(instruction.getOffset());
+                long remaining = instruction.getLength();
+                while (remaining > 0) {
+                    int read = randomAccessFile.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("Base file " + baseFile.toString() + " is shorter than the copied range at offset " + instruction.getOffset());
+                    }
+
+                    outputStream.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+    }
+
+    /**
+     * Overwrites the content of the target file with the content of the source file.
+     * Contrary to moving the source, the target is written in place, so that
+     * only modifications of it are observed by file watchers.
+     *
+     * @param source The file containing the new content
+     * @param target The file to overwrite
+     *
+     * @throws IOException If reading or writing failed
+     */
+    public static void overwrite(Path source, Path target)
+            throws IOException {
+        try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            long size = sourceChannel.size();
+
+            long position = 0;
+            while (position < size) {
+                position += targetChannel.transferFrom(sourceChannel, position, size - position);
+            }
+
+            // drop the rest of a previously larger version
+            targetChannel.truncate(size);
+        }
+    }
+
+    /**
+     * Appends a copy instruction, merging it with a directly preceding copy
+     */
+    protected static void addCopy(List<DeltaInstruction> delta, long offset, long length) {
+        if (! delta.isEmpty()) {
+            DeltaInstruction last = delta.get(delta.size() - 1);
+            if (last.isCopy() && last.getOffset() + last.getLength() == offset) {
+                delta.set(delta.size() - 1, DeltaInstruction.copy(last.getOffset(), last.getLength() + length));
+                return;
+            }
+        }
+
+        delta.add(DeltaInstruction.copy(offset, length));
+    }
+
+    /**
+     * Appends a literal instruction, merging it with a directly preceding literal
+     */
+    protected static void addLiteral(List<DeltaInstruction> delta, long offset, long length) {
+        if (! delta.isEmpty()) {
+            DeltaInstruction last = delta.get(delta.size() - 1);
+            if (! last.isCopy() && last.getOffset() + last.getLength() == offset) {
+                delta.set(delta.size() - 1, DeltaInstruction.literal(last.getOffset(), last.getLength() + length));
+                return;
+            }
+        }
+
+        delta.add(DeltaInstruction.literal(offset, length));
+    }
+
+    protected static MessageDigest createMessageDigest() {
+        try {
+            return MessageDigest.getInstance(STRONG_CHECKSUM_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every Java platform has to support " + STRONG_CHECKSUM_ALGORITHM, e);
+        }
+    }
+
+    protected static int readFully(InputStream inputStream, byte[] buffer)
+            throws IOException {
+        return readFully(inputStream, buffer, 0, buffer.length);
+    }
+
+    /**
+     * Reads until the given length is reached or the stream ends
+     *
+     * @return The number of bytes read
+     */
+    protected static int readFully(InputStream inputStream, byte[] buffer, int offset, int length)
+            throws IOException {
+        int totalRead = 0;
+        while (totalRead < length) {
+            int read = inputStream.read(buffer, offset + totalRead, length - totalRead);
+            if (read < 0) {
+                break;
+            }
+
+            totalRead += read;
+        }
+
+        return totalRead;
+    }
+}
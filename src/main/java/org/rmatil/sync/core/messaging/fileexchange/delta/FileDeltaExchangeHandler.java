@@ -0,0 +1,537 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import org.rmatil.sync.core.init.client.ILocalStateResponseCallback;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.network.api.INode;
+import org.rmatil.sync.network.api.IResponse;
+import org.rmatil.sync.network.core.ANetworkHandler;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.persistence.core.tree.TreePathElement;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends only the changed parts of a modified file to clients
+ * which already have a previous version of it.
+ * <p>
+ * Each receiver first returns the block signatures of its version
+ * (see {@link FileSignatureRequest}). The delta against these is then computed on
+ * a worker thread and sent in batches of at most {@link FileDeltaExchangeHandler#MAX_LITERAL_BATCH_SIZE}
+ * literal bytes, waiting for each batch to be applied before sending the next one.
+ * <p>
+ * Receivers which do not have the file, whose delta would not be considerably
+ * smaller than the file or which fail to reconstruct it are returned in the
+ * {@link FileDeltaExchangeHandlerResult} and have to get the whole file pushed.
+ */
+public class FileDeltaExchangeHandler extends ANetworkHandler<FileDeltaExchangeHandlerResult> implements ILocalStateResponseCallback {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileDeltaExchangeHandler.class);
+
+    /**
+     * Wait a maximum of 2 minutes for a delta exchange to complete
+     */
+    protected static final long MAX_FILE_WAITNG_TIME = 120000L;
+
+    /**
+     * Files smaller than this are always pushed completely,
+     * since the additional round trip is not worth it
+     */
+    public static final long MIN_FILE_SIZE = 4L * 1024L * 1024L; // 4MB
+
+    /**
+     * The maximal number of literal bytes sent in one batch
+     */
+    protected static final long MAX_LITERAL_BATCH_SIZE = 1024L * 1024L; // 1MB
+
+    /**
+     * The fraction of the file size the literal bytes of a delta must stay below.
+     * Otherwise the whole file is pushed instead
+     */
+    protected static final double MAX_LITERAL_FRACTION = 0.9d;
+
+    protected static final AtomicInteger deltaThreadCounter = new AtomicInteger(0);
+
+    /**
+     * Computes deltas and sends their batches, shared among all exchanges
+     */
+    protected static final ExecutorService deltaExecutor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()), runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setName("FileDeltaWorker-" + deltaThreadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The id of the delta exchange
+     */
+    protected UUID exchangeId;
+
+    /**
+     * A storage adapter to access the synchronized folder
+     */
+    protected ITreeStorageAdapter storageAdapter;
+
+    /**
+     * The client device information
+     */
+    protected ClientDevice clientDevice;
+
+    /**
+     * The relative path to the modified file
+     */
+    protected String relativeFilePath;
+
+    /**
+     * A list of client locations which should receive the changes
+     */
+    protected List<NodeLocation> receivers;
+
+    /**
+     * The clients which have to get the whole file pushed
+     */
+    protected List<NodeLocation> receiversInNeedOfFile;
+
+    /**
+     * The clients which denied the delta since they are exchanging the file themselves
+     */
+    protected List<NodeLocation> deniedReceivers;
+
+    /**
+     * The state of the transfer to each receiver, keyed by the exchange id of their sub request
+     */
+    protected Map<UUID, DeltaTransfer> deltaTransfers;
+
+    /**
+     * A count down latch to check if all clients have finished.
+     * We have to use this one instead of {@link ANetworkHandler#countDownLatch} since
+     * we are sending the batches as subrequests one by one
+     */
+    protected CountDownLatch deltaCountDownLatch;
+
+    /**
+     * The number of clients to which the exchange was sent to
+     */
+    protected int clientCounter;
+
+    /**
+     * The countdown latch which is completed
+     * once the list with all receivers is initialised
+     */
+    protected CountDownLatch initReceiverLatch;
+
+    /**
+     * @param exchangeId       The id of the delta exchange
+     * @param clientDevice     The client device information
+     * @param storageAdapter   A storage adapter to access the synchronized folder
+     * @param client           The client to send requests
+     * @param receivers        A list of client locations which should receive the changes
+     * @param relativeFilePath The relative path to the modified file
+     */
+    public FileDeltaExchangeHandler(UUID exchangeId, ClientDevice clientDevice, ITreeStorageAdapter storageAdapter, INode client, List<NodeLocation> receivers, String relativeFilePath) {
+        super(client);
+        this.exchangeId = exchangeId;
+        this.clientDevice = clientDevice;
+        this.storageAdapter = storageAdapter;
+        this.receivers = receivers;
+        this.relativeFilePath = relativeFilePath;
+        this.receiversInNeedOfFile = Collections.synchronizedList(new ArrayList<>());
+        this.deniedReceivers = Collections.synchronizedList(new ArrayList<>());
+        this.deltaTransfers = new ConcurrentHashMap<>();
+        this.initReceiverLatch = new CountDownLatch(1);
+    }
+
+    @Override
+    public void run() {
+        try {
+            // check whether the own client is also in the list (should be usually, but you never know...)
+            this.clientCounter = this.receivers.size();
+            for (NodeLocation location : this.receivers) {
+                if (location.getPeerAddress().equals(this.node.getPeerAddress())) {
+                    this.clientCounter--;
+                    break;
+                }
+            }
+
+            this.deltaCountDownLatch = new CountDownLatch(this.clientCounter);
+            this.initReceiverLatch.countDown();
+
+            for (NodeLocation location : this.receivers) {
+                if (location.getPeerAddress().equals(this.node.getPeerAddress())) {
+                    continue;
+                }
+
+                UUID uuid = UUID.randomUUID();
+                logger.info("Requesting signatures of " + this.relativeFilePath + " as subRequest of " + this.exchangeId + " with id " + uuid + " from client " + location.getPeerAddress().inetAddress().getHostName() + ":" + location.getPeerAddress().tcpPort());
+                this.deltaTransfers.put(uuid, new DeltaTransfer(location));
+
+                // add callback handler for sub request
+                super.node.getObjectDataReplyHandler().addResponseCallbackHandler(uuid, this);
+
+                super.sendRequest(new FileSignatureRequest(
+                        uuid,
+                        StatusCode.NONE,
+                        this.clientDevice,
+                        location,
+                        this.relativeFilePath
+                ));
+            }
+        } catch (Exception e) {
+            logger.error("Failed to execute FileDeltaExchangeHandler. Message: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<String> getAffectedFilePaths() {
+        List<String> affectedPaths = new ArrayList<>();
+        affectedPaths.add(this.relativeFilePath);
+
+        return affectedPaths;
+    }
+
+    @Override
+    public void onResponse(IResponse response) {
+        DeltaTransfer deltaTransfer = this.deltaTransfers.get(response.getExchangeId());
+
+        if (null == deltaTransfer) {
+            logger.info("Ignoring response for already finished sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId);
+            return;
+        }
+
+        if (! (response instanceof FileSignatureResponse) && ! (response instanceof FileDeltaResponse)) {
+            logger.error("Expected response to be instance of " + FileSignatureResponse.class.getName() + " or " + FileDeltaResponse.class.getName() + " but got " + response.getClass().getName());
+            return;
+        }
+
+        // computing the delta and reading literal bytes must not block the thread delivering responses
+        deltaExecutor.execute(() -> {
+            synchronized (deltaTransfer) {
+                if (deltaTransfer != this.deltaTransfers.get(response.getExchangeId())) {
+                    // the transfer has been finished or cancelled in the meantime
+                    return;
+                }
+
+                try {
+                    if (response instanceof FileSignatureResponse) {
+                        this.onSignatureResponse((FileSignatureResponse) response, deltaTransfer);
+                    } else {
+                        this.onDeltaResponse((FileDeltaResponse) response, deltaTransfer);
+                    }
+                } catch (Exception e) {
+                    logger.error("Failed to handle response for sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId + ". Pushing the whole file. Message: " + e.getMessage(), e);
+                    this.finish(response, true);
+                }
+            }
+        });
+    }
+
+    @Override
+    public FileDeltaExchangeHandlerResult getResult() {
+        List<NodeLocation> receiversInNeedOfFile;
+        synchronized (this.receiversInNeedOfFile) {
+            receiversInNeedOfFile = new ArrayList<>(this.receiversInNeedOfFile);
+        }
+
+        List<NodeLocation> deniedReceivers;
+        synchronized (this.deniedReceivers) {
+            deniedReceivers = new ArrayList<>(this.deniedReceivers);
+        }
+
+        return new FileDeltaExchangeHandlerResult(receiversInNeedOfFile, deniedReceivers);
+    }
+
+    @Override
+    public void await()
+            throws InterruptedException {
+        // only wait for parent if we actually have sent a request
+        if (this.clientCounter > 0) {
+            super.await();
+        }
+
+        // wait for receivers to be initialised
+        this.initReceiverLatch.await();
+
+        this.deltaCountDownLatch.await(MAX_FILE_WAITNG_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void await(long timeout, TimeUnit timeUnit)
+            throws InterruptedException {
+        // only wait for parent if we actually have sent a request
+        if (this.clientCounter > 0) {
+            super.await(timeout, timeUnit);
+        }
+
+        // wait for receivers to be initialised
+        this.initReceiverLatch.await(timeout, timeUnit);
+
+        this.deltaCountDownLatch.await(timeout, timeUnit);
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return null != this.deltaCountDownLatch && 0L == this.deltaCountDownLatch.getCount();
+    }
+
+    /**
+     * Computes the delta against the returned signatures and sends its first batch.
+     * Callers must hold the lock of the delta transfer.
+     *
+     * @param response      The signatures of the receiver
+     * @param deltaTransfer The state of the transfer to the receiver
+     */
+    protected void onSignatureResponse(FileSignatureResponse response, DeltaTransfer deltaTransfer) {
+        if (StatusCode.DENIED.equals(response.getStatusCode())) {
+            this.deny(response);
+            return;
+        }
+
+        if (! StatusCode.ACCEPTED.equals(response.getStatusCode())) {
+            logger.info("Receiver returned " + response.getStatusCode() + " instead of signatures for sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId + ". Pushing the whole file");
+            this.finish(response, true);
+            return;
+        }
+
+        try {
+            TreePathElement pathElement = new TreePathElement(this.relativeFilePath);
+            Path file = Paths.get(this.storageAdapter.getRootDir().getPath()).resolve(pathElement.getPath());
+
+            long fileSize = this.storageAdapter.getMetaInformation(pathElement).getTotalFileSize();
+            List<DeltaInstruction> delta = FileDelta.computeDelta(file, response.getBlockSize(), response.getSignatures());
+            long literalSize = FileDelta.getLiteralSize(delta);
+
+            if (literalSize >= fileSize * MAX_LITERAL_FRACTION) {
+                logger.info("Delta of " + this.relativeFilePath + " contains " + literalSize + " of " + fileSize + " bytes for sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId + ". Pushing the whole file");
+                this.finish(response, true);
+                return;
+            }
+
+            logger.info("Sending delta of " + this.relativeFilePath + " with " + literalSize + " of " + fileSize + " bytes for sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId);
+
+            deltaTransfer.checksum = this.storageAdapter.getChecksum(pathElement);
+            deltaTransfer.totalFileSize = fileSize;
+            deltaTransfer.batches = FileDelta.toBatches(delta, MAX_LITERAL_BATCH_SIZE);
+
+            this.sendBatch(response.getExchangeId(), deltaTransfer, 0);
+        } catch (IOException | InputOutputException e) {
+            logger.error("Failed to compute the delta of " + this.relativeFilePath + " for sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId + ". Pushing the whole file. Message: " + e.getMessage());
+            this.finish(response, true);
+        }
+    }
+
+    /**
+     * Sends the next batch of the delta or finishes the transfer after the last one.
+     * Callers must hold the lock of the delta transfer.
+     *
+     * @param response      The acknowledgement of the receiver
+     * @param deltaTransfer The state of the transfer to the receiver
+     */
+    protected void onDeltaResponse(FileDeltaResponse response, DeltaTransfer deltaTransfer) {
+        if (StatusCode.DENIED.equals(response.getStatusCode())) {
+            this.deny(response);
+            return;
+        }
+
+        if (! StatusCode.ACCEPTED.equals(response.getStatusCode())) {
+            // the local version of the receiver has changed or it failed to apply the batch
+            logger.info("Receiver returned " + response.getStatusCode() + " for batch " + response.getAcknowledgedBatch() + " of sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId + ". Pushing the whole file");
+            this.finish(response, true);
+            return;
+        }
+
+        if (null == deltaTransfer.batches) {
+            logger.error("Got an acknowledgement for sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId + " before sending any batch. Pushing the whole file");
+            this.finish(response, true);
+            return;
+        }
+
+        long nextBatch = response.getAcknowledgedBatch() + 1;
+        if (nextBatch >= deltaTransfer.batches.size()) {
+            logger.info("Receiver reconstructed " + this.relativeFilePath + " for sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId);
+            this.finish(response, false);
+            return;
+        }
+
+        try {
+            this.sendBatch(response.getExchangeId(), deltaTransfer, (int) nextBatch);
+        } catch (InputOutputException e) {
+            logger.error("Failed to read batch " + nextBatch + " of " + this.relativeFilePath + " for sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId + ". Pushing the whole file. Message: " + e.getMessage());
+            this.finish(response, true);
+        }
+    }
+
+    /**
+     * Reads the literal bytes of the given batch and sends it to the receiver
+     *
+     * @param exchangeId    The exchange id of the sub request
+     * @param deltaTransfer The state of the transfer to the receiver
+     * @param batchCounter  The number of the batch to send
+     *
+     * @throws InputOutputException If reading the literal bytes failed, e.g. because the file has changed
+     */
+    protected void sendBatch(UUID exchangeId, DeltaTransfer deltaTransfer, int batchCounter)
+            throws InputOutputException {
+        TreePathElement pathElement = new TreePathElement(this.relativeFilePath);
+
+        ArrayList<DeltaInstruction> instructions = new ArrayList<>();
+        for (DeltaInstruction instruction : deltaTransfer.batches.get(batchCounter)) {
+            if (instruction.isCopy()) {
+                instructions.add(instruction);
+                continue;
+            }
+
+            byte[] data = this.storageAdapter.read(pathElement, instruction.getOffset(), (int) instruction.getLength());
+            if (data.length != instruction.getLength()) {
+                throw new InputOutputException("File " + this.relativeFilePath + " has been truncated while sending its delta");
+            }
+
+            instructions.add(instruction.withData(data));
+        }
+
+        super.sendRequest(new FileDeltaRequest(
+                exchangeId,
+                StatusCode.NONE,
+                this.clientDevice,
+                deltaTransfer.receiver,
+                this.relativeFilePath,
+                deltaTransfer.checksum,
+                deltaTransfer.totalFileSize,
+                batchCounter,
+                batchCounter == deltaTransfer.batches.size() - 1,
+                instructions
+        ));
+    }
+
+    /**
+     * Finishes the transfer to the receiver of the given response, which denied it
+     * since other exchanges are in progress for the file on the receiver.
+     * The file is not pushed to the receiver, but the change has to be offered again.
+     *
+     * @param response The denying response of the receiver
+     */
+    protected void deny(IResponse response) {
+        logger.info("Receiver denied sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId + " since other exchanges are in progress for " + this.relativeFilePath);
+
+        DeltaTransfer deltaTransfer = this.deltaTransfers.remove(response.getExchangeId());
+        if (null == deltaTransfer) {
+            // another response has already finished this sub exchange
+            return;
+        }
+
+        this.deniedReceivers.add(deltaTransfer.receiver);
+
+        super.node.getObjectDataReplyHandler().removeResponseCallbackHandler(response.getExchangeId());
+        super.onResponse(response);
+        this.deltaCountDownLatch.countDown();
+    }
+
+    /**
+     * Finishes the transfer to the receiver of the given response
+     *
+     * @param response     The last response of the receiver
+     * @param isFileNeeded Whether the whole file has to be pushed to the receiver
+     */
+    protected void finish(IResponse response, boolean isFileNeeded) {
+        DeltaTransfer deltaTransfer = this.deltaTransfers.remove(response.getExchangeId());
+        if (null == deltaTransfer) {
+            // another response has already finished this sub exchange
+            return;
+        }
+
+        if (isFileNeeded) {
+            this.receiversInNeedOfFile.add(deltaTransfer.receiver);
+        }
+
+        super.node.getObjectDataReplyHandler().removeResponseCallbackHandler(response.getExchangeId());
+        super.onResponse(response);
+        this.deltaCountDownLatch.countDown();
+    }
+
+    /**
+     * Aborts the transfers to all receivers which have not finished yet,
+     * e.g. after waiting for them timed out. Their callbacks are removed,
+     * they are told to drop their staging files and are added to the
+     * receivers which have to get the whole file pushed.
+     */
+    public void cancel() {
+        for (Map.Entry<UUID, DeltaTransfer> entry : this.deltaTransfers.entrySet()) {
+            DeltaTransfer deltaTransfer = entry.getValue();
+
+            // wait for a batch currently being sent, no further batch is sent afterwards
+            synchronized (deltaTransfer) {
+                if (! this.deltaTransfers.remove(entry.getKey(), deltaTransfer)) {
+                    continue;
+                }
+
+                logger.info("Cancelling unfinished sub exchange " + entry.getKey() + " of exchange " + this.exchangeId + ". Pushing the whole file");
+
+                super.node.getObjectDataReplyHandler().removeResponseCallbackHandler(entry.getKey());
+                this.receiversInNeedOfFile.add(deltaTransfer.receiver);
+
+                try {
+                    super.sendRequest(new FileDeltaRequest(
+                            entry.getKey(),
+                            StatusCode.REQUEST_OBSOLETE,
+                            this.clientDevice,
+                            deltaTransfer.receiver,
+                            this.relativeFilePath,
+                            null,
+                            - 1,
+                            - 1,
+                            true,
+                            new ArrayList<>()
+                    ));
+                } catch (Exception e) {
+                    logger.error("Failed to cancel sub exchange " + entry.getKey() + " of exchange " + this.exchangeId + " on the receiver. Message: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of the transfer to a single receiver
+     */
+    protected static class DeltaTransfer {
+
+        /**
+         * The client receiving the delta
+         */
+        protected NodeLocation receiver;
+
+        /**
+         * The checksum of the file the delta has been computed of
+         */
+        protected String checksum;
+
+        /**
+         * The size of the file the delta has been computed of
+         */
+        protected long totalFileSize;
+
+        /**
+         * The batches of the delta, null until the signatures are received
+         */
+        protected List<List<DeltaInstruction>> batches;
+
+        protected DeltaTransfer(NodeLocation receiver) {
+            this.receiver = receiver;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.List;
+
+/**
+ * Use this object to specify a result after a delta
+ * exchange is complete
+ *
+ * @see FileDeltaRequest
+ */
+public class FileDeltaExchangeHandlerResult {
+
+    /**
+     * The clients which could not reconstruct the file from a delta
+     */
+    protected List<NodeLocation> receiversInNeedOfFile;
+
+    /**
+     * The clients which denied the delta
+     */
+    protected List<NodeLocation> deniedReceivers;
+
+    /**
+     * @param receiversInNeedOfFile The clients which could not reconstruct the file from a delta
+     * @param deniedReceivers       The clients which denied the delta
+     */
+    public FileDeltaExchangeHandlerResult(List<NodeLocation> receiversInNeedOfFile, List<NodeLocation> deniedReceivers) {
+        this.receiversInNeedOfFile = receiversInNeedOfFile;
+        this.deniedReceivers = deniedReceivers;
+    }
+
+    /**
+     * Returns the clients which could not reconstruct the file from a delta,
+     * e.g. because they did not have the file or the delta was not smaller
+     * than the file. The whole file has to be pushed to them.
+     *
+     * @return The clients in need of the whole file
+     */
+    public List<NodeLocation> getReceiversInNeedOfFile() {
+        return receiversInNeedOfFile;
+    }
+
+    /**
+     * Returns the clients which denied the delta since other exchanges
+     * are in progress for the file on them. The change has to be offered again.
+     *
+     * @return The clients which denied the delta
+     */
+    public List<NodeLocation> getDeniedReceivers() {
+        return deniedReceivers;
+    }
+}
@@ -0,0 +1,131 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.base.ARequest;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Send this request to clients which have returned the signatures
+ * of their version of a file, to transfer the instructions to
+ * reconstruct the new version. Large deltas are split into
+ * several batches which have to be applied in order.
+ * <p>
+ * A request with {@link StatusCode#REQUEST_OBSOLETE} cancels the exchange,
+ * e.g. after the sender stopped waiting for the receiver.
+ */
+public class FileDeltaRequest extends ARequest {
+
+    private static final long serialVersionUID = 2203826014687411239L;
+
+    /**
+     * The relative path to the file which is reconstructed
+     */
+    protected String relativeFilePath;
+
+    /**
+     * The checksum of the new version of the file
+     */
+    protected String checksum;
+
+    /**
+     * The size of the new version of the file in bytes
+     */
+    protected long totalFileSize;
+
+    /**
+     * The number of this batch, starting at 0
+     */
+    protected long batchCounter;
+
+    /**
+     * Whether this is the last batch of the delta
+     */
+    protected boolean isLastBatch;
+
+    /**
+     * The instructions of this batch
+     */
+    protected ArrayList<DeltaInstruction> instructions;
+
+    /**
+     * @param exchangeId       The exchange id of the request
+     * @param statusCode       The status code of the request
+     * @param clientDevice     The client device which is sending this request
+     * @param receiverAddress  The receiver of this request
+     * @param relativeFilePath The relative path to the file which is reconstructed
+     * @param checksum         The checksum of the new version of the file
+     * @param totalFileSize    The size of the new version of the file in bytes
+     * @param batchCounter     The number of this batch, starting at 0
+     * @param isLastBatch      Whether this is the last batch of the delta
+     * @param instructions     The instructions of this batch, literals containing their data
+     */
+    public FileDeltaRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, String relativeFilePath, String checksum, long totalFileSize, long batchCounter, boolean isLastBatch, ArrayList<DeltaInstruction> instructions) {
+        super(exchangeId, statusCode, clientDevice, new ArrayList<>());
+        this.relativeFilePath = relativeFilePath;
+        this.checksum = checksum;
+        this.totalFileSize = totalFileSize;
+        this.batchCounter = batchCounter;
+        this.isLastBatch = isLastBatch;
+        this.instructions = instructions;
+
+        super.receiverAddresses.add(receiverAddress);
+    }
+
+    /**
+     * Returns the relative path to the file which is reconstructed
+     *
+     * @return The relative path
+     */
+    public String getRelativeFilePath() {
+        return relativeFilePath;
+    }
+
+    /**
+     * Returns the checksum of the new version of the file
+     *
+     * @return The checksum
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns the size of the new version of the file
+     *
+     * @return The file size in bytes
+     */
+    public long getTotalFileSize() {
+        return totalFileSize;
+    }
+
+    /**
+     * Returns the number of this batch
+     *
+     * @return The batch counter, starting at 0
+     */
+    public long getBatchCounter() {
+        return batchCounter;
+    }
+
+    /**
+     * Whether this is the last batch of the delta
+     *
+     * @return True, if the file is complete after applying this batch
+     */
+    public boolean isLastBatch() {
+        return isLastBatch;
+    }
+
+    /**
+     * Returns the instructions of this batch
+     *
+     * @return The instructions in the order they have to be applied
+     */
+    public ArrayList<DeltaInstruction> getInstructions() {
+        return instructions;
+    }
+}
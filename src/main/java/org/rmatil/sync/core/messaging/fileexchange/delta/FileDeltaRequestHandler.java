@@ -0,0 +1,392 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.config.Config;
+import org.rmatil.sync.core.eventbus.CleanModifyIgnoreEventsBusEvent;
+import org.rmatil.sync.core.eventbus.IBusEvent;
+import org.rmatil.sync.core.eventbus.IgnoreBusEvent;
+import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.security.IAccessManager;
+import org.rmatil.sync.event.aggregator.core.events.ModifyEvent;
+import org.rmatil.sync.network.api.INode;
+import org.rmatil.sync.network.api.IRequest;
+import org.rmatil.sync.network.api.IResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.persistence.api.IPathElement;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.persistence.core.tree.TreePathElement;
+import org.rmatil.sync.version.api.AccessType;
+import org.rmatil.sync.version.api.IObjectStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handles delta requests by reconstructing the new version of a file
+ * from the local version and the received instructions.
+ * <p>
+ * The new version is written to a staging file in the folder
+ * of the application and only overwrites the local version once
+ * all batches are applied and the checksum matches.
+ */
+public class FileDeltaRequestHandler implements ILocalStateRequestCallback {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileDeltaRequestHandler.class);
+
+    /**
+     * The name of the folder containing the staging files, within the folder of the application
+     */
+    protected static final String STAGING_FOLDER_NAME = "staging";
+
+    /**
+     * The state of each running exchange.
+     * Since a new handler is created for each batch,
+     * this has to be shared among them
+     */
+    protected static final Map<UUID, StagedDelta> stagedDeltas = new ConcurrentHashMap<>();
+
+    /**
+     * The storage adapter to access the synchronized folder
+     */
+    protected ITreeStorageAdapter storageAdapter;
+
+    /**
+     * The object store to access versions
+     */
+    protected IObjectStore objectStore;
+
+    /**
+     * The client to send back messages
+     */
+    protected INode node;
+
+    /**
+     * The delta request from the sender
+     */
+    protected FileDeltaRequest request;
+
+    /**
+     * The global event bus to add ignore events
+     */
+    protected MBassador<IBusEvent> globalEventBus;
+
+    /**
+     * The access manager to check for sharer's access to files
+     */
+    protected IAccessManager accessManager;
+
+    @Override
+    public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
+        this.storageAdapter = storageAdapter;
+    }
+
+    @Override
+    public void setObjectStore(IObjectStore objectStore) {
+        this.objectStore = objectStore;
+    }
+
+    @Override
+    public void setGlobalEventBus(MBassador<IBusEvent> globalEventBus) {
+        this.globalEventBus = globalEventBus;
+    }
+
+    @Override
+    public void setNode(INode INode) {
+        this.node = INode;
+    }
+
+    @Override
+    public void setAccessManager(IAccessManager accessManager) {
+        this.accessManager = accessManager;
+    }
+
+    @Override
+    public void setRequest(IRequest iRequest) {
+        if (! (iRequest instanceof FileDeltaRequest)) {
+            throw new IllegalArgumentException("Got request " + iRequest.getClass().getName() + " but expected " + FileDeltaRequest.class.getName());
+        }
+
+        this.request = (FileDeltaRequest) iRequest;
+    }
+
+    @Override
+    public void run() {
+        Path stagingFile = null;
+
+        try {
+            Path rootDir = Paths.get(this.storageAdapter.getRootDir().getPath());
+            Path stagingFolder = rootDir.resolve(Config.DEFAULT.getOsFolderName()).resolve(STAGING_FOLDER_NAME);
+            stagingFile = stagingFolder.resolve(this.request.getExchangeId().toString());
+
+            if (StatusCode.REQUEST_OBSOLETE.equals(this.request.getStatusCode())) {
+                // the sender stopped waiting for us and pushes the whole file instead
+                logger.info("Cancelling delta exchange " + this.request.getExchangeId() + " for file " + this.request.getRelativeFilePath());
+                StagedDelta stagedDelta = stagedDeltas.computeIfAbsent(this.request.getExchangeId(), k -> new StagedDelta(this.request.getRelativeFilePath()));
+                synchronized (stagedDelta) {
+                    // keep the cancelled state, so that a delayed first batch does not start the exchange again
+                    stagedDelta.isCancelled = true;
+                    Files.deleteIfExists(stagingFile);
+                }
+                return;
+            }
+
+            if (! this.node.getUser().getUserName().equals(this.request.getClientDevice().getUserName()) && ! this.accessManager.hasAccess(this.request.getClientDevice().getUserName(), AccessType.WRITE, this.request.getRelativeFilePath())) {
+                logger.warn("Failed to apply delta batch " + this.request.getBatchCounter() + " for file " + this.request.getRelativeFilePath() + " due to missing access rights of user " + this.request.getClientDevice().getUserName() + " on exchange " + this.request.getExchangeId());
+                this.sendResponse(this.createResponse(StatusCode.ACCESS_DENIED, - 1));
+                return;
+            }
+
+            if (0 == this.request.getBatchCounter() && ! stagedDeltas.containsKey(this.request.getExchangeId())) {
+                Files.createDirectories(stagingFolder);
+                this.removeStaleStagingFiles(stagingFolder);
+                Files.deleteIfExists(stagingFile);
+                Files.createFile(stagingFile);
+                stagedDeltas.putIfAbsent(this.request.getExchangeId(), new StagedDelta(this.request.getRelativeFilePath()));
+            }
+
+            StagedDelta stagedDelta = stagedDeltas.get(this.request.getExchangeId());
+            if (null == stagedDelta) {
+                logger.error("Got delta batch " + this.request.getBatchCounter() + " for unknown exchange " + this.request.getExchangeId() + ". Aborting delta exchange");
+                this.sendResponse(this.createResponse(StatusCode.ERROR, - 1));
+                return;
+            }
+
+            synchronized (stagedDelta) {
+                if (stagedDelta.isCancelled || stagedDelta.nextBatch != this.request.getBatchCounter()) {
+                    // batches are sent one after another, so this is a stale or cancelled exchange
+                    logger.error("Got delta batch " + this.request.getBatchCounter() + " but expected " + stagedDelta.nextBatch + (stagedDelta.isCancelled ? " of cancelled" : " for") + " exchange " + this.request.getExchangeId() + ". Aborting delta exchange");
+                    this.abort(stagedDelta, stagingFile);
+                    this.sendResponse(this.createResponse(StatusCode.ERROR, - 1));
+                    return;
+                }
+            }
+
+            TreePathElement localPathElement = new TreePathElement(this.request.getRelativeFilePath());
+            Path localFile = rootDir.resolve(localPathElement.getPath());
+
+            logger.info("Applying delta batch " + this.request.getBatchCounter() + " with " + this.request.getInstructions().size() + " instructions for file " + localPathElement.getPath() + " for exchangeId " + this.request.getExchangeId());
+
+            try (OutputStream outputStream = Files.newOutputStream(stagingFile, StandardOpenOption.APPEND)) {
+                FileDelta.apply(localFile, this.request.getInstructions(), outputStream);
+            }
+
+            if (! this.request.isLastBatch()) {
+                synchronized (stagedDelta) {
+                    stagedDelta.nextBatch++;
+                    stagedDelta.lastModified = System.currentTimeMillis();
+                }
+
+                this.sendResponse(this.createResponse(StatusCode.ACCEPTED, this.request.getBatchCounter()));
+                return;
+            }
+
+            String checksum = this.storageAdapter.getChecksum(new TreePathElement(rootDir.relativize(stagingFile).toString()));
+            if (null != this.request.getChecksum() && ! this.request.getChecksum().equals(checksum)) {
+                // the local version changed since the signatures were sent
+                logger.info("Checksums do not match (local: " + checksum + "/request:" + this.request.getChecksum() + "). Requesting the whole file for exchange " + this.request.getExchangeId());
+                this.abort(stagedDelta, stagingFile);
+                this.sendResponse(this.createResponse(StatusCode.FILE_CHANGED, this.request.getBatchCounter()));
+                return;
+            }
+
+            // a cancellation or a push of the same file must either happen before or after replacing the file
+            synchronized (stagedDelta) {
+                if (stagedDelta.isCancelled) {
+                    logger.info("Delta exchange " + this.request.getExchangeId() + " has been cancelled. Dropping the reconstructed file " + localPathElement.getPath());
+                    this.abort(stagedDelta, stagingFile);
+                    this.sendResponse(this.createResponse(StatusCode.ERROR, - 1));
+                    return;
+                }
+
+                this.publishIgnoreModifyEvent(localPathElement);
+                // some file systems modify the file again
+                this.publishIgnoreModifyEvent(localPathElement);
+
+                // renaming the staging file would be observed as deletion and creation of the file
+                FileDelta.overwrite(stagingFile, localFile);
+                Files.deleteIfExists(stagingFile);
+
+                stagedDeltas.remove(this.request.getExchangeId());
+            }
+
+            logger.info("Checksums match. Replaced file " + localPathElement.getPath() + " with its new version. Stopping exchange " + this.request.getExchangeId());
+
+            // clean up all modify events
+            this.globalEventBus.publish(new CleanModifyIgnoreEventsBusEvent(
+                    localPathElement.getPath()
+            ));
+
+            this.sendResponse(this.createResponse(StatusCode.ACCEPTED, this.request.getBatchCounter()));
+        } catch (Exception e) {
+            logger.error("Error in FileDeltaRequestHandler for exchangeId " + this.request.getExchangeId() + ". Message: " + e.getMessage(), e);
+            this.abort(stagedDeltas.get(this.request.getExchangeId()), stagingFile);
+
+            try {
+                this.sendResponse(this.createResponse(StatusCode.ERROR, - 1));
+            } catch (Exception e1) {
+                logger.error("Failed to notify originating node about error in exchange " + this.request.getExchangeId() + ". Message: " + e1.getMessage(), e1);
+            }
+        }
+    }
+
+    /**
+     * Cancels all running delta exchanges of the given file, e.g. because
+     * the whole file is pushed. Their reconstructed versions are dropped
+     * instead of replacing the file.
+     *
+     * @param relativeFilePath The relative path to the file
+     */
+    public static void cancelStagedDeltas(String relativeFilePath) {
+        if (stagedDeltas.isEmpty()) {
+            return;
+        }
+
+        for (StagedDelta stagedDelta : stagedDeltas.values()) {
+            if (stagedDelta.relativeFilePath.equals(relativeFilePath)) {
+                // waits for a file which is being replaced right now
+                synchronized (stagedDelta) {
+                    stagedDelta.isCancelled = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the state and the staging file of the exchange of the request
+     *
+     * @param stagedDelta The state of the exchange, may be null
+     * @param stagingFile The staging file of the exchange, may be null
+     */
+    protected void abort(StagedDelta stagedDelta, Path stagingFile) {
+        if (null != stagedDelta) {
+            stagedDeltas.remove(this.request.getExchangeId(), stagedDelta);
+        }
+
+        if (null == stagingFile) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(stagingFile);
+        } catch (IOException e) {
+            logger.error("Failed to remove staging file " + stagingFile.toString() + ". Message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes staging files and state of exchanges which have not received
+     * any batch within {@link FileDeltaExchangeHandler#MAX_FILE_WAITNG_TIME}
+     *
+     * @param stagingFolder The folder containing the staging files
+     */
+    protected void removeStaleStagingFiles(Path stagingFolder) {
+        long now = System.currentTimeMillis();
+
+        stagedDeltas.values().removeIf(stagedDelta -> now - stagedDelta.lastModified > FileDeltaExchangeHandler.MAX_FILE_WAITNG_TIME);
+
+        try (DirectoryStream<Path> stagingFiles = Files.newDirectoryStream(stagingFolder)) {
+            for (Path stagingFile : stagingFiles) {
+                if (now - Files.getLastModifiedTime(stagingFile).toMillis() > FileDeltaExchangeHandler.MAX_FILE_WAITNG_TIME) {
+                    logger.info("Removing stale staging file " + stagingFile.toString());
+                    Files.deleteIfExists(stagingFile);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to remove stale staging files. Message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a delta response which acknowledges the given batch
+     *
+     * @param statusCode        The status code of the response
+     * @param acknowledgedBatch The batch which has been applied or -1, if applying failed
+     *
+     * @return The created FileDeltaResponse
+     */
+    protected FileDeltaResponse createResponse(StatusCode statusCode, long acknowledgedBatch) {
+        return new FileDeltaResponse(
+                this.request.getExchangeId(),
+                statusCode,
+                new ClientDevice(
+                        this.node.getUser().getUserName(),
+                        this.node.getClientDeviceId(),
+                        this.node.getPeerAddress()
+                ),
+                new NodeLocation(
+                        this.request.getClientDevice().getUserName(),
+                        this.request.getClientDevice().getClientDeviceId(),
+                        this.request.getClientDevice().getPeerAddress()
+                ),
+                this.request.getRelativeFilePath(),
+                acknowledgedBatch
+        );
+    }
+
+    /**
+     * Sends the given response back to the client
+     *
+     * @param iResponse The response to send back
+     */
+    protected void sendResponse(IResponse iResponse) {
+        if (null == this.node) {
+            throw new IllegalStateException("A client instance is required to send a response back");
+        }
+
+        this.node.sendDirect(iResponse.getReceiverAddress(), iResponse);
+    }
+
+    protected void publishIgnoreModifyEvent(IPathElement pathElement) {
+        this.globalEventBus.publish(new IgnoreBusEvent(
+                new ModifyEvent(
+                        Paths.get(pathElement.getPath()),
+                        Paths.get(pathElement.getPath()).getFileName().toString(),
+                        "weIgnoreTheHash",
+                        System.currentTimeMillis()
+                )
+        ));
+    }
+
+    /**
+     * The state of a delta exchange on the receiving side
+     */
+    protected static class StagedDelta {
+
+        /**
+         * The relative path to the file which is reconstructed
+         */
+        protected String relativeFilePath;
+
+        /**
+         * The batch expected next
+         */
+        protected long nextBatch;
+
+        /**
+         * Whether the exchange has been cancelled, i.e. the file must not be replaced anymore
+         */
+        protected boolean isCancelled;
+
+        /**
+         * The time the last batch has been applied
+         */
+        protected long lastModified;
+
+        protected StagedDelta(String relativeFilePath) {
+            this.relativeFilePath = relativeFilePath;
+            this.lastModified = System.currentTimeMillis();
+        }
+    }
+}
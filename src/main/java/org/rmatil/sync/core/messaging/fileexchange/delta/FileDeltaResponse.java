@@ -0,0 +1,60 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.base.AResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.UUID;
+
+/**
+ * Send this response to clients which have
+ * previously sent a {@link FileDeltaRequest}
+ */
+public class FileDeltaResponse extends AResponse {
+
+    private static final long serialVersionUID = 5120846915273306441L;
+
+    /**
+     * The relative path to the file which is reconstructed
+     */
+    protected String relativeFilePath;
+
+    /**
+     * The number of the batch which has been applied
+     * or -1, if no batch could have been applied
+     */
+    protected long acknowledgedBatch;
+
+    /**
+     * @param exchangeId        The identifier of the exchange
+     * @param statusCode        The status code of the response
+     * @param clientDevice      The client device which is sending this response
+     * @param receiverAddress   The receiver of this response
+     * @param relativeFilePath  The relative path to the file which is reconstructed
+     * @param acknowledgedBatch The number of the batch which has been applied or -1, if applying failed
+     */
+    public FileDeltaResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, String relativeFilePath, long acknowledgedBatch) {
+        super(exchangeId, statusCode, clientDevice, receiverAddress);
+        this.relativeFilePath = relativeFilePath;
+        this.acknowledgedBatch = acknowledgedBatch;
+    }
+
+    /**
+     * Returns the relative path to the file which is reconstructed
+     *
+     * @return The relative path
+     */
+    public String getRelativeFilePath() {
+        return relativeFilePath;
+    }
+
+    /**
+     * Returns the number of the batch which has been applied
+     *
+     * @return The acknowledged batch or -1, if applying the batch failed
+     */
+    public long getAcknowledgedBatch() {
+        return acknowledgedBatch;
+    }
+}
@@ -0,0 +1,47 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.base.ARequest;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Send this request to clients to get the block signatures
+ * of their version of a modified file, before sending
+ * only the changed parts of it
+ */
+public class FileSignatureRequest extends ARequest {
+
+    private static final long serialVersionUID = 4377263880394011567L;
+
+    /**
+     * The relative path to the file of which the signatures are requested
+     */
+    protected String relativeFilePath;
+
+    /**
+     * @param exchangeId       The exchange id of the request
+     * @param statusCode       The status code of the request
+     * @param clientDevice     The client device which is sending this request
+     * @param receiverAddress  The receiver of this request
+     * @param relativeFilePath The relative path to the file of which the signatures are requested
+     */
+    public FileSignatureRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, String relativeFilePath) {
+        super(exchangeId, statusCode, clientDevice, new ArrayList<>());
+        this.relativeFilePath = relativeFilePath;
+
+        super.receiverAddresses.add(receiverAddress);
+    }
+
+    /**
+     * Returns the relative path to the file of which the signatures are requested
+     *
+     * @return The relative path
+     */
+    public String getRelativeFilePath() {
+        return relativeFilePath;
+    }
+}
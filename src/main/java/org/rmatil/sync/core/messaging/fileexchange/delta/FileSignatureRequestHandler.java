@@ -0,0 +1,174 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.eventbus.IBusEvent;
+import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.security.IAccessManager;
+import org.rmatil.sync.network.api.INode;
+import org.rmatil.sync.network.api.IRequest;
+import org.rmatil.sync.network.api.IResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.persistence.api.StorageType;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.persistence.core.tree.TreePathElement;
+import org.rmatil.sync.version.api.AccessType;
+import org.rmatil.sync.version.api.IObjectStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Handles signature requests by answering with the
+ * block signatures of the local version of the requested file
+ */
+public class FileSignatureRequestHandler implements ILocalStateRequestCallback {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSignatureRequestHandler.class);
+
+    /**
+     * The storage adapter to access the synchronized folder
+     */
+    protected ITreeStorageAdapter storageAdapter;
+
+    /**
+     * The object store to access versions
+     */
+    protected IObjectStore objectStore;
+
+    /**
+     * The client to send back messages
+     */
+    protected INode node;
+
+    /**
+     * The signature request from the sender
+     */
+    protected FileSignatureRequest request;
+
+    /**
+     * The global event bus
+     */
+    protected MBassador<IBusEvent> globalEventBus;
+
+    /**
+     * The access manager to check for sharer's access to files
+     */
+    protected IAccessManager accessManager;
+
+    @Override
+    public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
+        this.storageAdapter = storageAdapter;
+    }
+
+    @Override
+    public void setObjectStore(IObjectStore objectStore) {
+        this.objectStore = objectStore;
+    }
+
+    @Override
+    public void setGlobalEventBus(MBassador<IBusEvent> globalEventBus) {
+        this.globalEventBus = globalEventBus;
+    }
+
+    @Override
+    public void setNode(INode INode) {
+        this.node = INode;
+    }
+
+    @Override
+    public void setAccessManager(IAccessManager accessManager) {
+        this.accessManager = accessManager;
+    }
+
+    @Override
+    public void setRequest(IRequest iRequest) {
+        if (! (iRequest instanceof FileSignatureRequest)) {
+            throw new IllegalArgumentException("Got request " + iRequest.getClass().getName() + " but expected " + FileSignatureRequest.class.getName());
+        }
+
+        this.request = (FileSignatureRequest) iRequest;
+    }
+
+    @Override
+    public void run() {
+        try {
+            // the delta is written to this file later on, so we require write access
+            if (! this.node.getUser().getUserName().equals(this.request.getClientDevice().getUserName()) && ! this.accessManager.hasAccess(this.request.getClientDevice().getUserName(), AccessType.WRITE, this.request.getRelativeFilePath())) {
+                logger.warn("Failed to compute signatures due to missing access rights on file " + this.request.getRelativeFilePath() + " for user " + this.request.getClientDevice().getUserName() + " on exchange " + this.request.getExchangeId());
+                this.sendResponse(this.createResponse(StatusCode.ACCESS_DENIED, - 1, new ArrayList<>()));
+                return;
+            }
+
+            TreePathElement pathElement = new TreePathElement(this.request.getRelativeFilePath());
+            if (! this.storageAdapter.exists(StorageType.FILE, pathElement)) {
+                logger.info("File " + this.request.getRelativeFilePath() + " does not exist. The whole file has to be pushed for exchange " + this.request.getExchangeId());
+                this.sendResponse(this.createResponse(StatusCode.FILE_MISSING, - 1, new ArrayList<>()));
+                return;
+            }
+
+            Path file = Paths.get(this.storageAdapter.getRootDir().getPath()).resolve(pathElement.getPath());
+            int blockSize = FileDelta.getBlockSize(this.storageAdapter.getMetaInformation(pathElement).getTotalFileSize());
+
+            logger.info("Computing signatures of file " + this.request.getRelativeFilePath() + " with block size " + blockSize + " for exchange " + this.request.getExchangeId());
+
+            ArrayList<BlockSignature> signatures = new ArrayList<>(FileDelta.computeSignatures(file, blockSize));
+
+            this.sendResponse(this.createResponse(StatusCode.ACCEPTED, blockSize, signatures));
+        } catch (Exception e) {
+            logger.error("Error in FileSignatureRequestHandler for exchangeId " + this.request.getExchangeId() + ". Message: " + e.getMessage(), e);
+
+            try {
+                this.sendResponse(this.createResponse(StatusCode.ERROR, - 1, new ArrayList<>()));
+            } catch (Exception e1) {
+                logger.error("Failed to notify originating node about error in exchange " + this.request.getExchangeId() + ". Message: " + e1.getMessage(), e1);
+            }
+        }
+    }
+
+    /**
+     * Creates a signature response
+     *
+     * @param statusCode The status code of the response
+     * @param blockSize  The block size used to compute the signatures
+     * @param signatures The signatures of the file
+     *
+     * @return The created FileSignatureResponse
+     */
+    protected FileSignatureResponse createResponse(StatusCode statusCode, int blockSize, ArrayList<BlockSignature> signatures) {
+        return new FileSignatureResponse(
+                this.request.getExchangeId(),
+                statusCode,
+                new ClientDevice(
+                        this.node.getUser().getUserName(),
+                        this.node.getClientDeviceId(),
+                        this.node.getPeerAddress()
+                ),
+                new NodeLocation(
+                        this.request.getClientDevice().getUserName(),
+                        this.request.getClientDevice().getClientDeviceId(),
+                        this.request.getClientDevice().getPeerAddress()
+                ),
+                this.request.getRelativeFilePath(),
+                blockSize,
+                signatures
+        );
+    }
+
+    /**
+     * Sends the given response back to the client
+     *
+     * @param iResponse The response to send back
+     */
+    protected void sendResponse(IResponse iResponse) {
+        if (null == this.node) {
+            throw new IllegalStateException("A client instance is required to send a response back");
+        }
+
+        this.node.sendDirect(iResponse.getReceiverAddress(), iResponse);
+    }
+}
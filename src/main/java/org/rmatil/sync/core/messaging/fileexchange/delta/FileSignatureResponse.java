@@ -0,0 +1,76 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.base.AResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Send this response to clients which have
+ * previously sent a {@link FileSignatureRequest}
+ */
+public class FileSignatureResponse extends AResponse {
+
+    private static final long serialVersionUID = - 6620357914102387164L;
+
+    /**
+     * The relative path to the file of which the signatures are returned
+     */
+    protected String relativeFilePath;
+
+    /**
+     * The block size used to compute the signatures
+     */
+    protected int blockSize;
+
+    /**
+     * The signatures of all full blocks of the file
+     */
+    protected ArrayList<BlockSignature> signatures;
+
+    /**
+     * @param exchangeId       The identifier of the exchange
+     * @param statusCode       The status code of the response
+     * @param clientDevice     The client device which is sending this response
+     * @param receiverAddress  The receiver of this response
+     * @param relativeFilePath The relative path to the file of which the signatures are returned
+     * @param blockSize        The block size used to compute the signatures
+     * @param signatures       The signatures of all full blocks of the file. Empty if the file is not available
+     */
+    public FileSignatureResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, String relativeFilePath, int blockSize, ArrayList<BlockSignature> signatures) {
+        super(exchangeId, statusCode, clientDevice, receiverAddress);
+        this.relativeFilePath = relativeFilePath;
+        this.blockSize = blockSize;
+        this.signatures = signatures;
+    }
+
+    /**
+     * Returns the relative path to the file of which the signatures are returned
+     *
+     * @return The relative path
+     */
+    public String getRelativeFilePath() {
+        return relativeFilePath;
+    }
+
+    /**
+     * Returns the block size used to compute the signatures
+     *
+     * @return The block size in bytes
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the signatures of all full blocks of the file
+     *
+     * @return The signatures ordered by their block index
+     */
+    public ArrayList<BlockSignature> getSignatures() {
+        return signatures;
+    }
+}
@@ -0,0 +1,63 @@
+package org.rmatil.sync.core.messaging.fileexchange.delta;
+
+/**
+ * The weak checksum of rsync over a window of bytes.
+ * <p>
+ * Moving the window by one byte updates the checksum in
+ * constant time, so that matching blocks can be searched
+ * at every offset of a file.
+ */
+public class RollingChecksum {
+
+    /**
+     * The length of the window
+     */
+    protected final int length;
+
+    /**
+     * The sum of all bytes in the window
+     */
+    protected int a;
+
+    /**
+     * The sum of all bytes in the window weighted by their distance to the end of the window
+     */
+    protected int b;
+
+    /**
+     * @param data   The data containing the window
+     * @param offset The start of the window in the data
+     * @param length The length of the window
+     */
+    public RollingChecksum(byte[] data, int offset, int length) {
+        this.length = length;
+
+        for (int i = 0; i < length; i++) {
+            int value = data[offset + i] & 0xff;
+            this.a += value;
+            this.b += (length - i) * value;
+        }
+    }
+
+    /**
+     * Moves the window by one byte
+     *
+     * @param removedByte The first byte of the window which is removed
+     * @param addedByte   The byte after the window which is added
+     */
+    public void roll(byte removedByte, byte addedByte) {
+        int removedValue = removedByte & 0xff;
+
+        this.a += (addedByte & 0xff) - removedValue;
+        this.b += this.a - this.length * removedValue;
+    }
+
+    /**
+     * Returns the checksum of the current window
+     *
+     * @return The checksum
+     */
+    public int getValue() {
+        return (this.a & 0xffff) | (this.b << 16);
+    }
+}
@@ -7,6 +7,8 @@ import org.rmatil.sync.core.eventbus.IBusEvent;
 import org.rmatil.sync.core.eventbus.IgnoreBusEvent;
 import org.rmatil.sync.core.init.client.ILocalStateResponseCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
+import org.rmatil.sync.core.messaging.chunk.ReceivedChunks;
 import org.rmatil.sync.event.aggregator.core.events.CreateEvent;
 import org.rmatil.sync.event.aggregator.core.events.ModifyEvent;
 import org.rmatil.sync.network.api.INode;
@@ -23,14 +25,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
- * An exchange handler to request missing files from another client.
+ * An exchange handler to request missing files from other clients.
+ * <p>
+ * The first chunk is requested alone to learn the size and checksum
+ * of the file. Afterwards, all remaining chunks are requested in parallel
+ * from all clients which have the file, keeping at most
+ * {@link FileDemandExchangeHandler#MAX_CHUNKS_IN_FLIGHT_PER_CLIENT} requests
+ * pending per client. Each response is processed on its own and triggers
+ * requests for further chunks, i.e. there is no recursion per chunk.
+ * <p>
+ * A timer requests chunks again which did not arrive in time. The clients
+ * which did not deliver them are skipped as long as other clients have the file.
  */
 public class FileDemandExchangeHandler extends ANetworkHandler<FileDemandExchangeHandlerResult> implements ILocalStateResponseCallback {
 
@@ -41,6 +54,32 @@ public class FileDemandExchangeHandler extends ANetworkHandler<FileDemandExchang
      */
     protected static final long MAX_FILE_WAITNG_TIME = 120000L;
 
+    /**
+     * The maximum number of chunks requested from a single client at once
+     */
+    public static final int MAX_CHUNKS_IN_FLIGHT_PER_CLIENT = 4;
+
+    /**
+     * The time in milliseconds after which a chunk is requested again
+     */
+    protected static final long CHUNK_REQUEST_TIMEOUT = 30000L;
+
+    /**
+     * The interval in milliseconds in which requested chunks are checked for timeouts
+     */
+    protected static final long TIMEOUT_CHECK_INTERVAL = 5000L;
+
+    /**
+     * Checks the requested chunks of all demands for timeouts,
+     * even if the clients do not respond anymore
+     */
+    protected static final ScheduledExecutorService timeoutTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setName("FileDemandTimeoutTimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * The storage adapter for the synchronized folder
      */
@@ -52,9 +91,10 @@ public class FileDemandExchangeHandler extends ANetworkHandler<FileDemandExchang
     protected INodeManager nodeManager;
 
     /**
-     * The actual client address from which to get the missing file
+     * The client addresses from which to get the missing file.
+     * Clients failing to deliver chunks are removed
      */
-    protected NodeLocation fetchAddress;
+    protected List<NodeLocation> fetchAddresses;
 
     /**
      * The relative path (rel. to the synced-folder root)
@@ -62,12 +102,6 @@ public class FileDemandExchangeHandler extends ANetworkHandler<FileDemandExchang
      */
     protected String pathToFetch;
 
-    /**
-     * The counter for chunks, indicating which
-     * chunks have been transmitted already
-     */
-    protected long chunkCounter = 0L;
-
     /**
      * The id of the demand exchange
      */
@@ -77,7 +111,7 @@ public class FileDemandExchangeHandler extends ANetworkHandler<FileDemandExchang
      * The countdown latch used for indicating that all
      * chunks have been received.
      * Using the parent's latch will not work, since its
-     * reference its always overwritten on re-running run()...
+     * reference its always overwritten on sending a request...
      */
     protected CountDownLatch receivedAllChunksCountDownLatch;
 
@@ -86,6 +120,36 @@ public class FileDemandExchangeHandler extends ANetworkHandler<FileDemandExchang
      */
     protected MBassador<IBusEvent> globalEventBus;
 
+    /**
+     * The chunks which have been written already
+     */
+    protected ReceivedChunks receivedChunks;
+
+    /**
+     * The requested but not yet received chunks, mapped to the client device id they are requested from
+     */
+    protected Map<Long, UUID> chunksInFlight;
+
+    /**
+     * The requested but not yet received chunks, mapped to the time in milliseconds they are requested
+     */
+    protected Map<Long, Long> chunkRequestTimes;
+
+    /**
+     * The checksum of the file version which is fetched or null, if not known yet
+     */
+    protected String expectedChecksum;
+
+    /**
+     * The total number of chunks of the file, -1 if not known yet
+     */
+    protected long totalNrOfChunks;
+
+    /**
+     * The periodic check for chunks which did not arrive in time, null if not started yet
+     */
+    protected volatile ScheduledFuture<?> timeoutCheck;
+
     /**
      * @param storageAdapter The storage adapter to access the synced folder
      * @param client         The client to send messages
@@ -95,65 +159,72 @@ public class FileDemandExchangeHandler extends ANetworkHandler<FileDemandExchang
      * @param exchangeId     The id of the exchange
      */
     public FileDemandExchangeHandler(ITreeStorageAdapter storageAdapter, INode client, INodeManager nodeManager, MBassador<IBusEvent> globalEventBus, NodeLocation fetchAddress, String pathToFetch, UUID exchangeId) {
+        this(storageAdapter, client, nodeManager, globalEventBus, Collections.singletonList(fetchAddress), pathToFetch, exchangeId);
+    }
+
+    /**
+     * @param storageAdapter The storage adapter to access the synced folder
+     * @param client         The client to send messages
+     * @param nodeManager    The client manager to fetch other clients' locations
+     * @param fetchAddresses The addresses of all clients having the requested version of the file
+     * @param pathToFetch    The path to the file which is requested
+     * @param exchangeId     The id of the exchange
+     */
+    public FileDemandExchangeHandler(ITreeStorageAdapter storageAdapter, INode client, INodeManager nodeManager, MBassador<IBusEvent> globalEventBus, List<NodeLocation> fetchAddresses, String pathToFetch, UUID exchangeId) {
         super(client);
         this.nodeManager = nodeManager;
         this.storageAdapter = storageAdapter;
         this.globalEventBus = globalEventBus;
-        this.fetchAddress = fetchAddress;
+        this.fetchAddresses = new ArrayList<>(fetchAddresses);
         this.pathToFetch = pathToFetch;
         this.exchangeId = exchangeId;
         this.receivedAllChunksCountDownLatch = new CountDownLatch(1);
+        this.receivedChunks = new ReceivedChunks();
+        this.chunksInFlight = new HashMap<>();
+        this.chunkRequestTimes = new HashMap<>();
+        this.expectedChecksum = null;
+        this.totalNrOfChunks = - 1;
     }
 
     @Override
     public void run() {
         try {
-            List<NodeLocation> receiverAddresses = new ArrayList<>();
-            receiverAddresses.add(this.fetchAddress);
-
-            ClientDevice clientDevice = new ClientDevice(
-                    super.node.getUser().getUserName(),
-                    super.node.getClientDeviceId(),
-                    super.node.getPeerAddress()
-            );
-
+            synchronized (this) {
+                this.requestChunks();
+            }
 
-            FileDemandRequest fileDemandRequest = new FileDemandRequest(
-                    this.exchangeId,
-                    StatusCode.NONE,
-                    clientDevice,
-                    this.pathToFetch,
-                    receiverAddresses,
-                    this.chunkCounter
+            long deadline = System.currentTimeMillis() + MAX_FILE_WAITNG_TIME;
+            this.timeoutCheck = timeoutTimer.scheduleWithFixedDelay(
+                    () -> this.checkTimeouts(deadline),
+                    TIMEOUT_CHECK_INTERVAL,
+                    TIMEOUT_CHECK_INTERVAL,
+                    TimeUnit.MILLISECONDS
             );
-
-            // clear notified clients, otherwise the countdown latch will be
-            // increase by one each time we send a request...
-            super.notifiedClients.clear();
-            super.sendRequest(fileDemandRequest);
-
         } catch (Exception e) {
             logger.error("Got exception in FileDemandExchangeHandler. Message: " + e.getMessage(), e);
         }
     }
 
     @Override
-    public void onResponse(IResponse response) {
+    public synchronized void onResponse(IResponse response) {
         if (! (response instanceof FileDemandResponse)) {
             logger.error("Expected response to be instance of " + FileDemandResponse.class.getName() + " but got " + response.getClass().getName());
             return;
         }
 
-        FileDemandResponse fileDemandResponse = (FileDemandResponse) response;
-        this.chunkCounter = fileDemandResponse.getChunkCounter();
-
-        logger.info("Writing chunk " + fileDemandResponse.getChunkCounter() + " for file " + fileDemandResponse.getRelativeFilePath() + " for exchangeId " + fileDemandResponse.getExchangeId());
+        if (this.isCompleted()) {
+            // a late response of a client which was considered to be slow
+            return;
+        }
 
+        FileDemandResponse fileDemandResponse = (FileDemandResponse) response;
+        UUID sourceId = fileDemandResponse.getClientDevice().getClientDeviceId();
         TreePathElement localPathElement = new TreePathElement(fileDemandResponse.getRelativeFilePath());
 
         if (StatusCode.DENIED.equals(fileDemandResponse.getStatusCode()) ||
                 StatusCode.ERROR.equals(fileDemandResponse.getStatusCode()) ||
-                StatusCode.FILE_MISSING.equals(fileDemandResponse.getStatusCode())) {
+                StatusCode.FILE_MISSING.equals(fileDemandResponse.getStatusCode()) ||
+                StatusCode.ACCESS_DENIED.equals(fileDemandResponse.getStatusCode())) {
             // the other client does not have the file anymore or we do not have the correct access rights to fetch it...
             // He may also just encountered an error
             logger.error(
@@ -163,37 +234,85 @@ public class FileDemandExchangeHandler extends ANetworkHandler<FileDemandExchang
                             fileDemandResponse.getClientDevice().getPeerAddress().tcpPort() +
                             ") responded with status " +
                             fileDemandResponse.getStatusCode().toString() +
-                            ". Aborting file demand " +
+                            ". Not requesting any chunks from it anymore for file demand " +
                             this.exchangeId
             );
-            super.onResponse(fileDemandResponse);
-            this.receivedAllChunksCountDownLatch.countDown();
+
+            this.removeFetchAddress(sourceId);
+
+            if (this.fetchAddresses.isEmpty()) {
+                logger.error("No client left to fetch the file " + this.pathToFetch + " from. Aborting file demand " + this.exchangeId);
+                this.finish(fileDemandResponse);
+                return;
+            }
+
+            this.requestChunks();
             return;
         }
 
+        if (StatusCode.FILE_CHANGED.equals(fileDemandResponse.getStatusCode())) {
+            // the file changed while we are transferring it (i.e. it is shorter than before)
+            logger.info("File " + this.pathToFetch + " has changed while transferring it. Restarting file demand " + this.exchangeId);
+            this.restart(localPathElement);
+            this.requestChunks();
+            return;
+        }
+
+        long chunkCounter = fileDemandResponse.getChunkCounter();
+        if (! sourceId.equals(this.chunksInFlight.get(chunkCounter))) {
+            // we got this chunk from another client already or the transfer has been restarted in the mean time
+            logger.debug("Ignoring outdated chunk " + chunkCounter + " of file " + this.pathToFetch + " for exchange " + this.exchangeId);
+            return;
+        }
+
+        this.chunksInFlight.remove(chunkCounter);
+        this.chunkRequestTimes.remove(chunkCounter);
+
+        if (null == this.expectedChecksum) {
+            this.expectedChecksum = fileDemandResponse.getChecksum();
+            this.totalNrOfChunks = Math.max(1L, fileDemandResponse.getTotalNrOfChunks());
+        } else if (null != fileDemandResponse.getChecksum() && ! this.expectedChecksum.equals(fileDemandResponse.getChecksum())) {
+            if (this.fetchAddresses.size() > 1) {
+                // this client has another version of the file
+                logger.info("Client " + sourceId + " has another version of " + this.pathToFetch + ". Not requesting any chunks from it anymore for file demand " + this.exchangeId);
+                this.removeFetchAddress(sourceId);
+            } else {
+                logger.info("File " + this.pathToFetch + " has changed while transferring it. Restarting file demand " + this.exchangeId);
+                this.restart(localPathElement);
+            }
+
+            this.requestChunks();
+            return;
+        }
+
+        logger.info("Writing chunk " + chunkCounter + " for file " + fileDemandResponse.getRelativeFilePath() + " for exchangeId " + fileDemandResponse.getExchangeId());
+
         this.publishIgnoreEvents(fileDemandResponse, localPathElement);
 
-        if (StatusCode.ACCEPTED.equals(fileDemandResponse.getStatusCode())) {
-            if (fileDemandResponse.isFile()) {
-                try {
-                    this.storageAdapter.persist(StorageType.FILE, localPathElement, fileDemandResponse.getChunkCounter() * fileDemandResponse.getChunkSize(), fileDemandResponse.getData().getContent());
-                } catch (InputOutputException e) {
-                    logger.error("Could not write chunk " + fileDemandResponse.getChunkCounter() + " of file " + fileDemandResponse.getRelativeFilePath() + ". Message: " + e.getMessage(), e);
+        if (fileDemandResponse.isFile()) {
+            try {
+                byte[] content = fileDemandResponse.getData().getContent();
+                if (fileDemandResponse.isCompressed()) {
+                    content = ChunkCompressor.decompress(content, fileDemandResponse.getChunkSize());
                 }
-            } else {
-                try {
-                    if (! this.storageAdapter.exists(StorageType.DIRECTORY, localPathElement)) {
-                        this.storageAdapter.persist(StorageType.DIRECTORY, localPathElement, null);
-                    }
-                } catch (InputOutputException e) {
-                    logger.error("Could not create directory " + localPathElement.getPath() + ". Message: " + e.getMessage());
+
+                this.storageAdapter.persist(StorageType.FILE, localPathElement, chunkCounter * fileDemandResponse.getChunkSize(), content);
+            } catch (InputOutputException e) {
+                logger.error("Could not write chunk " + chunkCounter + " of file " + fileDemandResponse.getRelativeFilePath() + ". Requesting it again. Message: " + e.getMessage(), e);
+                this.requestChunks();
+                return;
+            }
+        } else {
+            try {
+                if (! this.storageAdapter.exists(StorageType.DIRECTORY, localPathElement)) {
+                    this.storageAdapter.persist(StorageType.DIRECTORY, localPathElement, null);
                 }
+            } catch (InputOutputException e) {
+                logger.error("Could not create directory " + localPathElement.getPath() + ". Message: " + e.getMessage());
             }
         }
 
-        // chunk counter starts at 0
-        if (StatusCode.ACCEPTED.equals(fileDemandResponse.getStatusCode()) &&
-                this.chunkCounter + 1 == fileDemandResponse.getTotalNrOfChunks()) {
+        if (this.receivedChunks.markReceived(chunkCounter, this.totalNrOfChunks)) {
             // we received the last chunk needed
 
             // now check that we got the same checksum for the file
@@ -205,58 +324,221 @@ public class FileDemandExchangeHandler extends ANetworkHandler<FileDemandExchang
                     checksum = this.storageAdapter.getChecksum(localPathElement);
                 }
 
-                if (null == fileDemandResponse.getChecksum() || fileDemandResponse.getChecksum().equals(checksum)) {
+                if (null == this.expectedChecksum || this.expectedChecksum.equals(checksum)) {
                     // checksums match or the other side failed to compute one
-                    logger.info("Checksums match (" + fileDemandResponse.getChecksum() + " = " + checksum + "). Stopping FileDemand " + this.exchangeId);
+                    logger.info("Checksums match (" + this.expectedChecksum + " = " + checksum + "). Stopping FileDemand " + this.exchangeId);
                     // clean all modify ignore events
                     this.globalEventBus.publish(new CleanModifyIgnoreEventsBusEvent(
                             localPathElement.getPath()
                     ));
-                    super.onResponse(response);
-                    this.receivedAllChunksCountDownLatch.countDown();
+                    this.finish(response);
                     return;
                 } else {
                     logger.info("Checksums did not match. Restarting FileDemand at chunk 0 for exchange" + this.exchangeId);
                     // restart to fetch the whole file
-                    this.chunkCounter = - 1; // -1 since the chunk counter is just increased on the end of this method
-                    // delete all file contents fetched until now
-                    if (fileDemandResponse.isFile()) {
-                        this.storageAdapter.persist(StorageType.FILE, localPathElement, new byte[0]);
-                    } else {
-                        this.storageAdapter.persist(StorageType.DIRECTORY, localPathElement, null);
-                    }
+                    this.restart(localPathElement);
                 }
             } catch (InputOutputException e) {
                 logger.error("Failed to generate the checksum for file " + localPathElement.getPath() + " on exchange " + this.exchangeId + ". Accepting the file. Message: " + e.getMessage());
-                super.onResponse(response);
-                this.receivedAllChunksCountDownLatch.countDown();
+                this.finish(response);
                 return;
             }
-        } else if (StatusCode.FILE_CHANGED.equals(fileDemandResponse.getStatusCode())) {
-            // the file changed while we are transferring it (i.e. it is shorter than before)
-            this.chunkCounter = - 1;
-            // delete all file contents fetched until now
-            try {
-                if (fileDemandResponse.isFile()) {
-                    this.storageAdapter.persist(StorageType.FILE, localPathElement, new byte[0]);
-                } else {
-                    this.storageAdapter.persist(StorageType.DIRECTORY, localPathElement, null);
+        }
+
+        this.requestChunks();
+    }
+
+    /**
+     * Requests chunks again which did not arrive within {@link FileDemandExchangeHandler#CHUNK_REQUEST_TIMEOUT}.
+     * Clients which did not deliver them are skipped, unless no other client has the file.
+     * Stops once the demand is completed or not awaited anymore.
+     *
+     * @param deadline The time in milliseconds after which the demand is given up
+     */
+    protected synchronized void checkTimeouts(long deadline) {
+        try {
+            if (this.isCompleted() || System.currentTimeMillis() > deadline) {
+                this.timeoutCheck.cancel(false);
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            Set<UUID> timedOutClients = new HashSet<>();
+            for (Long chunkCounter : new ArrayList<>(this.chunkRequestTimes.keySet())) {
+                if (now - this.chunkRequestTimes.get(chunkCounter) > CHUNK_REQUEST_TIMEOUT) {
+                    logger.info("Chunk " + chunkCounter + " of file " + this.pathToFetch + " did not arrive in time. Requesting it again for exchange " + this.exchangeId);
+                    timedOutClients.add(this.chunksInFlight.remove(chunkCounter));
+                    this.chunkRequestTimes.remove(chunkCounter);
                 }
-            } catch (InputOutputException e) {
-                logger.error("Failed to clear the file again");
             }
+
+            if (timedOutClients.isEmpty()) {
+                return;
+            }
+
+            for (UUID clientDeviceId : timedOutClients) {
+                if (this.fetchAddresses.size() > 1) {
+                    logger.info("Client " + clientDeviceId + " did not deliver chunks in time. Not requesting any chunks from it anymore for file demand " + this.exchangeId);
+                    this.removeFetchAddress(clientDeviceId);
+                }
+            }
+
+            this.requestChunks();
+        } catch (Exception e) {
+            logger.error("Failed to check the chunks of file demand " + this.exchangeId + " for timeouts. Message: " + e.getMessage(), e);
         }
+    }
 
-        this.chunkCounter++;
+    /**
+     * Requests as many chunks as allowed from the clients having the file.
+     * As long as the size of the file is unknown, only the first chunk is requested.
+     * Callers must hold the lock of this handler.
+     */
+    protected void requestChunks() {
+        if (0 > this.totalNrOfChunks) {
+            if (! this.chunksInFlight.containsKey(0L) && ! this.fetchAddresses.isEmpty()) {
+                this.requestChunk(0L, this.fetchAddresses.get(0));
+            }
+
+            return;
+        }
+
+        for (NodeLocation fetchAddress : this.fetchAddresses) {
+            while (this.getNrOfChunksInFlight(fetchAddress.getClientDeviceId()) < MAX_CHUNKS_IN_FLIGHT_PER_CLIENT) {
+                long nextChunk = this.getNextChunkToRequest();
+
+                if (0 > nextChunk) {
+                    return;
+                }
 
-        this.run();
+                this.requestChunk(nextChunk, fetchAddress);
+            }
+        }
+    }
+
+    /**
+     * Sends a request for the given chunk to the given client
+     *
+     * @param chunkCounter The chunk to request
+     * @param fetchAddress The client from which to request the chunk
+     */
+    protected void requestChunk(long chunkCounter, NodeLocation fetchAddress) {
+        List<NodeLocation> receiverAddresses = new ArrayList<>();
+        receiverAddresses.add(fetchAddress);
+
+        ClientDevice clientDevice = new ClientDevice(
+                super.node.getUser().getUserName(),
+                super.node.getClientDeviceId(),
+                super.node.getPeerAddress()
+        );
+
+        FileDemandRequest fileDemandRequest = new FileDemandRequest(
+                this.exchangeId,
+                StatusCode.NONE,
+                clientDevice,
+                this.pathToFetch,
+                receiverAddresses,
+                chunkCounter
+        );
+
+        this.chunksInFlight.put(chunkCounter, fetchAddress.getClientDeviceId());
+        this.chunkRequestTimes.put(chunkCounter, System.currentTimeMillis());
+
+        // clear notified clients, otherwise the countdown latch will be
+        // increase by one each time we send a request...
+        super.notifiedClients.clear();
+        super.sendRequest(fileDemandRequest);
+    }
+
+    /**
+     * Returns the lowest chunk which is neither received nor requested yet
+     *
+     * @return The chunk number or -1, if there is no such chunk
+     */
+    protected long getNextChunkToRequest() {
+        for (long chunkCounter = this.receivedChunks.getNextMissingChunk(); chunkCounter < this.totalNrOfChunks; chunkCounter++) {
+            if (! this.receivedChunks.isReceived(chunkCounter) && ! this.chunksInFlight.containsKey(chunkCounter)) {
+                return chunkCounter;
+            }
+        }
+
+        return - 1;
+    }
+
+    /**
+     * Returns the number of chunks requested from the given client but not received yet
+     *
+     * @param clientDeviceId The id of the client
+     *
+     * @return The number of pending chunks
+     */
+    protected int getNrOfChunksInFlight(UUID clientDeviceId) {
+        int nrOfChunks = 0;
+        for (UUID entry : this.chunksInFlight.values()) {
+            if (clientDeviceId.equals(entry)) {
+                nrOfChunks++;
+            }
+        }
+
+        return nrOfChunks;
+    }
+
+    /**
+     * Stops requesting chunks from the given client.
+     * Chunks pending at this client are requested from the others.
+     *
+     * @param clientDeviceId The id of the client to remove
+     */
+    protected void removeFetchAddress(UUID clientDeviceId) {
+        this.fetchAddresses.removeIf(fetchAddress -> clientDeviceId.equals(fetchAddress.getClientDeviceId()));
+
+        for (Long chunkCounter : new ArrayList<>(this.chunksInFlight.keySet())) {
+            if (clientDeviceId.equals(this.chunksInFlight.get(chunkCounter))) {
+                this.chunksInFlight.remove(chunkCounter);
+                this.chunkRequestTimes.remove(chunkCounter);
+            }
+        }
+    }
+
+    /**
+     * Drops all chunks fetched until now and starts again at the first chunk
+     *
+     * @param localPathElement The path element of the file to fetch
+     */
+    protected void restart(TreePathElement localPathElement) {
+        this.receivedChunks.clear();
+        this.chunksInFlight.clear();
+        this.chunkRequestTimes.clear();
+        this.expectedChecksum = null;
+        this.totalNrOfChunks = - 1;
+
+        // delete all file contents fetched until now
+        try {
+            if (this.storageAdapter.exists(StorageType.FILE, localPathElement)) {
+                this.storageAdapter.persist(StorageType.FILE, localPathElement, new byte[0]);
+            }
+        } catch (InputOutputException e) {
+            logger.error("Failed to clear the file " + localPathElement.getPath() + " again for exchange " + this.exchangeId + ". Message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Completes this exchange
+     *
+     * @param response The last response received
+     */
+    protected void finish(IResponse response) {
+        this.chunksInFlight.clear();
+        this.chunkRequestTimes.clear();
+        super.onResponse(response);
+        this.receivedAllChunksCountDownLatch.countDown();
     }
 
     @Override
     public void await()
             throws InterruptedException {
         // do not await in super, since its countdown latch will be
-        // rewritten each time we call run()
+        // rewritten each time we send a request
         this.receivedAllChunksCountDownLatch.await(MAX_FILE_WAITNG_TIME, TimeUnit.MILLISECONDS);
     }
 
@@ -264,14 +546,14 @@ public class FileDemandExchangeHandler extends ANetworkHandler<FileDemandExchang
     public void await(long timeout, TimeUnit timeUnit)
             throws InterruptedException {
         // do not await in super, since its countdown latch will be
-        // rewritten each time we call run()
+        // rewritten each time we send a request
         this.receivedAllChunksCountDownLatch.await(timeout, timeUnit);
     }
 
     @Override
     public boolean isCompleted() {
         // do not await in super, since its countdown latch will be
-        // rewritten each time we call run()
+        // rewritten each time we send a request
         // -> therefore we have to await here
         return null != this.receivedAllChunksCountDownLatch && 0L == this.receivedAllChunksCountDownLatch.getCount();
     }
@@ -1,16 +1,19 @@
 package org.rmatil.sync.core.messaging.fileexchange.demand;
 
 import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.config.Config;
 import org.rmatil.sync.core.eventbus.IBusEvent;
 import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.messaging.chunk.Chunk;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
 import org.rmatil.sync.core.messaging.chunk.ChunkProvider;
 import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.network.api.INode;
 import org.rmatil.sync.network.api.IRequest;
 import org.rmatil.sync.network.api.IResponse;
 import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.Data;
 import org.rmatil.sync.network.core.model.NodeLocation;
 import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
 import org.rmatil.sync.persistence.core.tree.TreePathElement;
@@ -36,6 +39,11 @@ public class FileDemandRequestHandler implements ILocalStateRequestCallback {
      */
     public static final int CHUNK_SIZE = 1024 * 1024; // 1MB
 
+    /**
+     * Compresses the chunks sent to other clients, shared among all handlers
+     */
+    protected static final ChunkCompressor chunkCompressor = new ChunkCompressor(Config.DEFAULT.getChunkCompressionLevel());
+
     /**
      * The storage adapter to access the synced folder
      */
@@ -155,6 +163,10 @@ public class FileDemandRequestHandler implements ILocalStateRequestCallback {
                 logger.error("Failed to read the sharers for file " + this.request.getRelativeFilePath() + ". Sending an empty sharer set. Message: " + e.getMessage());
             }
 
+            // send the chunk compressed, if it shrinks considerably
+            byte[] compressedContent = (null != chunk.getData()) ? chunkCompressor.compress(chunk.getData().getContent()) : null;
+            Data data = (null != compressedContent) ? new Data(compressedContent, false) : chunk.getData();
+
             IResponse response = new FileDemandResponse(
                     this.request.getExchangeId(),
                     StatusCode.ACCEPTED,
@@ -166,13 +178,14 @@ public class FileDemandRequestHandler implements ILocalStateRequestCallback {
                     CHUNK_SIZE,
                     chunk.getTotalNrOfChunks(),
                     chunk.getTotalFileSize(),
-                    chunk.getData(),
+                    data,
                     new NodeLocation(
                             this.request.getClientDevice().getUserName(),
                             this.request.getClientDevice().getClientDeviceId(),
                             this.request.getClientDevice().getPeerAddress()
                     ),
-                    sharers
+                    sharers,
+                    null != compressedContent
             );
 
             this.sendResponse(response);
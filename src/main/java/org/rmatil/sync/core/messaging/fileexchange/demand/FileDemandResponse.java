@@ -3,6 +3,7 @@ package org.rmatil.sync.core.messaging.fileexchange.demand;
 
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.messaging.base.AResponse;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
 import org.rmatil.sync.network.core.model.ClientDevice;
 import org.rmatil.sync.network.core.model.NodeLocation;
 import org.rmatil.sync.network.core.model.Data;
@@ -60,6 +61,11 @@ public class FileDemandResponse extends AResponse {
      */
     protected Data data;
 
+    /**
+     * Whether the data is compressed
+     */
+    protected boolean isCompressed;
+
     /**
      * The chunk size used for the whole transport of the file. In Bytes.
      */
@@ -87,6 +93,27 @@ public class FileDemandResponse extends AResponse {
      * @param sharers          All sharers of this file
      */
     public FileDemandResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, String checksum, String relativeFilePath, boolean isFile, long chunkCounter, int chunkSize, long totalNrOfChunks, long totalFileSize, Data data, NodeLocation receiverAddress, Set<Sharer> sharers) {
+        this(exchangeId, statusCode, clientDevice, checksum, relativeFilePath, isFile, chunkCounter, chunkSize, totalNrOfChunks, totalFileSize, data, receiverAddress, sharers, false);
+    }
+
+    /**
+     * @param exchangeId       The exchange id of the request
+     * @param statusCode       The status code of the response
+     * @param clientDevice     The client device which is sending this request
+     * @param checksum         The checksum of the complete file
+     * @param relativeFilePath The relative path to the file which should be created
+     * @param isFile           Whether the path represents a file or a directory
+     * @param chunkCounter     The counter of the chunk contained in this request (starts at 0)
+     * @param chunkSize        The size of the chunk for the whole file exchange in bytes.
+     *                         MUST stay the same for the whole file exchange, i.e. until all chunks of a file have been transferred
+     * @param totalNrOfChunks  The total number of chunks to request to get the complete file
+     * @param totalFileSize    The total file size of the file once all chunks have been transferred
+     * @param data             The actual chunk data
+     * @param receiverAddress  The receiver of this request
+     * @param sharers          All sharers of this file
+     * @param isCompressed     Whether the chunk data is compressed by a {@link ChunkCompressor}
+     */
+    public FileDemandResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, String checksum, String relativeFilePath, boolean isFile, long chunkCounter, int chunkSize, long totalNrOfChunks, long totalFileSize, Data data, NodeLocation receiverAddress, Set<Sharer> sharers, boolean isCompressed) {
         super(exchangeId, statusCode, clientDevice, receiverAddress);
         this.checksum = checksum;
         this.relativeFilePath = relativeFilePath;
@@ -97,6 +124,7 @@ public class FileDemandResponse extends AResponse {
         this.totalFileSize = totalFileSize;
         this.data = data;
         this.sharers = sharers;
+        this.isCompressed = isCompressed;
     }
 
     /**
@@ -169,6 +197,16 @@ public class FileDemandResponse extends AResponse {
         return data;
     }
 
+    /**
+     * Whether the data is compressed and has to be restored
+     * using {@link ChunkCompressor#decompress(byte[], int)}
+     *
+     * @return True, if the data is compressed, false otherwise
+     */
+    public boolean isCompressed() {
+        return isCompressed;
+    }
+
     /**
      * Returns size of chunks.
      * This <b style="color:red">must</b> not be changed during a file exchange process.
@@ -1,6 +1,7 @@
 package org.rmatil.sync.core.messaging.fileexchange.move;
 
 import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.IdentifierCache;
 import org.rmatil.sync.core.eventbus.IBusEvent;
 import org.rmatil.sync.core.init.client.ILocalStateResponseCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
@@ -47,6 +48,11 @@ public class FileMoveExchangeHandler extends ANetworkHandler<FileMoveExchangeHan
 
     protected int clientCounter;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
     public FileMoveExchangeHandler(UUID exchangeId, ClientDevice clientDevice, ITreeStorageAdapter storageAdapter, INodeManager nodeManager, INode client, MBassador<IBusEvent> globalEventBus, List<NodeLocation> receivers, MoveEvent moveEvent) {
         super(client);
         this.exchangeId = exchangeId;
@@ -57,6 +63,17 @@ public class FileMoveExchangeHandler extends ANetworkHandler<FileMoveExchangeHan
         this.receivers = receivers;
         this.moveEvent = moveEvent;
         this.initReceiverLatch = new CountDownLatch(1);
+
+        this.identifierCache = new IdentifierCache(client);
+    }
+
+    /**
+     * Set the cache of the file ids of the node to use instead of a cache for this exchange only
+     *
+     * @param identifierCache The identifier cache
+     */
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
     }
 
     @Override
@@ -74,9 +91,9 @@ public class FileMoveExchangeHandler extends ANetworkHandler<FileMoveExchangeHan
             }
 
             // move element in the IdentifierManager too
-            UUID fileId = this.node.getIdentifierManager().getValue(this.moveEvent.getPath().toString());
+            UUID fileId = this.identifierCache.getValue(this.moveEvent.getPath().toString());
             try {
-                this.node.getIdentifierManager().moveKey(
+                this.identifierCache.moveKey(
                         this.moveEvent.getPath().toString(),
                         this.moveEvent.getNewPath().toString()
                 );
@@ -1,9 +1,10 @@
 package org.rmatil.sync.core.messaging.fileexchange.move;
 
 import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.IdentifierCache;
 import org.rmatil.sync.core.eventbus.IBusEvent;
 import org.rmatil.sync.core.eventbus.IgnoreBusEvent;
-import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
+import org.rmatil.sync.core.init.client.IIdentifierCacheRequestCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.event.aggregator.core.events.MoveEvent;
@@ -21,17 +22,14 @@ import org.rmatil.sync.version.core.model.PathObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Handles incoming {@link FileMoveRequest} and moves the
  * file resp. directory to the specified new path without
  * fetching the file contents again from other peers.
  */
-public class FileMoveRequestHandler implements ILocalStateRequestCallback {
+public class FileMoveRequestHandler implements IIdentifierCacheRequestCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(FileMoveRequestHandler.class);
 
@@ -65,6 +63,11 @@ public class FileMoveRequestHandler implements ILocalStateRequestCallback {
      */
     protected IAccessManager accessManager;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
     @Override
     public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
         this.storageAdapter = storageAdapter;
@@ -90,6 +93,11 @@ public class FileMoveRequestHandler implements ILocalStateRequestCallback {
         this.accessManager = accessManager;
     }
 
+    @Override
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
     @Override
     public void setRequest(IRequest iRequest) {
         if (! (iRequest instanceof FileMoveRequest)) {
@@ -110,6 +118,10 @@ public class FileMoveRequestHandler implements ILocalStateRequestCallback {
                 return;
             }
 
+            // the sender has already moved the file ids in the identifier manager
+            this.identifierCache.invalidateSubtree(this.request.getOldPath());
+            this.identifierCache.invalidateSubtree(this.request.getNewPath());
+
             TreePathElement oldPathElement = new TreePathElement(this.request.getOldPath());
             TreePathElement newPathElement = new TreePathElement(this.request.getNewPath());
 
@@ -177,28 +189,17 @@ public class FileMoveRequestHandler implements ILocalStateRequestCallback {
             throws InputOutputException {
 
         if (StorageType.DIRECTORY == storageType) {
-            List<TreePathElement> elementsToIgnore = new ArrayList<>();
-            elementsToIgnore.add(oldPath);
-
-            if (this.storageAdapter.isDir(oldPath)) {
-                // add all directory contents to the ignored files too
-                elementsToIgnore.addAll(this.storageAdapter.getDirectoryContents(oldPath));
-            }
-
-            for (TreePathElement element : elementsToIgnore) {
-                Path oldFilePath = Paths.get(element.getPath());
-                Path newFilePath = Paths.get(newPath.getPath()).resolve(Paths.get(oldPath.getPath()).relativize(Paths.get(this.storageAdapter.getRootDir().getPath()).relativize(Paths.get(element.getPath()))));
-
-                this.globalEventBus.publish(new IgnoreBusEvent(
-                        new MoveEvent(
-                                oldFilePath,
-                                newFilePath,
-                                Paths.get(oldPath.getPath()).getFileName().toString(),
-                                "weIgnoreTheHash",
-                                System.currentTimeMillis()
-                        )
-                ));
-            }
+            // ignore the move events of the directory and all of its contents at once
+            this.globalEventBus.publish(new IgnoreBusEvent(
+                    new MoveEvent(
+                            Paths.get(oldPath.getPath()),
+                            Paths.get(newPath.getPath()),
+                            Paths.get(oldPath.getPath()).getFileName().toString(),
+                            "weIgnoreTheHash",
+                            System.currentTimeMillis()
+                    ),
+                    true
+            ));
 
             this.storageAdapter.move(storageType, oldPath, newPath);
         } else {
@@ -0,0 +1,166 @@
+package org.rmatil.sync.core.messaging.fileexchange.move;
+
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Moves the file ids of a moved directory and all paths below it
+ * to their new paths in the identifier manager and the identifier cache.
+ * <p>
+ * Since the identifier manager only supports moving a single path at once,
+ * each of which is a round trip to the DHT, the moves are run with a bounded
+ * number of moves in flight instead of one after another.
+ */
+public class SubtreeIdentifierMover {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubtreeIdentifierMover.class);
+
+    /**
+     * The default maximum number of moves in flight at the same time
+     */
+    public static final int MAX_CONCURRENT_MOVES = 16;
+
+    /**
+     * The cache through which the file ids are moved in the identifier manager
+     */
+    protected IdentifierCache identifierCache;
+
+    /**
+     * The maximum number of moves in flight at the same time
+     */
+    protected int maxConcurrentMoves;
+
+    /**
+     * @param identifierCache The cache through which the file ids are moved in the identifier manager
+     */
+    public SubtreeIdentifierMover(IdentifierCache identifierCache) {
+        this(identifierCache, MAX_CONCURRENT_MOVES);
+    }
+
+    /**
+     * @param identifierCache    The cache through which the file ids are moved in the identifier manager
+     * @param maxConcurrentMoves The maximum number of moves in flight at the same time
+     */
+    public SubtreeIdentifierMover(IdentifierCache identifierCache, int maxConcurrentMoves) {
+        if (maxConcurrentMoves < 1) {
+            throw new IllegalArgumentException("At least one move must be allowed at the same time");
+        }
+
+        this.identifierCache = identifierCache;
+        this.maxConcurrentMoves = maxConcurrentMoves;
+    }
+
+    /**
+     * Moves the file ids of all paths of the moved directory. The directory
+     * must already be at its new location on disk.
+     *
+     * @param rootDir The root of the synchronised folder
+     * @param oldPath The old path of the directory relative to the root
+     * @param newPath The new path of the directory relative to the root
+     *
+     * @return The number of paths of which the file id could not be moved
+     *
+     * @throws IOException          If walking the moved directory fails
+     * @throws InterruptedException If interrupted while waiting for the moves to finish
+     */
+    public int moveSubtree(Path rootDir, Path oldPath, Path newPath)
+            throws IOException, InterruptedException {
+        return this.moveAll(getSubtreeMoves(rootDir, oldPath, newPath));
+    }
+
+    /**
+     * Moves the file ids of all given paths and waits until all moves have finished
+     *
+     * @param moves The new relative paths keyed by the old relative paths
+     *
+     * @return The number of paths of which the file id could not be moved
+     *
+     * @throws InterruptedException If interrupted while waiting for the moves to finish
+     */
+    public int moveAll(Map<String, String> moves)
+            throws InterruptedException {
+        AtomicInteger nrOfFailedMoves = new AtomicInteger(0);
+
+        if (moves.isEmpty()) {
+            return 0;
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(this.maxConcurrentMoves, moves.size()));
+        CountDownLatch countDownLatch = new CountDownLatch(moves.size());
+
+        try {
+            for (Map.Entry<String, String> entry : moves.entrySet()) {
+                executorService.execute(() -> {
+                    try {
+                        this.moveKey(entry.getKey(), entry.getValue());
+                    } catch (InputOutputException e) {
+                        nrOfFailedMoves.incrementAndGet();
+                        logger.warn("Failed to move file id for file " + entry.getKey() + " to " + entry.getValue() + ". Message: " + e.getMessage());
+                    } finally {
+                        countDownLatch.countDown();
+                    }
+                });
+            }
+
+            countDownLatch.await();
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        logger.debug("Moved file ids of " + (moves.size() - nrOfFailedMoves.get()) + " of " + moves.size() + " paths");
+
+        return nrOfFailedMoves.get();
+    }
+
+    /**
+     * Moves the file id of a single path
+     *
+     * @param oldPath The old relative path
+     * @param newPath The new relative path
+     *
+     * @throws InputOutputException If moving the file id failed
+     */
+    protected void moveKey(String oldPath, String newPath)
+            throws InputOutputException {
+        this.identifierCache.moveKey(oldPath, newPath);
+    }
+
+    /**
+     * Returns the old and new paths of the moved directory and all paths below it
+     *
+     * @param rootDir The root of the synchronised folder
+     * @param oldPath The old path of the directory relative to the root
+     * @param newPath The new path of the directory relative to the root
+     *
+     * @return The new relative paths keyed by the old relative paths, parents before their children
+     *
+     * @throws IOException If walking the moved directory fails
+     */
+    public static Map<String, String> getSubtreeMoves(Path rootDir, Path oldPath, Path newPath)
+            throws IOException {
+        Map<String, String> moves = new LinkedHashMap<>();
+
+        try (Stream<Path> paths = Files.walk(rootDir.resolve(newPath))) {
+            paths.forEach(entry -> {
+                // do not use toAbsolutePath() since we could have also paths starting with "./myDir"
+                Path relPath = rootDir.relativize(entry);
+                moves.put(oldPath.resolve(newPath.relativize(relPath)).toString(), relPath.toString());
+            });
+        }
+
+        return moves;
+    }
+}
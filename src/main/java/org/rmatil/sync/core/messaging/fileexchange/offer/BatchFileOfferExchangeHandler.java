@@ -0,0 +1,300 @@
+package org.rmatil.sync.core.messaging.fileexchange.offer;
+
+import org.rmatil.sync.core.NodeLocationCache;
+import org.rmatil.sync.core.init.client.ILocalStateResponseCallback;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.event.aggregator.core.events.IEvent;
+import org.rmatil.sync.event.aggregator.core.events.MoveEvent;
+import org.rmatil.sync.network.api.INode;
+import org.rmatil.sync.network.api.INodeManager;
+import org.rmatil.sync.network.api.IRequest;
+import org.rmatil.sync.network.api.IResponse;
+import org.rmatil.sync.network.core.ANetworkHandler;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.rmatil.sync.version.api.IObjectStore;
+import org.rmatil.sync.version.api.PathType;
+import org.rmatil.sync.version.core.model.PathObject;
+import org.rmatil.sync.version.core.model.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offers multiple independent events to all own clients using a single
+ * {@link BatchFileOfferRequest}, instead of running a {@link FileOfferExchangeHandler}
+ * per event.
+ * <p>
+ * Only events which have to be propagated to the own clients may be offered
+ * in a batch, i.e. no moves and no events on files which are shared
+ * or owned by another user (see {@link BatchFileOfferExchangeHandler#isBatchable(IEvent, PathObject, String)}).
+ */
+public class BatchFileOfferExchangeHandler extends ANetworkHandler<BatchFileOfferExchangeHandlerResult> implements ILocalStateResponseCallback {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchFileOfferExchangeHandler.class);
+
+    /**
+     * The id of the file exchange
+     */
+    protected UUID exchangeId;
+
+    /**
+     * The client manager to access client locations
+     */
+    protected INodeManager nodeManager;
+
+    /**
+     * The client device information
+     */
+    protected ClientDevice clientDevice;
+
+    /**
+     * The events to check for conflicts on other clients
+     */
+    protected List<IEvent> eventsToPropagate;
+
+    /**
+     * A list of clients which responded to the batch file offer request
+     */
+    protected List<IResponse> respondedClients;
+
+    /**
+     * The object store to access the file versions
+     */
+    protected IObjectStore objectStore;
+
+    /**
+     * The cache of the client locations of users
+     */
+    protected NodeLocationCache nodeLocationCache;
+
+    /**
+     * The countdown latch which is completed once the
+     * batch offer has been sent or preparing it failed
+     */
+    protected CountDownLatch offerSentLatch;
+
+    /**
+     * Whether preparing or sending the batch offer failed
+     */
+    protected volatile boolean hasFailed;
+
+    /**
+     * @param exchangeId        The exchange id used for the file offer handling
+     * @param clientDevice      The client device used to identify the sending client for any file offer requests
+     * @param nodeManager       The client manager to access client locations
+     * @param client            The client to send messages
+     * @param objectStore       The object store to get versions of a particular file
+     * @param eventsToPropagate The events to check for conflicts
+     */
+    public BatchFileOfferExchangeHandler(UUID exchangeId, ClientDevice clientDevice, INodeManager nodeManager, INode client, IObjectStore objectStore, List<IEvent> eventsToPropagate) {
+        super(client);
+        this.clientDevice = clientDevice;
+        this.exchangeId = exchangeId;
+        this.nodeManager = nodeManager;
+        this.objectStore = objectStore;
+        this.eventsToPropagate = eventsToPropagate;
+        this.respondedClients = Collections.synchronizedList(new ArrayList<>());
+        this.offerSentLatch = new CountDownLatch(1);
+        this.hasFailed = false;
+
+        this.nodeLocationCache = new NodeLocationCache(nodeManager, 0L);
+    }
+
+    /**
+     * Set the cache of the client locations of the node to use instead of fetching each lookup from the node manager
+     *
+     * @param nodeLocationCache The node location cache
+     */
+    public void setNodeLocationCache(NodeLocationCache nodeLocationCache) {
+        this.nodeLocationCache = nodeLocationCache;
+    }
+
+    /**
+     * Returns true, if the given event may be offered in a batch, i.e.
+     * it has to be propagated to the clients of the given user only.
+     *
+     * @param event      The event to check
+     * @param pathObject The path object of the event's path
+     * @param userName   The name of the user of this client
+     *
+     * @return True, if the event can be offered in a batch
+     */
+    public static boolean isBatchable(IEvent event, PathObject pathObject, String userName) {
+        return ! (event instanceof MoveEvent) &&
+                ! pathObject.isShared() &&
+                (null == pathObject.getOwner() || userName.equals(pathObject.getOwner()));
+    }
+
+    @Override
+    public void run() {
+        try {
+            List<FileOffer> offers = new ArrayList<>();
+
+            for (IEvent event : this.eventsToPropagate) {
+                PathObject pathObject;
+
+                try {
+                    pathObject = this.objectStore.getObjectManager().getObjectForPath(event.getPath().toString());
+                } catch (InputOutputException e) {
+                    logger.error("Can not read path object for " + event.getPath().toString() + " from object store. Message: " + e.getMessage() + ". Aborting batch file offer exchange " + this.exchangeId);
+                    this.hasFailed = true;
+                    return;
+                }
+
+                // do not check using storage adapter since the file could've been deleted already
+                boolean isDir = pathObject.getPathType().equals(PathType.DIRECTORY);
+
+                Version versionBefore = null;
+                // we check versions only for files
+                if (! isDir) {
+                    // get version before the one we got from the event to propagate
+                    for (Version entry : pathObject.getVersions()) {
+                        if (entry.getHash().equals(event.getHash())) {
+                            // versionBefore contains now the version before this element
+                            break;
+                        }
+
+                        versionBefore = entry;
+                    }
+                }
+
+                offers.add(new FileOffer(
+                        null,
+                        null,
+                        SerializableEvent.fromEvent(event, (null != versionBefore) ? versionBefore.getHash() : null, ! isDir)
+                ));
+            }
+
+            // Fetch client locations from the DHT
+            List<NodeLocation> clientLocations;
+            try {
+                clientLocations = this.nodeLocationCache.getNodeLocations(super.node.getUser().getUserName());
+            } catch (InputOutputException e) {
+                logger.error("Could not fetch client locations from user " + super.node.getUser().getUserName() + ". Message: " + e.getMessage());
+                this.hasFailed = true;
+                return;
+            }
+
+            logger.debug("Offering " + offers.size() + " events in batch file offer exchange " + this.exchangeId);
+
+            IRequest request = new BatchFileOfferRequest(
+                    this.exchangeId,
+                    StatusCode.NONE,
+                    this.clientDevice,
+                    offers,
+                    clientLocations
+            );
+
+            try {
+                super.sendRequest(request);
+            } catch (RuntimeException e) {
+                // a receiver may have changed its location since it was cached
+                this.nodeLocationCache.invalidate(request.getReceiverAddresses());
+                throw e;
+            }
+        } catch (Exception e) {
+            logger.error("Got exception in BatchFileOfferExchangeHandler for exchange " + this.exchangeId + ". Message: " + e.getMessage(), e);
+            this.hasFailed = true;
+        } finally {
+            this.offerSentLatch.countDown();
+        }
+    }
+
+    @Override
+    public void await()
+            throws InterruptedException {
+        this.offerSentLatch.await();
+
+        // no client will respond to an offer which has not been sent
+        if (! this.hasFailed) {
+            super.await();
+        }
+    }
+
+    @Override
+    public void await(long timeout, TimeUnit timeUnit)
+            throws InterruptedException {
+        long start = System.currentTimeMillis();
+        if (! this.offerSentLatch.await(timeout, timeUnit)) {
+            return;
+        }
+
+        if (! this.hasFailed) {
+            long remaining = Math.max(0L, timeUnit.toMillis(timeout) - (System.currentTimeMillis() - start));
+            super.await(remaining, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return ! this.hasFailed && 0L == this.offerSentLatch.getCount() && super.isCompleted();
+    }
+
+    @Override
+    public List<String> getAffectedFilePaths() {
+        List<String> affectedFiles = new ArrayList<>();
+        for (IEvent event : this.eventsToPropagate) {
+            affectedFiles.add(event.getPath().toString());
+        }
+
+        return affectedFiles;
+    }
+
+    @Override
+    public void onResponse(IResponse response) {
+        if (! (response instanceof BatchFileOfferResponse)) {
+            logger.error("Expected response to be instance of " + BatchFileOfferResponse.class.getName() + " but got " + response.getClass().getName());
+            return;
+        }
+
+        this.respondedClients.add(response);
+        super.onResponse(response);
+    }
+
+    @Override
+    public BatchFileOfferExchangeHandlerResult getResult() {
+        List<List<FileOfferResponse>> responsesPerOffer = new ArrayList<>();
+        for (int i = 0; i < this.eventsToPropagate.size(); i++) {
+            responsesPerOffer.add(new ArrayList<>());
+        }
+
+        List<IResponse> respondedClients;
+        synchronized (this.respondedClients) {
+            respondedClients = new ArrayList<>(this.respondedClients);
+        }
+
+        for (IResponse response : respondedClients) {
+            List<StatusCode> offerStatusCodes = ((BatchFileOfferResponse) response).getOfferStatusCodes();
+
+            if (null == offerStatusCodes || offerStatusCodes.size() != this.eventsToPropagate.size()) {
+                logger.warn("Received incomplete batch file offer response from client " + response.getClientDevice().getClientDeviceId() + " in exchange " + this.exchangeId + ". Ignoring it");
+                continue;
+            }
+
+            // split the response into one response per offer
+            for (int i = 0; i < offerStatusCodes.size(); i++) {
+                responsesPerOffer.get(i).add(new FileOfferResponse(
+                        this.exchangeId,
+                        offerStatusCodes.get(i),
+                        response.getClientDevice(),
+                        response.getReceiverAddress()
+                ));
+            }
+        }
+
+        List<FileOfferExchangeHandlerResult> fileOfferResults = new ArrayList<>();
+        for (List<FileOfferResponse> fileOfferResponses : responsesPerOffer) {
+            fileOfferResults.add(new FileOfferExchangeHandlerResult(fileOfferResponses));
+        }
+
+        return new BatchFileOfferExchangeHandlerResult(fileOfferResults);
+    }
+}
@@ -0,0 +1,31 @@
+package org.rmatil.sync.core.messaging.fileexchange.offer;
+
+import java.util.List;
+
+/**
+ * Describes the result of a batch file offering
+ */
+public class BatchFileOfferExchangeHandlerResult {
+
+    /**
+     * The result of each offered event, in the order of the offered events
+     */
+    protected List<FileOfferExchangeHandlerResult> fileOfferResults;
+
+    /**
+     * @param fileOfferResults The result of each offered event, in the order of the offered events
+     */
+    public BatchFileOfferExchangeHandlerResult(List<FileOfferExchangeHandlerResult> fileOfferResults) {
+        this.fileOfferResults = fileOfferResults;
+    }
+
+    /**
+     * Returns the result of each offered event,
+     * in the same order as the events were offered
+     *
+     * @return The results of all offers
+     */
+    public List<FileOfferExchangeHandlerResult> getFileOfferResults() {
+        return fileOfferResults;
+    }
+}
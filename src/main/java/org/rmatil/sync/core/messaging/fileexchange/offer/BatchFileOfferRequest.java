@@ -0,0 +1,46 @@
+package org.rmatil.sync.core.messaging.fileexchange.offer;
+
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.base.ARequest;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Send this request object to clients, to offer
+ * multiple independent file creations / modifications / deletions
+ * at once. Each offer is answered with its own status code
+ * in the {@link BatchFileOfferResponse}.
+ */
+public class BatchFileOfferRequest extends ARequest {
+
+    private static final long serialVersionUID = 2177458218946183420L;
+
+    /**
+     * The events to offer to other clients
+     */
+    protected List<FileOffer> offers;
+
+    /**
+     * @param exchangeId        The id of the file exchange
+     * @param statusCode        The status code for the request
+     * @param clientDevice      The client device which sends this request
+     * @param offers            The events to propagate to other clients
+     * @param receiverAddresses All client locations which should receive this request
+     */
+    public BatchFileOfferRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, List<FileOffer> offers, List<NodeLocation> receiverAddresses) {
+        super(exchangeId, statusCode, clientDevice, receiverAddresses);
+        this.offers = offers;
+    }
+
+    /**
+     * Returns the offered events
+     *
+     * @return The events to propagate
+     */
+    public List<FileOffer> getOffers() {
+        return offers;
+    }
+}
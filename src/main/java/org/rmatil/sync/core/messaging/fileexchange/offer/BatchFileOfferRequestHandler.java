@@ -0,0 +1,213 @@
+package org.rmatil.sync.core.messaging.fileexchange.offer;
+
+import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.core.eventbus.IBusEvent;
+import org.rmatil.sync.core.init.client.IIdentifierCacheRequestCallback;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.security.IAccessManager;
+import org.rmatil.sync.network.api.INode;
+import org.rmatil.sync.network.api.IRequest;
+import org.rmatil.sync.network.api.IResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.version.api.IObjectStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handles an incoming {@link BatchFileOfferRequest} by evaluating each
+ * offered event in the same way as the {@link FileOfferRequestHandler} does
+ * for a single {@link FileOfferRequest}.
+ * <p>
+ * Sends a {@link BatchFileOfferResponse} containing a status code per offer
+ * back to the client which has sent the request.
+ */
+public class BatchFileOfferRequestHandler implements IIdentifierCacheRequestCallback {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchFileOfferRequestHandler.class);
+
+    /**
+     * The storage adapter to access the synchronized folder
+     */
+    protected ITreeStorageAdapter storageAdapter;
+
+    /**
+     * The object store to access versions
+     */
+    protected IObjectStore objectStore;
+
+    /**
+     * The client to send back messages
+     */
+    protected INode node;
+
+    /**
+     * The batch file offer request from the sender
+     */
+    protected BatchFileOfferRequest request;
+
+    /**
+     * The global event bus to add ignore events
+     */
+    protected MBassador<IBusEvent> globalEventBus;
+
+    /**
+     * The access manager to check for sharer's access to files
+     */
+    protected IAccessManager accessManager;
+
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
+    @Override
+    public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
+        this.storageAdapter = storageAdapter;
+    }
+
+    @Override
+    public void setObjectStore(IObjectStore objectStore) {
+        this.objectStore = objectStore;
+    }
+
+    @Override
+    public void setGlobalEventBus(MBassador<IBusEvent> globalEventBus) {
+        this.globalEventBus = globalEventBus;
+    }
+
+    @Override
+    public void setNode(INode INode) {
+        this.node = INode;
+    }
+
+    @Override
+    public void setAccessManager(IAccessManager accessManager) {
+        this.accessManager = accessManager;
+    }
+
+    @Override
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
+    @Override
+    public void setRequest(IRequest iRequest) {
+        if (! (iRequest instanceof BatchFileOfferRequest)) {
+            throw new IllegalArgumentException("Got request " + iRequest.getClass().getName() + " but expected " + BatchFileOfferRequest.class.getName());
+        }
+
+        this.request = (BatchFileOfferRequest) iRequest;
+    }
+
+    @Override
+    public void run() {
+        try {
+            logger.info("Processing batch file offer request with " + this.request.getOffers().size() + " offers for exchange " + this.request.getExchangeId());
+
+            List<StatusCode> offerStatusCodes = new ArrayList<>();
+            for (FileOffer offer : this.request.getOffers()) {
+                StatusCode statusCode;
+                try {
+                    statusCode = this.createOfferHandler(offer).evaluateOffer();
+                } catch (Exception e) {
+                    logger.error("Failed to handle offer for path " + offer.getEvent().getPath() + " in exchange " + this.request.getExchangeId() + ". Message: " + e.getMessage(), e);
+                    statusCode = StatusCode.ERROR;
+                }
+
+                offerStatusCodes.add(statusCode);
+            }
+
+            this.sendResponse(this.createResponse(StatusCode.ACCEPTED, offerStatusCodes));
+        } catch (Exception e) {
+            logger.error("Failed to handle batch file offer request " + this.request.getExchangeId() + ". Message: " + e.getMessage(), e);
+
+            try {
+                List<StatusCode> offerStatusCodes = new ArrayList<>();
+                for (int i = 0; i < this.request.getOffers().size(); i++) {
+                    offerStatusCodes.add(StatusCode.ERROR);
+                }
+
+                this.sendResponse(this.createResponse(StatusCode.ERROR, offerStatusCodes));
+            } catch (Exception e1) {
+                logger.error("Failed to notify originating node about error in exchange " + this.request.getExchangeId() + ". Message: " + e1.getMessage(), e1);
+            }
+        }
+    }
+
+    /**
+     * Creates a handler which evaluates the given offer
+     * as if it had been sent as a single {@link FileOfferRequest}
+     *
+     * @param offer The offer to evaluate
+     *
+     * @return The handler to evaluate the offer
+     */
+    protected FileOfferRequestHandler createOfferHandler(FileOffer offer) {
+        FileOfferRequestHandler offerHandler = new FileOfferRequestHandler();
+        offerHandler.setStorageAdapter(this.storageAdapter);
+        offerHandler.setObjectStore(this.objectStore);
+        offerHandler.setGlobalEventBus(this.globalEventBus);
+        offerHandler.setNode(this.node);
+        offerHandler.setAccessManager(this.accessManager);
+        offerHandler.setIdentifierCache(this.identifierCache);
+        offerHandler.setRequest(new FileOfferRequest(
+                this.request.getExchangeId(),
+                this.request.getStatusCode(),
+                this.request.getClientDevice(),
+                offer.getFileId(),
+                offer.getOwner(),
+                offer.getEvent(),
+                this.request.getReceiverAddresses()
+        ));
+
+        return offerHandler;
+    }
+
+    /**
+     * Send the given response as result to the request
+     *
+     * @param response The response to send
+     */
+    protected void sendResponse(IResponse response) {
+        if (null == this.node) {
+            throw new IllegalStateException("A client instance is required to send a response back");
+        }
+
+        this.node.sendDirect(
+                response.getReceiverAddress(),
+                response
+        );
+    }
+
+    /**
+     * Creates a new BatchFileOfferResponse with the given status codes
+     *
+     * @param statusCode       The status code of the whole response
+     * @param offerStatusCodes The status code of each offer
+     *
+     * @return The BatchFileOfferResponse representing the result of this client
+     */
+    protected BatchFileOfferResponse createResponse(StatusCode statusCode, List<StatusCode> offerStatusCodes) {
+        ClientDevice sendingClient = new ClientDevice(this.node.getUser().getUserName(), this.node.getClientDeviceId(), this.node.getPeerAddress());
+        // the sender becomes the receiver
+        NodeLocation receiver = new NodeLocation(
+                this.request.getClientDevice().getUserName(),
+                this.request.getClientDevice().getClientDeviceId(),
+                this.request.getClientDevice().getPeerAddress()
+        );
+
+        return new BatchFileOfferResponse(
+                this.request.getExchangeId(),
+                statusCode,
+                sendingClient,
+                receiver,
+                offerStatusCodes
+        );
+    }
+}
@@ -0,0 +1,46 @@
+package org.rmatil.sync.core.messaging.fileexchange.offer;
+
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.base.AResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Send this response object to clients which have previously
+ * sent a batch file offer request.
+ */
+public class BatchFileOfferResponse extends AResponse {
+
+    private static final long serialVersionUID = - 7916025837520117262L;
+
+    /**
+     * The status code of each offer, in the same order
+     * as the offers of the corresponding request
+     */
+    protected List<StatusCode> offerStatusCodes;
+
+    /**
+     * @param exchangeId       The id of the file exchange
+     * @param statusCode       The status code of the response
+     * @param clientDevice     The client device which is sending this response
+     * @param receiverAddress  The address of the client to which this response should be sent
+     * @param offerStatusCodes The status code of each offer, in the order of the request
+     */
+    public BatchFileOfferResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, List<StatusCode> offerStatusCodes) {
+        super(exchangeId, statusCode, clientDevice, receiverAddress);
+        this.offerStatusCodes = offerStatusCodes;
+    }
+
+    /**
+     * Returns the status code of each offer, in the
+     * same order as the offers of the request
+     *
+     * @return The status codes of all offers
+     */
+    public List<StatusCode> getOfferStatusCodes() {
+        return offerStatusCodes;
+    }
+}
@@ -0,0 +1,66 @@
+package org.rmatil.sync.core.messaging.fileexchange.offer;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * A single offered event of a {@link BatchFileOfferRequest}
+ * along with the file id and owner of the affected file.
+ */
+public class FileOffer implements Serializable {
+
+    private static final long serialVersionUID = 4526331187260839702L;
+
+    /**
+     * The event to offer to other clients
+     */
+    protected SerializableEvent event;
+
+    /**
+     * The file Id of the file
+     */
+    protected UUID fileId;
+
+    /**
+     * The owner of the file
+     */
+    protected String owner;
+
+    /**
+     * @param fileId The file id of the file. May be null
+     * @param owner  The owner of the file. May be null
+     * @param event  The event to propagate to other clients
+     */
+    public FileOffer(UUID fileId, String owner, SerializableEvent event) {
+        this.fileId = fileId;
+        this.owner = owner;
+        this.event = event;
+    }
+
+    /**
+     * Returns the event which should be propagated to all clients
+     *
+     * @return The event to propagate
+     */
+    public SerializableEvent getEvent() {
+        return event;
+    }
+
+    /**
+     * Returns the file id. May be null
+     *
+     * @return The file id
+     */
+    public UUID getFileId() {
+        return fileId;
+    }
+
+    /**
+     * Returns the owner. May be null.
+     *
+     * @return The owner of the file
+     */
+    public String getOwner() {
+        return owner;
+    }
+}
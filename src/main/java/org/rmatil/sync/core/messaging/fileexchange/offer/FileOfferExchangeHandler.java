@@ -1,10 +1,13 @@
 package org.rmatil.sync.core.messaging.fileexchange.offer;
 
 import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.core.NodeLocationCache;
 import org.rmatil.sync.core.eventbus.IBusEvent;
 import org.rmatil.sync.core.eventbus.IgnoreBusEvent;
 import org.rmatil.sync.core.init.client.ILocalStateResponseCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.fileexchange.move.SubtreeIdentifierMover;
 import org.rmatil.sync.event.aggregator.core.events.IEvent;
 import org.rmatil.sync.event.aggregator.core.events.MoveEvent;
 import org.rmatil.sync.network.api.INode;
@@ -26,13 +29,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.stream.Stream;
 
 /**
  * Tries to determine whether a particular {@link IEvent} resp. {@link SerializableEvent}
@@ -86,6 +86,16 @@ public class FileOfferExchangeHandler extends ANetworkHandler<FileOfferExchangeH
      */
     protected MBassador<IBusEvent> globalEventBus;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
+    /**
+     * The cache of the client locations of users
+     */
+    protected NodeLocationCache nodeLocationCache;
+
     /**
      * @param exchangeId       The exchange id used for the file offer handling
      * @param clientDevice     The client device used to identify the sending client for any file offer requests
@@ -106,6 +116,27 @@ public class FileOfferExchangeHandler extends ANetworkHandler<FileOfferExchangeH
         this.globalEventBus = globalEventBus;
         this.eventToPropagate = eventToPropagate;
         this.respondedClients = new ArrayList<>();
+
+        this.identifierCache = new IdentifierCache(client);
+        this.nodeLocationCache = new NodeLocationCache(nodeManager, 0L);
+    }
+
+    /**
+     * Set the cache of the file ids of the node to use instead of a cache for this exchange only
+     *
+     * @param identifierCache The identifier cache
+     */
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
+    /**
+     * Set the cache of the client locations of the node to use instead of fetching each lookup from the node manager
+     *
+     * @param nodeLocationCache The node location cache
+     */
+    public void setNodeLocationCache(NodeLocationCache nodeLocationCache) {
+        this.nodeLocationCache = nodeLocationCache;
     }
 
     @Override
@@ -129,40 +160,42 @@ public class FileOfferExchangeHandler extends ANetworkHandler<FileOfferExchangeH
             // since this sync is triggered by a move, the actual operation is already
             // done on this client, therefore we traverse the dir on the new path
             if (isDir && this.eventToPropagate instanceof MoveEvent) {
-                // we only offer the move event from the "root" directory
-                Path dirToMove = Paths.get(this.storageAdapter.getRootDir().getPath()).resolve(((MoveEvent) this.eventToPropagate).getNewPath());
-                try (Stream<Path> paths = Files.walk(dirToMove)) {
-                    paths.forEach((entry) -> {
-                        // do not use toAbsolutePath() since we could have also paths starting with "./myDir"
-                        Path relPath = Paths.get(this.storageAdapter.getRootDir().getPath()).relativize(entry);
-                        Path oldPath = this.eventToPropagate.getPath().resolve(((MoveEvent) this.eventToPropagate).getNewPath().relativize(relPath));
-
-                        // move also file id
-                        try {
-                            this.node.getIdentifierManager().moveKey(oldPath.toString(), relPath.toString());
-                        } catch (InputOutputException e) {
-                            logger.warn("Failed to move file id for file " + oldPath.toString() + ". Message: " + e.getMessage());
-                        }
-
-                        globalEventBus.publish(new IgnoreBusEvent(
-                                new MoveEvent(
-                                        oldPath,
-                                        relPath,
-                                        entry.getFileName().toString(),
-                                        "weIgnoreTheHash",
-                                        System.currentTimeMillis()
-                                )
-                        ));
-                    });
+                // we only offer the move event from the "root" directory,
+                // therefore ignore the move events of all paths in it at once
+                MoveEvent moveEvent = (MoveEvent) this.eventToPropagate;
+                globalEventBus.publish(new IgnoreBusEvent(
+                        new MoveEvent(
+                                moveEvent.getPath(),
+                                moveEvent.getNewPath(),
+                                moveEvent.getNewPath().getFileName().toString(),
+                                "weIgnoreTheHash",
+                                System.currentTimeMillis()
+                        ),
+                        true
+                ));
+
+                // move also the file ids
+                try {
+                    int nrOfFailedMoves = new SubtreeIdentifierMover(this.identifierCache).moveSubtree(
+                            Paths.get(this.storageAdapter.getRootDir().getPath()),
+                            moveEvent.getPath(),
+                            moveEvent.getNewPath()
+                    );
+
+                    if (0 < nrOfFailedMoves) {
+                        logger.warn("Failed to move the file ids of " + nrOfFailedMoves + " paths for moving " + moveEvent.getPath().toString() + " to " + moveEvent.getNewPath().toString());
+                    }
                 } catch (IOException e) {
-                    logger.error("Could not create ignore events for moving " + this.eventToPropagate.getPath().toString() + " to " + ((MoveEvent) this.eventToPropagate).getNewPath().toString() + ". Message: " + e.getMessage());
+                    logger.error("Could not move file ids for moving " + moveEvent.getPath().toString() + " to " + moveEvent.getNewPath().toString() + ". Message: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    logger.error("Got interrupted while moving file ids for moving " + moveEvent.getPath().toString() + " to " + moveEvent.getNewPath().toString() + ". Message: " + e.getMessage());
                 }
             }
 
             // Fetch client locations from the DHT
             List<NodeLocation> clientLocations;
             try {
-                clientLocations = this.nodeManager.getNodeLocations(super.node.getUser().getUserName());
+                clientLocations = this.nodeLocationCache.getNodeLocations(super.node.getUser().getUserName());
             } catch (InputOutputException e) {
                 logger.error("Could not fetch client locations from user " + super.node.getUser().getUserName() + ". Message: " + e.getMessage());
                 return;
@@ -177,7 +210,7 @@ public class FileOfferExchangeHandler extends ANetworkHandler<FileOfferExchangeH
                     AccessType.WRITE.equals(pathObject.getAccessType())) {
                 // we got write permissions, so we send the changes also back to the original owner of the file
                 try {
-                    List<NodeLocation> ownerLocations = this.nodeManager.getNodeLocations(pathObject.getOwner());
+                    List<NodeLocation> ownerLocations = this.nodeLocationCache.getNodeLocations(pathObject.getOwner());
 
                     // only add one client of the owner. He may propagate the change then
                     // to his own clients. Conflicts get detected there, if any
@@ -185,7 +218,7 @@ public class FileOfferExchangeHandler extends ANetworkHandler<FileOfferExchangeH
                         clientLocations.add(ownerLocations.get(0));
                     }
 
-                    fileId = super.node.getIdentifierManager().getValue(pathToCheck);
+                    fileId = this.identifierCache.getValue(pathToCheck);
                     owner = pathObject.getOwner();
 
                 } catch (InputOutputException e) {
@@ -197,12 +230,12 @@ public class FileOfferExchangeHandler extends ANetworkHandler<FileOfferExchangeH
                 for (Sharer entry : pathObject.getSharers()) {
                     try {
                         // ask sharer's clients to get the changes too
-                        List<NodeLocation> sharerLocations = this.nodeManager.getNodeLocations(entry.getUsername());
+                        List<NodeLocation> sharerLocations = this.nodeLocationCache.getNodeLocations(entry.getUsername());
 
                         // only add one client of the sharer. He may propagate the change then
                         // to his clients, and if a conflict occurs, there will be a new file
                         if (! sharerLocations.isEmpty()) {
-                            fileId = super.node.getIdentifierManager().getValue(pathToCheck);
+                            fileId = this.identifierCache.getValue(pathToCheck);
                             clientLocations.add(sharerLocations.get(0));
                         }
                     } catch (InputOutputException e) {
@@ -235,7 +268,13 @@ public class FileOfferExchangeHandler extends ANetworkHandler<FileOfferExchangeH
                     clientLocations
             );
 
-            super.sendRequest(request);
+            try {
+                super.sendRequest(request);
+            } catch (RuntimeException e) {
+                // a receiver may have changed its location since it was cached
+                this.nodeLocationCache.invalidate(request.getReceiverAddresses());
+                throw e;
+            }
         } catch (Exception e) {
             logger.error("Got exception in FileOfferExchangeHandler for exchange " + this.exchangeId + ". Message: " + e.getMessage(), e);
         }
@@ -245,6 +284,11 @@ public class FileOfferExchangeHandler extends ANetworkHandler<FileOfferExchangeH
     public List<String> getAffectedFilePaths() {
         List<String> affectedFiles = new ArrayList<>();
         affectedFiles.add(this.eventToPropagate.getPath().toString());
+
+        if (this.eventToPropagate instanceof MoveEvent) {
+            affectedFiles.add(((MoveEvent) this.eventToPropagate).getNewPath().toString());
+        }
+
         return affectedFiles;
     }
 
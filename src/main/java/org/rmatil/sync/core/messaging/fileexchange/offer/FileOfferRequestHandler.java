@@ -2,8 +2,9 @@ package org.rmatil.sync.core.messaging.fileexchange.offer;
 
 import net.engio.mbassy.bus.MBassador;
 import org.rmatil.sync.core.ConflictHandler;
+import org.rmatil.sync.core.IdentifierCache;
 import org.rmatil.sync.core.eventbus.IBusEvent;
-import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
+import org.rmatil.sync.core.init.client.IIdentifierCacheRequestCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.event.aggregator.core.events.CreateEvent;
@@ -36,7 +37,7 @@ import java.util.UUID;
  * <p>
  * Sends a {@link FileOfferResponse} back to the client which has sent the request.
  */
-public class FileOfferRequestHandler implements ILocalStateRequestCallback {
+public class FileOfferRequestHandler implements IIdentifierCacheRequestCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(FileOfferRequestHandler.class);
 
@@ -78,6 +79,11 @@ public class FileOfferRequestHandler implements ILocalStateRequestCallback {
      */
     protected IAccessManager accessManager;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
     @Override
     public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
         this.storageAdapter = storageAdapter;
@@ -103,6 +109,11 @@ public class FileOfferRequestHandler implements ILocalStateRequestCallback {
         this.accessManager = accessManager;
     }
 
+    @Override
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
     @Override
     public void setRequest(IRequest iRequest) {
         if (! (iRequest instanceof FileOfferRequest)) {
@@ -115,118 +126,126 @@ public class FileOfferRequestHandler implements ILocalStateRequestCallback {
     @Override
     public void run() {
         try {
-            TreePathElement pathElement;
-            if ((null != this.request.getOwner() && this.node.getUser().getUserName().equals(this.request.getOwner())) ||
-                    null != this.request.getFileId()) {
-                logger.debug("Using the path registered with the file id " + this.request.getFileId() + " to answer the file offer request");
-                // we have to use our path: if we are either the owner or a sharer
-                String pathToFile = this.node.getIdentifierManager().getKey(this.request.getFileId());
-
-                if (null == pathToFile && CreateEvent.EVENT_NAME.equals(this.request.getEvent().getEventName())) {
-                    // this is a file which is created in a shared folder
-                    // and not yet transferred to our clients.
-                    // -> we accept the offer and resolve the path in the FilePushRequestHandler
-                    logger.info("Accepting child " + this.request.getEvent().getPath() + " of a shared file");
-                    this.sendResponse(this.createResponse(StatusCode.ACCEPTED));
-                    return;
-                } else {
-                    pathElement = new TreePathElement(pathToFile);
-                }
+            this.sendResponse(this.createResponse(this.evaluateOffer()));
+        } catch (Exception e) {
+            logger.error("Failed to handle file offer request " + this.request.getExchangeId() + ". Message: " + e.getMessage(), e);
+
+            try {
+                this.sendResponse(this.createResponse(StatusCode.ERROR));
+            } catch (Exception e1) {
+                logger.error("Failed to notify originating node about error in exchange " + this.request.getExchangeId() + ". Message: " + e1.getMessage(), e1);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the offered event can be applied on this client
+     * and creates a conflict file if necessary.
+     *
+     * @return The status code to answer the offer with
+     */
+    protected StatusCode evaluateOffer() {
+        TreePathElement pathElement;
+        if ((null != this.request.getOwner() && this.node.getUser().getUserName().equals(this.request.getOwner())) ||
+                null != this.request.getFileId()) {
+            logger.debug("Using the path registered with the file id " + this.request.getFileId() + " to answer the file offer request");
+            // we have to use our path: if we are either the owner or a sharer
+            String pathToFile = this.identifierCache.getKey(this.request.getFileId());
+
+            if (null == pathToFile && CreateEvent.EVENT_NAME.equals(this.request.getEvent().getEventName())) {
+                // this is a file which is created in a shared folder
+                // and not yet transferred to our clients.
+                // -> we accept the offer and resolve the path in the FilePushRequestHandler
+                logger.info("Accepting child " + this.request.getEvent().getPath() + " of a shared file");
+                return StatusCode.ACCEPTED;
             } else {
-                logger.debug("Using the path from the request " + this.request.getEvent().getPath() + " to answer the file offer request");
-                pathElement = new TreePathElement(this.request.getEvent().getPath());
+                pathElement = new TreePathElement(pathToFile);
             }
+        } else {
+            logger.debug("Using the path from the request " + this.request.getEvent().getPath() + " to answer the file offer request");
+            pathElement = new TreePathElement(this.request.getEvent().getPath());
+        }
 
-            logger.info("Processing file offer request for path " + pathElement.getPath());
+        logger.info("Processing file offer request for path " + pathElement.getPath());
 
-            if (! this.node.getUser().getUserName().equals(this.request.getClientDevice().getUserName()) && ! this.accessManager.hasAccess(this.request.getClientDevice().getUserName(), AccessType.WRITE, pathElement.getPath())) {
-                logger.warn("Failed to positively return the offer from user " + this.request.getClientDevice().getUserName() + " for file " + pathElement.getPath() + " due to missing access rights on exchange " + this.request.getExchangeId());
-                this.sendResponse(this.createResponse(StatusCode.ACCESS_DENIED));
-                return;
-            }
+        if (! this.node.getUser().getUserName().equals(this.request.getClientDevice().getUserName()) && ! this.accessManager.hasAccess(this.request.getClientDevice().getUserName(), AccessType.WRITE, pathElement.getPath())) {
+            logger.warn("Failed to positively return the offer from user " + this.request.getClientDevice().getUserName() + " for file " + pathElement.getPath() + " due to missing access rights on exchange " + this.request.getExchangeId());
+            return StatusCode.ACCESS_DENIED;
+        }
 
-            StatusCode statusCode = StatusCode.ACCEPTED;
+        StatusCode statusCode = StatusCode.ACCEPTED;
 
-            switch (this.request.getEvent().getEventName()) {
-                case DeleteEvent.EVENT_NAME:
-                    // create positive response if file or directory exists
-                    try {
-                        if ((this.request.getEvent().isFile() && this.storageAdapter.exists(StorageType.FILE, pathElement)) ||
-                                this.storageAdapter.exists(StorageType.DIRECTORY, pathElement)) {
-                            statusCode = StatusCode.ACCEPTED;
-                        } else {
-                            // we do not have the file,
-                            // a delete request will therefore fail
-                            statusCode = StatusCode.REQUEST_OBSOLETE;
-                        }
-                    } catch (InputOutputException e) {
-                        logger.error("Could not check whether the path " + pathElement.getPath() + " exists or not. Message: " + e.getMessage() + ". Sending back an unaccepted offer");
-                        statusCode = StatusCode.DENIED;
+        switch (this.request.getEvent().getEventName()) {
+            case DeleteEvent.EVENT_NAME:
+                // create positive response if file or directory exists
+                try {
+                    if ((this.request.getEvent().isFile() && this.storageAdapter.exists(StorageType.FILE, pathElement)) ||
+                            this.storageAdapter.exists(StorageType.DIRECTORY, pathElement)) {
+                        statusCode = StatusCode.ACCEPTED;
+                    } else {
+                        // we do not have the file,
+                        // a delete request will therefore fail
+                        statusCode = StatusCode.REQUEST_OBSOLETE;
                     }
-                    break;
-                case MoveEvent.EVENT_NAME:
-                    // If target already exists, move will throw an exception
-                    // -> rely on the background syncer to get changes
-
-                    // moves are not sent from clients of different users
-                    pathElement = new TreePathElement(this.request.getEvent().getNewPath());
-                case CreateEvent.EVENT_NAME:
-                case ModifyEvent.EVENT_NAME:
-                    try {
-                        if (this.request.getEvent().isFile() && this.storageAdapter.exists(StorageType.FILE, pathElement)) {
-                            // compare versions
-                            CONFLICT_TYPE hasVersionConflict = this.hasVersionConflict(pathElement);
-                            if (CONFLICT_TYPE.CONFLICT == hasVersionConflict) {
-                                statusCode = StatusCode.CONFLICT;
-                                Path conflictFile = ConflictHandler.createConflictFile(
-                                        this.globalEventBus,
-                                        this.node.getClientDeviceId().toString(),
-                                        this.objectStore,
-                                        this.storageAdapter,
-                                        pathElement
-                                );
-
-                                // move element in the IdentifierManager too
-                                UUID fileId = this.node.getIdentifierManager().getValue(pathElement.getPath());
-                                try {
-                                    if (null != conflictFile && null != fileId) {
-                                        this.node.getIdentifierManager().moveKey(
-                                                pathElement.getPath(),
-                                                conflictFile.toString()
-                                        );
-                                    }
-                                } catch (InputOutputException e) {
-                                    logger.warn("Failed to move conflicting file with id " + fileId + " on path " + pathElement.getPath() + " to new path too. Maybe another client moved it already? Message: " + e.getMessage());
+                } catch (InputOutputException e) {
+                    logger.error("Could not check whether the path " + pathElement.getPath() + " exists or not. Message: " + e.getMessage() + ". Sending back an unaccepted offer");
+                    statusCode = StatusCode.DENIED;
+                }
+                break;
+            case MoveEvent.EVENT_NAME:
+                // If target already exists, move will throw an exception
+                // -> rely on the background syncer to get changes
+
+                // moves are not sent from clients of different users
+                pathElement = new TreePathElement(this.request.getEvent().getNewPath());
+            case CreateEvent.EVENT_NAME:
+            case ModifyEvent.EVENT_NAME:
+                try {
+                    if (this.request.getEvent().isFile() && this.storageAdapter.exists(StorageType.FILE, pathElement)) {
+                        // compare versions
+                        CONFLICT_TYPE hasVersionConflict = this.hasVersionConflict(pathElement);
+                        if (CONFLICT_TYPE.CONFLICT == hasVersionConflict) {
+                            statusCode = StatusCode.CONFLICT;
+                            Path conflictFile = ConflictHandler.createConflictFile(
+                                    this.globalEventBus,
+                                    this.node.getClientDeviceId().toString(),
+                                    this.objectStore,
+                                    this.storageAdapter,
+                                    pathElement
+                            );
+
+                            // move element in the IdentifierManager too
+                            UUID fileId = this.identifierCache.getValue(pathElement.getPath());
+                            try {
+                                if (null != conflictFile && null != fileId) {
+                                    this.identifierCache.moveKey(
+                                            pathElement.getPath(),
+                                            conflictFile.toString()
+                                    );
                                 }
-
-                            } else if (CONFLICT_TYPE.NO_CONFLICT_REQUEST_REQUIRED == hasVersionConflict ||
-                                    MoveEvent.EVENT_NAME.equals(this.request.getEvent().getEventName())) {
-                                // we always require a move event to be executed
-                                statusCode = StatusCode.ACCEPTED;
-                            } else {
-                                statusCode = StatusCode.REQUEST_OBSOLETE;
+                            } catch (InputOutputException e) {
+                                logger.warn("Failed to move conflicting file with id " + fileId + " on path " + pathElement.getPath() + " to new path too. Maybe another client moved it already? Message: " + e.getMessage());
                             }
-                        } else {
-                            // we accept any offer if it is a directory, whether it exists or not
+
+                        } else if (CONFLICT_TYPE.NO_CONFLICT_REQUEST_REQUIRED == hasVersionConflict ||
+                                MoveEvent.EVENT_NAME.equals(this.request.getEvent().getEventName())) {
+                            // we always require a move event to be executed
                             statusCode = StatusCode.ACCEPTED;
+                        } else {
+                            statusCode = StatusCode.REQUEST_OBSOLETE;
                         }
-                    } catch (InputOutputException e) {
-                        logger.error("Could not check whether the file " + pathElement.getPath() + " exists or not. Message: " + e.getMessage() + ". Sending back a conflict file");
-                        statusCode = StatusCode.DENIED;
+                    } else {
+                        // we accept any offer if it is a directory, whether it exists or not
+                        statusCode = StatusCode.ACCEPTED;
                     }
-                    break;
-            }
-
-            this.sendResponse(this.createResponse(statusCode));
-        } catch (Exception e) {
-            logger.error("Failed to handle file offer request " + this.request.getExchangeId() + ". Message: " + e.getMessage(), e);
-
-            try {
-                this.sendResponse(this.createResponse(StatusCode.ERROR));
-            } catch (Exception e1) {
-                logger.error("Failed to notify originating node about error in exchange " + this.request.getExchangeId() + ". Message: " + e1.getMessage(), e1);
-            }
+                } catch (InputOutputException e) {
+                    logger.error("Could not check whether the file " + pathElement.getPath() + " exists or not. Message: " + e.getMessage() + ". Sending back a conflict file");
+                    statusCode = StatusCode.DENIED;
+                }
+                break;
         }
+
+        return statusCode;
     }
 
     /**
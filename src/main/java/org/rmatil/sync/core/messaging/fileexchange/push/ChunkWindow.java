@@ -0,0 +1,153 @@
+package org.rmatil.sync.core.messaging.fileexchange.push;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the chunks which have been pushed to a single
+ * receiver but are not acknowledged yet.
+ * <p>
+ * The first chunk is always sent alone, so that the receiver
+ * is able to create the file and to store owner and sharers
+ * before any other chunk arrives. Once it is acknowledged,
+ * up to {@link ChunkWindow#windowSize} chunks are kept in flight.
+ */
+public class ChunkWindow {
+
+    /**
+     * The maximum number of unacknowledged chunks
+     */
+    protected int windowSize;
+
+    /**
+     * The total number of chunks of the file, -1 if not known yet
+     */
+    protected long totalNrOfChunks;
+
+    /**
+     * The lowest chunk number which has never been sent
+     */
+    protected long nextChunkCounter;
+
+    /**
+     * Whether the first chunk has been acknowledged
+     */
+    protected boolean isOpen;
+
+    /**
+     * The unacknowledged chunks mapped to the time in milliseconds they were sent
+     */
+    protected Map<Long, Long> chunksInFlight;
+
+    /**
+     * The chunks which have been acknowledged by the receiver. Since responses
+     * may be handled in another order than they were sent, a chunk requested
+     * by an outdated response may already be acknowledged
+     */
+    protected BitSet acknowledgedChunks;
+
+    /**
+     * @param windowSize The maximum number of unacknowledged chunks
+     */
+    public ChunkWindow(int windowSize) {
+        this.windowSize = Math.max(1, windowSize);
+        this.chunksInFlight = new HashMap<>();
+        this.acknowledgedChunks = new BitSet();
+        this.reset();
+    }
+
+    /**
+     * Forgets about all sent chunks, i.e. the transfer
+     * is started again at the first chunk
+     */
+    public synchronized void reset() {
+        this.totalNrOfChunks = - 1;
+        this.nextChunkCounter = 0;
+        this.isOpen = false;
+        this.chunksInFlight.clear();
+        this.acknowledgedChunks.clear();
+    }
+
+    /**
+     * Marks the given chunk as sent
+     *
+     * @param chunkCounter    The number of the sent chunk
+     * @param totalNrOfChunks The total number of chunks of the file
+     */
+    public synchronized void onSent(long chunkCounter, long totalNrOfChunks) {
+        // an empty file or a directory is still transmitted as a single chunk
+        this.totalNrOfChunks = Math.max(1L, totalNrOfChunks);
+        this.chunksInFlight.put(chunkCounter, System.currentTimeMillis());
+
+        if (chunkCounter >= this.nextChunkCounter) {
+            this.nextChunkCounter = chunkCounter + 1;
+        }
+    }
+
+    /**
+     * Marks the given chunk as received by the other client
+     *
+     * @param chunkCounter The number of the acknowledged chunk
+     */
+    public synchronized void onAcknowledged(long chunkCounter) {
+        this.chunksInFlight.remove(chunkCounter);
+        this.acknowledgedChunks.set((int) chunkCounter);
+
+        if (0L == chunkCounter) {
+            this.isOpen = true;
+        }
+    }
+
+    /**
+     * Returns true, if the given chunk has been sent before
+     * but has neither been acknowledged nor is in flight anymore.
+     *
+     * @param chunkCounter The chunk number to check
+     *
+     * @return True, if the chunk got lost on the way
+     */
+    public synchronized boolean isMissing(long chunkCounter) {
+        return chunkCounter >= 0 &&
+                chunkCounter < this.nextChunkCounter &&
+                ! this.chunksInFlight.containsKey(chunkCounter) &&
+                ! this.acknowledgedChunks.get((int) chunkCounter);
+    }
+
+    /**
+     * Returns the next chunk which may be sent without exceeding
+     * the window size or -1, if no more chunk may be sent now.
+     *
+     * @return The next chunk number to send or -1
+     */
+    public synchronized long getNextChunkToSend() {
+        if (! this.isOpen ||
+                this.chunksInFlight.size() >= this.windowSize ||
+                this.nextChunkCounter >= this.totalNrOfChunks) {
+            return - 1;
+        }
+
+        return this.nextChunkCounter;
+    }
+
+    /**
+     * Returns all chunks which are in flight for longer than the given timeout
+     *
+     * @param timeout The timeout in milliseconds
+     *
+     * @return The chunk numbers which should be retransmitted
+     */
+    public synchronized List<Long> getExpiredChunks(long timeout) {
+        long now = System.currentTimeMillis();
+        List<Long> expiredChunks = new ArrayList<>();
+        for (Map.Entry<Long, Long> entry : this.chunksInFlight.entrySet()) {
+            if (now - entry.getValue() > timeout) {
+                expiredChunks.add(entry.getKey());
+            }
+        }
+
+        return expiredChunks;
+    }
+}
@@ -1,16 +1,20 @@
 package org.rmatil.sync.core.messaging.fileexchange.push;
 
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.core.NodeLocationCache;
+import org.rmatil.sync.core.config.Config;
 import org.rmatil.sync.core.init.client.ILocalStateResponseCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.messaging.chunk.Chunk;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
 import org.rmatil.sync.core.messaging.chunk.ChunkProvider;
-import org.rmatil.sync.core.messaging.fileexchange.offer.FileOfferExchangeHandler;
 import org.rmatil.sync.network.api.INode;
 import org.rmatil.sync.network.api.INodeManager;
 import org.rmatil.sync.network.api.IRequest;
 import org.rmatil.sync.network.api.IResponse;
 import org.rmatil.sync.network.core.ANetworkHandler;
 import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.Data;
 import org.rmatil.sync.network.core.model.NodeLocation;
 import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
 import org.rmatil.sync.persistence.core.tree.TreePathElement;
@@ -25,13 +29,18 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHandlerResult> implements ILocalStateResponseCallback {
 
-    private static final Logger logger = LoggerFactory.getLogger(FileOfferExchangeHandler.class);
+    private static final Logger logger = LoggerFactory.getLogger(FilePushExchangeHandler.class);
 
     /**
      * Wait a maximum of 2 minutes for a file exchange to complete
@@ -43,6 +52,38 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
      */
     protected static final int CHUNK_SIZE = 1024 * 1024; // 1MB
 
+    /**
+     * Compresses the chunks sent to other clients, shared among all exchanges
+     */
+    protected static final ChunkCompressor chunkCompressor = new ChunkCompressor(Config.DEFAULT.getChunkCompressionLevel());
+
+    /**
+     * The default number of chunks which are sent to a
+     * receiver without waiting for their acknowledgement
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 8;
+
+    /**
+     * The time in milliseconds after which an unacknowledged chunk is sent again
+     */
+    protected static final long CHUNK_RETRANSMISSION_TIMEOUT = 30000L;
+
+    /**
+     * The interval in milliseconds in which chunks are checked for retransmission
+     */
+    protected static final long RETRANSMISSION_CHECK_INTERVAL = 5000L;
+
+    /**
+     * Retransmits unacknowledged chunks of all exchanges, even if
+     * the receivers do not respond anymore
+     */
+    protected static final ScheduledExecutorService retransmissionTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setName("FilePushRetransmissionTimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * The id of the file exchange
      */
@@ -101,11 +142,55 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
      */
     protected CountDownLatch initReceiverLatch;
 
+    /**
+     * The maximum number of unacknowledged chunks per receiver
+     */
+    protected int windowSize;
+
+    /**
+     * The chunk windows of all receivers, keyed by the exchange id of their sub request
+     */
+    protected Map<UUID, ChunkWindow> chunkWindows;
+
+    /**
+     * The receivers, keyed by the exchange id of their sub request
+     */
+    protected Map<UUID, NodeLocation> chunkReceivers;
+
+    /**
+     * The periodic check for chunks to retransmit, null if not started yet
+     */
+    protected volatile ScheduledFuture<?> retransmission;
+
     protected UUID   fileId;
     protected String owner;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
+    /**
+     * The cache of the client locations of users
+     */
+    protected NodeLocationCache nodeLocationCache;
 
     public FilePushExchangeHandler(UUID exchangeId, ClientDevice clientDevice, ITreeStorageAdapter storageAdapter, INodeManager nodeManager, INode client, IObjectStore objectStore, List<NodeLocation> receivers, String relativeFilePath) {
+        this(exchangeId, clientDevice, storageAdapter, nodeManager, client, objectStore, receivers, relativeFilePath, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param exchangeId       The id of the file exchange
+     * @param clientDevice     The client device information
+     * @param storageAdapter   A storage adapter to access the synchronized folder
+     * @param nodeManager      The client manager to access client locations
+     * @param client           The client to send requests
+     * @param objectStore      The object store to read the sharers from
+     * @param receivers        A list of client locations which should receive the file
+     * @param relativeFilePath The relative path to the file/directory which should be pushed
+     * @param windowSize       The maximum number of unacknowledged chunks per receiver. Use 1 to wait for each chunk
+     */
+    public FilePushExchangeHandler(UUID exchangeId, ClientDevice clientDevice, ITreeStorageAdapter storageAdapter, INodeManager nodeManager, INode client, IObjectStore objectStore, List<NodeLocation> receivers, String relativeFilePath, int windowSize) {
         super(client);
         this.clientDevice = clientDevice;
         this.exchangeId = exchangeId;
@@ -115,11 +200,35 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
         this.receivers = receivers;
         this.relativeFilePath = relativeFilePath;
         this.initReceiverLatch = new CountDownLatch(1);
+        this.windowSize = windowSize;
+        this.chunkWindows = new ConcurrentHashMap<>();
+        this.chunkReceivers = new ConcurrentHashMap<>();
         this.chunkProvider = new ChunkProvider(
                 this.storageAdapter,
                 this.objectStore,
                 new TreePathElement(relativeFilePath)
         );
+
+        this.identifierCache = new IdentifierCache(client);
+        this.nodeLocationCache = new NodeLocationCache(nodeManager, 0L);
+    }
+
+    /**
+     * Set the cache of the file ids of the node to use instead of a cache for this exchange only
+     *
+     * @param identifierCache The identifier cache
+     */
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
+    /**
+     * Set the cache of the client locations of the node to use instead of fetching each lookup from the node manager
+     *
+     * @param nodeLocationCache The node location cache
+     */
+    public void setNodeLocationCache(NodeLocationCache nodeLocationCache) {
+        this.nodeLocationCache = nodeLocationCache;
     }
 
     @Override
@@ -147,7 +256,7 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
                         ! this.node.getUser().getUserName().equals(pathObject.getOwner()) &&
                         AccessType.WRITE.equals(pathObject.getAccessType())) {
                     try {
-                        this.fileId = this.node.getIdentifierManager().getValue(this.relativeFilePath);
+                        this.fileId = this.identifierCache.getValue(this.relativeFilePath);
                         this.owner = pathObject.getOwner();
                     } catch (InputOutputException e) {
                         logger.error("Failed to get file id for " + this.relativeFilePath + ". Message: " + e.getMessage());
@@ -159,12 +268,12 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
                     for (Sharer entry : pathObject.getSharers()) {
                         try {
                             // ask sharer's clients to get the changes too
-                            List<NodeLocation> sharerLocations = this.nodeManager.getNodeLocations(entry.getUsername());
+                            List<NodeLocation> sharerLocations = this.nodeLocationCache.getNodeLocations(entry.getUsername());
 
                             // only add one client of the sharer. He may propagate the change then
                             // to his clients, and if a conflict occurs, there will be a new file
                             if (! sharerLocations.isEmpty()) {
-                                fileId = super.node.getIdentifierManager().getValue(pathObject.getAbsolutePath());
+                                fileId = this.identifierCache.getValue(pathObject.getAbsolutePath());
                                 // Note that we do not add the sharer location again since these
                                 // are assembled in FileOfferExchangeHandlerResult
                             }
@@ -181,22 +290,70 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
             for (NodeLocation location : this.receivers) {
                 UUID uuid = UUID.randomUUID();
                 logger.info("Sending first chunk as subRequest of " + this.exchangeId + " with id " + uuid + " to client " + location.getPeerAddress().inetAddress().getHostName() + ":" + location.getPeerAddress().tcpPort());
+                ChunkWindow chunkWindow = new ChunkWindow(this.windowSize);
+                this.chunkReceivers.put(uuid, location);
+                this.chunkWindows.put(uuid, chunkWindow);
+
                 // add callback handler for sub request
                 super.node.getObjectDataReplyHandler().addResponseCallbackHandler(uuid, this);
 
-                this.sendChunk(
-                        0, // first chunk
-                        this.fileId,
-                        this.owner,
-                        uuid,
-                        location
-                );
+                synchronized (chunkWindow) {
+                    this.sendChunk(
+                            0, // first chunk
+                            this.fileId,
+                            this.owner,
+                            uuid,
+                            location,
+                            chunkWindow
+                    );
+                }
             }
+
+            long deadline = System.currentTimeMillis() + MAX_FILE_WAITNG_TIME;
+            this.retransmission = retransmissionTimer.scheduleWithFixedDelay(
+                    () -> this.retransmitExpiredChunks(deadline),
+                    RETRANSMISSION_CHECK_INTERVAL,
+                    RETRANSMISSION_CHECK_INTERVAL,
+                    TimeUnit.MILLISECONDS
+            );
         } catch (Exception e) {
             logger.error("Failed to execute FilePushExchangeHandler. Message: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Sends all chunks again which have not been acknowledged within {@link FilePushExchangeHandler#CHUNK_RETRANSMISSION_TIMEOUT}.
+     * Stops once all receivers have finished or the exchange is not awaited anymore.
+     *
+     * @param deadline The time in milliseconds after which the exchange is given up
+     */
+    protected void retransmitExpiredChunks(long deadline) {
+        try {
+            if (this.chunkWindows.isEmpty() || System.currentTimeMillis() > deadline) {
+                this.retransmission.cancel(false);
+                return;
+            }
+
+            for (Map.Entry<UUID, ChunkWindow> entry : this.chunkWindows.entrySet()) {
+                ChunkWindow chunkWindow = entry.getValue();
+
+                synchronized (chunkWindow) {
+                    // the sub exchange may have finished in the mean time
+                    if (! this.chunkWindows.containsKey(entry.getKey())) {
+                        continue;
+                    }
+
+                    for (Long expiredChunk : chunkWindow.getExpiredChunks(CHUNK_RETRANSMISSION_TIMEOUT)) {
+                        logger.info("Chunk " + expiredChunk + " was not acknowledged in time for sub exchange " + entry.getKey() + " of exchange " + this.exchangeId + ". Sending it again");
+                        this.sendChunk(expiredChunk, this.fileId, this.owner, entry.getKey(), this.chunkReceivers.get(entry.getKey()), chunkWindow);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Failed to retransmit chunks for exchange " + this.exchangeId + ". Message: " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public List<String> getAffectedFilePaths() {
         List<String> affectedPaths = new ArrayList<>();
@@ -212,23 +369,65 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
             return;
         }
 
-        if (StatusCode.ERROR.equals(((FilePushResponse) response).getStatusCode()) ||
-                0 > ((FilePushResponse) response).getChunkCounter()) {
+        FilePushResponse filePushResponse = (FilePushResponse) response;
+        ChunkWindow chunkWindow = this.chunkWindows.get(response.getExchangeId());
+
+        if (null == chunkWindow) {
+            logger.info("Ignoring response for already finished sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId);
+            return;
+        }
+
+        if (StatusCode.ERROR.equals(filePushResponse.getStatusCode()) ||
+                0 > filePushResponse.getChunkCounter()) {
             // exchange is finished or an error occurred on the other side
+            if (null == this.chunkWindows.remove(response.getExchangeId())) {
+                // another response has already finished this sub exchange
+                return;
+            }
+
             super.node.getObjectDataReplyHandler().removeResponseCallbackHandler(response.getExchangeId());
             super.onResponse(response);
             this.chunkCountDownLatch.countDown();
-        } else {
-            this.sendChunk(
-                    ((FilePushResponse) response).getChunkCounter(),
-                    this.fileId,
-                    this.owner,
-                    response.getExchangeId(),
-                    new NodeLocation(
-                            response.getClientDevice().getUserName(),
-                            response.getClientDevice().getClientDeviceId(),
-                            response.getClientDevice().getPeerAddress())
-            );
+            return;
+        }
+
+        NodeLocation receiver = new NodeLocation(
+                response.getClientDevice().getUserName(),
+                response.getClientDevice().getClientDeviceId(),
+                response.getClientDevice().getPeerAddress()
+        );
+
+        synchronized (chunkWindow) {
+            if (StatusCode.FILE_CHANGED.equals(filePushResponse.getStatusCode())) {
+                // the receiver did not get the same checksum, start all over again
+                logger.info("Receiver requested to restart the push of " + this.relativeFilePath + " for sub exchange " + response.getExchangeId() + " of exchange " + this.exchangeId);
+                chunkWindow.reset();
+                this.sendChunk(0, this.fileId, this.owner, response.getExchangeId(), receiver, chunkWindow);
+                return;
+            }
+
+            long requestedChunk = filePushResponse.getChunkCounter();
+            if (0 > filePushResponse.getAcknowledgedChunkCounter()) {
+                // the receiver failed to write the requested chunk
+                this.sendChunk(requestedChunk, this.fileId, this.owner, response.getExchangeId(), receiver, chunkWindow);
+            } else {
+                chunkWindow.onAcknowledged(filePushResponse.getAcknowledgedChunkCounter());
+
+                if (chunkWindow.isMissing(requestedChunk)) {
+                    // only retransmit the chunk the receiver is still missing
+                    this.sendChunk(requestedChunk, this.fileId, this.owner, response.getExchangeId(), receiver, chunkWindow);
+                }
+            }
+
+            // fill the window with chunks which have not been sent yet
+            long nextChunk = chunkWindow.getNextChunkToSend();
+            while (0 <= nextChunk) {
+                if (! this.sendChunk(nextChunk, this.fileId, this.owner, response.getExchangeId(), receiver, chunkWindow)) {
+                    break;
+                }
+
+                nextChunk = chunkWindow.getNextChunkToSend();
+            }
         }
     }
 
@@ -271,13 +470,17 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
     }
 
     /**
-     * Send a chunk to another client
+     * Send a chunk to another client and record it in the given chunk window.
+     * Callers must hold the lock of the chunk window.
      *
      * @param chunkCounter The chunk counter
      * @param exchangeId   The exchange id for the request
      * @param receiver     The receiver which should get the chunk
+     * @param chunkWindow  The chunk window of the receiver
+     *
+     * @return True, if the chunk has been sent, false otherwise
      */
-    protected void sendChunk(long chunkCounter, UUID fileId, String owner, UUID exchangeId, NodeLocation receiver) {
+    protected boolean sendChunk(long chunkCounter, UUID fileId, String owner, UUID exchangeId, NodeLocation receiver, ChunkWindow chunkWindow) {
         Chunk chunk = new Chunk(
                 "",
                 "",
@@ -294,7 +497,7 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
             chunk = this.chunkProvider.getChunk(chunkCounter, CHUNK_SIZE);
         } catch (InputOutputException e) {
             logger.error("Failed to read the chunk " + chunkCounter + " of file " + this.relativeFilePath + " for exchange " + this.exchangeId + ". Aborting file push exchange. Message: " + e.getMessage());
-            return;
+            return false;
         } catch (IllegalArgumentException e) {
             // requested chunk does not exist anymore
             logger.info("Detected file change during push exchange " + this.exchangeId + ". Starting to push again at chunk 0");
@@ -308,6 +511,15 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
         // check whether the chunk counter has changed
         StatusCode statusCode = (chunkCounter == chunk.getChunkCounter()) ? StatusCode.NONE : StatusCode.FILE_CHANGED;
 
+        if (StatusCode.FILE_CHANGED.equals(statusCode)) {
+            // the receiver drops all chunks it got so far
+            chunkWindow.reset();
+        }
+
+        // send the chunk compressed, if it shrinks considerably
+        byte[] compressedContent = (null != chunk.getData()) ? chunkCompressor.compress(chunk.getData().getContent()) : null;
+        Data data = (null != compressedContent) ? new Data(compressedContent, false) : chunk.getData();
+
         IRequest request = new FilePushRequest(
                 exchangeId,
                 statusCode,
@@ -323,12 +535,23 @@ public class FilePushExchangeHandler extends ANetworkHandler<FilePushExchangeHan
                 CHUNK_SIZE,
                 chunk.getTotalNrOfChunks(),
                 chunk.getTotalFileSize(),
-                chunk.getData(),
-                receiver
+                data,
+                receiver,
+                null != compressedContent
         );
 
         logger.info("Sending chunk " + chunkCounter + " to client " + receiver.getPeerAddress().inetAddress().getHostAddress() + ":" + receiver.getPeerAddress().tcpPort());
 
-        super.sendRequest(request);
+        try {
+            super.sendRequest(request);
+        } catch (RuntimeException e) {
+            // the receiver may have changed its location since it was cached
+            this.nodeLocationCache.invalidate(receiver);
+            throw e;
+        }
+
+        chunkWindow.onSent(chunk.getChunkCounter(), chunk.getTotalNrOfChunks());
+
+        return true;
     }
 }
@@ -2,6 +2,7 @@ package org.rmatil.sync.core.messaging.fileexchange.push;
 
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.messaging.base.ARequest;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
 import org.rmatil.sync.network.core.model.ClientDevice;
 import org.rmatil.sync.network.core.model.Data;
 import org.rmatil.sync.network.core.model.NodeLocation;
@@ -62,6 +63,11 @@ public class FilePushRequest extends ARequest {
      */
     protected Data data;
 
+    /**
+     * Whether the data is compressed
+     */
+    protected boolean isCompressed;
+
     /**
      * The chunk size used for the whole transport of the file. In Bytes.
      */
@@ -107,6 +113,29 @@ public class FilePushRequest extends ARequest {
      * @param receiverAddress  The receiver of this request
      */
     public FilePushRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, String checksum, UUID fileId, String owner, AccessType accessType, Set<Sharer> sharers, String relativeFilePath, boolean isFile, long chunkCounter, int chunkSize, long totalNrOfChunks, long totalFileSize, Data data, NodeLocation receiverAddress) {
+        this(exchangeId, statusCode, clientDevice, checksum, fileId, owner, accessType, sharers, relativeFilePath, isFile, chunkCounter, chunkSize, totalNrOfChunks, totalFileSize, data, receiverAddress, false);
+    }
+
+    /**
+     * @param exchangeId       The exchange id of the request
+     * @param statusCode       The status code of the request
+     * @param clientDevice     The client device which is sending this request
+     * @param owner            The owner of the file. May be null if the file is not shared
+     * @param checksum         The checksum of the complete file
+     * @param accessType       The access type to this file. May be null if not shared
+     * @param sharers          The set of sharers stored on this client
+     * @param relativeFilePath The relative path to the file which should be created
+     * @param isFile           Whether the path represents a file or a directory
+     * @param chunkCounter     The counter of the chunk contained in this request (starts at 0)
+     * @param chunkSize        The size of the chunk for the whole file exchange in bytes.
+     *                         MUST stay the same for the whole file exchange, i.e. until all chunks of a file have been transferred
+     * @param totalNrOfChunks  The total number of chunks to request to get the complete file
+     * @param totalFileSize    The total file size of the file once all chunks have been transferred
+     * @param data             The actual chunk data
+     * @param receiverAddress  The receiver of this request
+     * @param isCompressed     Whether the chunk data is compressed by a {@link ChunkCompressor}
+     */
+    public FilePushRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, String checksum, UUID fileId, String owner, AccessType accessType, Set<Sharer> sharers, String relativeFilePath, boolean isFile, long chunkCounter, int chunkSize, long totalNrOfChunks, long totalFileSize, Data data, NodeLocation receiverAddress, boolean isCompressed) {
         super(exchangeId, statusCode, clientDevice, new ArrayList<>());
         this.checksum = checksum;
         this.fileId = fileId;
@@ -120,6 +149,7 @@ public class FilePushRequest extends ARequest {
         this.totalNrOfChunks = totalNrOfChunks;
         this.totalFileSize = totalFileSize;
         this.data = data;
+        this.isCompressed = isCompressed;
 
         super.receiverAddresses.add(receiverAddress);
     }
@@ -231,6 +261,16 @@ public class FilePushRequest extends ARequest {
         return data;
     }
 
+    /**
+     * Whether the data is compressed and has to be restored
+     * using {@link ChunkCompressor#decompress(byte[], int)}
+     *
+     * @return True, if the data is compressed, false otherwise
+     */
+    public boolean isCompressed() {
+        return isCompressed;
+    }
+
     /**
      * Returns size of chunks.
      * This <b style="color:red">must</b> not be changed during a file exchange process.
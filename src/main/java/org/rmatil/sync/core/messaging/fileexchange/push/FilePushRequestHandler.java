@@ -1,11 +1,15 @@
 package org.rmatil.sync.core.messaging.fileexchange.push;
 
 import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.IdentifierCache;
 import org.rmatil.sync.core.ShareNaming;
 import org.rmatil.sync.core.config.Config;
 import org.rmatil.sync.core.eventbus.*;
-import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
+import org.rmatil.sync.core.init.client.IIdentifierCacheRequestCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
+import org.rmatil.sync.core.messaging.chunk.ReceivedChunks;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileDeltaRequestHandler;
 import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.event.aggregator.core.events.CreateEvent;
 import org.rmatil.sync.event.aggregator.core.events.ModifyEvent;
@@ -27,11 +31,22 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class FilePushRequestHandler implements ILocalStateRequestCallback {
+public class FilePushRequestHandler implements IIdentifierCacheRequestCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(FilePushRequestHandler.class);
 
+    /**
+     * The chunks received so far for each running exchange.
+     * Since a new handler is created for each chunk and chunks
+     * may arrive in any order, this has to be shared among them
+     */
+    protected static final Map<UUID, ReceivedChunks> receivedChunksPerExchange = new ConcurrentHashMap<>();
+
     /**
      * The storage adapter to access the synchronized folder
      */
@@ -62,6 +77,11 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
      */
     protected IAccessManager accessManager;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
     @Override
     public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
         this.storageAdapter = storageAdapter;
@@ -87,6 +107,11 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
         this.accessManager = accessManager;
     }
 
+    @Override
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
     @Override
     public void setRequest(IRequest iRequest) {
         if (! (iRequest instanceof FilePushRequest)) {
@@ -104,7 +129,7 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
             if ((null != this.request.getOwner() && this.node.getUser().getUserName().equals(this.request.getOwner())) ||
                     null != this.request.getFileId()) {
                 // we have to use our path: if we are either the owner or a sharer
-                String pathToFile = this.node.getIdentifierManager().getKey(this.request.getFileId());
+                String pathToFile = this.identifierCache.getKey(this.request.getFileId());
 
                 if (null == pathToFile) {
                     // this is a file which was created in a shared folder
@@ -129,7 +154,7 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
                     }
 
                     try {
-                        String relPathInSharedFolder = ShareNaming.getRelativePathToSharedFolderByOwner(this.storageAdapter, this.objectStore, this.request.getRelativeFilePath(), this.request.getOwner());
+                        String relPathInSharedFolder = ShareNaming.getRelativePathToSharedFolderByOwner(this.accessManager.getSharedPathTrie(), this.request.getRelativeFilePath(), this.request.getOwner());
                         Path relPathToSharedFolder = Paths.get(relPathInSharedFolder);
 
                         if (relPathToSharedFolder.getNameCount() > 1) {
@@ -155,9 +180,9 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
                             relativePath = Config.DEFAULT.getSharedWithOthersReadOnlyFolderName() + "/" + relPathToSharedFolder.toString();
                         }
 
-                        relativePath = ShareNaming.getUniqueFileName(this.storageAdapter, relativePath, this.request.isFile());
+                        relativePath = ShareNaming.getUniqueFileName(this.storageAdapter, relativePath);
                         // add relativePath <-> fileId to DHT
-                        this.node.getIdentifierManager().addIdentifier(relativePath, this.request.getFileId());
+                        this.identifierCache.addIdentifier(relativePath, this.request.getFileId());
                         localPathElement = new TreePathElement(relativePath);
 
                     } catch (InputOutputException e) {
@@ -184,6 +209,7 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
             logger.info("Writing chunk " + this.request.getChunkCounter() + " for file " + localPathElement.getPath() + " for exchangeId " + this.request.getExchangeId());
 
             StorageType storageType = this.request.isFile() ? StorageType.FILE : StorageType.DIRECTORY;
+            ReceivedChunks receivedChunks = this.getReceivedChunks();
 
             if (! fileIsChildFromSharedFolder && 0 == this.request.getChunkCounter()) {
                 // add sharers to object store only on the first request
@@ -199,9 +225,14 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
                 // file being larger than expected after the change
                 this.publishIgnoreModifyEvent(localPathElement);
                 this.storageAdapter.persist(storageType, localPathElement, new byte[0]);
+                receivedChunks.clear();
             }
 
+            boolean isWritten = true;
             if (this.request.isFile()) {
+                // a delta of this file still being reconstructed must not replace the pushed content
+                FileDeltaRequestHandler.cancelStagedDeltas(localPathElement.getPath());
+
                 try {
                     if (! this.storageAdapter.exists(StorageType.FILE, localPathElement)) {
                         this.publishIgnoreCreateEvent(localPathElement);
@@ -212,9 +243,15 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
                     // some file systems modify the file again
                     this.publishIgnoreModifyEvent(localPathElement);
 
-                    this.storageAdapter.persist(StorageType.FILE, localPathElement, this.request.getChunkCounter() * this.request.getChunkSize(), this.request.getData().getContent());
+                    byte[] content = this.request.getData().getContent();
+                    if (this.request.isCompressed()) {
+                        content = ChunkCompressor.decompress(content, this.request.getChunkSize());
+                    }
+
+                    this.storageAdapter.persist(StorageType.FILE, localPathElement, this.request.getChunkCounter() * this.request.getChunkSize(), content);
                 } catch (InputOutputException e) {
                     logger.error("Could not write chunk " + this.request.getChunkCounter() + " of file " + localPathElement.getPath() + ". Message: " + e.getMessage(), e);
+                    isWritten = false;
                 }
             } else {
                 try {
@@ -224,12 +261,20 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
                     }
                 } catch (InputOutputException e) {
                     logger.error("Could not create directory " + localPathElement.getPath() + ". Message: " + e.getMessage());
+                    isWritten = false;
                 }
             }
 
-            long requestingChunk = this.request.getChunkCounter();
-            // chunk counter starts at 0
-            if (this.request.getChunkCounter() + 1 == this.request.getTotalNrOfChunks()) {
+            if (! isWritten) {
+                // request the same chunk again
+                this.sendResponse(this.createResponse(StatusCode.ACCEPTED, this.request.getChunkCounter(), - 1));
+                return;
+            }
+
+            StatusCode statusCode = StatusCode.ACCEPTED;
+            long requestingChunk;
+            // chunks may arrive in any order, so only the one completing the file checks the checksum
+            if (receivedChunks.markReceived(this.request.getChunkCounter(), this.request.getTotalNrOfChunks())) {
                 // now check that we got the same checksum for the file
                 try {
                     String checksum = "";
@@ -244,6 +289,7 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
                         // checksums match or the other side failed to compute one
                         // -> indicate we got all chunks
                         requestingChunk = - 1;
+                        receivedChunksPerExchange.remove(this.request.getExchangeId());
                         // clean up all modify events
                         this.globalEventBus.publish(new CleanModifyIgnoreEventsBusEvent(
                                 localPathElement.getPath()
@@ -252,6 +298,8 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
                         logger.info("Checksums do not match (local: " + checksum + "/request:" + this.request.getChecksum() + "). Restarting to push file for exchange " + this.request.getExchangeId());
                         // restart to fetch the whole file
                         requestingChunk = 0;
+                        statusCode = StatusCode.FILE_CHANGED;
+                        receivedChunks.clear();
 
                         this.publishIgnoreModifyEvent(localPathElement);
                         this.storageAdapter.persist(storageType, localPathElement, new byte[0]);
@@ -259,14 +307,16 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
                 } catch (InputOutputException e) {
                     logger.error("Failed to generate the checksum for file " + localPathElement.getPath() + " on exchange " + this.request.getExchangeId() + ". Accepting the file. Message: " + e.getMessage());
                     requestingChunk = - 1;
+                    receivedChunksPerExchange.remove(this.request.getExchangeId());
                 }
             } else {
-                requestingChunk++;
+                requestingChunk = receivedChunks.getNextMissingChunk();
             }
 
-            this.sendResponse(this.createResponse(requestingChunk));
+            this.sendResponse(this.createResponse(statusCode, requestingChunk, this.request.getChunkCounter()));
         } catch (Exception e) {
             logger.error("Error in FilePushRequestHandler for exchangeId " + this.request.getExchangeId() + ". Message: " + e.getMessage(), e);
+            receivedChunksPerExchange.remove(this.request.getExchangeId());
 
             try {
                 this.sendResponse(this.createResponse(StatusCode.ERROR, - 1));
@@ -276,6 +326,32 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
         }
     }
 
+    /**
+     * Returns the chunks received so far for the exchange of the request.
+     * Removes state of exchanges which have not received any chunk
+     * within {@link FilePushExchangeHandler#MAX_FILE_WAITNG_TIME}.
+     *
+     * @return The received chunks of this exchange
+     */
+    protected ReceivedChunks getReceivedChunks() {
+        ReceivedChunks receivedChunks = receivedChunksPerExchange.get(this.request.getExchangeId());
+
+        if (null == receivedChunks) {
+            long now = System.currentTimeMillis();
+            Iterator<ReceivedChunks> itr = receivedChunksPerExchange.values().iterator();
+            while (itr.hasNext()) {
+                if (now - itr.next().getLastModified() > FilePushExchangeHandler.MAX_FILE_WAITNG_TIME) {
+                    itr.remove();
+                }
+            }
+
+            receivedChunksPerExchange.putIfAbsent(this.request.getExchangeId(), new ReceivedChunks());
+            receivedChunks = receivedChunksPerExchange.get(this.request.getExchangeId());
+        }
+
+        return receivedChunks;
+    }
+
     /**
      * Creates a file push response with the given chunk counter
      *
@@ -296,6 +372,19 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
      * @return The error response
      */
     protected FilePushResponse createResponse(StatusCode statusCode, long requestingChunk) {
+        return this.createResponse(statusCode, requestingChunk, - 1);
+    }
+
+    /**
+     * Creates a file push response which acknowledges the given chunk
+     *
+     * @param statusCode        The status code of the response
+     * @param requestingChunk   The chunk to request from the other client
+     * @param acknowledgedChunk The chunk which has been written or -1, if writing failed
+     *
+     * @return The created FilePushResponse
+     */
+    protected FilePushResponse createResponse(StatusCode statusCode, long requestingChunk, long acknowledgedChunk) {
         return new FilePushResponse(
                 this.request.getExchangeId(),
                 statusCode,
@@ -310,7 +399,8 @@ public class FilePushRequestHandler implements ILocalStateRequestCallback {
                         this.request.getClientDevice().getClientDeviceId(),
                         this.request.getClientDevice().getPeerAddress()
                 ),
-                requestingChunk
+                requestingChunk,
+                acknowledgedChunk
         );
     }
 
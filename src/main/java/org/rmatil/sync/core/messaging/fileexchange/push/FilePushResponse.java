@@ -25,6 +25,12 @@ public class FilePushResponse extends AResponse {
      */
     protected long chunkCounter;
 
+    /**
+     * The number of the chunk which has been written by the
+     * receiver or -1, if no chunk could have been written
+     */
+    protected long acknowledgedChunkCounter;
+
     /**
      * @param exchangeId       The identifier of the file exchange
      * @param statusCode       The status code of the response
@@ -33,9 +39,22 @@ public class FilePushResponse extends AResponse {
      * @param chunkCounter     The chunk number which should returned in the corresponding response to this request
      */
     public FilePushResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, String relativeFilePath, NodeLocation receiverAddress, long chunkCounter) {
+        this(exchangeId, statusCode, clientDevice, relativeFilePath, receiverAddress, chunkCounter, - 1);
+    }
+
+    /**
+     * @param exchangeId               The identifier of the file exchange
+     * @param statusCode               The status code of the response
+     * @param clientDevice             The client device which is requesting the file demand (i.e. this client)
+     * @param relativeFilePath         The relative path to the file which should be returned
+     * @param chunkCounter             The chunk number which should returned in the corresponding response to this request
+     * @param acknowledgedChunkCounter The chunk number which has been written or -1, if writing failed
+     */
+    public FilePushResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, String relativeFilePath, NodeLocation receiverAddress, long chunkCounter, long acknowledgedChunkCounter) {
         super(exchangeId, statusCode, clientDevice, receiverAddress);
         this.relativeFilePath = relativeFilePath;
         this.chunkCounter = chunkCounter;
+        this.acknowledgedChunkCounter = acknowledgedChunkCounter;
     }
 
     /**
@@ -55,4 +74,13 @@ public class FilePushResponse extends AResponse {
     public long getChunkCounter() {
         return chunkCounter;
     }
+
+    /**
+     * Returns the number of the chunk which has been written by the receiver
+     *
+     * @return The acknowledged chunk number or -1, if writing the chunk failed
+     */
+    public long getAcknowledgedChunkCounter() {
+        return acknowledgedChunkCounter;
+    }
 }
@@ -1,13 +1,16 @@
 package org.rmatil.sync.core.messaging.sharingexchange.share;
 
+import org.rmatil.sync.core.config.Config;
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.messaging.chunk.Chunk;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
 import org.rmatil.sync.core.messaging.chunk.ChunkProvider;
 import org.rmatil.sync.network.api.INode;
 import org.rmatil.sync.network.api.IRequest;
 import org.rmatil.sync.network.api.IResponse;
 import org.rmatil.sync.network.core.ANetworkHandler;
 import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.Data;
 import org.rmatil.sync.network.core.model.NodeLocation;
 import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
 import org.rmatil.sync.persistence.core.tree.TreePathElement;
@@ -36,6 +39,11 @@ public class ShareExchangeHandler extends ANetworkHandler<ShareExchangeHandlerRe
      */
     public static final int CHUNK_SIZE = 1024 * 1024; // 1MB
 
+    /**
+     * Compresses the chunks sent to other clients, shared among all exchanges
+     */
+    protected static final ChunkCompressor chunkCompressor = new ChunkCompressor(Config.DEFAULT.getChunkCompressionLevel());
+
     /**
      * The client location to which this share should be sent
      */
@@ -222,6 +230,10 @@ public class ShareExchangeHandler extends ANetworkHandler<ShareExchangeHandlerRe
         // check whether the chunk counter has changed
         StatusCode statusCode = (chunkCounter == chunk.getChunkCounter()) ? StatusCode.NONE : StatusCode.FILE_CHANGED;
 
+        // send the chunk compressed, if it shrinks considerably
+        byte[] compressedContent = (null != chunk.getData()) ? chunkCompressor.compress(chunk.getData().getContent()) : null;
+        Data data = (null != compressedContent) ? new Data(compressedContent, false) : chunk.getData();
+
         IRequest request = new ShareRequest(
                 exchangeId,
                 statusCode,
@@ -239,8 +251,9 @@ public class ShareExchangeHandler extends ANetworkHandler<ShareExchangeHandlerRe
                 chunk.getChunkCounter(),
                 chunk.getTotalNrOfChunks(),
                 chunk.getTotalFileSize(),
-                chunk.getData(),
-                CHUNK_SIZE
+                data,
+                CHUNK_SIZE,
+                null != compressedContent
         );
 
         logger.info("Sending chunk " + chunk.getChunkCounter() + " to sharer " + sharer.getPeerAddress().inetAddress().getHostAddress() + ":" + sharer.getPeerAddress().tcpPort());
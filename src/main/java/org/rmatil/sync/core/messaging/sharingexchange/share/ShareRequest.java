@@ -2,6 +2,7 @@ package org.rmatil.sync.core.messaging.sharingexchange.share;
 
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.messaging.base.ARequest;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
 import org.rmatil.sync.network.core.model.ClientDevice;
 import org.rmatil.sync.network.core.model.NodeLocation;
 import org.rmatil.sync.network.core.model.Data;
@@ -66,6 +67,11 @@ public class ShareRequest extends ARequest {
      */
     protected Data data;
 
+    /**
+     * Whether the data is compressed
+     */
+    protected boolean isCompressed;
+
     /**
      * The chunk size of the file exchange.
      * MUST stay the same over the whole exchange
@@ -89,6 +95,27 @@ public class ShareRequest extends ARequest {
      * @param chunkSize                  The chunk size of the file exchange. MUST stay the same over the whole file exchange
      */
     public ShareRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, UUID fileId, String checksum, AccessType accessType, String relativePathToSharedFolder, boolean isFile, long chunkCounter, long totalNrOfChunks, long totalFileSize, Data data, int chunkSize) {
+        this(exchangeId, statusCode, clientDevice, receiverAddress, fileId, checksum, accessType, relativePathToSharedFolder, isFile, chunkCounter, totalNrOfChunks, totalFileSize, data, chunkSize, false);
+    }
+
+    /**
+     * @param exchangeId                 The exchange id
+     * @param statusCode                 The status code of the request
+     * @param clientDevice               The client device sending this request
+     * @param receiverAddress            The receiver of this request, i.e. the sharer
+     * @param fileId                     The previously negotiated file id
+     * @param checksum                   The checksum of the whole file
+     * @param accessType                 The access type which should be granted to the sharer
+     * @param relativePathToSharedFolder The relative path to the folder / file which is actually shared (if it is the same, the relative path is "")
+     * @param isFile                     Whether the path is a file
+     * @param chunkCounter               The chunk counter, starting at 0 initially
+     * @param totalNrOfChunks            The total number of chunks which have to be fetched for the whole file
+     * @param totalFileSize              The total file size in bytes
+     * @param data                       The actual chunk data
+     * @param chunkSize                  The chunk size of the file exchange. MUST stay the same over the whole file exchange
+     * @param isCompressed               Whether the chunk data is compressed by a {@link ChunkCompressor}
+     */
+    public ShareRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, UUID fileId, String checksum, AccessType accessType, String relativePathToSharedFolder, boolean isFile, long chunkCounter, long totalNrOfChunks, long totalFileSize, Data data, int chunkSize, boolean isCompressed) {
         super(exchangeId, statusCode, clientDevice, new ArrayList<>());
         this.fileId = fileId;
         this.checksum = checksum;
@@ -100,6 +127,7 @@ public class ShareRequest extends ARequest {
         this.totalFileSize = totalFileSize;
         this.data = data;
         this.chunkSize = chunkSize;
+        this.isCompressed = isCompressed;
 
         super.receiverAddresses.add(receiverAddress);
     }
@@ -185,6 +213,16 @@ public class ShareRequest extends ARequest {
         return data;
     }
 
+    /**
+     * Whether the data is compressed and has to be restored
+     * using {@link ChunkCompressor#decompress(byte[], int)}
+     *
+     * @return True, if the data is compressed, false otherwise
+     */
+    public boolean isCompressed() {
+        return isCompressed;
+    }
+
     /**
      * The chunk size in bytes. MUST stay the same
      * over the whole file exchange
@@ -2,11 +2,13 @@ package org.rmatil.sync.core.messaging.sharingexchange.share;
 
 import net.engio.mbassy.bus.MBassador;
 import org.rmatil.sync.commons.hashing.Hash;
+import org.rmatil.sync.core.IdentifierCache;
 import org.rmatil.sync.core.ShareNaming;
 import org.rmatil.sync.core.config.Config;
 import org.rmatil.sync.core.eventbus.*;
-import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
+import org.rmatil.sync.core.init.client.IIdentifierCacheRequestCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
 import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.event.aggregator.core.events.CreateEvent;
 import org.rmatil.sync.event.aggregator.core.events.ModifyEvent;
@@ -28,7 +30,7 @@ import org.slf4j.LoggerFactory;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
-public class ShareRequestHandler implements ILocalStateRequestCallback {
+public class ShareRequestHandler implements IIdentifierCacheRequestCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(ShareRequestHandler.class);
 
@@ -62,6 +64,11 @@ public class ShareRequestHandler implements ILocalStateRequestCallback {
      */
     protected IAccessManager accessManager;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
     @Override
     public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
         this.storageAdapter = storageAdapter;
@@ -87,6 +94,11 @@ public class ShareRequestHandler implements ILocalStateRequestCallback {
         this.accessManager = accessManager;
     }
 
+    @Override
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
     @Override
     public void setRequest(IRequest iRequest) {
         if (! (iRequest instanceof ShareRequest)) {
@@ -102,7 +114,7 @@ public class ShareRequestHandler implements ILocalStateRequestCallback {
             logger.info("Writing chunk " + this.request.getChunkCounter() + " for file " + this.request.getFileId() + " (" + this.request.getRelativePathToSharedFolder() + ") for exchangeId " + this.request.getExchangeId());
 
             // check whether the file id has been written previously
-            String relativePath = this.node.getIdentifierManager().getKey(
+            String relativePath = this.identifierCache.getKey(
                     this.request.getFileId()
             );
 
@@ -144,9 +156,9 @@ public class ShareRequestHandler implements ILocalStateRequestCallback {
                     relativePath = Config.DEFAULT.getSharedWithOthersReadOnlyFolderName() + "/" + relPathToSharedFolder.toString();
                 }
 
-                relativePath = ShareNaming.getUniqueFileName(this.storageAdapter, relativePath, this.request.isFile());
+                relativePath = ShareNaming.getUniqueFileName(this.storageAdapter, relativePath);
                 // add relativePath <-> fileId to DHT
-                this.node.getIdentifierManager().addIdentifier(relativePath, this.request.getFileId());
+                this.identifierCache.addIdentifier(relativePath, this.request.getFileId());
             }
 
             StorageType storageType = this.request.isFile() ? StorageType.FILE : StorageType.DIRECTORY;
@@ -171,7 +183,12 @@ public class ShareRequestHandler implements ILocalStateRequestCallback {
                         this.publishIgnoreModifyOsEvent(relativePath);
                     }
 
-                    this.storageAdapter.persist(StorageType.FILE, pathElement, this.request.getChunkCounter() * this.request.getChunkSize(), this.request.getData().getContent());
+                    byte[] content = this.request.getData().getContent();
+                    if (this.request.isCompressed()) {
+                        content = ChunkCompressor.decompress(content, this.request.getChunkSize());
+                    }
+
+                    this.storageAdapter.persist(StorageType.FILE, pathElement, this.request.getChunkCounter() * this.request.getChunkSize(), content);
                 } catch (InputOutputException e) {
                     logger.error("Could not write chunk " + this.request.getChunkCounter() + " of file " + relativePath + ". Message: " + e.getMessage(), e);
                 }
@@ -222,6 +239,8 @@ public class ShareRequestHandler implements ILocalStateRequestCallback {
                                 relativePath
                         );
 
+                        this.accessManager.invalidate(relativePath);
+
                         // clean up all modify ignore events
                         this.globalEventBus.publish(new CleanModifyIgnoreEventsBusEvent(
                                 relativePath
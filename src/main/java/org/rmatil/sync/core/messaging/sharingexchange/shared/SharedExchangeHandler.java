@@ -1,5 +1,6 @@
 package org.rmatil.sync.core.messaging.sharingexchange.shared;
 
+import org.rmatil.sync.core.NodeLocationCache;
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.network.api.INode;
 import org.rmatil.sync.network.api.INodeManager;
@@ -35,6 +36,11 @@ public class SharedExchangeHandler extends ANetworkHandler<SharedExchangeHandler
 
     protected UUID exchangeId;
 
+    /**
+     * The cache of the client locations of users
+     */
+    protected NodeLocationCache nodeLocationCache;
+
     public SharedExchangeHandler(INode client, INodeManager nodeManager, IObjectStore objectStore, String sharer, AccessType accessType, String relativeFilePath, UUID exchangeId) {
         super(client);
         this.nodeManager = nodeManager;
@@ -44,6 +50,17 @@ public class SharedExchangeHandler extends ANetworkHandler<SharedExchangeHandler
         this.relativeFilePath = relativeFilePath;
         this.exchangeId = exchangeId;
         this.respondedClients = new ArrayList<>();
+
+        this.nodeLocationCache = new NodeLocationCache(nodeManager, 0L);
+    }
+
+    /**
+     * Set the cache of the client locations of the node to use instead of fetching each lookup from the node manager
+     *
+     * @param nodeLocationCache The node location cache
+     */
+    public void setNodeLocationCache(NodeLocationCache nodeLocationCache) {
+        this.nodeLocationCache = nodeLocationCache;
     }
 
     @Override
@@ -52,7 +69,7 @@ public class SharedExchangeHandler extends ANetworkHandler<SharedExchangeHandler
             // Fetch client locations from the DHT
             List<NodeLocation> clientLocations;
             try {
-                clientLocations = this.nodeManager.getNodeLocations(super.node.getUser().getUserName());
+                clientLocations = this.nodeLocationCache.getNodeLocations(super.node.getUser().getUserName());
             } catch (InputOutputException e) {
                 logger.error("Could not fetch client locations from user " + super.node.getUser().getUserName() + ". Message: " + e.getMessage());
                 return;
@@ -73,7 +90,13 @@ public class SharedExchangeHandler extends ANetworkHandler<SharedExchangeHandler
                     this.relativeFilePath
             );
 
-            super.sendRequest(request);
+            try {
+                super.sendRequest(request);
+            } catch (RuntimeException e) {
+                // a receiver may have changed its location since it was cached
+                this.nodeLocationCache.invalidate(request.getReceiverAddresses());
+                throw e;
+            }
 
             // add sharer to the file
             this.objectStore.getSharerManager().addSharer(
@@ -105,6 +105,8 @@ public class SharedRequestHandler implements ILocalStateRequestCallback {
                 );
             }
 
+            this.accessManager.invalidate(this.request.getRelativePath());
+
             this.sendResponse(StatusCode.ACCEPTED);
 
         } catch (Exception e) {
@@ -1,8 +1,9 @@
 package org.rmatil.sync.core.messaging.sharingexchange.unshare;
 
 import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.IdentifierCache;
 import org.rmatil.sync.core.eventbus.IBusEvent;
-import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
+import org.rmatil.sync.core.init.client.IIdentifierCacheRequestCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.network.api.INode;
@@ -20,7 +21,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.HashSet;
 
-public class UnshareRequestHandler implements ILocalStateRequestCallback {
+public class UnshareRequestHandler implements IIdentifierCacheRequestCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(UnshareRequestHandler.class);
 
@@ -54,6 +55,11 @@ public class UnshareRequestHandler implements ILocalStateRequestCallback {
      */
     protected IAccessManager accessManager;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
     @Override
     public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
         this.storageAdapter = storageAdapter;
@@ -79,6 +85,11 @@ public class UnshareRequestHandler implements ILocalStateRequestCallback {
         this.accessManager = accessManager;
     }
 
+    @Override
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
     @Override
     public void setRequest(IRequest iRequest) {
         if (! (iRequest instanceof UnshareRequest)) {
@@ -95,7 +106,7 @@ public class UnshareRequestHandler implements ILocalStateRequestCallback {
             logger.info("Unsharing file for id " + this.request.getFileId());
 
             PathObject sharedObject = this.objectStore.getObjectManager().getObjectForPath(
-                    this.node.getIdentifierManager().getKey(this.request.getFileId())
+                    this.identifierCache.getKey(this.request.getFileId())
             );
 
             logger.info("Found file on path " + sharedObject.getAbsolutePath() + " for file with id " + this.request.getFileId());
@@ -108,6 +119,7 @@ public class UnshareRequestHandler implements ILocalStateRequestCallback {
             sharedObject.setOwner(null);
 
             this.objectStore.getObjectManager().writeObject(sharedObject);
+            this.accessManager.invalidate(sharedObject.getAbsolutePath());
 
             // remove the file
             try {
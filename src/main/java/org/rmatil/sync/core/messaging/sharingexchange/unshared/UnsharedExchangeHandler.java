@@ -1,5 +1,6 @@
 package org.rmatil.sync.core.messaging.sharingexchange.unshared;
 
+import org.rmatil.sync.core.NodeLocationCache;
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.network.api.INode;
 import org.rmatil.sync.network.api.INodeManager;
@@ -30,6 +31,11 @@ public class UnsharedExchangeHandler extends ANetworkHandler<UnsharedExchangeHan
 
     protected UUID exchangeId;
 
+    /**
+     * The cache of the client locations of users
+     */
+    protected NodeLocationCache nodeLocationCache;
+
     public UnsharedExchangeHandler(INode client, INodeManager nodeManager, IObjectStore objectStore, String relativeFilePath, UUID fileId, String sharer, UUID exchangeId) {
         super(client);
         this.nodeManager = nodeManager;
@@ -38,6 +44,17 @@ public class UnsharedExchangeHandler extends ANetworkHandler<UnsharedExchangeHan
         this.fileId = fileId;
         this.sharer = sharer;
         this.exchangeId = exchangeId;
+
+        this.nodeLocationCache = new NodeLocationCache(nodeManager, 0L);
+    }
+
+    /**
+     * Set the cache of the client locations of the node to use instead of fetching each lookup from the node manager
+     *
+     * @param nodeLocationCache The node location cache
+     */
+    public void setNodeLocationCache(NodeLocationCache nodeLocationCache) {
+        this.nodeLocationCache = nodeLocationCache;
     }
 
     @Override
@@ -48,7 +65,7 @@ public class UnsharedExchangeHandler extends ANetworkHandler<UnsharedExchangeHan
             // Fetch client locations from the DHT
             List<NodeLocation> clientLocations;
             try {
-                clientLocations = this.nodeManager.getNodeLocations(super.node.getUser().getUserName());
+                clientLocations = this.nodeLocationCache.getNodeLocations(super.node.getUser().getUserName());
             } catch (InputOutputException e) {
                 logger.error("Could not fetch client locations from user " + super.node.getUser().getUserName() + ". Message: " + e.getMessage());
                 return;
@@ -73,7 +90,13 @@ public class UnsharedExchangeHandler extends ANetworkHandler<UnsharedExchangeHan
                     this.relativeFilePath
             );
 
-            super.sendRequest(unsharedRequest);
+            try {
+                super.sendRequest(unsharedRequest);
+            } catch (RuntimeException e) {
+                // a receiver may have changed its location since it was cached
+                this.nodeLocationCache.invalidate(unsharedRequest.getReceiverAddresses());
+                throw e;
+            }
 
         } catch (Exception e) {
             logger.error("Got exception in UnsharedExchangeHandler. Message: " + e.getMessage(), e);
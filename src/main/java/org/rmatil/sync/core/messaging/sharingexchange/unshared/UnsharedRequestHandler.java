@@ -1,8 +1,9 @@
 package org.rmatil.sync.core.messaging.sharingexchange.unshared;
 
 import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.core.IdentifierCache;
 import org.rmatil.sync.core.eventbus.IBusEvent;
-import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
+import org.rmatil.sync.core.init.client.IIdentifierCacheRequestCallback;
 import org.rmatil.sync.core.messaging.StatusCode;
 import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.network.api.INode;
@@ -16,7 +17,7 @@ import org.rmatil.sync.version.core.model.PathObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class UnsharedRequestHandler implements ILocalStateRequestCallback {
+public class UnsharedRequestHandler implements IIdentifierCacheRequestCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(UnsharedRequestHandler.class);
 
@@ -50,6 +51,11 @@ public class UnsharedRequestHandler implements ILocalStateRequestCallback {
      */
     protected IAccessManager accessManager;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
     @Override
     public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
         this.storageAdapter = storageAdapter;
@@ -75,6 +81,11 @@ public class UnsharedRequestHandler implements ILocalStateRequestCallback {
         this.accessManager = accessManager;
     }
 
+    @Override
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
     @Override
     public void setRequest(IRequest iRequest) {
         if (! (iRequest instanceof UnsharedRequest)) {
@@ -90,7 +101,7 @@ public class UnsharedRequestHandler implements ILocalStateRequestCallback {
             // add file id from request to the attached file path
             logger.info("Starting to unshare file for id " + this.request.getFileId() + " with sharer " + this.request.getSharer());
 
-            String fileName = this.node.getIdentifierManager().getKey(this.request.getFileId());
+            String fileName = this.identifierCache.getKey(this.request.getFileId());
 
             logger.debug("Found file " + fileName + " for fileId " + this.request.getFileId());
 
@@ -105,6 +116,8 @@ public class UnsharedRequestHandler implements ILocalStateRequestCallback {
                     sharedObject.getAbsolutePath()
             );
 
+            this.accessManager.invalidate(sharedObject.getAbsolutePath());
+
             this.sendResponse(StatusCode.ACCEPTED);
 
         } catch (Exception e) {
@@ -1,64 +1,130 @@
 package org.rmatil.sync.core.security;
 
+import net.engio.mbassy.listener.Handler;
+import org.rmatil.sync.core.eventbus.AddOwnerAndAccessTypeToObjectStoreBusEvent;
+import org.rmatil.sync.core.eventbus.AddSharerToObjectStoreBusEvent;
 import org.rmatil.sync.persistence.exceptions.InputOutputException;
 import org.rmatil.sync.version.api.AccessType;
 import org.rmatil.sync.version.api.IObjectStore;
-import org.rmatil.sync.version.core.model.PathObject;
-import org.rmatil.sync.version.core.model.Sharer;
 
-import java.util.Arrays;
 import java.util.List;
 
 /**
  * Provides utilities to check access of particular users
- * for certain files
+ * for certain files.
+ * <p>
+ * Owner and sharers of each path are read once from the ObjectStore and kept
+ * in memory until they are invalidated, either by {@link IAccessManager#invalidate(String)}
+ * or by the bus events announcing new sharers resp. a new owner. The effective access
+ * of a user is additionally remembered per path, so that repeated checks for
+ * the same path and user do not have to look at the sharers at all.
+ * <p>
+ * If a user is neither owner nor sharer of a path, the access
+ * of the closest shared parent directory applies.
  */
 public class AccessManager implements IAccessManager {
 
     /**
-     * The ObjectStore to use to check access
+     * The effective access of an owner
      */
-    protected IObjectStore objectStore;
+    protected static final int OWNER = Integer.MAX_VALUE;
+
+    /**
+     * The effective access of a user which is neither owner nor sharer
+     */
+    protected static final int NO_ACCESS = - 1;
+
+    /**
+     * The owner and sharers of each path, arranged in the directory hierarchy
+     */
+    protected SharedPathTrie sharedPathTrie;
 
     /**
      * @param objectStore The ObjectStore to use to check access
      */
     public AccessManager(IObjectStore objectStore) {
-        this.objectStore = objectStore;
+        this.sharedPathTrie = new SharedPathTrie(objectStore);
+    }
+
+    @Handler
+    public void handleSharerEvent(AddSharerToObjectStoreBusEvent event) {
+        this.invalidate(event.getRelativeFilePath());
+    }
+
+    @Handler
+    public void handleOwnerEvent(AddOwnerAndAccessTypeToObjectStoreBusEvent event) {
+        this.invalidate(event.getRelativeFilePath());
     }
 
     @Override
     public boolean hasAccess(String sharerUsername, AccessType accessType, String filePath)
             throws InputOutputException {
-        PathObject pathObject = this.objectStore.getObjectManager().getObjectForPath(filePath);
+        List<SharedPathTrie.PathEntry> entries = this.sharedPathTrie.getEntries(filePath);
+        SharedPathTrie.PathEntry entry = entries.isEmpty() ? null : entries.get(entries.size() - 1);
 
-        if (null == pathObject) {
+        if (null == entry || ! entry.exists()) {
             throw new InputOutputException("Could not find pathObject for " + filePath);
         }
 
-        // Note that the owner can be null:
-        // client 2 shares with client 1
-        // client 1 makes a change and propagates to client 2
-        // client 2 is owner for file and checks access -> NullPointer!
-        if (sharerUsername.equals(pathObject.getOwner())) {
+        Integer effectiveAccess = entry.effectiveAccess.get(sharerUsername);
+
+        if (null == effectiveAccess) {
+            effectiveAccess = resolveAccess(sharerUsername, entries);
+            entry.effectiveAccess.put(sharerUsername, effectiveAccess);
+        }
+
+        if (OWNER == effectiveAccess) {
             // owner has access to all access types but the removed access one
             return AccessType.ACCESS_REMOVED != accessType;
-
         }
 
-        List<AccessType> types = Arrays.asList(AccessType.values());
-        for (Sharer entry : pathObject.getSharers()) {
-            // check whether the access type and the username is equal
-            if (accessType.equals(entry.getAccessType()) && sharerUsername.equals(entry.getUsername())) {
-                return true;
+        // the access type of the sharer must have at least the "rights" of the given one
+        return effectiveAccess >= accessType.ordinal();
+    }
+
+    @Override
+    public void invalidate(String filePath) {
+        // descendants may have inherited the access of the path
+        this.sharedPathTrie.invalidate(filePath);
+    }
+
+    @Override
+    public void invalidateAll() {
+        this.sharedPathTrie.invalidateAll();
+    }
+
+    @Override
+    public SharedPathTrie getSharedPathTrie() {
+        return sharedPathTrie;
+    }
+
+    /**
+     * Returns the effective access of the given user on the last of the given entries, inheriting
+     * the access of the closest parent directory knowing the user
+     *
+     * @param username The user
+     * @param entries  The entries of the path and all of its parents, top most parent first
+     *
+     * @return The effective access, i.e. {@link AccessManager#OWNER}, {@link AccessManager#NO_ACCESS} or the ordinal of the access type
+     */
+    protected static int resolveAccess(String username, List<SharedPathTrie.PathEntry> entries) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            SharedPathTrie.PathEntry entry = entries.get(i);
+
+            // Note that the owner can be null:
+            // client 2 shares with client 1
+            // client 1 makes a change and propagates to client 2
+            // client 2 is owner for file and checks access
+            if (username.equals(entry.getOwner())) {
+                return OWNER;
             }
 
-            // check whether the access type of the sharer has higher "rights" than the given one
-            if (types.indexOf(entry.getAccessType()) >= types.indexOf(accessType) && sharerUsername.equals(entry.getUsername())) {
-                return true;
+            AccessType sharerAccess = entry.getHighestAccessType(username);
+            if (null != sharerAccess) {
+                return sharerAccess.ordinal();
             }
         }
 
-        return false;
+        return NO_ACCESS;
     }
 }
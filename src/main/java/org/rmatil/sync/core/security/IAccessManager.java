@@ -19,4 +19,26 @@ public interface IAccessManager {
      */
     boolean hasAccess(String sharerUsername, AccessType accessType, String filePath)
             throws InputOutputException;
+
+    /**
+     * Discards all cached access information of the given path and of all paths below it.
+     * Has to be invoked whenever owner, access type or sharers of the path have been changed.
+     *
+     * @param filePath The file path of which the access information changed
+     */
+    void invalidate(String filePath);
+
+    /**
+     * Discards all cached access information, e.g. after
+     * merging the ObjectStore with the one of another client
+     */
+    void invalidateAll();
+
+    /**
+     * Returns owner and sharers of all paths as used to check access.
+     * They are kept up to date by the invalidations of this access manager.
+     *
+     * @return The shared path trie
+     */
+    SharedPathTrie getSharedPathTrie();
 }
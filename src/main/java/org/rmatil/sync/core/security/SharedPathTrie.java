@@ -0,0 +1,281 @@
+package org.rmatil.sync.core.security;
+
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.rmatil.sync.version.api.AccessType;
+import org.rmatil.sync.version.api.IObjectStore;
+import org.rmatil.sync.version.core.model.PathObject;
+import org.rmatil.sync.version.core.model.Sharer;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps owner and sharers of the paths in the synchronised folder in a tree
+ * following the directory hierarchy.
+ * <p>
+ * Owner and sharers of a path are read once from the ObjectStore when the path is
+ * visited the first time and kept in memory until the path or one of its parents
+ * is invalidated. Resolving the shared parents of a path therefore is a single
+ * descent from the root to the path.
+ */
+public class SharedPathTrie {
+
+    /**
+     * The ObjectStore from which owner and sharers are read
+     */
+    protected IObjectStore objectStore;
+
+    /**
+     * The root of the tree, i.e. the synchronised folder itself
+     */
+    protected final Node root;
+
+    /**
+     * Incremented on each invalidation, to detect entries which were read while being invalidated
+     */
+    protected final AtomicLong generation;
+
+    /**
+     * @param objectStore The ObjectStore from which owner and sharers are read
+     */
+    public SharedPathTrie(IObjectStore objectStore) {
+        this.objectStore = objectStore;
+        this.root = new Node();
+        this.generation = new AtomicLong(0L);
+    }
+
+    /**
+     * Returns the entries of the given path and of all of its parents,
+     * starting with the top most parent and ending with the path itself
+     *
+     * @param relativePath The relative path in the synchronised folder
+     *
+     * @return The entries of all path elements
+     *
+     * @throws InputOutputException If reading the ObjectStore failed
+     */
+    public List<PathEntry> getEntries(String relativePath)
+            throws InputOutputException {
+        List<PathEntry> entries = new ArrayList<>();
+
+        // nodes are only created for entries which are kept, i.e. looking up unknown paths does not grow the tree
+        Node node = this.root;
+        Path currentPath = null;
+        for (Path element : Paths.get(relativePath).normalize()) {
+            if (element.toString().isEmpty()) {
+                continue;
+            }
+
+            currentPath = null == currentPath ? element : currentPath.resolve(element);
+            node = null == node ? null : node.children.get(element.toString());
+
+            PathEntry entry = null == node ? null : node.entry;
+            if (null == entry) {
+                entry = this.load(currentPath);
+            }
+
+            entries.add(entry);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the entry of the given path
+     *
+     * @param relativePath The relative path in the synchronised folder
+     *
+     * @return The entry or null, if the path is the root of the synchronised folder
+     *
+     * @throws InputOutputException If reading the ObjectStore failed
+     */
+    public PathEntry getEntry(String relativePath)
+            throws InputOutputException {
+        List<PathEntry> entries = this.getEntries(relativePath);
+
+        return entries.isEmpty() ? null : entries.get(entries.size() - 1);
+    }
+
+    /**
+     * Discards the entries of the given path and of all paths below it
+     *
+     * @param relativePath The relative path of which owner or sharers changed
+     */
+    public void invalidate(String relativePath) {
+        Path path = Paths.get(relativePath).normalize();
+
+        if (null == path.getFileName() || path.toString().isEmpty()) {
+            this.invalidateAll();
+            return;
+        }
+
+        this.generation.incrementAndGet();
+
+        Node parent = this.root;
+        if (null != path.getParent()) {
+            for (Path element : path.getParent()) {
+                parent = parent.children.get(element.toString());
+
+                if (null == parent) {
+                    // nothing is known about the path
+                    return;
+                }
+            }
+        }
+
+        parent.children.remove(path.getFileName().toString());
+    }
+
+    /**
+     * Discards all entries
+     */
+    public void invalidateAll() {
+        this.generation.incrementAndGet();
+        this.root.children.clear();
+    }
+
+    /**
+     * Reads owner and sharers of the given path from the ObjectStore
+     * and stores them in the node of the path, if the path object exists
+     *
+     * @param relativePath The normalized relative path
+     *
+     * @return The read entry
+     *
+     * @throws InputOutputException If reading the ObjectStore failed
+     */
+    protected PathEntry load(Path relativePath)
+            throws InputOutputException {
+        long generation = this.generation.get();
+
+        PathEntry entry = new PathEntry(this.objectStore.getObjectManager().getObjectForPath(relativePath.toString()));
+
+        if (! entry.exists) {
+            // the path object may be created at any time
+            return entry;
+        }
+
+        Node node = this.root;
+        for (Path element : relativePath) {
+            node = node.children.computeIfAbsent(element.toString(), name -> new Node());
+        }
+
+        node.entry = entry;
+
+        if (generation != this.generation.get()) {
+            // the path object may have changed while reading it
+            node.entry = null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Owner and sharers of a single path
+     */
+    public static class PathEntry {
+
+        /**
+         * Whether a path object exists for the path
+         */
+        protected final boolean exists;
+
+        /**
+         * Whether the path is shared
+         */
+        protected final boolean isShared;
+
+        /**
+         * The owner of the path, may be null
+         */
+        protected final String owner;
+
+        /**
+         * The access types of each sharer
+         */
+        protected final Map<String, Set<AccessType>> sharers;
+
+        /**
+         * The resolved access of each user which has been checked so far
+         */
+        protected final Map<String, Integer> effectiveAccess;
+
+        protected PathEntry(PathObject pathObject) {
+            this.exists = null != pathObject;
+            this.isShared = null != pathObject && pathObject.isShared();
+            this.owner = null == pathObject ? null : pathObject.getOwner();
+            this.sharers = new HashMap<>();
+            this.effectiveAccess = new ConcurrentHashMap<>();
+
+            if (null != pathObject && null != pathObject.getSharers()) {
+                for (Sharer sharer : pathObject.getSharers()) {
+                    if (null != sharer.getAccessType()) {
+                        this.sharers.computeIfAbsent(sharer.getUsername(), username -> new HashSet<>()).add(sharer.getAccessType());
+                    }
+                }
+            }
+        }
+
+        public boolean exists() {
+            return exists;
+        }
+
+        public boolean isShared() {
+            return isShared;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        /**
+         * Checks whether the given user is a sharer of the path having exactly the given access type
+         *
+         * @param username   The user
+         * @param accessType The access type
+         *
+         * @return True, if the sharer is present
+         */
+        public boolean hasSharer(String username, AccessType accessType) {
+            Set<AccessType> accessTypes = this.sharers.get(username);
+
+            return null != accessTypes && accessTypes.contains(accessType);
+        }
+
+        /**
+         * Returns the access type of the given sharer having the most "rights"
+         *
+         * @param username The user
+         *
+         * @return The access type or null, if the user is not a sharer of the path
+         */
+        public AccessType getHighestAccessType(String username) {
+            Set<AccessType> accessTypes = this.sharers.get(username);
+
+            if (null == accessTypes || accessTypes.isEmpty()) {
+                return null;
+            }
+
+            return Collections.max(accessTypes);
+        }
+    }
+
+    /**
+     * A path in the tree
+     */
+    protected static class Node {
+
+        /**
+         * The child paths keyed by their name
+         */
+        protected final Map<String, Node> children = new ConcurrentHashMap<>();
+
+        /**
+         * Owner and sharers of this path, null if not read yet
+         */
+        protected volatile PathEntry entry;
+    }
+}
@@ -0,0 +1,126 @@
+package org.rmatil.sync.core.syncer.background;
+
+import java.util.UUID;
+
+/**
+ * Statistics of a single run of a background syncer
+ */
+public class BackgroundSyncRun {
+
+    public enum Outcome {
+        /**
+         * The run has been skipped since other exchanges were in progress
+         */
+        SKIPPED,
+
+        /**
+         * The object stores of the other clients could not be fetched or merged
+         */
+        FAILED,
+
+        /**
+         * All clients had the same root hash as this client
+         */
+        IN_SYNC,
+
+        /**
+         * The object stores have been merged
+         */
+        COMPLETED
+    }
+
+    protected final UUID exchangeId;
+
+    protected final long startTime;
+
+    /**
+     * Whether the run drains the exchanges in progress instead of being skipped
+     */
+    protected final boolean isForced;
+
+    protected long duration;
+
+    protected Outcome outcome;
+
+    protected int nrOfUpdatedPaths;
+
+    protected int nrOfDeletedPaths;
+
+    protected int nrOfConflictPaths;
+
+    public BackgroundSyncRun(UUID exchangeId, boolean isForced) {
+        this.exchangeId = exchangeId;
+        this.startTime = System.currentTimeMillis();
+        this.isForced = isForced;
+        this.duration = - 1;
+        this.outcome = Outcome.FAILED;
+    }
+
+    /**
+     * Marks the run as finished with the given outcome
+     *
+     * @param outcome The outcome of the run
+     */
+    public void finish(Outcome outcome) {
+        this.outcome = outcome;
+        this.duration = System.currentTimeMillis() - this.startTime;
+    }
+
+    /**
+     * Returns whether this run detected any path which differs from the other clients
+     *
+     * @return True, if any path had to be updated, deleted or marked as conflict
+     */
+    public boolean hasFoundDifferences() {
+        return Outcome.COMPLETED == this.outcome && 0 < this.nrOfUpdatedPaths + this.nrOfDeletedPaths + this.nrOfConflictPaths;
+    }
+
+    public UUID getExchangeId() {
+        return exchangeId;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public boolean isForced() {
+        return isForced;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public int getNrOfUpdatedPaths() {
+        return nrOfUpdatedPaths;
+    }
+
+    public void setNrOfUpdatedPaths(int nrOfUpdatedPaths) {
+        this.nrOfUpdatedPaths = nrOfUpdatedPaths;
+    }
+
+    public int getNrOfDeletedPaths() {
+        return nrOfDeletedPaths;
+    }
+
+    public void setNrOfDeletedPaths(int nrOfDeletedPaths) {
+        this.nrOfDeletedPaths = nrOfDeletedPaths;
+    }
+
+    public int getNrOfConflictPaths() {
+        return nrOfConflictPaths;
+    }
+
+    public void setNrOfConflictPaths(int nrOfConflictPaths) {
+        this.nrOfConflictPaths = nrOfConflictPaths;
+    }
+
+    @Override
+    public String toString() {
+        return "BackgroundSyncRun{exchangeId=" + exchangeId + ", outcome=" + outcome + ", forced=" + isForced + ", duration=" + duration + "ms, updated=" + nrOfUpdatedPaths + ", deleted=" + nrOfDeletedPaths + ", conflicts=" + nrOfConflictPaths + "}";
+    }
+}
@@ -0,0 +1,332 @@
+package org.rmatil.sync.core.syncer.background;
+
+import net.engio.mbassy.listener.Handler;
+import org.rmatil.sync.core.eventbus.BackgroundSyncHintBusEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the runs of a background syncer adaptively
+ * instead of running it at a fixed rate:
+ * <ul>
+ * <li>After a run which found differences, the next one is scheduled after the base interval</li>
+ * <li>After a number of consecutive runs without any differences, the interval is doubled up to a maximum</li>
+ * <li>Skipped runs, i.e. runs postponed due to other exchanges in progress, are retried shortly after.
+ * If too many runs have been skipped in a row, the next one holds back new exchanges and waits for the running ones to complete</li>
+ * <li>If another client joins or a lot of exchanges are denied resp. time out,
+ * the next run is scheduled shortly after</li>
+ * </ul>
+ */
+public class BackgroundSyncScheduler implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundSyncScheduler.class);
+
+    /**
+     * The interval in milliseconds after a run which found differences
+     */
+    public static final long BASE_INTERVAL = 300000L;
+
+    /**
+     * The maximum interval in milliseconds after runs which did not find any differences
+     */
+    public static final long MAX_INTERVAL = 1800000L;
+
+    /**
+     * The delay in milliseconds after which a skipped run is retried
+     */
+    public static final long RETRY_DELAY = 10000L;
+
+    /**
+     * The delay in milliseconds after which a run is started on a hint
+     */
+    public static final long HINT_DELAY = 5000L;
+
+    /**
+     * The number of consecutive runs without differences after which the interval is increased
+     */
+    public static final int IDLE_RUNS_BEFORE_BACKOFF = 3;
+
+    /**
+     * The number of consecutive skipped runs after which a run is forced to drain the running exchanges
+     */
+    public static final int MAX_CONSECUTIVE_SKIPS = 6;
+
+    /**
+     * The number of failed exchanges within {@link BackgroundSyncScheduler#FAILURE_WINDOW} which trigger a run
+     */
+    public static final int FAILURE_THRESHOLD = 10;
+
+    /**
+     * The time window in milliseconds in which failed exchanges are counted
+     */
+    public static final long FAILURE_WINDOW = 60000L;
+
+    protected IBackgroundSyncer backgroundSyncer;
+
+    protected ScheduledExecutorService executorService;
+
+    protected long baseInterval;
+    protected long maxInterval;
+    protected long retryDelay;
+    protected long hintDelay;
+
+    /**
+     * The interval after which the next regular run is scheduled
+     */
+    protected long currentInterval;
+
+    protected int consecutiveIdleRuns;
+
+    protected int consecutiveSkippedRuns;
+
+    /**
+     * The times at which exchanges failed recently, oldest first
+     */
+    protected Deque<Long> failureTimes;
+
+    /**
+     * The next scheduled run, null if none is scheduled
+     */
+    protected ScheduledFuture<?> nextRun;
+
+    /**
+     * The time at which the next run is scheduled
+     */
+    protected long nextRunTime;
+
+    /**
+     * Whether a run is currently in progress
+     */
+    protected boolean isRunning;
+
+    /**
+     * Whether a hint has been received while a run was in progress
+     */
+    protected boolean hasPendingHint;
+
+    protected boolean isStopped;
+
+    /**
+     * @param backgroundSyncer The background syncer to run
+     * @param executorService  The executor to schedule the runs on
+     */
+    public BackgroundSyncScheduler(IBackgroundSyncer backgroundSyncer, ScheduledExecutorService executorService) {
+        this(backgroundSyncer, executorService, BASE_INTERVAL, MAX_INTERVAL, RETRY_DELAY, HINT_DELAY);
+    }
+
+    /**
+     * @param backgroundSyncer The background syncer to run
+     * @param executorService  The executor to schedule the runs on
+     * @param baseInterval     The interval in milliseconds after a run which found differences
+     * @param maxInterval      The maximum interval in milliseconds after runs which did not find any differences
+     * @param retryDelay       The delay in milliseconds after which a skipped run is retried
+     * @param hintDelay        The delay in milliseconds after which a run is started on a hint
+     */
+    public BackgroundSyncScheduler(IBackgroundSyncer backgroundSyncer, ScheduledExecutorService executorService, long baseInterval, long maxInterval, long retryDelay, long hintDelay) {
+        this.backgroundSyncer = backgroundSyncer;
+        this.executorService = executorService;
+        this.baseInterval = baseInterval;
+        this.maxInterval = maxInterval;
+        this.retryDelay = retryDelay;
+        this.hintDelay = hintDelay;
+        this.currentInterval = baseInterval;
+        this.consecutiveIdleRuns = 0;
+        this.consecutiveSkippedRuns = 0;
+        this.failureTimes = new ArrayDeque<>();
+        this.isRunning = false;
+        this.hasPendingHint = false;
+        this.isStopped = false;
+    }
+
+    /**
+     * Schedules the first run immediately
+     */
+    public synchronized void start() {
+        this.isStopped = false;
+        this.schedule(0L);
+    }
+
+    /**
+     * Cancels the next run. A run in progress is completed.
+     */
+    public synchronized void stop() {
+        this.isStopped = true;
+
+        if (null != this.nextRun) {
+            this.nextRun.cancel(false);
+            this.nextRun = null;
+        }
+    }
+
+    @Handler
+    public void handleHint(BackgroundSyncHintBusEvent event) {
+        switch (event.getReason()) {
+            case CLIENT_JOINED:
+                logger.info("Scheduling background sync since another client joined");
+                this.trigger();
+                break;
+            case EXCHANGE_DENIED:
+            case EXCHANGE_TIMED_OUT:
+                if (this.recordFailure(System.currentTimeMillis())) {
+                    logger.info("Scheduling background sync since at least " + FAILURE_THRESHOLD + " exchanges failed within " + FAILURE_WINDOW + "ms");
+                    this.trigger();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Schedules the next run shortly after, unless it is already scheduled earlier.
+     * Resets the interval to the base interval.
+     */
+    public synchronized void trigger() {
+        this.currentInterval = this.baseInterval;
+        this.consecutiveIdleRuns = 0;
+
+        if (this.isRunning) {
+            this.hasPendingHint = true;
+            return;
+        }
+
+        if (this.isStopped || (null != this.nextRun && this.nextRunTime <= System.currentTimeMillis() + this.hintDelay)) {
+            return;
+        }
+
+        this.schedule(this.hintDelay);
+    }
+
+    @Override
+    public void run() {
+        boolean drainRunningExchanges;
+        synchronized (this) {
+            if (this.isStopped) {
+                return;
+            }
+
+            this.isRunning = true;
+            this.nextRun = null;
+            drainRunningExchanges = this.consecutiveSkippedRuns >= MAX_CONSECUTIVE_SKIPS;
+        }
+
+        BackgroundSyncRun run = null;
+        try {
+            run = this.backgroundSyncer.sync(drainRunningExchanges);
+        } catch (Exception e) {
+            logger.error("Got exception while running the background syncer. Message: " + e.getMessage(), e);
+        } finally {
+            synchronized (this) {
+                this.isRunning = false;
+
+                long delay = this.getNextDelay(run);
+                if (this.hasPendingHint) {
+                    this.hasPendingHint = false;
+                    delay = Math.min(delay, this.hintDelay);
+                }
+
+                logger.debug("Scheduling next background sync in " + delay + "ms");
+
+                if (! this.isStopped) {
+                    this.schedule(delay);
+                }
+            }
+        }
+    }
+
+    public synchronized long getCurrentInterval() {
+        return currentInterval;
+    }
+
+    public synchronized int getConsecutiveIdleRuns() {
+        return consecutiveIdleRuns;
+    }
+
+    public synchronized int getConsecutiveSkippedRuns() {
+        return consecutiveSkippedRuns;
+    }
+
+    /**
+     * Returns the delay until the next run and updates the interval according to the given run.
+     * Must be called while holding the monitor.
+     *
+     * @param run The finished run, null if it failed with an exception
+     *
+     * @return The delay in milliseconds
+     */
+    protected long getNextDelay(BackgroundSyncRun run) {
+        if (null == run || BackgroundSyncRun.Outcome.FAILED == run.getOutcome()) {
+            this.consecutiveSkippedRuns = 0;
+            return this.currentInterval;
+        }
+
+        if (BackgroundSyncRun.Outcome.SKIPPED == run.getOutcome()) {
+            this.consecutiveSkippedRuns++;
+            return this.retryDelay;
+        }
+
+        this.consecutiveSkippedRuns = 0;
+
+        if (run.hasFoundDifferences()) {
+            this.consecutiveIdleRuns = 0;
+            this.currentInterval = this.baseInterval;
+        } else {
+            this.consecutiveIdleRuns++;
+
+            if (this.consecutiveIdleRuns >= IDLE_RUNS_BEFORE_BACKOFF) {
+                this.currentInterval = Math.min(this.currentInterval * 2, this.maxInterval);
+            }
+        }
+
+        return this.currentInterval;
+    }
+
+    /**
+     * Records a failed exchange
+     *
+     * @param now The current time in milliseconds
+     *
+     * @return True, if enough exchanges failed recently to trigger a run
+     */
+    protected synchronized boolean recordFailure(long now) {
+        this.failureTimes.addLast(now);
+
+        while (! this.failureTimes.isEmpty() && this.failureTimes.peekFirst() < now - FAILURE_WINDOW) {
+            this.failureTimes.removeFirst();
+        }
+
+        if (this.failureTimes.size() >= FAILURE_THRESHOLD) {
+            this.failureTimes.clear();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Replaces the next scheduled run by one after the given delay.
+     * Must be called while holding the monitor.
+     *
+     * @param delay The delay in milliseconds
+     */
+    protected void schedule(long delay) {
+        if (null != this.nextRun) {
+            this.nextRun.cancel(false);
+        }
+
+        this.nextRunTime = System.currentTimeMillis() + delay;
+
+        try {
+            this.nextRun = this.executorService.schedule(this, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the executor has been shut down
+            logger.debug("Could not schedule next background sync. Message: " + e.getMessage());
+            this.nextRun = null;
+        }
+    }
+}
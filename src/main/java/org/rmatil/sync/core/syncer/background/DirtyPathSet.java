@@ -0,0 +1,340 @@
+package org.rmatil.sync.core.syncer.background;
+
+import com.google.gson.Gson;
+import org.rmatil.sync.core.IgnoreRuleSet;
+import org.rmatil.sync.core.StringLengthComparator;
+import org.rmatil.sync.event.aggregator.core.events.IEvent;
+import org.rmatil.sync.event.aggregator.core.events.MoveEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the relative paths of the synchronised folder which may differ
+ * from the object store and therefore have to be reconciled.
+ * <p>
+ * Paths are only removed once they have been reconciled successfully,
+ * so that a path which failed to reconcile is checked again in the next run.
+ * The root of the synchronised folder is represented by an empty path.
+ * <p>
+ * Paths are recorded from the events of the event aggregator. Changes which
+ * may have been missed, e.g. while the event aggregator was stopped, have to
+ * be found by scanning the synchronised folder for paths modified since a time.
+ * The set can be persisted to a file, so that neither recorded paths nor the
+ * need of a scan get lost on a restart.
+ */
+public class DirtyPathSet {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirtyPathSet.class);
+
+    protected static final Gson gson = new Gson();
+
+    /**
+     * The relative path representing the root of the synchronised folder
+     */
+    public static final String ROOT_PATH = "";
+
+    protected final Set<String> paths;
+
+    /**
+     * The file to persist the set to, may be null
+     */
+    protected final Path file;
+
+    /**
+     * The time in milliseconds since which changes may not have been recorded
+     * and have to be found by a scan. Negative, if all changes have been recorded
+     */
+    protected volatile long scanSince;
+
+    /**
+     * Creates a set which is not persisted
+     */
+    public DirtyPathSet() {
+        this(null);
+    }
+
+    /**
+     * Creates a set which is persisted to the given file.
+     * If the file exists, the set is filled with its content.
+     *
+     * @param file The file to persist the set to, may be null
+     */
+    public DirtyPathSet(Path file) {
+        this.paths = ConcurrentHashMap.newKeySet();
+        this.file = file;
+        this.scanSince = - 1L;
+
+        if (null != file && Files.exists(file)) {
+            try {
+                this.load();
+            } catch (IOException | RuntimeException e) {
+                // changes since the epoch have to be scanned
+                logger.warn("Failed to load the dirty paths from " + file + ". Scanning the whole synchronised folder in the next run. Message: " + e.getMessage());
+                this.paths.clear();
+                this.scanSince = 0L;
+            }
+        }
+    }
+
+    /**
+     * Marks the given path as dirty
+     *
+     * @param path The relative path
+     */
+    public void add(String path) {
+        this.paths.add(path);
+    }
+
+    /**
+     * Marks the given path as reconciled
+     *
+     * @param path The relative path
+     */
+    public void remove(String path) {
+        this.paths.remove(path);
+    }
+
+    /**
+     * Marks the paths affected by the given events as dirty,
+     * i.e. for moves the old and the new path
+     *
+     * @param events The events of the event aggregator with paths relative to the synchronised folder
+     */
+    public void addEvents(List<IEvent> events) {
+        for (IEvent event : events) {
+            this.add(event.getPath().toString());
+
+            if (event instanceof MoveEvent) {
+                this.add(((MoveEvent) event).getNewPath().toString());
+            }
+        }
+    }
+
+    /**
+     * Requires changes made since the given time to be found by a scan,
+     * since they may not be recorded
+     *
+     * @param since The time in milliseconds since the epoch
+     */
+    public synchronized void requireScanSince(long since) {
+        if (this.scanSince < 0 || since < this.scanSince) {
+            this.scanSince = since;
+        }
+    }
+
+    /**
+     * Notes that all changes since the given time have been recorded.
+     * A scan required for earlier changes is kept
+     *
+     * @param since The time in milliseconds since the epoch
+     */
+    public synchronized void markRecordedSince(long since) {
+        if (this.scanSince >= since) {
+            this.scanSince = - 1L;
+        }
+    }
+
+    /**
+     * Returns the time since which changes have to be found by a scan
+     *
+     * @return The time in milliseconds since the epoch, negative if no scan is required
+     */
+    public long getScanSince() {
+        return scanSince;
+    }
+
+    public boolean contains(String path) {
+        return this.paths.contains(path);
+    }
+
+    public int size() {
+        return this.paths.size();
+    }
+
+    public boolean isEmpty() {
+        return this.paths.isEmpty();
+    }
+
+    /**
+     * Returns a snapshot of all dirty paths
+     *
+     * @return The dirty paths, parents before their children
+     */
+    public List<String> getPaths() {
+        List<String> paths = new ArrayList<>(this.paths);
+        paths.sort(new StringLengthComparator());
+
+        return paths;
+    }
+
+    /**
+     * Marks all paths below the given root directory which have been modified
+     * at or after the given time as dirty. Only the metadata of the paths is read.
+     * <p>
+     * A directory is modified if entries have been added to, removed from
+     * or renamed in it, so that deleted and moved paths can be found from
+     * their parent directory.
+     *
+     * @param rootDir     The root of the synchronised folder
+     * @param since       The time in milliseconds since the epoch
+     * @param ignoreRules The rules of paths which are not synchronised
+     *
+     * @throws IOException If walking the synchronised folder fails
+     */
+    public void addModifiedSince(Path rootDir, long since, IgnoreRuleSet ignoreRules)
+            throws IOException {
+        Files.walkFileTree(rootDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                String relativePath = rootDir.relativize(dir).toString();
+
+                if (! ROOT_PATH.equals(relativePath) && ignoreRules.isIgnored(relativePath)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                if (attrs.lastModifiedTime().toMillis() >= since) {
+                    add(relativePath);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                String relativePath = rootDir.relativize(file).toString();
+
+                if (attrs.lastModifiedTime().toMillis() >= since && ! ignoreRules.isIgnored(relativePath)) {
+                    add(relativePath);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc)
+                    throws IOException {
+                // the path has been removed while walking,
+                // its parent directory is modified anyway
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Marks the given directory and all paths below it as dirty,
+     * regardless of their modification time. Used for directories
+     * moved into the synchronised folder, which keep their timestamps.
+     *
+     * @param rootDir     The root of the synchronised folder
+     * @param directory   The relative path of the directory
+     * @param ignoreRules The rules of paths which are not synchronised
+     *
+     * @throws IOException If walking the directory fails
+     */
+    public void addSubtree(Path rootDir, String directory, IgnoreRuleSet ignoreRules)
+            throws IOException {
+        Files.walkFileTree(rootDir.resolve(directory), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                String relativePath = rootDir.relativize(dir).toString();
+
+                if (ignoreRules.isIgnored(relativePath)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                add(relativePath);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                String relativePath = rootDir.relativize(file).toString();
+
+                if (! ignoreRules.isIgnored(relativePath)) {
+                    add(relativePath);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc)
+                    throws IOException {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Writes the dirty paths and the time since which a scan is required to the file.
+     * Does nothing if no file is set.
+     *
+     * @throws IOException If writing the file failed
+     */
+    public void persist()
+            throws IOException {
+        if (null == this.file) {
+            return;
+        }
+
+        PersistedState state = new PersistedState();
+        state.paths = new ArrayList<>(this.paths);
+        state.scanSince = this.scanSince;
+
+        // write to a temporary file first to not leave a truncated set behind
+        Path tmpFile = this.file.resolveSibling(this.file.getFileName().toString() + ".tmp");
+        Files.write(tmpFile, gson.toJson(state).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+
+        logger.debug("Persisted " + state.paths.size() + " dirty paths to " + this.file);
+    }
+
+    /**
+     * Replaces the dirty paths with the content of the file
+     *
+     * @throws IOException If reading the file failed
+     */
+    protected void load()
+            throws IOException {
+        String json = new String(Files.readAllBytes(this.file), StandardCharsets.UTF_8);
+        PersistedState state = gson.fromJson(json, PersistedState.class);
+
+        this.paths.clear();
+
+        if (null == state) {
+            return;
+        }
+
+        if (null != state.paths) {
+            this.paths.addAll(state.paths);
+        }
+
+        this.scanSince = state.scanSince;
+
+        logger.debug("Loaded " + this.paths.size() + " dirty paths from " + this.file);
+    }
+
+    /**
+     * The content of the file the set is persisted to
+     */
+    protected static class PersistedState {
+
+        protected List<String> paths;
+
+        protected long scanSince = - 1L;
+    }
+}
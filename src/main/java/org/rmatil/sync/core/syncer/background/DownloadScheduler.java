@@ -0,0 +1,130 @@
+package org.rmatil.sync.core.syncer.background;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the downloads of a batch of paths with a bounded number
+ * of downloads in progress at the same time.
+ * <p>
+ * The download of a path is only started once the downloads of all
+ * of its parent directories in the same batch have finished, so that
+ * directories exist on disk before their contents are written.
+ * Downloads of unrelated paths run concurrently.
+ */
+public class DownloadScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadScheduler.class);
+
+    /**
+     * The maximum number of downloads in progress at the same time
+     */
+    protected final int maxConcurrentDownloads;
+
+    /**
+     * @param maxConcurrentDownloads The maximum number of downloads in progress at the same time
+     */
+    public DownloadScheduler(int maxConcurrentDownloads) {
+        if (maxConcurrentDownloads < 1) {
+            throw new IllegalArgumentException("At least one download must be allowed at the same time");
+        }
+
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+    }
+
+    /**
+     * Runs all given downloads and waits until they have finished.
+     * A download failing with an exception does not prevent the others from being run.
+     *
+     * @param downloads The downloads keyed by the relative path they fetch, started in iteration order where possible
+     *
+     * @throws InterruptedException If interrupted while waiting for the downloads to finish
+     */
+    public void runAll(Map<String, Runnable> downloads)
+            throws InterruptedException {
+        if (downloads.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<String>> children = new HashMap<>();
+        List<String> roots = new ArrayList<>();
+
+        for (String path : downloads.keySet()) {
+            String parent = getClosestParent(path, downloads.keySet());
+
+            if (null == parent) {
+                roots.add(path);
+            } else {
+                children.computeIfAbsent(parent, p -> new ArrayList<>()).add(path);
+            }
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(this.maxConcurrentDownloads, downloads.size()));
+        CountDownLatch countDownLatch = new CountDownLatch(downloads.size());
+
+        try {
+            for (String root : roots) {
+                this.submit(executorService, root, downloads, children, countDownLatch);
+            }
+
+            countDownLatch.await();
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Submits the download of the given path, which submits the downloads of its children once finished
+     *
+     * @param executorService The executor to run the downloads
+     * @param path            The path to download
+     * @param downloads       All downloads of the batch
+     * @param children        The paths of the batch which have to wait for a path
+     * @param countDownLatch  Counted down for each finished download
+     */
+    protected void submit(ExecutorService executorService, String path, Map<String, Runnable> downloads, Map<String, List<String>> children, CountDownLatch countDownLatch) {
+        executorService.execute(() -> {
+            try {
+                downloads.get(path).run();
+            } catch (Exception e) {
+                logger.error("Failed to download " + path + ". Message: " + e.getMessage(), e);
+            } finally {
+                // submit the children before counting down, so that the batch is not finished too early
+                for (String child : children.getOrDefault(path, Collections.emptyList())) {
+                    this.submit(executorService, child, downloads, children, countDownLatch);
+                }
+
+                countDownLatch.countDown();
+            }
+        });
+    }
+
+    /**
+     * Returns the closest parent of the given path which is part of the given paths
+     *
+     * @param path  The relative path
+     * @param paths All paths of the batch
+     *
+     * @return The closest parent or null, if no parent is part of the batch
+     */
+    protected static String getClosestParent(String path, Set<String> paths) {
+        Path parent = Paths.get(path).getParent();
+
+        while (null != parent) {
+            if (paths.contains(parent.toString())) {
+                return parent.toString();
+            }
+
+            parent = parent.getParent();
+        }
+
+        return null;
+    }
+}
@@ -7,4 +7,12 @@ package org.rmatil.sync.core.syncer.background;
  */
 public interface IBackgroundSyncer extends Runnable {
 
+    /**
+     * Runs a single synchronisation with all other clients
+     *
+     * @param drainRunningExchanges Whether to hold back new exchanges and wait for the running ones to complete instead of skipping the run
+     *
+     * @return The statistics of the run
+     */
+    BackgroundSyncRun sync(boolean drainRunningExchanges);
 }
@@ -1,24 +1,35 @@
 package org.rmatil.sync.core.syncer.background;
 
 import net.engio.mbassy.bus.MBassador;
+import org.rmatil.sync.commons.hashing.Hash;
 import org.rmatil.sync.core.ConflictHandler;
+import org.rmatil.sync.core.ExchangeGate;
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.core.IgnoreRuleSet;
+import org.rmatil.sync.core.NodeLocationCache;
 import org.rmatil.sync.core.StringLengthComparator;
 import org.rmatil.sync.core.Zip;
+import org.rmatil.sync.core.config.Config;
 import org.rmatil.sync.core.eventbus.*;
+import org.rmatil.sync.core.init.objecstore.PathHashTree;
 import org.rmatil.sync.core.messaging.fileexchange.demand.FileDemandExchangeHandler;
+import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreExchangeHandler;
 import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreExchangeHandlerResult;
+import org.rmatil.sync.core.syncer.background.fetchobjectstore.ObjectStoreManifest;
 import org.rmatil.sync.event.aggregator.api.IEventAggregator;
 import org.rmatil.sync.event.aggregator.core.events.DeleteEvent;
 import org.rmatil.sync.event.aggregator.core.events.ModifyEvent;
 import org.rmatil.sync.network.api.INode;
 import org.rmatil.sync.network.api.INodeManager;
+import org.rmatil.sync.network.core.ANetworkHandler;
 import org.rmatil.sync.network.core.model.ClientDevice;
 import org.rmatil.sync.network.core.model.NodeLocation;
 import org.rmatil.sync.persistence.api.StorageType;
 import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
 import org.rmatil.sync.persistence.core.tree.TreePathElement;
-import org.rmatil.sync.persistence.core.tree.local.LocalStorageAdapter;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.rmatil.sync.version.api.DeleteType;
 import org.rmatil.sync.version.api.IObjectStore;
 import org.rmatil.sync.version.api.PathType;
 import org.rmatil.sync.version.core.ObjectStore;
@@ -27,9 +38,11 @@ import org.rmatil.sync.version.core.model.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.file.FileSystems;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.*;
 
@@ -41,20 +54,45 @@ import java.util.*;
  * The procedure of syncing is as following:
  * <p>
  * <ol>
- * <li>Stop the event aggregation to safely update the object store manually</li>
- * <li>Fetch the object stores from all clients</li>
+ * <li>Fetch the object stores from all clients, unless their hash tree matches ours</li>
+ * <li>Hold back the events of the event aggregation to safely update the object store manually</li>
  * <li>Merge them on this client</li>
  * <li>Download all missing or outdated files from the appropriate client</li>
- * <li>Restart the event aggregation</li>
- * <li>Sync merged object store with actual changes on disk</li>
+ * <li>Forward the events of the event aggregation again</li>
+ * <li>Reconcile the paths changed on disk in the mean time with the merged object store</li>
  * </ol>
  * <p>
+ * Runs are skipped while other exchanges are in progress. A forced run instead holds back
+ * new exchanges using the {@link ExchangeGate} and waits for the running ones to complete.
+ * <p>
  * {@inheritDoc}
  */
 public class NonBlockingBackgroundSyncer implements IBackgroundSyncer {
 
     private static final Logger logger = LoggerFactory.getLogger(NonBlockingBackgroundSyncer.class);
 
+    /**
+     * The number of runs after which all object stores are merged,
+     * even if the root hashes of all clients match
+     */
+    protected static final int FULL_SYNC_INTERVAL = 12;
+
+    /**
+     * The number of runs of which the statistics are kept
+     */
+    protected static final int MAX_RUN_STATISTICS = 50;
+
+    /**
+     * The time in milliseconds subtracted from the start of the sync window
+     * when looking for modified paths, since file systems store timestamps coarsely
+     */
+    protected static final long TIMESTAMP_TOLERANCE = 2000L;
+
+    /**
+     * The interval in milliseconds in which a forced run checks whether the running exchanges completed
+     */
+    protected static final long DRAIN_POLL_INTERVAL = 100L;
+
     /**
      * The event aggregator of the client to stop
      */
@@ -88,6 +126,67 @@ public class NonBlockingBackgroundSyncer implements IBackgroundSyncer {
     protected List<Path>   ignoredPaths;
     protected List<String> ignorePatterns;
 
+    /**
+     * The ignored paths and patterns, compiled once
+     */
+    protected IgnoreRuleSet ignoreRules;
+
+    /**
+     * The hash tree of the synchronised folder, may be null
+     */
+    protected PathHashTree pathHashTree;
+
+    /**
+     * The bucket hashes of the kept copies of the other clients' object stores
+     */
+    protected Map<UUID, Map<Integer, String>> knownBucketHashes;
+
+    /**
+     * The number of started runs
+     */
+    protected long nrOfRuns;
+
+    /**
+     * The access manager of which the cached access is invalidated after merging object stores, may be null
+     */
+    protected IAccessManager accessManager;
+
+    /**
+     * The cache of the file ids of which paths changed by other clients are invalidated, may be null
+     */
+    protected IdentifierCache identifierCache;
+
+    /**
+     * The cache of the client locations of users, may be null
+     */
+    protected NodeLocationCache nodeLocationCache;
+
+    /**
+     * The gate holding back new exchanges while a forced run drains the running ones, may be null
+     */
+    protected ExchangeGate exchangeGate;
+
+    /**
+     * The statistics of the last runs, oldest first
+     */
+    protected final Deque<BackgroundSyncRun> runStatistics;
+
+    /**
+     * The paths changed on disk which have not been reconciled with the object store yet
+     */
+    protected DirtyPathSet dirtyPaths;
+
+    /**
+     * The listener recording the paths of events while the object stores are merged, may be null.
+     * If not set, the event aggregator is stopped instead and changed paths are found by a scan
+     */
+    protected SyncWindowEventListener syncWindowEventListener;
+
+    /**
+     * Whether events are held back from the listeners of the node
+     */
+    protected boolean isSyncWindowOpen;
+
     /**
      * @param eventAggregator The event aggregator to pause
      * @param node            The client to exchange messages
@@ -97,6 +196,21 @@ public class NonBlockingBackgroundSyncer implements IBackgroundSyncer {
      * @param globalEventBus  The global event bus to push events to
      */
     public NonBlockingBackgroundSyncer(IEventAggregator eventAggregator, INode node, INodeManager nodeManager, IObjectStore objectStore, ITreeStorageAdapter storageAdapter, MBassador<IBusEvent> globalEventBus, List<Path> ignoredPaths, List<String> ignorePatterns) {
+        this(eventAggregator, node, nodeManager, objectStore, storageAdapter, globalEventBus, ignoredPaths, ignorePatterns, null);
+    }
+
+    /**
+     * @param eventAggregator The event aggregator to pause
+     * @param node            The client to exchange messages
+     * @param nodeManager     The client manager to fetch client locations from
+     * @param objectStore     The object store for the synchronised folder
+     * @param storageAdapter  The storage adapter of the synchronised folder
+     * @param globalEventBus  The global event bus to push events to
+     * @param ignoredPaths    The paths which are not synchronised
+     * @param ignorePatterns  The patterns of paths which are not synchronised
+     * @param pathHashTree    The hash tree of the synchronised folder to skip runs if all clients are in sync. May be null
+     */
+    public NonBlockingBackgroundSyncer(IEventAggregator eventAggregator, INode node, INodeManager nodeManager, IObjectStore objectStore, ITreeStorageAdapter storageAdapter, MBassador<IBusEvent> globalEventBus, List<Path> ignoredPaths, List<String> ignorePatterns, PathHashTree pathHashTree) {
         this.eventAggregator = eventAggregator;
         this.node = node;
         this.nodeManager = nodeManager;
@@ -105,27 +219,184 @@ public class NonBlockingBackgroundSyncer implements IBackgroundSyncer {
         this.globalEventBus = globalEventBus;
         this.ignoredPaths = ignoredPaths;
         this.ignorePatterns = ignorePatterns;
+        this.ignoreRules = new IgnoreRuleSet(ignoredPaths, ignorePatterns);
+        this.pathHashTree = pathHashTree;
+        this.knownBucketHashes = new HashMap<>();
+        this.nrOfRuns = 0;
+        this.runStatistics = new ArrayDeque<>();
+        this.dirtyPaths = new DirtyPathSet();
+        this.isSyncWindowOpen = false;
+    }
+
+    public void setAccessManager(IAccessManager accessManager) {
+        this.accessManager = accessManager;
+    }
+
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
+    public void setNodeLocationCache(NodeLocationCache nodeLocationCache) {
+        this.nodeLocationCache = nodeLocationCache;
+    }
+
+    public void setExchangeGate(ExchangeGate exchangeGate) {
+        this.exchangeGate = exchangeGate;
+    }
+
+    /**
+     * Set the dirty paths, e.g. to persist them across restarts
+     *
+     * @param dirtyPaths The paths changed on disk which have not been reconciled yet
+     */
+    public void setDirtyPaths(DirtyPathSet dirtyPaths) {
+        this.dirtyPaths = dirtyPaths;
+    }
+
+    /**
+     * Set the listener which records the paths of events while the object stores are merged,
+     * instead of stopping the event aggregator and scanning for changed paths afterwards
+     *
+     * @param syncWindowEventListener The listener registered at the event aggregator
+     */
+    public void setSyncWindowEventListener(SyncWindowEventListener syncWindowEventListener) {
+        this.syncWindowEventListener = syncWindowEventListener;
     }
 
     @Override
     public void run() {
+        this.sync(false);
+    }
+
+    @Override
+    public BackgroundSyncRun sync(boolean drainRunningExchanges) {
+        BackgroundSyncRun run = new BackgroundSyncRun(UUID.randomUUID(), drainRunningExchanges);
+
+        // a forced run holds back new exchanges until the object stores are merged
+        if (run.isForced() && null != this.exchangeGate) {
+            this.exchangeGate.close();
+        }
+
+        try {
+            run.finish(this.sync(run));
+        } finally {
+            if (run.isForced() && null != this.exchangeGate) {
+                this.exchangeGate.open();
+            }
+        }
+
+        logger.info("Finished non blocking background sync: " + run.toString());
+
+        synchronized (this.runStatistics) {
+            this.runStatistics.addLast(run);
+            if (this.runStatistics.size() > MAX_RUN_STATISTICS) {
+                this.runStatistics.removeFirst();
+            }
+        }
+
+        return run;
+    }
+
+    /**
+     * Returns the statistics of the last runs
+     *
+     * @return The statistics, oldest run first
+     */
+    public List<BackgroundSyncRun> getRunStatistics() {
+        synchronized (this.runStatistics) {
+            return new ArrayList<>(this.runStatistics);
+        }
+    }
+
+    /**
+     * Checks whether any exchange is running which may modify the synced folder or the object store
+     *
+     * @return True, if exchanges are running
+     */
+    protected boolean areExchangesRunning() {
+        return 0 < this.node.getObjectDataReplyHandler().getResponseCallbackHandlers().size() ||
+                this.node.getObjectDataReplyHandler().areRequestCallbacksRunning();
+    }
+
+    /**
+     * Waits until all running local syncs and exchanges have completed.
+     * New exchanges have to be held back by the exchange gate meanwhile.
+     *
+     * @param timeout The maximum time to wait in milliseconds
+     *
+     * @return True, if all exchanges completed, false if the timeout elapsed before
+     */
+    protected boolean awaitRunningExchanges(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        try {
+            if (null != this.exchangeGate && ! this.exchangeGate.awaitActiveSyncs(timeout)) {
+                return false;
+            }
+
+            while (this.areExchangesRunning()) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+
+                Thread.sleep(DRAIN_POLL_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            logger.error("Got interrupted while waiting for running exchanges to complete");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Synchronises with all other clients
+     *
+     * @param run The statistics of the run to fill in
+     *
+     * @return The outcome of the run
+     */
+    protected BackgroundSyncRun.Outcome sync(BackgroundSyncRun run) {
         try {
-            UUID exchangeId = UUID.randomUUID();
+            UUID exchangeId = run.getExchangeId();
             logger.info("Starting non blocking background syncer (Exchange: " + exchangeId + ")");
-            this.eventAggregator.stop();
+
+            if (this.areExchangesRunning()) {
+                if (! run.isForced()) {
+                    // other callbacks are currently in progress
+                    // -> postpone this run to next interval
+                    logger.info("Skipping execution of background synchronisation since other exchanges are currently running");
+                    return BackgroundSyncRun.Outcome.SKIPPED;
+                }
+
+                logger.info("Waiting for running exchanges to complete, since the background synchronisation has been postponed too often");
+
+                if (! this.awaitRunningExchanges(ANetworkHandler.MAX_WAITING_TIME)) {
+                    logger.info("Skipping execution of background synchronisation since the running exchanges did not complete within " + ANetworkHandler.MAX_WAITING_TIME + "ms");
+                    return BackgroundSyncRun.Outcome.SKIPPED;
+                }
+            }
+
+            // from time to time, merge all object stores regardless of the root hashes,
+            // since changes of sharers or owners are not part of the hash tree
+            this.nrOfRuns++;
+            boolean isFullSync = 0 == this.nrOfRuns % FULL_SYNC_INTERVAL;
+            String rootHash = null;
+            if (null != this.pathHashTree && ! isFullSync) {
+                rootHash = this.pathHashTree.getRootHash();
+            }
 
             FetchObjectStoreExchangeHandler fetchObjectStoreExchangeHandler = new FetchObjectStoreExchangeHandler(
                     this.node,
                     this.nodeManager,
+                    this.objectStore,
+                    rootHash,
+                    this.knownBucketHashes,
                     exchangeId
             );
 
-            int nrOfRunningResponseCallbackExchanges = this.node.getObjectDataReplyHandler().getResponseCallbackHandlers().size();
-            if (0 < nrOfRunningResponseCallbackExchanges || this.node.getObjectDataReplyHandler().areRequestCallbacksRunning()) {
-                // other callbacks are currently in progress
-                // -> postpone this run to next interval
-                logger.info("Skipping execution of background synchronisation since other exchanges are currently running");
-                return;
+            if (null != this.nodeLocationCache) {
+                fetchObjectStoreExchangeHandler.setNodeLocationCache(this.nodeLocationCache);
             }
 
             this.node.getObjectDataReplyHandler().addResponseCallbackHandler(exchangeId, fetchObjectStoreExchangeHandler);
@@ -146,12 +417,37 @@ public class NonBlockingBackgroundSyncer implements IBackgroundSyncer {
 
             if (! fetchObjectStoreExchangeHandler.isCompleted()) {
                 logger.error("FetchObjectStoreExchangeHandler should be completed after awaiting. Since we do not know about the other clients object store, we abort background sync for exchange " + exchangeId);
-                return;
+                fetchObjectStoreExchangeHandler.getResult().deleteArchives();
+                return BackgroundSyncRun.Outcome.FAILED;
             }
 
             FetchObjectStoreExchangeHandlerResult result = fetchObjectStoreExchangeHandler.getResult();
 
+            // clients having the same root hash are in sync with us
+            if (null != rootHash) {
+                final String ourRootHash = rootHash;
+                result.getResponses().removeIf(response -> ourRootHash.equals(response.getRootHash()));
+            }
+
+            if (result.getResponses().isEmpty()) {
+                logger.info("All clients are in sync. Completed non-blocking background sync " + exchangeId);
+                return BackgroundSyncRun.Outcome.IN_SYNC;
+            }
+
+            // changes made on disk from now on are not applied to the object store until the sync window is closed
+            long syncWindowStart = System.currentTimeMillis();
+            this.openSyncWindow(syncWindowStart);
+
             Map<ClientDevice, IObjectStore> objectStores = Zip.unzipObjectStore(this.objectStore, result);
+            result.deleteArchives();
+
+            // remember the state of the kept copies for the next run
+            for (Map.Entry<ClientDevice, IObjectStore> entry : objectStores.entrySet()) {
+                this.knownBucketHashes.put(
+                        entry.getKey().getClientDeviceId(),
+                        new ObjectStoreManifest(entry.getValue().getObjectManager().getStorageAdapater()).getBucketHashes()
+                );
+            }
 
             // use a tree map for guaranteed ordering
             Map<String, ClientDevice> deletedPaths = new TreeMap<>(new StringLengthComparator());
@@ -160,27 +456,42 @@ public class NonBlockingBackgroundSyncer implements IBackgroundSyncer {
 
             for (Map.Entry<ClientDevice, IObjectStore> entry : objectStores.entrySet()) {
                 HashMap<ObjectStore.MergedObjectType, Set<String>> outdatedOrDeletedPaths = this.objectStore.mergeObjectStore(entry.getValue());
+                this.invalidateAccess();
 
                 outdatedOrDeletedPaths.get(ObjectStore.MergedObjectType.CHANGED).stream().filter(outDatedPath -> ! this.isIgnored(outDatedPath)).forEach(outDatedPath -> updatedPaths.put(outDatedPath, entry.getKey()));
 
                 outdatedOrDeletedPaths.get(ObjectStore.MergedObjectType.DELETED).stream().filter(deletedPath -> ! this.isIgnored(deletedPath)).forEach(deletedPath -> deletedPaths.put(deletedPath, entry.getKey()));
 
                 outdatedOrDeletedPaths.get(ObjectStore.MergedObjectType.CONFLICT).stream().filter(conflictPath -> ! this.isIgnored(conflictPath)).forEach(conflictPath -> conflictPaths.put(conflictPath, entry.getKey()));
-
-                entry.getValue().getObjectManager().getStorageAdapater().delete(new TreePathElement("./"));
-                this.objectStore.getObjectManager().getStorageAdapater().delete(new TreePathElement(entry.getKey().getClientDeviceId().toString()));
             }
 
-            // delete all removed files
+            // other clients may have changed the file ids of these paths while we did not get their requests
+            this.invalidateIdentifiers(deletedPaths.keySet(), updatedPaths.keySet(), conflictPaths.keySet());
+
+            run.setNrOfDeletedPaths(deletedPaths.size());
+            run.setNrOfConflictPaths(conflictPaths.size());
+
+            // delete all removed files. Deleted paths are ordered by length,
+            // i.e. parent directories are deleted recursively before their contents are visited
             logger.info("Removing all (" + deletedPaths.size() + ") deleted files");
+            Path rootDir = Paths.get(this.storageAdapter.getRootDir().getPath());
+            Set<Path> deletedSubtrees = new HashSet<>();
             for (Map.Entry<String, ClientDevice> entry : deletedPaths.entrySet()) {
+                Path deletedPath = Paths.get(entry.getKey());
+
+                if (isInSubtree(deletedPath, deletedSubtrees)) {
+                    // removed together with its parent directory
+                    continue;
+                }
+
                 logger.debug("Removing deleted path " + entry.getKey());
 
-                TreePathElement elementToDelete = new TreePathElement(entry.getKey());
                 // only delete the file on disk if it actually exists
-                if (this.storageAdapter.exists(StorageType.DIRECTORY, elementToDelete) || this.storageAdapter.exists(StorageType.FILE, elementToDelete)) {
-                    this.storageAdapter.delete(elementToDelete);
+                if (Files.exists(rootDir.resolve(deletedPath), LinkOption.NOFOLLOW_LINKS)) {
+                    this.storageAdapter.delete(new TreePathElement(entry.getKey()));
                 }
+
+                deletedSubtrees.add(deletedPath);
             }
 
             logger.info("Creating all (" + conflictPaths.size() + ") conflict files");
@@ -215,10 +526,13 @@ public class NonBlockingBackgroundSyncer implements IBackgroundSyncer {
 
             // fetch all missing files
             logger.info("Fetching all (" + updatedPaths.size() + ") missing files");
+            run.setNrOfUpdatedPaths(updatedPaths.size());
 
+            // the object store is prepared sequentially, only the demands run concurrently.
+            // Insertion order keeps parent directories before their contents
+            Map<String, Runnable> downloads = new LinkedHashMap<>();
             for (Map.Entry<String, ClientDevice> entry : updatedPaths.entrySet()) {
                 UUID subExchangeId = UUID.randomUUID();
-                logger.debug("Starting to fetch file " + entry.getKey() + " with subExchangeId " + subExchangeId + " (non blocking background sync " + exchangeId + ")");
 
                 // before updating, check the actual content hash on disk
                 // to prevent data loss during sync
@@ -261,135 +575,547 @@ public class NonBlockingBackgroundSyncer implements IBackgroundSyncer {
                         )
                 );
 
-                FileDemandExchangeHandler fileDemandExchangeHandler = new FileDemandExchangeHandler(
-                        this.storageAdapter,
-                        this.node,
-                        this.nodeManager,
-                        this.globalEventBus,
-                        new NodeLocation(
-                                entry.getValue().getUserName(),
-                                entry.getValue().getClientDeviceId(),
-                                entry.getValue().getPeerAddress()
-                        ),
-                        entry.getKey(),
-                        subExchangeId
-                );
+                // spread the first requests of the downloads over all clients having the path
+                List<NodeLocation> fetchAddresses = this.getFetchAddresses(entry.getKey(), lastVersion, entry.getValue(), objectStores);
+                Collections.rotate(fetchAddresses, - (downloads.size() % fetchAddresses.size()));
+
+                downloads.put(entry.getKey(), () -> this.fetchFile(entry.getKey(), fetchAddresses, subExchangeId, exchangeId));
+            }
+
+            try {
+                new DownloadScheduler(Config.DEFAULT.getNumberOfConcurrentDownloads()).runAll(downloads);
+            } catch (InterruptedException e) {
+                logger.error("Got interrupted while waiting for all missing files to be fetched. Message: " + e.getMessage());
+            }
 
-                this.node.getObjectDataReplyHandler().addResponseCallbackHandler(subExchangeId, fileDemandExchangeHandler);
+            // the fetched object stores are kept, so that only
+            // their changes have to be fetched in the next run
 
-                Thread fileDemandExchangeHandlerThread = new Thread(fileDemandExchangeHandler);
-                fileDemandExchangeHandlerThread.setName("FileDemandExchangeHandlerThread-" + subExchangeId);
-                fileDemandExchangeHandlerThread.start();
+            logger.info("Closing sync window on client (" + this.node.getPeerAddress().inetAddress().getHostName() + ":" + this.node.getPeerAddress().tcpPort() + "): Non-blocking background sync " + exchangeId);
+            this.closeSyncWindow(syncWindowStart, isFullSync);
 
+            // paths changed while the events were held back from the hash tree
+            Set<String> changedPaths = new TreeSet<>(new StringLengthComparator());
+            changedPaths.addAll(deletedPaths.keySet());
+            changedPaths.addAll(updatedPaths.keySet());
+
+            logger.info("Reconciling local disk changes with merged object store (non-blocking background sync " + exchangeId + ")");
+            this.reconcileDirtyPaths(exchangeId, changedPaths);
+            this.persistDirtyPaths();
+
+            this.updatePathHashTree(changedPaths);
+
+            if (null != this.identifierCache) {
                 try {
-                    fileDemandExchangeHandler.await();
-                } catch (InterruptedException e) {
-                    logger.error("Got interrupted while waiting for fileDemandExchangeHandler " + subExchangeId + " to complete. Message: " + e.getMessage());
+                    this.identifierCache.persist();
+                } catch (IOException e) {
+                    logger.warn("Failed to persist the identifier cache. Message: " + e.getMessage());
                 }
+            }
 
-                this.node.getObjectDataReplyHandler().removeResponseCallbackHandler(subExchangeId);
+            logger.info("Completed non-blocking background sync " + exchangeId);
+
+            return BackgroundSyncRun.Outcome.COMPLETED;
+        } catch (Exception e) {
+            logger.error("Got exception in NonBlockingBackgroundSyncer. Message: " + e.getMessage(), e);
 
-                if (! fileDemandExchangeHandler.isCompleted()) {
-                    logger.error("FileDemandExchangeHandler " + subExchangeId + " should be completed after wait.");
+            // the changes of the window are scanned for in the next run
+            if (this.isSyncWindowOpen) {
+                try {
+                    this.closeSyncWindow(- 1L, true);
+                } catch (IOException e1) {
+                    logger.error("Failed to restart the event aggregator. Message: " + e1.getMessage(), e1);
                 }
             }
 
-            // start event aggregator
-            logger.info("Starting event aggregator on client (" + this.node.getPeerAddress().inetAddress().getHostName() + ":" + this.node.getPeerAddress().tcpPort() + "): Non-blocking background sync " + exchangeId);
+            return BackgroundSyncRun.Outcome.FAILED;
+        }
+    }
+
+    /**
+     * Holds back the events of the event aggregator from the listeners of the node.
+     * If no sync window listener is set, the event aggregator is stopped.
+     * Until the window is closed, changed paths have to be found by a scan
+     * in case the node is restarted in the mean time.
+     *
+     * @param since The time in milliseconds at which the window is opened
+     */
+    protected void openSyncWindow(long since) {
+        this.dirtyPaths.requireScanSince(since);
+        this.persistDirtyPaths();
+
+        if (null != this.syncWindowEventListener) {
+            this.syncWindowEventListener.open(this.dirtyPaths);
+        } else {
+            this.eventAggregator.stop();
+        }
+
+        this.isSyncWindowOpen = true;
+    }
+
+    /**
+     * Forwards the events of the event aggregator to the listeners of the node again
+     *
+     * @param since       The time in milliseconds at which the window has been opened
+     * @param requireScan Whether to scan for changed paths although they have been recorded from the events
+     *
+     * @throws IOException If restarting the event aggregator failed
+     */
+    protected void closeSyncWindow(long since, boolean requireScan)
+            throws IOException {
+        this.isSyncWindowOpen = false;
+
+        if (null == this.syncWindowEventListener) {
             this.eventAggregator.start();
+            return;
+        }
 
-            logger.info("Reconciling local disk changes with merged object store (non-blocking background sync " + exchangeId + ")");
-            // create a temporary second object store to get changes made in the mean time of syncing
-            ITreeStorageAdapter objectStoreStorageManager = this.objectStore.getObjectManager().getStorageAdapater();
-            TreePathElement pathElement = new TreePathElement("nonBlockingBackgroundSyncObjectStore");
-            if (objectStoreStorageManager.exists(StorageType.DIRECTORY, pathElement)) {
-                objectStoreStorageManager.delete(pathElement);
+        this.syncWindowEventListener.close();
+
+        // the paths of all changes have been recorded from the events,
+        // full syncs scan for them anyway in case an event got lost
+        if (! requireScan) {
+            this.dirtyPaths.markRecordedSince(since);
+        }
+    }
+
+    /**
+     * Persists the dirty paths, logging failures
+     */
+    protected void persistDirtyPaths() {
+        try {
+            this.dirtyPaths.persist();
+        } catch (IOException e) {
+            logger.warn("Failed to persist the dirty paths. Message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Discards all cached access, since merging may have changed owners and sharers of any path
+     */
+    protected void invalidateAccess() {
+        if (null != this.accessManager) {
+            this.accessManager.invalidateAll();
+        }
+    }
+
+    /**
+     * Discards the cached file ids of the given paths which have been changed by other clients
+     *
+     * @param deletedPaths  The deleted paths, of which also the cached file ids of their contents are discarded
+     * @param updatedPaths  The paths which have been changed
+     * @param conflictPaths The paths for which conflict files are created
+     */
+    protected void invalidateIdentifiers(Set<String> deletedPaths, Set<String> updatedPaths, Set<String> conflictPaths) {
+        if (null == this.identifierCache) {
+            return;
+        }
+
+        deletedPaths.forEach(this.identifierCache::invalidateSubtree);
+        updatedPaths.forEach(this.identifierCache::invalidate);
+        conflictPaths.forEach(this.identifierCache::invalidate);
+    }
+
+    /**
+     * Reconciles the paths which have been changed on disk while the events of the event aggregator
+     * were held back with the merged object store and publishes the changes to the other clients.
+     * <p>
+     * The changed paths are recorded from the held back events. Only if changes may not have been
+     * recorded, the metadata of the paths is read to find the ones modified since then instead of
+     * rehashing the whole synchronised folder. Only the dirty paths are hashed and compared to the
+     * object store. Directories of which entries have changed are checked for deleted and moved-in
+     * paths. Paths which fail to reconcile are kept for the next run.
+     *
+     * @param exchangeId   The id of the background sync
+     * @param changedPaths The set to add the paths to which have been deleted or updated in the object store
+     *
+     * @throws IOException If walking the synchronised folder fails
+     */
+    protected void reconcileDirtyPaths(UUID exchangeId, Set<String> changedPaths)
+            throws IOException {
+        Path rootDir = Paths.get(this.storageAdapter.getRootDir().getPath());
+
+        long scanSince = this.dirtyPaths.getScanSince();
+        if (0 <= scanSince) {
+            logger.debug("Scanning for paths modified since " + scanSince + " (non-blocking background sync " + exchangeId + ")");
+            this.dirtyPaths.addModifiedSince(rootDir, scanSince - TIMESTAMP_TOLERANCE, this.ignoreRules);
+            this.dirtyPaths.markRecordedSince(scanSince);
+        }
+
+        logger.debug("Found " + this.dirtyPaths.size() + " dirty paths to reconcile (non-blocking background sync " + exchangeId + ")");
+
+        // use a tree set for guaranteed ordering
+        Set<String> deletedPathsInTheMeanTime = new TreeSet<>(new StringLengthComparator());
+        Set<String> updatedPathsInTheMeanTime = new TreeSet<>(new StringLengthComparator());
+
+        // find deleted and moved-in paths from their modified parent directories first,
+        // so that the moved-in paths are hashed below as well
+        Set<String> failedDirectories = new HashSet<>();
+        for (String dirtyPath : this.dirtyPaths.getPaths()) {
+            if (Files.isDirectory(rootDir.resolve(dirtyPath))) {
+                try {
+                    this.reconcileDirectoryEntries(rootDir, dirtyPath, deletedPathsInTheMeanTime);
+                } catch (IOException | InputOutputException e) {
+                    logger.error("Failed to reconcile the entries of directory " + dirtyPath + ". Trying again in the next run. Message: " + e.getMessage());
+                    failedDirectories.add(dirtyPath);
+                }
             }
+        }
 
-            objectStoreStorageManager.persist(StorageType.DIRECTORY, pathElement, null);
+        for (String dirtyPath : this.dirtyPaths.getPaths()) {
+            if (failedDirectories.contains(dirtyPath)) {
+                continue;
+            }
+
+            if (DirtyPathSet.ROOT_PATH.equals(dirtyPath)) {
+                this.dirtyPaths.remove(dirtyPath);
+                continue;
+            }
 
-            // create the temporary object store in the .sync folder
-            ITreeStorageAdapter changeObjectStoreStorageManager = new LocalStorageAdapter(Paths.get(objectStoreStorageManager.getRootDir().getPath()).resolve(pathElement.getPath()));
-            IObjectStore changeObjectStore = new ObjectStore(this.storageAdapter, "index.json", "object", changeObjectStoreStorageManager);
+            try {
+                PathObject pathObject = this.getExistingPathObject(dirtyPath);
+                Path absolutePath = rootDir.resolve(dirtyPath);
 
-            // build object store for differences in the mean time
-            List<String> ignoredPaths = new ArrayList<>();
-            Path origSyncFolder = Paths.get(this.objectStore.getObjectManager().getStorageAdapater().getRootDir().getPath()).getFileName();
-            ignoredPaths.add(origSyncFolder.toString());
-            changeObjectStore.sync(ignoredPaths);
+                if (! Files.exists(absolutePath)) {
+                    // removed again in the mean time
+                    if (null != pathObject) {
+                        deletedPathsInTheMeanTime.add(dirtyPath);
+                    }
 
-            // get differences between disk and merged object store
-            HashMap<ObjectStore.MergedObjectType, Set<String>> updatedOrDeletedPaths = this.objectStore.mergeObjectStore(changeObjectStore);
+                    this.dirtyPaths.remove(dirtyPath);
+                    continue;
+                }
 
-            // remove change object store again
-            changeObjectStoreStorageManager.delete(new TreePathElement("./"));
+                // the hash of an existing directory depends on its contents only,
+                // which are reconciled on their own
+                if (Files.isDirectory(absolutePath) && null != pathObject) {
+                    this.dirtyPaths.remove(dirtyPath);
+                    continue;
+                }
 
-            Set<String> deletedPathsInTheMeanTime = updatedOrDeletedPaths.get(ObjectStore.MergedObjectType.DELETED);
-            Set<String> updatedPathsInTheMeanTime = updatedOrDeletedPaths.get(ObjectStore.MergedObjectType.CHANGED);
+                String hash = Hash.hash(org.rmatil.sync.event.aggregator.config.Config.DEFAULT.getHashingAlgorithm(), absolutePath.toFile());
 
-            logger.info("Found " + deletedPathsInTheMeanTime.size() + " paths which have been deleted in the mean time of syncing");
-            for (String deletedPath : deletedPathsInTheMeanTime) {
-                if (this.isIgnored(deletedPath)) {
-                    logger.info("Ignore deletion of " + deletedPath + " since it matches an ignore pattern");
+                if (null == pathObject) {
+                    this.objectStore.onCreateFile(dirtyPath, hash);
+                    updatedPathsInTheMeanTime.add(dirtyPath);
+                } else if (! hash.equals(this.getLastHash(pathObject))) {
+                    this.objectStore.onModifyFile(dirtyPath, hash);
+                    updatedPathsInTheMeanTime.add(dirtyPath);
                 }
 
-                // publish a delete event to the SyncFileChangeListener
-                logger.trace("Creating delete event for " + deletedPath);
-                this.globalEventBus.publish(
-                        new CreateBusEvent(
-                                new DeleteEvent(
-                                        Paths.get(deletedPath),
-                                        Paths.get(deletedPath).getFileName().toString(),
-                                        null,
-                                        System.currentTimeMillis()
-                                )
-                        )
-                );
+                this.dirtyPaths.remove(dirtyPath);
+            } catch (InputOutputException e) {
+                logger.error("Failed to reconcile path " + dirtyPath + ". Trying again in the next run. Message: " + e.getMessage());
             }
+        }
 
-            logger.info("Found " + updatedPathsInTheMeanTime.size() + " paths which have changed in the mean time of syncing");
-            for (String updatedPath : updatedPathsInTheMeanTime) {
-                if (this.isIgnored(updatedPath)) {
-                    logger.info("Ignore updating of " + updatedPath + " since it matches an ignore pattern");
+        changedPaths.addAll(deletedPathsInTheMeanTime);
+        changedPaths.addAll(updatedPathsInTheMeanTime);
+
+        logger.info("Found " + deletedPathsInTheMeanTime.size() + " paths which have been deleted in the mean time of syncing");
+        Set<Path> deletedSubtrees = new HashSet<>();
+        for (String deletedPath : deletedPathsInTheMeanTime) {
+            // parents are ordered before their contents, which are removed along with them.
+            // The other clients delete directories recursively as well
+            if (isInSubtree(Paths.get(deletedPath), deletedSubtrees)) {
+                continue;
+            }
+
+            try {
+                this.removeSubtree(deletedPath);
+            } catch (InputOutputException e) {
+                logger.error("Failed to remove path " + deletedPath + " from the object store. Message: " + e.getMessage());
+            }
+
+            deletedSubtrees.add(Paths.get(deletedPath));
+            this.invalidateAccess(deletedPath);
+
+            // publish a delete event to the SyncFileChangeListener
+            logger.trace("Creating delete event for " + deletedPath);
+            this.globalEventBus.publish(
+                    new CreateBusEvent(
+                            new DeleteEvent(
+                                    Paths.get(deletedPath),
+                                    Paths.get(deletedPath).getFileName().toString(),
+                                    null,
+                                    System.currentTimeMillis()
+                            )
+                    )
+            );
+        }
+
+        logger.info("Found " + updatedPathsInTheMeanTime.size() + " paths which have changed in the mean time of syncing");
+        for (String updatedPath : updatedPathsInTheMeanTime) {
+            this.invalidateAccess(updatedPath);
+
+            // publish modify events to SyncFileChangeListener
+            logger.trace("Creating modify event for " + updatedPath);
+            PathObject updatedPathObject = this.objectStore.getObjectManager().getObjectForPath(updatedPath);
+
+            this.globalEventBus.publish(
+                    new CreateBusEvent(
+                            new ModifyEvent(
+                                    Paths.get(updatedPath),
+                                    Paths.get(updatedPath).getFileName().toString(),
+                                    this.getLastHash(updatedPathObject),
+                                    System.currentTimeMillis()
+                            )
+                    )
+            );
+        }
+    }
+
+    /**
+     * Applies the given paths changed by the background sync to the hash tree,
+     * instead of rebuilding the tree from the whole synchronised folder.
+     * Paths which exist on disk get the hash of their last version,
+     * all others are removed together with their subtree.
+     *
+     * @param changedPaths The relative paths, ordered by their length
+     */
+    protected void updatePathHashTree(Set<String> changedPaths) {
+        if (null == this.pathHashTree) {
+            return;
+        }
+
+        Path rootDir = Paths.get(this.storageAdapter.getRootDir().getPath());
+        for (String changedPath : changedPaths) {
+            if (this.isIgnored(changedPath)) {
+                continue;
+            }
+
+            if (Files.exists(rootDir.resolve(changedPath), LinkOption.NOFOLLOW_LINKS)) {
+                PathObject pathObject = this.getExistingPathObject(changedPath);
+                this.pathHashTree.update(Paths.get(changedPath), null == pathObject ? null : this.getLastHash(pathObject));
+            } else {
+                this.pathHashTree.remove(Paths.get(changedPath));
+            }
+        }
+
+        logger.debug("Updated " + changedPaths.size() + " paths of the path hash tree");
+    }
+
+    /**
+     * Removes the given path and, if it is a directory, all paths below it from the object store.
+     * The paths below are removed deepest first, skipping the ones which are deleted already.
+     *
+     * @param path The relative path which has been deleted
+     *
+     * @throws InputOutputException If reading or writing the object store fails
+     */
+    protected void removeSubtree(String path)
+            throws InputOutputException {
+        List<PathObject> children = new ArrayList<>(this.objectStore.getObjectManager().getChildren(path));
+        children.sort((o1, o2) -> Integer.compare(
+                Paths.get(o2.getAbsolutePath()).getNameCount(),
+                Paths.get(o1.getAbsolutePath()).getNameCount()
+        ));
+
+        for (PathObject child : children) {
+            if (DeleteType.EXISTENT == child.getDeleted().getDeleteType()) {
+                this.objectStore.onRemoveFile(child.getAbsolutePath());
+            }
+        }
+
+        this.objectStore.onRemoveFile(path);
+    }
+
+    /**
+     * Compares the entries of the given directory on disk with its children in the object store.
+     * Children which do not exist on disk anymore are added to the deleted paths,
+     * entries which are not known to the object store are marked as dirty including their contents.
+     *
+     * @param rootDir      The root of the synchronised folder
+     * @param directory    The relative path of the directory
+     * @param deletedPaths The set to add the deleted paths to
+     *
+     * @throws IOException          If listing the directory fails
+     * @throws InputOutputException If reading the object store fails
+     */
+    protected void reconcileDirectoryEntries(Path rootDir, String directory, Set<String> deletedPaths)
+            throws IOException, InputOutputException {
+        for (PathObject child : this.objectStore.getObjectManager().getChildren(directory)) {
+            String childPath = Paths.get(child.getAbsolutePath()).toString();
+
+            if (DeleteType.EXISTENT == child.getDeleted().getDeleteType() &&
+                    ! this.isIgnored(childPath) &&
+                    ! Files.exists(rootDir.resolve(childPath))) {
+                deletedPaths.add(childPath);
+            }
+        }
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(rootDir.resolve(directory))) {
+            for (Path entry : entries) {
+                String entryPath = rootDir.relativize(entry).toString();
+
+                if (this.isIgnored(entryPath) || this.dirtyPaths.contains(entryPath) || null != this.getExistingPathObject(entryPath)) {
+                    continue;
                 }
 
-                // publish modify events to SyncFileChangeListener
-                logger.trace("Creating modify event for " + updatedPath);
-                PathObject updatedPathObject = this.objectStore.getObjectManager().getObjectForPath(updatedPath);
+                // moved in from outside, timestamps of the contents may be older
+                if (Files.isDirectory(entry)) {
+                    this.dirtyPaths.addSubtree(rootDir, entryPath, this.ignoreRules);
+                } else {
+                    this.dirtyPaths.add(entryPath);
+                }
+            }
+        }
+    }
 
-                this.globalEventBus.publish(
-                        new CreateBusEvent(
-                                new ModifyEvent(
-                                        Paths.get(updatedPath),
-                                        Paths.get(updatedPath).getFileName().toString(),
-                                        updatedPathObject.getVersions().get(Math.max(0, updatedPathObject.getVersions().size() - 1)).getHash(),
-                                        System.currentTimeMillis()
-                                )
-                        )
-                );
+    /**
+     * Returns the path object of the given path if it exists in the object store and is not deleted
+     *
+     * @param path The relative path
+     *
+     * @return The path object or null, if the object store does not know the path or it is deleted
+     */
+    protected PathObject getExistingPathObject(String path) {
+        try {
+            PathObject pathObject = this.objectStore.getObjectManager().getObjectForPath(path);
+
+            if (null != pathObject && DeleteType.EXISTENT == pathObject.getDeleted().getDeleteType()) {
+                return pathObject;
             }
+        } catch (InputOutputException e) {
+            logger.trace("Object store does not contain path " + path + ". Message: " + e.getMessage());
+        }
 
-            logger.info("Completed non-blocking background sync " + exchangeId);
+        return null;
+    }
 
-        } catch (Exception e) {
-            logger.error("Got exception in NonBlockingBackgroundSyncer. Message: " + e.getMessage(), e);
+    /**
+     * Returns the hash of the last version of the given path object
+     *
+     * @param pathObject The path object
+     *
+     * @return The hash or null, if the path object has no versions
+     */
+    protected String getLastHash(PathObject pathObject) {
+        if (pathObject.getVersions().isEmpty()) {
+            return null;
         }
+
+        return pathObject.getVersions().get(pathObject.getVersions().size() - 1).getHash();
     }
 
-    private boolean isIgnored(String path) {
-        for (Path entry : this.ignoredPaths) {
-            if (Paths.get(path).startsWith(entry)) {
-                return true;
+    /**
+     * Discards the cached access of the given path
+     *
+     * @param path The relative path
+     */
+    protected void invalidateAccess(String path) {
+        if (null != this.accessManager) {
+            this.accessManager.invalidate(path);
+        }
+    }
+
+    /**
+     * Fetches the given path from the given clients and waits until the file has been received
+     *
+     * @param path           The path to fetch
+     * @param fetchAddresses The locations of the clients having the path
+     * @param subExchangeId  The id of the file demand exchange
+     * @param exchangeId     The id of the background sync
+     */
+    protected void fetchFile(String path, List<NodeLocation> fetchAddresses, UUID subExchangeId, UUID exchangeId) {
+        logger.debug("Starting to fetch file " + path + " with subExchangeId " + subExchangeId + " (non blocking background sync " + exchangeId + ")");
+
+        FileDemandExchangeHandler fileDemandExchangeHandler = new FileDemandExchangeHandler(
+                this.storageAdapter,
+                this.node,
+                this.nodeManager,
+                this.globalEventBus,
+                fetchAddresses,
+                path,
+                subExchangeId
+        );
+
+        this.node.getObjectDataReplyHandler().addResponseCallbackHandler(subExchangeId, fileDemandExchangeHandler);
+
+        Thread fileDemandExchangeHandlerThread = new Thread(fileDemandExchangeHandler);
+        fileDemandExchangeHandlerThread.setName("FileDemandExchangeHandlerThread-" + subExchangeId);
+        fileDemandExchangeHandlerThread.start();
+
+        try {
+            fileDemandExchangeHandler.await();
+        } catch (InterruptedException e) {
+            logger.error("Got interrupted while waiting for fileDemandExchangeHandler " + subExchangeId + " to complete. Message: " + e.getMessage());
+        }
+
+        this.node.getObjectDataReplyHandler().removeResponseCallbackHandler(subExchangeId);
+
+        if (! fileDemandExchangeHandler.isCompleted()) {
+            logger.error("FileDemandExchangeHandler " + subExchangeId + " should be completed after wait.");
+        }
+    }
+
+    /**
+     * Returns the locations of all clients which have the given version of the path,
+     * starting with the client from which the change has been merged.
+     *
+     * @param path          The path to fetch
+     * @param version       The version of the path which should be fetched
+     * @param changedClient The client from which the change has been merged
+     * @param objectStores  The object stores of all clients
+     *
+     * @return The locations of the clients to fetch the path from
+     */
+    protected List<NodeLocation> getFetchAddresses(String path, Version version, ClientDevice changedClient, Map<ClientDevice, IObjectStore> objectStores) {
+        List<NodeLocation> fetchAddresses = new ArrayList<>();
+        fetchAddresses.add(new NodeLocation(
+                changedClient.getUserName(),
+                changedClient.getClientDeviceId(),
+                changedClient.getPeerAddress()
+        ));
+
+        for (Map.Entry<ClientDevice, IObjectStore> entry : objectStores.entrySet()) {
+            if (entry.getKey().getClientDeviceId().equals(changedClient.getClientDeviceId())) {
+                continue;
+            }
+
+            try {
+                PathObject pathObject = entry.getValue().getObjectManager().getObjectForPath(path);
+                List<Version> versions = pathObject.getVersions();
+
+                if (! versions.isEmpty() && versions.get(versions.size() - 1).equals(version)) {
+                    fetchAddresses.add(new NodeLocation(
+                            entry.getKey().getUserName(),
+                            entry.getKey().getClientDeviceId(),
+                            entry.getKey().getPeerAddress()
+                    ));
+                }
+            } catch (InputOutputException e) {
+                // the client does not know the path at all
+                logger.trace("Client " + entry.getKey().getClientDeviceId() + " does not have path " + path + ". Message: " + e.getMessage());
             }
         }
 
-        for (String pattern : this.ignorePatterns) {
-            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
-            if (matcher.matches(Paths.get(path))) {
+        return fetchAddresses;
+    }
+
+    /**
+     * Checks whether any parent of the given path is one of the given paths
+     *
+     * @param path     The relative path
+     * @param subtrees The relative paths of the subtrees
+     *
+     * @return True, if the path is below one of the subtrees
+     */
+    protected static boolean isInSubtree(Path path, Set<Path> subtrees) {
+        Path parent = path.getParent();
+
+        while (null != parent) {
+            if (subtrees.contains(parent)) {
                 return true;
             }
+
+            parent = parent.getParent();
         }
 
         return false;
     }
+
+    private boolean isIgnored(String path) {
+        return this.ignoreRules.isIgnored(path);
+    }
 }
@@ -0,0 +1,75 @@
+package org.rmatil.sync.core.syncer.background;
+
+import org.rmatil.sync.event.aggregator.api.IEventListener;
+import org.rmatil.sync.event.aggregator.core.events.IEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forwards the events of the event aggregator to the listeners of the node,
+ * except while the background syncer merges the object stores.
+ * <p>
+ * While such a sync window is open, events only mark their paths as dirty.
+ * These paths are reconciled with the merged object store after the window
+ * has been closed, so that the synchronised folder does not have to be
+ * scanned for changes made in the mean time.
+ */
+public class SyncWindowEventListener implements IEventListener {
+
+    /**
+     * The listeners to forward the events to
+     */
+    protected final List<IEventListener> listeners;
+
+    /**
+     * The set to record the paths of events to while the sync window is open, null if it is closed
+     */
+    protected DirtyPathSet dirtyPaths;
+
+    /**
+     * @param listeners The listeners to forward the events to while no sync window is open
+     */
+    public SyncWindowEventListener(List<IEventListener> listeners) {
+        this.listeners = new ArrayList<>(listeners);
+        this.dirtyPaths = null;
+    }
+
+    /**
+     * Opens the sync window. Returns once events forwarded
+     * before have been handled by all listeners.
+     *
+     * @param dirtyPaths The set to record the paths of events to
+     */
+    public synchronized void open(DirtyPathSet dirtyPaths) {
+        this.dirtyPaths = dirtyPaths;
+    }
+
+    /**
+     * Closes the sync window, i.e. events are forwarded to the listeners again
+     */
+    public synchronized void close() {
+        this.dirtyPaths = null;
+    }
+
+    /**
+     * Returns whether a sync window is open
+     *
+     * @return True, if events are recorded instead of forwarded
+     */
+    public synchronized boolean isOpen() {
+        return null != this.dirtyPaths;
+    }
+
+    @Override
+    public synchronized void onChange(List<IEvent> events) {
+        if (null != this.dirtyPaths) {
+            this.dirtyPaths.addEvents(events);
+            return;
+        }
+
+        for (IEventListener listener : this.listeners) {
+            listener.onChange(events);
+        }
+    }
+}
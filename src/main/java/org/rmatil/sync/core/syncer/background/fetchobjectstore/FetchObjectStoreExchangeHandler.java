@@ -1,28 +1,52 @@
 package org.rmatil.sync.core.syncer.background.fetchobjectstore;
 
+import org.rmatil.sync.core.NodeLocationCache;
 import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.chunk.ReceivedChunks;
 import org.rmatil.sync.network.api.INode;
 import org.rmatil.sync.network.api.INodeManager;
 import org.rmatil.sync.network.api.IResponse;
 import org.rmatil.sync.network.core.ANetworkHandler;
 import org.rmatil.sync.network.core.model.ClientDevice;
 import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.persistence.api.StorageType;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.persistence.core.tree.TreePathElement;
+import org.rmatil.sync.persistence.core.tree.local.LocalStorageAdapter;
 import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.rmatil.sync.version.api.IObjectStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
 
 /**
  * Fetches all object stores as zip files from all other
  * online clients.
+ * <p>
+ * For each client of which a copy of the object store is
+ * still available from a previous fetch, only the
+ * changes since then are requested.
+ * <p>
+ * Object stores which are sent in multiple chunks are written
+ * to an archive file per client as the chunks arrive. After the first
+ * chunk, further chunks are pulled from each client, keeping at most
+ * {@link FetchObjectStoreExchangeHandler#MAX_CHUNKS_IN_FLIGHT} requested at once.
  */
 public class FetchObjectStoreExchangeHandler extends ANetworkHandler<FetchObjectStoreExchangeHandlerResult> {
 
     private static final Logger logger = LoggerFactory.getLogger(FetchObjectStoreExchangeHandler.class);
 
+    /**
+     * The maximum number of chunks requested from a single client at once
+     */
+    public static final int MAX_CHUNKS_IN_FLIGHT = 4;
+
     /**
      * The client manager to get all client locations from
      */
@@ -33,21 +57,103 @@ public class FetchObjectStoreExchangeHandler extends ANetworkHandler<FetchObject
      */
     protected UUID exchangeId;
 
+    /**
+     * The object store in whose folder the copies of the other object stores are kept.
+     * May be null to always fetch the complete object stores
+     */
+    protected IObjectStore objectStore;
+
+    /**
+     * The root hash of our synchronised folder, may be null
+     */
+    protected String rootHash;
+
+    /**
+     * Bucket hashes of the copies which are already known
+     * and do not have to be computed again, may be null
+     */
+    protected Map<UUID, Map<Integer, String>> knownBucketHashes;
+
     /**
      * A list of fetched object stores
      */
     protected List<FetchObjectStoreResponse> responses;
 
+    /**
+     * The archives to which the chunks of the object stores are written, keyed by the client device id
+     */
+    protected Map<UUID, Path> archives;
+
+    /**
+     * The received chunks of the object stores, keyed by the client device id
+     */
+    protected Map<UUID, ReceivedChunks> receivedChunks;
+
+    /**
+     * Clients whose object store could not have been received completely
+     */
+    protected Set<UUID> failedClients;
+
+    /**
+     * The next chunk to request of the object stores, keyed by the client device id
+     */
+    protected Map<UUID, Long> nextChunksToPull;
+
+    /**
+     * The cache of the client locations of users
+     */
+    protected NodeLocationCache nodeLocationCache;
+
     /**
      * @param client        The client to use for sending messages
      * @param nodeManager The client manager to get all other client locations
      * @param exchangeId    The exchange id used for this exchange
      */
     public FetchObjectStoreExchangeHandler(INode client, INodeManager nodeManager, UUID exchangeId) {
+        this(client, nodeManager, null, exchangeId);
+    }
+
+    /**
+     * @param client      The client to use for sending messages
+     * @param nodeManager The client manager to get all other client locations
+     * @param objectStore The object store in whose folder the copies of the other object stores are kept
+     * @param exchangeId  The exchange id used for this exchange
+     */
+    public FetchObjectStoreExchangeHandler(INode client, INodeManager nodeManager, IObjectStore objectStore, UUID exchangeId) {
+        this(client, nodeManager, objectStore, null, null, exchangeId);
+    }
+
+    /**
+     * @param client            The client to use for sending messages
+     * @param nodeManager       The client manager to get all other client locations
+     * @param objectStore       The object store in whose folder the copies of the other object stores are kept
+     * @param rootHash          The root hash of our synchronised folder. Clients having the same do not send their object store
+     * @param knownBucketHashes Already computed bucket hashes of the copies, keyed by client device id. May be null
+     * @param exchangeId        The exchange id used for this exchange
+     */
+    public FetchObjectStoreExchangeHandler(INode client, INodeManager nodeManager, IObjectStore objectStore, String rootHash, Map<UUID, Map<Integer, String>> knownBucketHashes, UUID exchangeId) {
         super(client);
         this.nodeManager = nodeManager;
+        this.objectStore = objectStore;
+        this.rootHash = rootHash;
+        this.knownBucketHashes = knownBucketHashes;
         this.exchangeId = exchangeId;
         this.responses = new ArrayList<>();
+        this.archives = new HashMap<>();
+        this.receivedChunks = new HashMap<>();
+        this.failedClients = new HashSet<>();
+        this.nextChunksToPull = new HashMap<>();
+
+        this.nodeLocationCache = new NodeLocationCache(nodeManager, 0L);
+    }
+
+    /**
+     * Set the cache of the client locations of the node to use instead of fetching each lookup from the node manager
+     *
+     * @param nodeLocationCache The node location cache
+     */
+    public void setNodeLocationCache(NodeLocationCache nodeLocationCache) {
+        this.nodeLocationCache = nodeLocationCache;
     }
 
     @Override
@@ -55,7 +161,7 @@ public class FetchObjectStoreExchangeHandler extends ANetworkHandler<FetchObject
         try {
             List<NodeLocation> clientLocations;
             try {
-                clientLocations = this.nodeManager.getNodeLocations(super.node.getUser().getUserName());
+                clientLocations = this.nodeLocationCache.getNodeLocations(super.node.getUser().getUserName());
             } catch (InputOutputException e) {
                 logger.error("Could not fetch client locations from user " + super.node.getUser().getUserName() + ". Message: " + e.getMessage());
                 return;
@@ -65,16 +171,68 @@ public class FetchObjectStoreExchangeHandler extends ANetworkHandler<FetchObject
                     this.exchangeId,
                     StatusCode.NONE,
                     new ClientDevice(super.node.getUser().getUserName(), super.node.getClientDeviceId(), super.node.getPeerAddress()),
-                    clientLocations
+                    clientLocations,
+                    this.getKnownBucketHashes(clientLocations),
+                    this.rootHash
             );
 
-            super.sendRequest(syncObjectStoreRequest);
+            try {
+                super.sendRequest(syncObjectStoreRequest);
+            } catch (RuntimeException e) {
+                // a receiver may have changed its location since it was cached
+                this.nodeLocationCache.invalidate(syncObjectStoreRequest.getReceiverAddresses());
+                throw e;
+            }
 
         } catch (Exception e) {
             logger.error("Got exception in ObjectStoreSyncer. Message: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Computes the bucket hashes of the copies of the object stores
+     * of the given clients which are kept from a previous fetch
+     *
+     * @param clientLocations The clients to which the request is sent
+     *
+     * @return The bucket hashes keyed by the client device id
+     */
+    protected Map<UUID, Map<Integer, String>> getKnownBucketHashes(List<NodeLocation> clientLocations) {
+        Map<UUID, Map<Integer, String>> knownBucketHashes = new HashMap<>();
+
+        if (null == this.objectStore) {
+            return knownBucketHashes;
+        }
+
+        ITreeStorageAdapter objectStoreStorageAdapter = this.objectStore.getObjectManager().getStorageAdapater();
+        for (NodeLocation location : clientLocations) {
+            if (null != this.knownBucketHashes && this.knownBucketHashes.containsKey(location.getClientDeviceId())) {
+                knownBucketHashes.put(location.getClientDeviceId(), this.knownBucketHashes.get(location.getClientDeviceId()));
+                continue;
+            }
+
+            // copies are located in .sync/<ClientDevice>/.sync
+            TreePathElement copyElement = new TreePathElement(Paths.get(location.getClientDeviceId().toString()).resolve(".sync").toString());
+
+            try {
+                if (! objectStoreStorageAdapter.exists(StorageType.DIRECTORY, copyElement)) {
+                    continue;
+                }
+
+                ITreeStorageAdapter copyStorageAdapter = new LocalStorageAdapter(
+                        Paths.get(objectStoreStorageAdapter.getRootDir().getPath()).resolve(copyElement.getPath())
+                );
+
+                knownBucketHashes.put(location.getClientDeviceId(), new ObjectStoreManifest(copyStorageAdapter).getBucketHashes());
+            } catch (InputOutputException e) {
+                // the other client will send its complete object store
+                logger.warn("Could not read the copy of the object store of client " + location.getClientDeviceId() + " for exchange " + this.exchangeId + ". Message: " + e.getMessage());
+            }
+        }
+
+        return knownBucketHashes;
+    }
+
     @Override
     public void onResponse(IResponse response) {
         if (! (response instanceof FetchObjectStoreResponse)) {
@@ -82,12 +240,159 @@ public class FetchObjectStoreExchangeHandler extends ANetworkHandler<FetchObject
             return;
         }
 
-        this.responses.add((FetchObjectStoreResponse) response);
-        super.onResponse(response);
+        FetchObjectStoreResponse fetchObjectStoreResponse = (FetchObjectStoreResponse) response;
+        UUID clientDeviceId = fetchObjectStoreResponse.getClientDevice().getClientDeviceId();
+
+        if (StatusCode.ERROR.equals(fetchObjectStoreResponse.getStatusCode())) {
+            logger.error("Client " + clientDeviceId + " failed to send a chunk of its object store in exchange " + this.exchangeId);
+
+            synchronized (this.responses) {
+                if (this.failedClients.add(clientDeviceId)) {
+                    // do not wait for the remaining chunks of this client
+                    super.onResponse(response);
+                }
+            }
+            return;
+        }
+
+        if (1 >= fetchObjectStoreResponse.getTotalNrOfChunks()) {
+            synchronized (this.responses) {
+                this.responses.add(fetchObjectStoreResponse);
+            }
+
+            super.onResponse(response);
+            return;
+        }
+
+        // write the chunk to the archive of the client
+        Path archive;
+        ReceivedChunks chunks;
+        synchronized (this.responses) {
+            if (this.failedClients.contains(clientDeviceId)) {
+                return;
+            }
+
+            chunks = this.receivedChunks.computeIfAbsent(clientDeviceId, id -> new ReceivedChunks());
+            archive = this.archives.get(clientDeviceId);
+
+            if (null == archive) {
+                try {
+                    archive = Files.createTempFile("objectStore-" + clientDeviceId, ".zip");
+                    this.archives.put(clientDeviceId, archive);
+                } catch (IOException e) {
+                    logger.error("Could not create archive for the object store of client " + clientDeviceId + " in exchange " + this.exchangeId + ". Message: " + e.getMessage());
+                    this.failedClients.add(clientDeviceId);
+                    super.onResponse(response);
+                    return;
+                }
+            }
+        }
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(archive.toFile(), "rw")) {
+            randomAccessFile.seek(fetchObjectStoreResponse.getChunkCounter() * fetchObjectStoreResponse.getChunkSize());
+            randomAccessFile.write(fetchObjectStoreResponse.getObjectStore());
+        } catch (IOException e) {
+            logger.error("Could not write chunk " + fetchObjectStoreResponse.getChunkCounter() + " of the object store of client " + clientDeviceId + " in exchange " + this.exchangeId + ". Message: " + e.getMessage());
+
+            synchronized (this.responses) {
+                if (this.failedClients.add(clientDeviceId)) {
+                    // do not wait for the remaining chunks of this client
+                    super.onResponse(response);
+                }
+            }
+            return;
+        }
+
+        this.pullChunks(fetchObjectStoreResponse);
+
+        if (chunks.markReceived(fetchObjectStoreResponse.getChunkCounter(), fetchObjectStoreResponse.getTotalNrOfChunks())) {
+            logger.debug("Received all " + fetchObjectStoreResponse.getTotalNrOfChunks() + " chunks of the object store of client " + clientDeviceId + " in exchange " + this.exchangeId);
+
+            synchronized (this.responses) {
+                if (this.failedClients.contains(clientDeviceId)) {
+                    return;
+                }
+
+                this.responses.add(fetchObjectStoreResponse);
+            }
+
+            super.onResponse(response);
+        }
+    }
+
+    /**
+     * Requests further chunks of the object store of the client which sent the given chunk.
+     * The first chunk opens the window, each further chunk is replaced by the next one.
+     * If a request can not be sent, the client is marked as failed.
+     *
+     * @param response The received chunk
+     */
+    protected void pullChunks(FetchObjectStoreResponse response) {
+        UUID clientDeviceId = response.getClientDevice().getClientDeviceId();
+        long totalNrOfChunks = response.getTotalNrOfChunks();
+
+        long firstChunk;
+        long endChunk;
+        synchronized (this.responses) {
+            if (this.failedClients.contains(clientDeviceId)) {
+                return;
+            }
+
+            firstChunk = this.nextChunksToPull.getOrDefault(clientDeviceId, 1L);
+            endChunk = Math.min(totalNrOfChunks, (0 == response.getChunkCounter()) ? 1L + MAX_CHUNKS_IN_FLIGHT : firstChunk + 1);
+            this.nextChunksToPull.put(clientDeviceId, Math.max(firstChunk, endChunk));
+        }
+
+        NodeLocation location = new NodeLocation(
+                response.getClientDevice().getUserName(),
+                clientDeviceId,
+                response.getClientDevice().getPeerAddress()
+        );
+
+        for (long chunkCounter = firstChunk; chunkCounter < endChunk; chunkCounter++) {
+            // sent directly, since sending a request resets the latch of this exchange
+            try {
+                super.node.sendDirect(location, new FetchObjectStoreRequest(
+                        this.exchangeId,
+                        StatusCode.NONE,
+                        new ClientDevice(super.node.getUser().getUserName(), super.node.getClientDeviceId(), super.node.getPeerAddress()),
+                        Collections.singletonList(location),
+                        null,
+                        null,
+                        chunkCounter
+                ));
+            } catch (RuntimeException e) {
+                logger.error("Could not request chunk " + chunkCounter + " of the object store of client " + clientDeviceId + " in exchange " + this.exchangeId + ". Message: " + e.getMessage());
+
+                // the client may have changed its location since it was cached
+                this.nodeLocationCache.invalidate(location);
+
+                synchronized (this.responses) {
+                    if (this.failedClients.add(clientDeviceId)) {
+                        // do not wait for the remaining chunks of this client
+                        super.onResponse(response);
+                    }
+                }
+                return;
+            }
+        }
     }
 
     @Override
     public FetchObjectStoreExchangeHandlerResult getResult() {
-        return new FetchObjectStoreExchangeHandlerResult(this.responses);
+        // archives of failed clients are incomplete
+        for (UUID failedClient : this.failedClients) {
+            Path archive = this.archives.remove(failedClient);
+
+            if (null != archive) {
+                try {
+                    Files.deleteIfExists(archive);
+                } catch (IOException e) {
+                    logger.warn("Could not remove archive " + archive + " of exchange " + this.exchangeId + ". Message: " + e.getMessage());
+                }
+            }
+        }
+
+        return new FetchObjectStoreExchangeHandlerResult(this.responses, this.archives);
     }
 }
@@ -1,23 +1,50 @@
 package org.rmatil.sync.core.syncer.background.fetchobjectstore;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * The result of the {@link FetchObjectStoreExchangeHandler}.
  * Contains all fetched object stores of all other clients.
+ * Object stores which have been received in multiple chunks
+ * are stored in archive files instead of being held in memory.
  */
 public class FetchObjectStoreExchangeHandlerResult {
 
+    private static final Logger logger = LoggerFactory.getLogger(FetchObjectStoreExchangeHandlerResult.class);
+
     /**
      * All fetched object stores
      */
     protected List<FetchObjectStoreResponse> responses;
 
+    /**
+     * The zip archives of the object stores received in chunks, keyed by the client device id
+     */
+    protected Map<UUID, Path> archives;
+
     /**
      * @param responses All fetched object stores
      */
     public FetchObjectStoreExchangeHandlerResult(List<FetchObjectStoreResponse> responses) {
+        this(responses, new HashMap<>());
+    }
+
+    /**
+     * @param responses All fetched object stores
+     * @param archives  The zip archives of the object stores received in chunks, keyed by the client device id
+     */
+    public FetchObjectStoreExchangeHandlerResult(List<FetchObjectStoreResponse> responses, Map<UUID, Path> archives) {
         this.responses = responses;
+        this.archives = archives;
     }
 
     /**
@@ -28,4 +55,30 @@ public class FetchObjectStoreExchangeHandlerResult {
     public List<FetchObjectStoreResponse> getResponses() {
         return responses;
     }
+
+    /**
+     * Returns the zip archive of the object store of the given client
+     *
+     * @param clientDeviceId The client device id
+     *
+     * @return The path to the archive or null, if the object store is contained in the response itself
+     */
+    public Path getArchive(UUID clientDeviceId) {
+        return this.archives.get(clientDeviceId);
+    }
+
+    /**
+     * Removes all archive files
+     */
+    public void deleteArchives() {
+        for (Path archive : this.archives.values()) {
+            try {
+                Files.deleteIfExists(archive);
+            } catch (IOException e) {
+                logger.warn("Could not remove archive " + archive + ". Message: " + e.getMessage());
+            }
+        }
+
+        this.archives.clear();
+    }
 }
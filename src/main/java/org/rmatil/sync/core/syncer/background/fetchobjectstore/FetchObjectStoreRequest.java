@@ -6,16 +6,49 @@ import org.rmatil.sync.network.core.model.ClientDevice;
 import org.rmatil.sync.network.core.model.NodeLocation;
 
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
  * A fetch object store which causes the receiving client
- * to respond with the zipped object store
+ * to respond with the zipped object store.
+ * <p>
+ * If the requesting client still has a copy of the receiver's
+ * object store from a previous fetch, it sends the bucket hashes
+ * of this copy along, so that the receiver only has to respond with
+ * the parts of its object store which have changed since.
+ * <p>
+ * Additionally, the root hash of the requesting client's synchronised
+ * folder is sent. If it matches the one of the receiver, both clients are
+ * in sync and the receiver does not send its object store at all.
+ * <p>
+ * Object stores larger than a single chunk are pulled by the requesting client:
+ * the receiver only responds with the first chunk, further chunks are requested
+ * one by one by sending this request again with their chunk counter.
+ *
+ * @see ObjectStoreManifest
  */
 public class FetchObjectStoreRequest extends ARequest {
 
     private static final long serialVersionUID = 6437564252296694001L;
 
+    /**
+     * The bucket hashes of the copies of the receivers' object stores
+     * known by the requesting client, keyed by the client device id of the receiver
+     */
+    protected Map<UUID, Map<Integer, String>> knownBucketHashes;
+
+    /**
+     * The root hash of the {@link org.rmatil.sync.core.init.objecstore.PathHashTree}
+     * of the requesting client or null, if the complete object store is requested in any case
+     */
+    protected String rootHash;
+
+    /**
+     * The chunk of the zipped object store which is requested or -1, if the object store has to be zipped first
+     */
+    protected long chunkCounter;
+
     /**
      * @param exchangeId        The id of the exchange to which this request belongs
      * @param statusCode        The status code of the request
@@ -23,6 +56,79 @@ public class FetchObjectStoreRequest extends ARequest {
      * @param receiverAddresses All client locations which should receive this requeust
      */
     public FetchObjectStoreRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, List<NodeLocation> receiverAddresses) {
+        this(exchangeId, statusCode, clientDevice, receiverAddresses, null);
+    }
+
+    /**
+     * @param exchangeId        The id of the exchange to which this request belongs
+     * @param statusCode        The status code of the request
+     * @param clientDevice      The client device which sends this request
+     * @param receiverAddresses All client locations which should receive this requeust
+     * @param knownBucketHashes The bucket hashes of the known copies of the receivers' object stores, keyed by client device id. May be null
+     */
+    public FetchObjectStoreRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, List<NodeLocation> receiverAddresses, Map<UUID, Map<Integer, String>> knownBucketHashes) {
+        this(exchangeId, statusCode, clientDevice, receiverAddresses, knownBucketHashes, null);
+    }
+
+    /**
+     * @param exchangeId        The id of the exchange to which this request belongs
+     * @param statusCode        The status code of the request
+     * @param clientDevice      The client device which sends this request
+     * @param receiverAddresses All client locations which should receive this requeust
+     * @param knownBucketHashes The bucket hashes of the known copies of the receivers' object stores, keyed by client device id. May be null
+     * @param rootHash          The root hash of the requesting client's synchronised folder. May be null
+     */
+    public FetchObjectStoreRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, List<NodeLocation> receiverAddresses, Map<UUID, Map<Integer, String>> knownBucketHashes, String rootHash) {
+        this(exchangeId, statusCode, clientDevice, receiverAddresses, knownBucketHashes, rootHash, - 1);
+    }
+
+    /**
+     * @param exchangeId        The id of the exchange to which this request belongs
+     * @param statusCode        The status code of the request
+     * @param clientDevice      The client device which sends this request
+     * @param receiverAddresses All client locations which should receive this requeust
+     * @param knownBucketHashes The bucket hashes of the known copies of the receivers' object stores, keyed by client device id. May be null
+     * @param rootHash          The root hash of the requesting client's synchronised folder. May be null
+     * @param chunkCounter      The chunk of the already zipped object store to send or -1, to zip the object store and send its first chunk
+     */
+    public FetchObjectStoreRequest(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, List<NodeLocation> receiverAddresses, Map<UUID, Map<Integer, String>> knownBucketHashes, String rootHash, long chunkCounter) {
         super(exchangeId, statusCode, clientDevice, receiverAddresses);
+        this.knownBucketHashes = knownBucketHashes;
+        this.rootHash = rootHash;
+        this.chunkCounter = chunkCounter;
+    }
+
+    /**
+     * Returns the bucket hashes of the copy of the given client's object store
+     * known by the requesting client
+     *
+     * @param clientDeviceId The client device id of the receiver
+     *
+     * @return The bucket hashes or null, if the requesting client does not have a copy
+     */
+    public Map<Integer, String> getKnownBucketHashes(UUID clientDeviceId) {
+        if (null == this.knownBucketHashes) {
+            return null;
+        }
+
+        return this.knownBucketHashes.get(clientDeviceId);
+    }
+
+    /**
+     * Returns the root hash of the requesting client's synchronised folder
+     *
+     * @return The root hash or null, if the object store is requested in any case
+     */
+    public String getRootHash() {
+        return rootHash;
+    }
+
+    /**
+     * Returns the chunk of the already zipped object store which is requested
+     *
+     * @return The chunk counter or -1, if the object store has to be zipped first
+     */
+    public long getChunkCounter() {
+        return chunkCounter;
     }
 }
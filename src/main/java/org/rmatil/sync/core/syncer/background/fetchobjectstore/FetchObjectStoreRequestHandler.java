@@ -3,11 +3,14 @@ package org.rmatil.sync.core.syncer.background.fetchobjectstore;
 import net.engio.mbassy.bus.MBassador;
 import org.rmatil.sync.core.Zip;
 import org.rmatil.sync.core.eventbus.IBusEvent;
-import org.rmatil.sync.core.init.client.ILocalStateRequestCallback;
+import org.rmatil.sync.core.init.client.IPathHashTreeRequestCallback;
+import org.rmatil.sync.core.init.objecstore.PathHashTree;
 import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.chunk.ReceivedChunks;
 import org.rmatil.sync.core.security.IAccessManager;
 import org.rmatil.sync.network.api.INode;
 import org.rmatil.sync.network.api.IRequest;
+import org.rmatil.sync.network.core.ANetworkHandler;
 import org.rmatil.sync.network.core.model.ClientDevice;
 import org.rmatil.sync.network.core.model.NodeLocation;
 import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
@@ -15,10 +18,43 @@ import org.rmatil.sync.version.api.IObjectStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class FetchObjectStoreRequestHandler implements ILocalStateRequestCallback {
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Responds with the zipped object store. If the requesting client
+ * already knows a copy of our object store, only the buckets which
+ * differ from this copy are sent. If both clients have the same
+ * root hash of their synchronised folder, nothing is sent.
+ * <p>
+ * Only the first chunk of the zip file is sent on its own. The zip file is kept
+ * until the requesting client has pulled all further chunks one by one, so that
+ * it is never flooded with more chunks than it has asked for.
+ *
+ * @see ObjectStoreManifest
+ */
+public class FetchObjectStoreRequestHandler implements IPathHashTreeRequestCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(FetchObjectStoreRequestHandler.class);
 
+    /**
+     * The size of the chunks in which the zipped object store is sent
+     */
+    public static final int CHUNK_SIZE = 1024 * 1024; // 1MB
+
+    /**
+     * The zip files of which the requesting clients still have to pull chunks.
+     * Since a new handler is created for each request, this has to be shared among them
+     */
+    protected static final Map<String, PreparedArchive> preparedArchives = new ConcurrentHashMap<>();
+
     /**
      * The storage adapter to access the synced folder
      */
@@ -49,6 +85,11 @@ public class FetchObjectStoreRequestHandler implements ILocalStateRequestCallbac
      */
     protected IAccessManager accessManager;
 
+    /**
+     * The hash tree of the synchronised folder, may be null
+     */
+    protected PathHashTree pathHashTree;
+
     @Override
     public void setStorageAdapter(ITreeStorageAdapter storageAdapter) {
         this.storageAdapter = storageAdapter;
@@ -74,6 +115,11 @@ public class FetchObjectStoreRequestHandler implements ILocalStateRequestCallbac
         this.accessManager = accessManager;
     }
 
+    @Override
+    public void setPathHashTree(PathHashTree pathHashTree) {
+        this.pathHashTree = pathHashTree;
+    }
+
     @Override
     public void setRequest(IRequest iRequest) {
         if (! (iRequest instanceof FetchObjectStoreRequest)) {
@@ -85,32 +131,229 @@ public class FetchObjectStoreRequestHandler implements ILocalStateRequestCallbac
 
     @Override
     public void run() {
+        Path archive = null;
         try {
-            // zip object store
-            byte[] zipFile = Zip.zipObjectStore(this.objectStore);
-
             NodeLocation receiver = new NodeLocation(
                     this.request.getClientDevice().getUserName(),
                     this.request.getClientDevice().getClientDeviceId(),
                     this.request.getClientDevice().getPeerAddress()
             );
 
-            // send zip
-            FetchObjectStoreResponse syncObjectStoreResponse = new FetchObjectStoreResponse(
-                    this.request.getExchangeId(),
-                    StatusCode.ACCEPTED,
-                    new ClientDevice(this.node.getUser().getUserName(), this.node.getClientDeviceId(), this.node.getPeerAddress()),
-                    receiver,
-                    zipFile
-            );
+            if (0 <= this.request.getChunkCounter()) {
+                // the requesting client pulls the next chunk of the zip file
+                this.sendPreparedChunk(receiver, this.request.getChunkCounter());
+                return;
+            }
+
+            this.removeStalePreparedArchives(System.currentTimeMillis());
+
+            Map<Integer, String> knownBucketHashes = this.request.getKnownBucketHashes(this.node.getClientDeviceId());
+            String rootHash = null == this.pathHashTree ? null : this.pathHashTree.getRootHash();
+
+            if (null != rootHash && rootHash.equals(this.request.getRootHash())) {
+                // both clients have the same state on disk
+                logger.debug("Root hashes match. Not sending the object store for exchange " + this.request.getExchangeId());
+                this.sendChunk(receiver, null, false, null, rootHash, 0, 1);
+                return;
+            }
 
+            // the zip file is written to disk to not hold the whole object store in memory
+            archive = Files.createTempFile("objectStore-" + this.request.getExchangeId(), ".zip");
+
+            boolean isDelta = false;
+            Set<Integer> staleBuckets = null;
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(archive))) {
+                if (null == knownBucketHashes) {
+                    // zip object store
+                    Zip.zipObjectStore(this.objectStore, outputStream);
+                } else {
+                    // zip only the files which differ from the copy of the other client
+                    ObjectStoreManifest manifest = new ObjectStoreManifest(this.objectStore.getObjectManager().getStorageAdapater());
+                    staleBuckets = manifest.getStaleBuckets(knownBucketHashes);
+                    Zip.zipObjectStore(this.objectStore, manifest.getPaths(staleBuckets), outputStream);
+                    isDelta = true;
+
+                    logger.debug("Sending " + staleBuckets.size() + " of " + ObjectStoreManifest.NUMBER_OF_BUCKETS + " buckets of the object store for exchange " + this.request.getExchangeId());
+                }
+            }
+
+            PreparedArchive preparedArchive = new PreparedArchive(archive, isDelta, staleBuckets, rootHash, Files.size(archive));
+
+            logger.debug("Sending object store of " + preparedArchive.totalFileSize + " bytes in " + preparedArchive.totalNrOfChunks + " chunks for exchange " + this.request.getExchangeId());
+
+            if (1L < preparedArchive.totalNrOfChunks) {
+                // keep the zip file until all chunks are pulled
+                preparedArchives.put(this.getPreparedArchiveKey(), preparedArchive);
+                archive = null;
+            }
+
+            this.sendChunk(receiver, preparedArchive, 0);
+            preparedArchive.sentChunks.markReceived(0, preparedArchive.totalNrOfChunks);
+
+        } catch (Exception e) {
+            logger.error("Got exception in FetchObjectStoreRequestHandler. Message: " + e.getMessage(), e);
+        } finally {
+            if (null != archive) {
+                try {
+                    Files.deleteIfExists(archive);
+                } catch (IOException e) {
+                    logger.warn("Could not remove archive " + archive + " of exchange " + this.request.getExchangeId() + ". Message: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the requested chunk of the zip file prepared for the exchange
+     * of the request. Removes the zip file once all chunks have been sent.
+     *
+     * @param receiver     The requesting client
+     * @param chunkCounter The requested chunk
+     *
+     * @throws IOException If reading the chunk failed
+     */
+    protected void sendPreparedChunk(NodeLocation receiver, long chunkCounter)
+            throws IOException {
+        PreparedArchive preparedArchive = preparedArchives.get(this.getPreparedArchiveKey());
+
+        if (null == preparedArchive || chunkCounter >= preparedArchive.totalNrOfChunks) {
+            logger.warn("No chunk " + chunkCounter + " of the object store prepared for exchange " + this.request.getExchangeId());
             this.node.sendDirect(
                     receiver,
-                    syncObjectStoreResponse
+                    new FetchObjectStoreResponse(
+                            this.request.getExchangeId(),
+                            StatusCode.ERROR,
+                            new ClientDevice(this.node.getUser().getUserName(), this.node.getClientDeviceId(), this.node.getPeerAddress()),
+                            receiver,
+                            null
+                    )
             );
+            return;
+        }
 
-        } catch (Exception e) {
-            logger.error("Got exception in FetchObjectStoreRequestHandler. Message: " + e.getMessage(), e);
+        this.sendChunk(receiver, preparedArchive, chunkCounter);
+
+        if (preparedArchive.sentChunks.markReceived(chunkCounter, preparedArchive.totalNrOfChunks)) {
+            logger.debug("Sent all " + preparedArchive.totalNrOfChunks + " chunks of the object store for exchange " + this.request.getExchangeId());
+            preparedArchives.remove(this.getPreparedArchiveKey(), preparedArchive);
+            Files.deleteIfExists(preparedArchive.archive);
+        }
+    }
+
+    /**
+     * Removes zip files of which the requesting clients did not pull any chunk
+     * within {@link ANetworkHandler#MAX_WAITING_TIME}
+     *
+     * @param now The current time in milliseconds
+     */
+    protected void removeStalePreparedArchives(long now) {
+        for (Map.Entry<String, PreparedArchive> entry : preparedArchives.entrySet()) {
+            if (now - entry.getValue().sentChunks.getLastModified() > ANetworkHandler.MAX_WAITING_TIME &&
+                    preparedArchives.remove(entry.getKey(), entry.getValue())) {
+                logger.info("Removing stale archive " + entry.getValue().archive);
+
+                try {
+                    Files.deleteIfExists(entry.getValue().archive);
+                } catch (IOException e) {
+                    logger.warn("Could not remove archive " + entry.getValue().archive + ". Message: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the key of the zip file prepared for the exchange of the request.
+     * Contains our client device id since multiple clients may run in the same JVM
+     *
+     * @return The key in {@link FetchObjectStoreRequestHandler#preparedArchives}
+     */
+    protected String getPreparedArchiveKey() {
+        return this.request.getExchangeId() + "-" + this.node.getClientDeviceId();
+    }
+
+    /**
+     * Reads the given chunk of the prepared zip file and sends it to the requesting client
+     *
+     * @param receiver        The requesting client
+     * @param preparedArchive The zip file
+     * @param chunkCounter    The number of the chunk
+     *
+     * @throws IOException If reading the chunk failed
+     */
+    protected void sendChunk(NodeLocation receiver, PreparedArchive preparedArchive, long chunkCounter)
+            throws IOException {
+        byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, preparedArchive.totalFileSize - chunkCounter * CHUNK_SIZE)];
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(preparedArchive.archive.toFile(), "r")) {
+            randomAccessFile.seek(chunkCounter * CHUNK_SIZE);
+            randomAccessFile.readFully(chunk);
+        }
+
+        this.sendChunk(receiver, chunk, preparedArchive.isDelta, preparedArchive.staleBuckets, preparedArchive.rootHash, chunkCounter, preparedArchive.totalNrOfChunks);
+    }
+
+    /**
+     * Sends a single chunk of the zipped object store to the requesting client
+     *
+     * @param receiver        The requesting client
+     * @param chunk           The chunk of the zip file, null if the object store is not sent
+     * @param isDelta         Whether the zip file only contains the stale buckets
+     * @param staleBuckets    The buckets contained in a delta
+     * @param rootHash        Our root hash
+     * @param chunkCounter    The number of the chunk
+     * @param totalNrOfChunks The total number of chunks
+     */
+    protected void sendChunk(NodeLocation receiver, byte[] chunk, boolean isDelta, Set<Integer> staleBuckets, String rootHash, long chunkCounter, long totalNrOfChunks) {
+        FetchObjectStoreResponse syncObjectStoreResponse = new FetchObjectStoreResponse(
+                this.request.getExchangeId(),
+                StatusCode.ACCEPTED,
+                new ClientDevice(this.node.getUser().getUserName(), this.node.getClientDeviceId(), this.node.getPeerAddress()),
+                receiver,
+                chunk,
+                isDelta,
+                staleBuckets,
+                rootHash,
+                chunkCounter,
+                totalNrOfChunks,
+                CHUNK_SIZE
+        );
+
+        this.node.sendDirect(
+                receiver,
+                syncObjectStoreResponse
+        );
+    }
+
+    /**
+     * A zip file of the object store of which the requesting client still has to pull chunks
+     */
+    protected static class PreparedArchive {
+
+        protected final Path archive;
+
+        protected final boolean isDelta;
+
+        protected final Set<Integer> staleBuckets;
+
+        protected final String rootHash;
+
+        protected final long totalFileSize;
+
+        protected final long totalNrOfChunks;
+
+        /**
+         * The chunks which have been sent to the requesting client
+         */
+        protected final ReceivedChunks sentChunks;
+
+        protected PreparedArchive(Path archive, boolean isDelta, Set<Integer> staleBuckets, String rootHash, long totalFileSize) {
+            this.archive = archive;
+            this.isDelta = isDelta;
+            this.staleBuckets = staleBuckets;
+            this.rootHash = rootHash;
+            this.totalFileSize = totalFileSize;
+            this.totalNrOfChunks = Math.max(1L, (long) Math.ceil(totalFileSize / (double) CHUNK_SIZE));
+            this.sentChunks = new ReceivedChunks();
         }
     }
 }
@@ -5,11 +5,19 @@ import org.rmatil.sync.core.messaging.base.AResponse;
 import org.rmatil.sync.network.core.model.ClientDevice;
 import org.rmatil.sync.network.core.model.NodeLocation;
 
+import java.util.Set;
 import java.util.UUID;
 
 /**
  * A response to the corresponding {@link FetchObjectStoreRequest}.
  * Contains the zipped object store.
+ * <p>
+ * If the response is a delta, the zip file only contains the files
+ * of the stale buckets. The requesting client has to replace
+ * all files of these buckets in its copy of the object store.
+ * <p>
+ * Large zip files are sent in multiple responses, each containing
+ * a single chunk of the zip file.
  */
 public class FetchObjectStoreResponse extends AResponse {
 
@@ -20,6 +28,36 @@ public class FetchObjectStoreResponse extends AResponse {
      */
     protected byte[] objectStore;
 
+    /**
+     * Whether the zip file only contains the stale buckets
+     */
+    protected boolean isDelta;
+
+    /**
+     * The buckets which differ from the copy of the requesting client
+     */
+    protected Set<Integer> staleBuckets;
+
+    /**
+     * The root hash of the responding client's synchronised folder
+     */
+    protected String rootHash;
+
+    /**
+     * The number of the chunk of the zip file contained in this response
+     */
+    protected long chunkCounter;
+
+    /**
+     * The total number of chunks of the zip file
+     */
+    protected long totalNrOfChunks;
+
+    /**
+     * The size of a chunk
+     */
+    protected int chunkSize;
+
     /**
      * @param exchangeId      The id of the exchange to which this request belongs
      * @param clientDevice    The client device which sends this request
@@ -27,8 +65,55 @@ public class FetchObjectStoreResponse extends AResponse {
      * @param objectStore     The object store as zip file
      */
     public FetchObjectStoreResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, byte[] objectStore) {
+        this(exchangeId, statusCode, clientDevice, receiverAddress, objectStore, false, null);
+    }
+
+    /**
+     * @param exchangeId      The id of the exchange to which this request belongs
+     * @param clientDevice    The client device which sends this request
+     * @param receiverAddress The client which had sent the corresponding request to this response
+     * @param objectStore     The object store or only its stale buckets as zip file
+     * @param isDelta         Whether the zip file only contains the stale buckets
+     * @param staleBuckets    The buckets which differ from the copy of the requesting client. Only set for deltas
+     */
+    public FetchObjectStoreResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, byte[] objectStore, boolean isDelta, Set<Integer> staleBuckets) {
+        this(exchangeId, statusCode, clientDevice, receiverAddress, objectStore, isDelta, staleBuckets, null);
+    }
+
+    /**
+     * @param exchangeId      The id of the exchange to which this request belongs
+     * @param clientDevice    The client device which sends this request
+     * @param receiverAddress The client which had sent the corresponding request to this response
+     * @param objectStore     The object store or only its stale buckets as zip file. Null, if the root hashes of both clients match
+     * @param isDelta         Whether the zip file only contains the stale buckets
+     * @param staleBuckets    The buckets which differ from the copy of the requesting client. Only set for deltas
+     * @param rootHash        The root hash of the responding client's synchronised folder. May be null
+     */
+    public FetchObjectStoreResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, byte[] objectStore, boolean isDelta, Set<Integer> staleBuckets, String rootHash) {
+        this(exchangeId, statusCode, clientDevice, receiverAddress, objectStore, isDelta, staleBuckets, rootHash, 0, 1, null == objectStore ? 0 : objectStore.length);
+    }
+
+    /**
+     * @param exchangeId      The id of the exchange to which this request belongs
+     * @param clientDevice    The client device which sends this request
+     * @param receiverAddress The client which had sent the corresponding request to this response
+     * @param objectStore     The chunk of the zip file. Null, if the root hashes of both clients match
+     * @param isDelta         Whether the zip file only contains the stale buckets
+     * @param staleBuckets    The buckets which differ from the copy of the requesting client. Only set for deltas
+     * @param rootHash        The root hash of the responding client's synchronised folder. May be null
+     * @param chunkCounter    The number of the chunk of the zip file
+     * @param totalNrOfChunks The total number of chunks of the zip file
+     * @param chunkSize       The size of a chunk, i.e. chunkCounter * chunkSize is the offset of this chunk in the zip file
+     */
+    public FetchObjectStoreResponse(UUID exchangeId, StatusCode statusCode, ClientDevice clientDevice, NodeLocation receiverAddress, byte[] objectStore, boolean isDelta, Set<Integer> staleBuckets, String rootHash, long chunkCounter, long totalNrOfChunks, int chunkSize) {
         super(exchangeId, statusCode, clientDevice, receiverAddress);
         this.objectStore = objectStore;
+        this.isDelta = isDelta;
+        this.staleBuckets = staleBuckets;
+        this.rootHash = rootHash;
+        this.chunkCounter = chunkCounter;
+        this.totalNrOfChunks = totalNrOfChunks;
+        this.chunkSize = chunkSize;
     }
 
     /**
@@ -39,4 +124,58 @@ public class FetchObjectStoreResponse extends AResponse {
     public byte[] getObjectStore() {
         return objectStore;
     }
+
+    /**
+     * Whether the zip file only contains the stale buckets
+     *
+     * @return True, if this response is a delta to the copy of the requesting client
+     */
+    public boolean isDelta() {
+        return isDelta;
+    }
+
+    /**
+     * Returns the buckets which differ from the copy of the requesting client
+     *
+     * @return The stale buckets
+     */
+    public Set<Integer> getStaleBuckets() {
+        return staleBuckets;
+    }
+
+    /**
+     * Returns the root hash of the responding client's synchronised folder
+     *
+     * @return The root hash or null, if the responding client does not maintain a hash tree
+     */
+    public String getRootHash() {
+        return rootHash;
+    }
+
+    /**
+     * Returns the number of the chunk of the zip file contained in this response
+     *
+     * @return The chunk number
+     */
+    public long getChunkCounter() {
+        return chunkCounter;
+    }
+
+    /**
+     * Returns the total number of chunks of the zip file
+     *
+     * @return The total number of chunks
+     */
+    public long getTotalNrOfChunks() {
+        return totalNrOfChunks;
+    }
+
+    /**
+     * Returns the size of a chunk
+     *
+     * @return The chunk size in bytes
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
 }
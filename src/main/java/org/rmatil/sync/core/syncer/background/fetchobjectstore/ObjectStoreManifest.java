@@ -0,0 +1,220 @@
+package org.rmatil.sync.core.syncer.background.fetchobjectstore;
+
+import org.rmatil.sync.commons.hashing.Hash;
+import org.rmatil.sync.core.config.Config;
+import org.rmatil.sync.core.messaging.chunk.ChecksumCache;
+import org.rmatil.sync.persistence.api.StorageType;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.persistence.core.tree.TreePathElement;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Describes the files of an object store (i.e. its index and all
+ * of its objects) by their checksums.
+ * <p>
+ * The files are distributed among a fixed number of buckets based on their path.
+ * Two clients can therefore find the parts of their object stores
+ * which differ by exchanging only the hash of each bucket
+ * instead of the whole object store.
+ * <p>
+ * Checksums are only computed for files which have changed since the
+ * last manifest of the same object store was created, i.e. writes to the
+ * object store invalidate the cached checksum of the written file only.
+ */
+public class ObjectStoreManifest {
+
+    /**
+     * The number of buckets among which the files are distributed
+     */
+    public static final int NUMBER_OF_BUCKETS = 1024;
+
+    /**
+     * The maximum number of object store files of which the checksum is kept
+     */
+    public static final int MAX_CACHED_CHECKSUMS = 100000;
+
+    /**
+     * The checksums of the files of all object stores of which a manifest has been created
+     */
+    protected static final ChecksumCache checksumCache = new ChecksumCache(MAX_CACHED_CHECKSUMS);
+
+    /**
+     * The checksums of all files of the object store, keyed by their relative path
+     */
+    protected Map<String, String> checksums;
+
+    /**
+     * The bucket hashes computed from the checksums, null until requested
+     */
+    protected Map<Integer, String> bucketHashes;
+
+    /**
+     * Creates the manifest of the object store located at the given storage adapter.
+     * Only the index and the object folder are considered, other
+     * folders (e.g. fetched object stores of other clients) are ignored.
+     *
+     * @param objectStoreStorageAdapter The storage adapter pointing to the folder of the object store
+     *
+     * @throws InputOutputException If reading the object store fails
+     */
+    public ObjectStoreManifest(ITreeStorageAdapter objectStoreStorageAdapter)
+            throws InputOutputException {
+        this.checksums = new HashMap<>();
+        this.bucketHashes = null;
+
+        Path rootDir = Paths.get(objectStoreStorageAdapter.getRootDir().getPath());
+
+        TreePathElement indexElement = new TreePathElement(Config.DEFAULT.getOsIndexName());
+        if (objectStoreStorageAdapter.exists(StorageType.FILE, indexElement)) {
+            this.checksums.put(indexElement.getPath(), getChecksum(objectStoreStorageAdapter, rootDir, indexElement));
+        }
+
+        TreePathElement objectFolderElement = new TreePathElement(Config.DEFAULT.getOsObjectFolderName());
+        if (objectStoreStorageAdapter.exists(StorageType.DIRECTORY, objectFolderElement)) {
+            for (TreePathElement pathElement : objectStoreStorageAdapter.getDirectoryContents(objectFolderElement)) {
+                if (objectStoreStorageAdapter.isFile(pathElement)) {
+                    this.checksums.put(pathElement.getPath(), getChecksum(objectStoreStorageAdapter, rootDir, pathElement));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the checksum of the given file of the object store.
+     * The checksum is only computed, if the file has changed since the last computation.
+     *
+     * @param objectStoreStorageAdapter The storage adapter pointing to the folder of the object store
+     * @param rootDir                   The root directory of the storage adapter
+     * @param pathElement               The file of which to get the checksum
+     *
+     * @return The checksum of the file
+     *
+     * @throws InputOutputException If computing the checksum failed
+     */
+    protected static String getChecksum(ITreeStorageAdapter objectStoreStorageAdapter, Path rootDir, TreePathElement pathElement)
+            throws InputOutputException {
+        Path absolutePath = rootDir.resolve(pathElement.getPath());
+
+        ChecksumCache.FileState fileState;
+        try {
+            fileState = ChecksumCache.readState(absolutePath);
+        } catch (IOException e) {
+            // let the storage adapter report the failure, if any
+            return objectStoreStorageAdapter.getChecksum(pathElement);
+        }
+
+        String checksum = checksumCache.get(absolutePath.toString(), fileState);
+
+        if (null == checksum) {
+            checksum = objectStoreStorageAdapter.getChecksum(pathElement);
+
+            checksumCache.put(absolutePath.toString(), fileState, checksum);
+        }
+
+        return checksum;
+    }
+
+    /**
+     * Returns the bucket to which the file with the given path belongs
+     *
+     * @param path The relative path of the file
+     *
+     * @return The bucket number
+     */
+    public static int getBucket(String path) {
+        // the hash code of a string is the same on every jvm
+        return (path.hashCode() & 0x7fffffff) % NUMBER_OF_BUCKETS;
+    }
+
+    /**
+     * Returns the hash of each non-empty bucket
+     *
+     * @return The bucket hashes keyed by the bucket number
+     */
+    public synchronized Map<Integer, String> getBucketHashes() {
+        if (null != this.bucketHashes) {
+            return this.bucketHashes;
+        }
+
+        Map<Integer, SortedMap<String, String>> buckets = new HashMap<>();
+        for (Map.Entry<String, String> entry : this.checksums.entrySet()) {
+            buckets.computeIfAbsent(getBucket(entry.getKey()), bucket -> new TreeMap<>()).put(entry.getKey(), entry.getValue());
+        }
+
+        Map<Integer, String> bucketHashes = new HashMap<>();
+        for (Map.Entry<Integer, SortedMap<String, String>> bucket : buckets.entrySet()) {
+            StringBuilder stringBuilder = new StringBuilder();
+            for (Map.Entry<String, String> entry : bucket.getValue().entrySet()) {
+                stringBuilder.append(entry.getKey()).append(':').append(entry.getValue()).append('\n');
+            }
+
+            bucketHashes.put(
+                    bucket.getKey(),
+                    Hash.hash(org.rmatil.sync.event.aggregator.config.Config.DEFAULT.getHashingAlgorithm(), stringBuilder.toString())
+            );
+        }
+
+        this.bucketHashes = bucketHashes;
+
+        return bucketHashes;
+    }
+
+    /**
+     * Returns all buckets whose content differs from the buckets described by the given hashes
+     *
+     * @param otherBucketHashes The bucket hashes of the other object store
+     *
+     * @return The numbers of the differing buckets
+     */
+    public Set<Integer> getStaleBuckets(Map<Integer, String> otherBucketHashes) {
+        Map<Integer, String> bucketHashes = this.getBucketHashes();
+
+        Set<Integer> staleBuckets = new HashSet<>();
+        for (Map.Entry<Integer, String> entry : bucketHashes.entrySet()) {
+            if (! entry.getValue().equals(otherBucketHashes.get(entry.getKey()))) {
+                staleBuckets.add(entry.getKey());
+            }
+        }
+
+        // buckets which are empty on our side
+        for (Integer bucket : otherBucketHashes.keySet()) {
+            if (! bucketHashes.containsKey(bucket)) {
+                staleBuckets.add(bucket);
+            }
+        }
+
+        return staleBuckets;
+    }
+
+    /**
+     * Returns the paths of all files in the given buckets
+     *
+     * @param buckets The bucket numbers
+     *
+     * @return The relative paths of the files
+     */
+    public List<String> getPaths(Set<Integer> buckets) {
+        List<String> paths = new ArrayList<>();
+        for (String path : this.checksums.keySet()) {
+            if (buckets.contains(getBucket(path))) {
+                paths.add(path);
+            }
+        }
+
+        return paths;
+    }
+
+    /**
+     * Returns the paths of all files of the object store
+     *
+     * @return The relative paths of the files
+     */
+    public Set<String> getPaths() {
+        return this.checksums.keySet();
+    }
+}
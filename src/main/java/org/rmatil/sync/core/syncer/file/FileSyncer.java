@@ -3,19 +3,30 @@ package org.rmatil.sync.core.syncer.file;
 import net.engio.mbassy.bus.MBassador;
 import net.engio.mbassy.listener.Handler;
 import org.rmatil.sync.core.ConflictHandler;
+import org.rmatil.sync.core.EventSuppressionRegistry;
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.core.NodeLocationCache;
 import org.rmatil.sync.core.api.IFileSyncer;
+import org.rmatil.sync.core.config.Config;
+import org.rmatil.sync.core.eventbus.BackgroundSyncHintBusEvent;
 import org.rmatil.sync.core.eventbus.CleanModifyIgnoreEventsBusEvent;
 import org.rmatil.sync.core.eventbus.CreateBusEvent;
 import org.rmatil.sync.core.eventbus.IBusEvent;
 import org.rmatil.sync.core.eventbus.IgnoreBusEvent;
 import org.rmatil.sync.core.exception.SyncFailedException;
 import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleExchangeHandler;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleExchangeHandlerResult;
 import org.rmatil.sync.core.messaging.fileexchange.delete.FileDeleteExchangeHandler;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileDeltaExchangeHandler;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileDeltaExchangeHandlerResult;
 import org.rmatil.sync.core.messaging.fileexchange.move.FileMoveExchangeHandler;
+import org.rmatil.sync.core.messaging.fileexchange.offer.BatchFileOfferExchangeHandler;
 import org.rmatil.sync.core.messaging.fileexchange.offer.FileOfferExchangeHandler;
 import org.rmatil.sync.core.messaging.fileexchange.offer.FileOfferExchangeHandlerResult;
 import org.rmatil.sync.core.messaging.fileexchange.offer.FileOfferResponse;
 import org.rmatil.sync.core.messaging.fileexchange.push.FilePushExchangeHandler;
+import org.rmatil.sync.event.aggregator.core.events.CreateEvent;
 import org.rmatil.sync.event.aggregator.core.events.DeleteEvent;
 import org.rmatil.sync.event.aggregator.core.events.IEvent;
 import org.rmatil.sync.event.aggregator.core.events.ModifyEvent;
@@ -26,40 +37,50 @@ import org.rmatil.sync.network.api.IUser;
 import org.rmatil.sync.network.core.ANetworkHandler;
 import org.rmatil.sync.network.core.model.ClientDevice;
 import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.persistence.api.IFileMetaInfo;
 import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
 import org.rmatil.sync.persistence.core.tree.TreePathElement;
 import org.rmatil.sync.persistence.exceptions.InputOutputException;
 import org.rmatil.sync.version.api.IObjectStore;
+import org.rmatil.sync.version.core.model.PathObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Initializes the file offering protocol for each local file event which
- * has been passed to the syncer
+ * has been passed to the syncer.
+ * <p>
+ * Note, that {@link FileSyncer#sync(IEvent)} is invoked concurrently
+ * by the workers of the {@link SyncFileChangeListener}.
  */
 public class FileSyncer implements IFileSyncer {
 
     protected static final Logger logger = LoggerFactory.getLogger(FileSyncer.class);
 
-    public static final int NUMBER_OF_SYNCS = 1;
-
-    protected       IUser               user;
-    protected       INode               node;
-    protected       INodeManager        nodeManager;
-    protected       ITreeStorageAdapter storageAdapter;
-    protected       IObjectStore        objectStore;
-    protected final List<IEvent>        eventsToIgnore;
+    protected       IUser                    user;
+    protected       INode                    node;
+    protected       INodeManager             nodeManager;
+    protected       ITreeStorageAdapter      storageAdapter;
+    protected       IObjectStore             objectStore;
+    protected final EventSuppressionRegistry eventsToIgnore;
 
     protected MBassador<IBusEvent> globalEventBus;
-    protected ExecutorService      syncExecutor;
 
     protected ClientDevice clientDevice;
 
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
+    /**
+     * The cache of the client locations of users
+     */
+    protected NodeLocationCache nodeLocationCache;
+
     public FileSyncer(IUser user, INode node, INodeManager nodeManager, ITreeStorageAdapter storageAdapter, IObjectStore objectStore, MBassador<IBusEvent> globalEventBus) {
         this.user = user;
         this.node = node;
@@ -70,61 +91,207 @@ public class FileSyncer implements IFileSyncer {
 
         this.clientDevice = new ClientDevice(user.getUserName(), this.node.getClientDeviceId(), this.node.getPeerAddress());
 
-        syncExecutor = Executors.newFixedThreadPool(NUMBER_OF_SYNCS);
+        this.eventsToIgnore = new EventSuppressionRegistry(Config.DEFAULT.getEventSuppressionTtl());
+        this.identifierCache = new IdentifierCache(node);
+        this.nodeLocationCache = new NodeLocationCache(nodeManager, 0L);
+    }
+
+    /**
+     * Set the cache of the file ids of the node which is shared
+     * with the exchanges and request handlers of the node
+     *
+     * @param identifierCache The identifier cache
+     */
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
 
-        this.eventsToIgnore = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * Set the cache of the client locations which is shared
+     * with the exchanges of the node
+     *
+     * @param nodeLocationCache The node location cache
+     */
+    public void setNodeLocationCache(NodeLocationCache nodeLocationCache) {
+        this.nodeLocationCache = nodeLocationCache;
     }
 
     @Handler
     public void handleBusEvent(IgnoreBusEvent event) {
         // ignore the given event if it arises in sync()
-        logger.debug("Got ignore event from global event bus: " + event.getEvent().getEventName() + " for file " + event.getEvent().getPath().toString());
-        synchronized (this.eventsToIgnore) {
-            this.eventsToIgnore.add(event.getEvent());
+        logger.debug("Got ignore event from global event bus: " + event.getEvent().getEventName() + " for " + (event.isSubtree() ? "subtree " : "file ") + event.getEvent().getPath().toString());
+
+        if (event.isSubtree()) {
+            this.eventsToIgnore.suppressSubtree(event.getEvent());
+        } else {
+            this.eventsToIgnore.suppress(event.getEvent());
         }
     }
 
     @Handler
     public void handleCleanIgnoreEvents(CleanModifyIgnoreEventsBusEvent event) {
         logger.debug("Got clean up ignore events event from global event bus for file " + event.getRelativePath());
-        synchronized (this.eventsToIgnore) {
-            Iterator<IEvent> itr = this.eventsToIgnore.iterator();
-            while (itr.hasNext()) {
-                IEvent ev = itr.next();
-                if (ev.getPath().toString().equals(event.getRelativePath()) &&
-                        ev instanceof ModifyEvent) {
-                    logger.trace("Remove modify event " + ev.getEventName());
-                    itr.remove();
-                }
-            }
-        }
+        this.eventsToIgnore.clear(ModifyEvent.EVENT_NAME, event.getRelativePath());
+    }
+
+    /**
+     * Returns the events which are not synced when they occur
+     *
+     * @return The registry of suppressed events
+     */
+    public EventSuppressionRegistry getEventsToIgnore() {
+        return eventsToIgnore;
     }
 
     @Override
     public void sync(IEvent event)
             throws SyncFailedException {
 
+        if (! this.prepareSync(event)) {
+            return;
+        }
+
+        this.offerAndPropagate(event);
+    }
+
+    @Override
+    public void sync(List<IEvent> events)
+            throws SyncFailedException {
         long start = System.currentTimeMillis();
-        synchronized (this.eventsToIgnore) {
-            for (IEvent eventToCheck : this.eventsToIgnore) {
-                // weak ignoring events
-                if (eventToCheck.getEventName().equals(event.getEventName()) &&
-                        eventToCheck.getPath().toString().equals(event.getPath().toString())) {
-
-                    logger.info("Ignoring (" + this.toString() + ") syncing of event " + event.getEventName() + " for path " + event.getPath().toString() + " on client " + this.node.getPeerAddress().inetAddress().getHostName() + ":" + this.node.getPeerAddress().tcpPort() + ")");
-                    this.eventsToIgnore.remove(eventToCheck);
-                    return;
+        List<IEvent> eventsToOffer = new ArrayList<>();
+        List<IEvent> eventsToSyncSeparately = new ArrayList<>();
+
+        for (IEvent event : events) {
+            try {
+                if (! this.prepareSync(event)) {
+                    continue;
+                }
+            } catch (SyncFailedException e) {
+                logger.error("Failed to sync event " + event.getEventName() + " for path " + event.getPath().toString() + ". Message: " + e.getMessage(), e);
+                continue;
+            }
+
+            if (this.isBatchable(event)) {
+                eventsToOffer.add(event);
+            } else {
+                eventsToSyncSeparately.add(event);
+            }
+        }
+
+        if (1 == eventsToOffer.size()) {
+            eventsToSyncSeparately.addAll(eventsToOffer);
+            eventsToOffer.clear();
+        }
+
+        if (! eventsToOffer.isEmpty()) {
+            UUID batchExchangeId = UUID.randomUUID();
+
+            BatchFileOfferExchangeHandler batchFileOfferExchangeHandler = new BatchFileOfferExchangeHandler(
+                    batchExchangeId,
+                    this.clientDevice,
+                    this.nodeManager,
+                    this.node,
+                    this.objectStore,
+                    eventsToOffer
+            );
+            batchFileOfferExchangeHandler.setNodeLocationCache(this.nodeLocationCache);
+
+            logger.debug("Starting batch file offer exchange handler for exchangeId " + batchExchangeId + " offering " + eventsToOffer.size() + " events");
+
+            this.node.getObjectDataReplyHandler().addResponseCallbackHandler(batchExchangeId, batchFileOfferExchangeHandler);
+            Thread batchFileOfferExchangeHandlerThread = new Thread(batchFileOfferExchangeHandler);
+            batchFileOfferExchangeHandlerThread.setName("BatchFileOfferExchangeHandler-" + batchExchangeId);
+            batchFileOfferExchangeHandlerThread.start();
+
+            try {
+                batchFileOfferExchangeHandler.await();
+            } catch (InterruptedException e) {
+                logger.error("Failed to await for batch file offer exchange " + batchExchangeId + ". Message: " + e.getMessage());
+            }
+
+            this.node.getObjectDataReplyHandler().removeResponseCallbackHandler(batchExchangeId);
+
+            if (batchFileOfferExchangeHandler.isCompleted()) {
+                List<FileOfferExchangeHandlerResult> results = batchFileOfferExchangeHandler.getResult().getFileOfferResults();
+
+                // small files accepted by the same clients are pushed together
+                Map<Set<UUID>, List<IEvent>> eventsToBundle = new HashMap<>();
+                Map<Set<UUID>, List<NodeLocation>> bundleReceivers = new HashMap<>();
+
+                for (int i = 0; i < eventsToOffer.size(); i++) {
+                    IEvent event = eventsToOffer.get(i);
+                    try {
+                        List<NodeLocation> acceptedAndInNeedClients = this.getAcceptedClients(event, results.get(i));
+
+                        if (null == acceptedAndInNeedClients) {
+                            continue;
+                        }
+
+                        if (acceptedAndInNeedClients.isEmpty() || ! this.isBundleable(event)) {
+                            // each event gets its own exchange to transfer the actual change
+                            this.exchange(event, UUID.randomUUID(), acceptedAndInNeedClients);
+                            continue;
+                        }
+
+                        Set<UUID> receiverIds = new HashSet<>();
+                        for (NodeLocation location : acceptedAndInNeedClients) {
+                            receiverIds.add(location.getClientDeviceId());
+                        }
+
+                        eventsToBundle.computeIfAbsent(receiverIds, key -> new ArrayList<>()).add(event);
+                        bundleReceivers.putIfAbsent(receiverIds, acceptedAndInNeedClients);
+                    } catch (SyncFailedException e) {
+                        logger.error("Failed to sync event " + event.getEventName() + " for path " + event.getPath().toString() + ". Message: " + e.getMessage(), e);
+                    }
+                }
+
+                for (Map.Entry<Set<UUID>, List<IEvent>> entry : eventsToBundle.entrySet()) {
+                    this.pushBundles(entry.getValue(), bundleReceivers.get(entry.getKey()));
                 }
+            } else {
+                logger.warn("No result received from clients for batch offer " + batchExchangeId + ". Offering its events separately");
+                eventsToSyncSeparately.addAll(eventsToOffer);
             }
         }
 
+        for (IEvent event : eventsToSyncSeparately) {
+            try {
+                // the event has been prepared already, i.e. checking
+                // ignored events again would drop a second ignore entry
+                this.offerAndPropagate(event);
+            } catch (SyncFailedException e) {
+                logger.error("Failed to sync event " + event.getEventName() + " for path " + event.getPath().toString() + ". Message: " + e.getMessage(), e);
+            }
+        }
+
+        logger.trace("Sync duration for " + events.size() + " events was: " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Checks whether the given event has to be synced at all
+     * and makes sure that a file id exists for its path.
+     *
+     * @param event The event to sync
+     *
+     * @return False, if the event must be ignored
+     *
+     * @throws SyncFailedException If no file id could be created
+     */
+    protected boolean prepareSync(IEvent event)
+            throws SyncFailedException {
+        // weak ignoring events
+        if (this.eventsToIgnore.consume(event)) {
+            logger.info("Ignoring (" + this.toString() + ") syncing of event " + event.getEventName() + " for path " + event.getPath().toString() + " on client " + this.node.getPeerAddress().inetAddress().getHostName() + ":" + this.node.getPeerAddress().tcpPort() + ")");
+            return false;
+        }
+
         if (event instanceof ModifyEvent) {
             // directory modifications will happen, since we need them to correctly identify
             // a move of a directory.
             try {
                 if (this.storageAdapter.isDir(new TreePathElement(event.getPath().toString()))) {
                     logger.info("Skipping received modified event for directory " + event.getPath().toString() + " on client " + this.node.getPeerAddress().inetAddress().getHostName() + ":" + this.node.getPeerAddress().tcpPort() + ")");
-                    return;
+                    return false;
                 }
             } catch (InputOutputException e) {
                 logger.error("Failed to check whether the modify event for " + event.getPath().toString() + " should be ignored. Therefore will sync...");
@@ -134,16 +301,171 @@ public class FileSyncer implements IFileSyncer {
         // check, whether there is a fileId already present,
         // e.g. made in an earlier push request (or on another client)
         try {
-            if (null == this.node.getIdentifierManager().getValue(event.getPath().toString())) {
+            if (null == this.identifierCache.getValue(event.getPath().toString())) {
                 // add a file id
-                this.node.getIdentifierManager().addIdentifier(event.getPath().toString(), UUID.randomUUID());
+                this.identifierCache.addIdentifier(event.getPath().toString(), UUID.randomUUID());
             }
         } catch (InputOutputException e) {
             throw new SyncFailedException("Failed to add a new file id for path " + event.getPath(), e);
         }
 
-        logger.debug("Syncing event " + event.getEventName() + " for path " + event.getPath().toString() + " on client " + this.node.getPeerAddress().inetAddress().getHostName() + ":" + this.node.getPeerAddress().tcpPort() + ")");
+        return true;
+    }
+
+    /**
+     * Checks whether the given event can be offered
+     * to the other clients in a batch
+     *
+     * @param event The event to check
+     *
+     * @return True, if the event can be offered in a batch
+     */
+    protected boolean isBatchable(IEvent event) {
+        try {
+            PathObject pathObject = this.objectStore.getObjectManager().getObjectForPath(event.getPath().toString());
+            return BatchFileOfferExchangeHandler.isBatchable(event, pathObject, this.user.getUserName());
+        } catch (InputOutputException e) {
+            logger.warn("Failed to read path object for " + event.getPath().toString() + ". Offering it separately. Message: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the change of the given event can be
+     * pushed to other clients as part of a file bundle
+     *
+     * @param event The event to check
+     *
+     * @return True, if the event can be bundled
+     */
+    protected boolean isBundleable(IEvent event) {
+        if (! (event instanceof CreateEvent) && ! (event instanceof ModifyEvent)) {
+            return false;
+        }
+
+        try {
+            IFileMetaInfo fileMetaInfo = this.storageAdapter.getMetaInformation(new TreePathElement(event.getPath().toString()));
+            return ! fileMetaInfo.isFile() || fileMetaInfo.getTotalFileSize() <= FileBundleExchangeHandler.MAX_BUNDLED_FILE_SIZE;
+        } catch (InputOutputException e) {
+            logger.warn("Failed to read meta information of " + event.getPath().toString() + ". Pushing it separately. Message: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Pushes the changes of the given events in bundles of at most
+     * {@link FileBundleExchangeHandler#MAX_BUNDLE_SIZE} bytes
+     * to all given clients
+     *
+     * @param events    The events of which to push the files
+     * @param receivers The clients which accepted the offers of all events
+     */
+    protected void pushBundles(List<IEvent> events, List<NodeLocation> receivers) {
+        List<IEvent> bundle = new ArrayList<>();
+        long bundleSize = 0;
+
+        for (IEvent event : events) {
+            long fileSize = 0;
+            try {
+                IFileMetaInfo fileMetaInfo = this.storageAdapter.getMetaInformation(new TreePathElement(event.getPath().toString()));
+                fileSize = fileMetaInfo.isFile() ? fileMetaInfo.getTotalFileSize() : 0;
+            } catch (InputOutputException e) {
+                logger.warn("Failed to read meta information of " + event.getPath().toString() + ". Message: " + e.getMessage());
+            }
 
+            if (! bundle.isEmpty() && bundleSize + fileSize > FileBundleExchangeHandler.MAX_BUNDLE_SIZE) {
+                this.pushBundle(bundle, receivers);
+                bundle = new ArrayList<>();
+                bundleSize = 0;
+            }
+
+            bundle.add(event);
+            bundleSize += fileSize;
+        }
+
+        if (! bundle.isEmpty()) {
+            this.pushBundle(bundle, receivers);
+        }
+    }
+
+    /**
+     * Pushes the changes of the given events in a single bundle to
+     * all given clients. Files which could not have been written by
+     * a client are pushed separately afterwards, files which have been
+     * denied by a client are rescheduled.
+     *
+     * @param events    The events of which to push the files
+     * @param receivers The clients which accepted the offers of all events
+     */
+    protected void pushBundle(List<IEvent> events, List<NodeLocation> receivers) {
+        UUID exchangeId = UUID.randomUUID();
+
+        Map<String, IEvent> eventsByPath = new HashMap<>();
+        for (IEvent event : events) {
+            eventsByPath.put(event.getPath().toString(), event);
+        }
+
+        FileBundleExchangeHandler fileBundleExchangeHandler = new FileBundleExchangeHandler(
+                exchangeId,
+                this.clientDevice,
+                this.storageAdapter,
+                this.node,
+                this.objectStore,
+                receivers,
+                new ArrayList<>(eventsByPath.keySet())
+        );
+        fileBundleExchangeHandler.setIdentifierCache(this.identifierCache);
+
+        logger.debug("Starting file bundle exchange handler for exchangeId " + exchangeId + " pushing " + events.size() + " files");
+
+        this.node.getObjectDataReplyHandler().addResponseCallbackHandler(exchangeId, fileBundleExchangeHandler);
+        Thread fileBundleExchangeHandlerThread = new Thread(fileBundleExchangeHandler);
+        fileBundleExchangeHandlerThread.setName("FileBundleExchangeHandler-" + exchangeId);
+        fileBundleExchangeHandlerThread.start();
+
+        try {
+            fileBundleExchangeHandler.await();
+        } catch (InterruptedException e) {
+            logger.error("Failed to await for file bundle exchange " + exchangeId + ". Message: " + e.getMessage());
+        }
+
+        this.node.getObjectDataReplyHandler().removeResponseCallbackHandler(exchangeId);
+
+        if (! fileBundleExchangeHandler.isCompleted()) {
+            logger.warn("Not all clients responded to file bundle " + exchangeId + ". Pushing its files separately to the remaining ones");
+        }
+
+        // contains all bundled files for clients which did not respond
+        FileBundleExchangeHandlerResult result = fileBundleExchangeHandler.getResult();
+        Map<String, List<NodeLocation>> failedFiles = result.getFailedFiles();
+
+        // pushing denied files would overwrite the ones being exchanged by the receivers
+        for (String deniedFile : result.getDeniedFiles()) {
+            this.reschedule(eventsByPath.get(deniedFile));
+        }
+
+        for (Map.Entry<String, List<NodeLocation>> entry : failedFiles.entrySet()) {
+            IEvent event = eventsByPath.get(entry.getKey());
+            try {
+                this.exchange(event, UUID.randomUUID(), entry.getValue());
+            } catch (SyncFailedException e) {
+                logger.error("Failed to sync event " + event.getEventName() + " for path " + event.getPath().toString() + ". Message: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Offers the given event to all other clients and
+     * propagates it to all clients which accepted the offer.
+     *
+     * @param event The event to sync
+     *
+     * @throws SyncFailedException If propagating the event failed
+     */
+    protected void offerAndPropagate(IEvent event)
+            throws SyncFailedException {
+
+        long start = System.currentTimeMillis();
         UUID fileExchangeId = UUID.randomUUID();
 
         // all events require an offering step
@@ -157,6 +479,8 @@ public class FileSyncer implements IFileSyncer {
                 this.globalEventBus,
                 event
         );
+        fileOfferExchangeHandler.setIdentifierCache(this.identifierCache);
+        fileOfferExchangeHandler.setNodeLocationCache(this.nodeLocationCache);
 
         logger.debug("Starting file offer exchange handler for exchangeId " + fileExchangeId);
 
@@ -176,11 +500,45 @@ public class FileSyncer implements IFileSyncer {
 
         if (! fileOfferExchangeHandler.isCompleted()) {
             logger.error("No result received from clients for request " + fileExchangeId + ". Aborting file offering");
+            this.globalEventBus.publish(new BackgroundSyncHintBusEvent(BackgroundSyncHintBusEvent.Reason.EXCHANGE_TIMED_OUT));
             return;
         }
 
-        FileOfferExchangeHandlerResult result = fileOfferExchangeHandler.getResult();
+        this.propagate(event, fileExchangeId, fileOfferExchangeHandler.getResult());
+        logger.trace("Sync duration for request " + fileExchangeId + " was: " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Evaluates the responses to the offer of the given event and
+     * propagates the event to all clients which accepted the offer.
+     *
+     * @param event          The offered event
+     * @param fileExchangeId The exchange id to use for propagating the event
+     * @param result         The responses of all clients to the offer
+     *
+     * @throws SyncFailedException If propagating the event failed
+     */
+    protected void propagate(IEvent event, UUID fileExchangeId, FileOfferExchangeHandlerResult result)
+            throws SyncFailedException {
+
+        List<NodeLocation> acceptedAndInNeedClients = this.getAcceptedClients(event, result);
 
+        if (null != acceptedAndInNeedClients) {
+            this.exchange(event, fileExchangeId, acceptedAndInNeedClients);
+        }
+    }
+
+    /**
+     * Evaluates the responses to the offer of the given event.
+     * Creates a conflict file resp. reschedules the event if
+     * any client detected a conflict resp. denied the offer.
+     *
+     * @param event  The offered event
+     * @param result The responses of all clients to the offer
+     *
+     * @return The clients which accepted the offer or null, if the event must not be propagated
+     */
+    protected List<NodeLocation> getAcceptedClients(IEvent event, FileOfferExchangeHandlerResult result) {
         boolean hasConflictDetected = false;
         boolean hasOfferAccepted = true;
         List<NodeLocation> acceptedAndInNeedClients = new ArrayList<>();
@@ -221,32 +579,57 @@ public class FileSyncer implements IFileSyncer {
             // move element in the IdentifierManager too
             UUID fileId = null;
             try {
-                fileId = this.node.getIdentifierManager().getValue(event.getPath().toString());
+                fileId = this.identifierCache.getValue(event.getPath().toString());
                 if (null != conflictFile && null != fileId) {
-                    this.node.getIdentifierManager().moveKey(event.getPath().toString(), conflictFile.toString());
+                    this.identifierCache.moveKey(event.getPath().toString(), conflictFile.toString());
                 }
             } catch (InputOutputException e) {
                 logger.warn("Failed to move conflicting file with id " + fileId + " on path " + event.getPath().toString() + " to new path too. Message: " + e.getMessage());
             }
 
-            return;
+            return null;
         }
 
         if (! hasOfferAccepted) {
-            logger.info("Rescheduling event " + event.getEventName() + " for file " + event.getPath().toString());
-            this.globalEventBus.publish(new CreateBusEvent(
-                    event
-            ));
-            return;
+            this.reschedule(event);
+            return null;
         }
 
+        return acceptedAndInNeedClients;
+    }
+
+    /**
+     * Reschedules the given event since a client denied
+     * it while exchanging the same file itself
+     *
+     * @param event The denied event
+     */
+    protected void reschedule(IEvent event) {
+        logger.info("Rescheduling event " + event.getEventName() + " for file " + event.getPath().toString());
+        this.globalEventBus.publish(new BackgroundSyncHintBusEvent(BackgroundSyncHintBusEvent.Reason.EXCHANGE_DENIED));
+        this.globalEventBus.publish(new CreateBusEvent(
+                event
+        ));
+    }
+
+    /**
+     * Sends the given event to all given clients
+     *
+     * @param event                    The event to propagate
+     * @param fileExchangeId           The exchange id to use
+     * @param acceptedAndInNeedClients The clients which accepted the offer of the event
+     *
+     * @throws SyncFailedException If propagating the event failed
+     */
+    protected void exchange(IEvent event, UUID fileExchangeId, List<NodeLocation> acceptedAndInNeedClients)
+            throws SyncFailedException {
         // Now we can start to send the event to all clients which need it
 
         ANetworkHandler exchangeHandler;
         Thread exchangeHandlerThread;
 
         if (event instanceof DeleteEvent) {
-            exchangeHandler = new FileDeleteExchangeHandler(
+            FileDeleteExchangeHandler fileDeleteExchangeHandler = new FileDeleteExchangeHandler(
                     fileExchangeId,
                     this.clientDevice,
                     this.storageAdapter,
@@ -257,12 +640,15 @@ public class FileSyncer implements IFileSyncer {
                     acceptedAndInNeedClients,
                     (DeleteEvent) event
             );
+            fileDeleteExchangeHandler.setIdentifierCache(this.identifierCache);
+            fileDeleteExchangeHandler.setNodeLocationCache(this.nodeLocationCache);
+            exchangeHandler = fileDeleteExchangeHandler;
             logger.debug("Starting fileDelete handler for exchangeId " + fileExchangeId);
 
             exchangeHandlerThread = new Thread(exchangeHandler);
             exchangeHandlerThread.setName("FileDeleteExchangeHandler-" + fileExchangeId);
         } else if (event instanceof MoveEvent) {
-            exchangeHandler = new FileMoveExchangeHandler(
+            FileMoveExchangeHandler fileMoveExchangeHandler = new FileMoveExchangeHandler(
                     fileExchangeId,
                     this.clientDevice,
                     this.storageAdapter,
@@ -272,12 +658,23 @@ public class FileSyncer implements IFileSyncer {
                     acceptedAndInNeedClients,
                     (MoveEvent) event
             );
+            fileMoveExchangeHandler.setIdentifierCache(this.identifierCache);
+            exchangeHandler = fileMoveExchangeHandler;
 
             logger.debug("Starting fileMove handler for exchangeId " + fileExchangeId);
             exchangeHandlerThread = new Thread(exchangeHandler);
             exchangeHandlerThread.setName("MoveEventExchangeHandler-" + fileExchangeId);
         } else {
-            exchangeHandler = new FilePushExchangeHandler(
+            if (event instanceof ModifyEvent) {
+                // only send the changed parts to clients which already have the file
+                acceptedAndInNeedClients = this.exchangeDelta((ModifyEvent) event, fileExchangeId, acceptedAndInNeedClients);
+
+                if (acceptedAndInNeedClients.isEmpty()) {
+                    return;
+                }
+            }
+
+            FilePushExchangeHandler filePushExchangeHandler = new FilePushExchangeHandler(
                     fileExchangeId,
                     this.clientDevice,
                     this.storageAdapter,
@@ -287,6 +684,9 @@ public class FileSyncer implements IFileSyncer {
                     acceptedAndInNeedClients,
                     event.getPath().toString()
             );
+            filePushExchangeHandler.setIdentifierCache(this.identifierCache);
+            filePushExchangeHandler.setNodeLocationCache(this.nodeLocationCache);
+            exchangeHandler = filePushExchangeHandler;
 
             logger.debug("Starting filePush handler for exchangeId " + fileExchangeId);
             exchangeHandlerThread = new Thread(exchangeHandler);
@@ -307,11 +707,79 @@ public class FileSyncer implements IFileSyncer {
 
         if (! exchangeHandler.isCompleted()) {
             logger.error("No result received from clients for request " + fileExchangeId + ". Aborting file sync");
+            this.globalEventBus.publish(new BackgroundSyncHintBusEvent(BackgroundSyncHintBusEvent.Reason.EXCHANGE_TIMED_OUT));
             return;
         }
 
         Object exchangeHandlerResult = exchangeHandler.getResult();
         logger.info("Result of exchange " + fileExchangeId + " is " + exchangeHandlerResult.toString());
-        logger.trace("Sync duration for request " + fileExchangeId + " was: " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Sends only the changed parts of the modified file to the given clients.
+     * Small files, shared files and files of other users are not sent as delta.
+     *
+     * @param event                    The modify event of the file
+     * @param fileExchangeId           The exchange id to use
+     * @param acceptedAndInNeedClients The clients which accepted the offer of the event
+     *
+     * @return The clients which did not reconstruct the file from the delta and have to get the whole file pushed.
+     * If a client denied the delta, the event is rescheduled
+     */
+    protected List<NodeLocation> exchangeDelta(ModifyEvent event, UUID fileExchangeId, List<NodeLocation> acceptedAndInNeedClients) {
+        String relativeFilePath = event.getPath().toString();
+
+        try {
+            IFileMetaInfo fileMetaInfo = this.storageAdapter.getMetaInformation(new TreePathElement(relativeFilePath));
+            if (! fileMetaInfo.isFile() || fileMetaInfo.getTotalFileSize() < FileDeltaExchangeHandler.MIN_FILE_SIZE) {
+                return acceptedAndInNeedClients;
+            }
+
+            // file ids and sharers are only transferred by pushes
+            PathObject pathObject = this.objectStore.getObjectManager().getObjectForPath(relativeFilePath);
+            if (pathObject.isShared() || (null != pathObject.getOwner() && ! this.user.getUserName().equals(pathObject.getOwner()))) {
+                return acceptedAndInNeedClients;
+            }
+        } catch (InputOutputException e) {
+            logger.warn("Failed to read information of " + relativeFilePath + ". Pushing the whole file. Message: " + e.getMessage());
+            return acceptedAndInNeedClients;
+        }
+
+        FileDeltaExchangeHandler fileDeltaExchangeHandler = new FileDeltaExchangeHandler(
+                fileExchangeId,
+                this.clientDevice,
+                this.storageAdapter,
+                this.node,
+                acceptedAndInNeedClients,
+                relativeFilePath
+        );
+
+        logger.debug("Starting fileDelta handler for exchangeId " + fileExchangeId);
+        this.node.getObjectDataReplyHandler().addResponseCallbackHandler(fileExchangeId, fileDeltaExchangeHandler);
+        Thread fileDeltaExchangeHandlerThread = new Thread(fileDeltaExchangeHandler);
+        fileDeltaExchangeHandlerThread.setName("FileDeltaExchangeHandler-" + fileExchangeId);
+        fileDeltaExchangeHandlerThread.start();
+
+        try {
+            fileDeltaExchangeHandler.await();
+        } catch (InterruptedException e) {
+            logger.error("Failed to await for file delta exchange " + fileExchangeId + ". Message: " + e.getMessage());
+        }
+
+        this.node.getObjectDataReplyHandler().removeResponseCallbackHandler(fileExchangeId);
+
+        if (! fileDeltaExchangeHandler.isCompleted()) {
+            logger.warn("Not all clients finished the delta exchange " + fileExchangeId + ". Pushing the whole file to the remaining ones");
+            // removes the callbacks of the remaining clients and adds them to the ones in need of the file
+            fileDeltaExchangeHandler.cancel();
+        }
+
+        FileDeltaExchangeHandlerResult result = fileDeltaExchangeHandler.getResult();
+        if (! result.getDeniedReceivers().isEmpty()) {
+            // pushing the whole file would overwrite the one being exchanged by the receivers
+            this.reschedule(event);
+        }
+
+        return result.getReceiversInNeedOfFile();
     }
 }
@@ -1,21 +1,35 @@
 package org.rmatil.sync.core.syncer.file;
 
 import net.engio.mbassy.listener.Handler;
+import org.rmatil.sync.core.ExchangeGate;
+import org.rmatil.sync.core.SubtreeDeletes;
 import org.rmatil.sync.core.api.IFileSyncer;
+import org.rmatil.sync.core.config.Config;
 import org.rmatil.sync.core.eventbus.CreateBusEvent;
 import org.rmatil.sync.core.syncer.file.event.TerminateSyncerEvent;
 import org.rmatil.sync.event.aggregator.api.IEventListener;
 import org.rmatil.sync.event.aggregator.core.events.IEvent;
+import org.rmatil.sync.event.aggregator.core.events.MoveEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.nio.file.Path;
+import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * A local filesystem event listener which triggers the synchronizing
- * of these events one-by-one using the file syncer.
+ * of these events using the file syncer.
+ * <p>
+ * Events are synced concurrently by a pool of workers. However, events
+ * affecting the same path, one of its ancestors or one of its descendants
+ * are synced one after another in the order they occurred. Events on
+ * independent paths may be synced in any order. If more events are waiting
+ * than workers are available, independent events are handed to the
+ * file syncer in batches, so that they can be offered in a single round trip.
  * <p>
  * This listener must be invoked in a dedicated thread to ensure
  * that file system events can still be accepted (and blocking for the syncer to complete
@@ -29,17 +43,83 @@ public class SyncFileChangeListener implements IEventListener, Runnable {
 
     protected static final Logger logger = LoggerFactory.getLogger(SyncFileChangeListener.class);
 
+    /**
+     * The maximum number of blocked waiting events which are skipped
+     * while looking for events to sync next. Limits the cost of finding an event
+     * whose path is independent of all running syncs
+     */
+    protected static final int MAX_LOOK_AHEAD = 256;
+
+    /**
+     * The maximum number of events which are synced by a single worker at once
+     */
+    protected static final int MAX_EVENTS_PER_SYNC = 1000;
+
     protected          IFileSyncer           fileSyncer;
     protected          BlockingQueue<IEvent> eventQueue;
     protected volatile boolean               isTerminated;
 
+    /**
+     * The number of events which may be synced concurrently
+     */
+    protected int numberOfSyncWorkers;
+
+    /**
+     * The workers syncing the events
+     */
+    protected ExecutorService syncExecutor;
+
+    /**
+     * Events taken from the queue which could not have
+     * been synced yet, in the order they occurred
+     */
+    protected final LinkedList<IEvent> waitingEvents;
+
+    /**
+     * The paths of all events which are currently synced
+     * with the number of syncs running on them
+     */
+    protected final Map<Path, Integer> pathsInSync;
+
+    /**
+     * The number of events which are currently synced
+     */
+    protected int nrOfRunningSyncs;
+
+    /**
+     * The gate holding back syncs while the background syncer drains running exchanges, may be null
+     */
+    protected ExchangeGate exchangeGate;
+
     /**
      * @param fileSyncer The file syncer propagate local file system events to other clients
      */
     public SyncFileChangeListener(IFileSyncer fileSyncer) {
+        this(fileSyncer, Config.DEFAULT.getNumberOfSyncWorkers());
+    }
+
+    /**
+     * @param fileSyncer          The file syncer propagate local file system events to other clients
+     * @param numberOfSyncWorkers The number of events which may be synced concurrently
+     */
+    public SyncFileChangeListener(IFileSyncer fileSyncer, int numberOfSyncWorkers) {
         this.fileSyncer = fileSyncer;
         this.eventQueue = new LinkedBlockingQueue<>();
         this.isTerminated = false;
+        this.numberOfSyncWorkers = Math.max(1, numberOfSyncWorkers);
+        this.syncExecutor = Executors.newFixedThreadPool(this.numberOfSyncWorkers);
+        this.waitingEvents = new LinkedList<>();
+        this.pathsInSync = new HashMap<>();
+        this.nrOfRunningSyncs = 0;
+    }
+
+    /**
+     * Set the gate which holds back syncs while the background syncer drains running exchanges
+     *
+     * @param exchangeGate The exchange gate
+     */
+    public void setExchangeGate(ExchangeGate exchangeGate) {
+        this.exchangeGate = exchangeGate;
     }
 
     @Handler
@@ -48,9 +128,22 @@ public class SyncFileChangeListener implements IEventListener, Runnable {
         this.eventQueue.add(createBusEvent.getEvent());
     }
 
+    /**
+     * Queues the given events. Delete events of paths below a deleted
+     * directory are dropped, since the directory is deleted recursively
+     * on the other clients.
+     *
+     * @param events The aggregated events
+     */
     @Override
     public void onChange(List<IEvent> events) {
-        this.eventQueue.addAll(events);
+        SubtreeDeletes subtreeDeletes = new SubtreeDeletes(events);
+
+        if (0 < subtreeDeletes.getNrOfCollapsedEvents()) {
+            logger.debug("Collapsed " + subtreeDeletes.getNrOfCollapsedEvents() + " delete events into the deletes of " + subtreeDeletes.getSubtreeRoots().size() + " directories");
+        }
+
+        this.eventQueue.addAll(subtreeDeletes.getEvents());
     }
 
     @Override
@@ -60,11 +153,13 @@ public class SyncFileChangeListener implements IEventListener, Runnable {
                 IEvent headEvent = this.eventQueue.take();
 
                 if (headEvent instanceof TerminateSyncerEvent) {
-                    return;
+                    break;
                 }
 
-                // an event which has been caused due to handling a conflict
-                this.fileSyncer.sync(headEvent);
+                synchronized (this.waitingEvents) {
+                    this.waitingEvents.add(headEvent);
+                    this.startSyncs();
+                }
 
             } catch (InterruptedException e) {
                 logger.info("Got interrupted. Stopping to listen for file change events. FileSyncer will therefore not sync any change until this listener is restarted.");
@@ -73,6 +168,19 @@ public class SyncFileChangeListener implements IEventListener, Runnable {
                 logger.error("Error in SyncFileChangeListener Thread. Message: " + e.getMessage(), e);
             }
         }
+
+        // allow already taken events to finish
+        try {
+            synchronized (this.waitingEvents) {
+                while (! this.waitingEvents.isEmpty() || 0 < this.nrOfRunningSyncs) {
+                    this.waitingEvents.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.info("Got interrupted while waiting for running syncs to finish");
+        }
+
+        this.syncExecutor.shutdown();
     }
 
     public void shutdown() {
@@ -82,4 +190,177 @@ public class SyncFileChangeListener implements IEventListener, Runnable {
         this.eventQueue.add(new TerminateSyncerEvent());
     }
 
+    /**
+     * Starts syncing all waiting events whose paths are independent of
+     * any running sync and of any event waiting before them.
+     * Callers must hold the lock on {@link SyncFileChangeListener#waitingEvents}.
+     */
+    protected void startSyncs() {
+        // paths of running syncs and of events which have to wait
+        Set<Path> lockedPaths = new HashSet<>(this.pathsInSync.keySet());
+        Set<Path> lockedAncestors = new HashSet<>();
+        for (Path lockedPath : lockedPaths) {
+            this.addAncestors(lockedPath, lockedAncestors);
+        }
+
+        // distribute the waiting events among all workers
+        int batchSize = Math.min(MAX_EVENTS_PER_SYNC, Math.max(1, this.waitingEvents.size() / this.numberOfSyncWorkers));
+        int lookAhead = 0;
+
+        List<IEvent> batch = new ArrayList<>();
+        List<Path> batchPaths = new ArrayList<>();
+
+        Iterator<IEvent> itr = this.waitingEvents.iterator();
+        while (itr.hasNext() && this.nrOfRunningSyncs < this.numberOfSyncWorkers && lookAhead < MAX_LOOK_AHEAD) {
+            IEvent event = itr.next();
+            List<Path> paths = this.getAffectedPaths(event);
+
+            boolean isBlocked = false;
+            for (Path path : paths) {
+                if (this.isLocked(path, lockedPaths, lockedAncestors)) {
+                    isBlocked = true;
+                    break;
+                }
+            }
+
+            // later events on the same paths have to wait for this one
+            for (Path path : paths) {
+                lockedPaths.add(path);
+                this.addAncestors(path, lockedAncestors);
+            }
+
+            if (isBlocked) {
+                lookAhead++;
+                continue;
+            }
+
+            itr.remove();
+            for (Path path : paths) {
+                this.pathsInSync.merge(path, 1, Integer::sum);
+            }
+
+            batch.add(event);
+            batchPaths.addAll(paths);
+
+            if (batch.size() >= batchSize) {
+                this.startSync(batch, batchPaths);
+                batch = new ArrayList<>();
+                batchPaths = new ArrayList<>();
+            }
+        }
+
+        if (! batch.isEmpty()) {
+            this.startSync(batch, batchPaths);
+        }
+    }
+
+    /**
+     * Hands the given events to a sync worker.
+     * Callers must hold the lock on {@link SyncFileChangeListener#waitingEvents}.
+     *
+     * @param events The events to sync
+     * @param paths  The paths affected by the events
+     */
+    protected void startSync(List<IEvent> events, List<Path> paths) {
+        this.nrOfRunningSyncs++;
+        this.syncExecutor.execute(() -> this.sync(events, paths));
+    }
+
+    /**
+     * Syncs the given events and starts waiting events afterwards
+     *
+     * @param events The events to sync
+     * @param paths  The paths affected by the events
+     */
+    protected void sync(List<IEvent> events, List<Path> paths) {
+        boolean hasEnteredGate = false;
+        try {
+            if (null != this.exchangeGate) {
+                this.exchangeGate.enter();
+                hasEnteredGate = true;
+            }
+
+            if (1 == events.size()) {
+                this.fileSyncer.sync(events.get(0));
+            } else {
+                this.fileSyncer.sync(events);
+            }
+        } catch (Exception e) {
+            logger.error("Error while syncing " + events.size() + " event(s) starting with " + events.get(0).getEventName() + " for path " + events.get(0).getPath().toString() + ". Message: " + e.getMessage(), e);
+        } finally {
+            if (hasEnteredGate) {
+                this.exchangeGate.leave();
+            }
+
+            synchronized (this.waitingEvents) {
+                for (Path path : paths) {
+                    this.pathsInSync.computeIfPresent(path, (key, count) -> count > 1 ? count - 1 : null);
+                }
+                this.nrOfRunningSyncs--;
+
+                this.startSyncs();
+                this.waitingEvents.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the paths which are affected by the given event,
+     * i.e. for a move the old and the new path
+     *
+     * @param event The event
+     *
+     * @return The affected paths
+     */
+    protected List<Path> getAffectedPaths(IEvent event) {
+        List<Path> paths = new ArrayList<>();
+        paths.add(event.getPath().normalize());
+
+        if (event instanceof MoveEvent) {
+            paths.add(((MoveEvent) event).getNewPath().normalize());
+        }
+
+        return paths;
+    }
+
+    /**
+     * Checks whether the given path, one of its ancestors or one
+     * of its descendants is locked
+     *
+     * @param path            The path to check
+     * @param lockedPaths     All locked paths
+     * @param lockedAncestors All ancestors of the locked paths
+     *
+     * @return True, if the path is locked
+     */
+    protected boolean isLocked(Path path, Set<Path> lockedPaths, Set<Path> lockedAncestors) {
+        if (lockedAncestors.contains(path)) {
+            // a descendant is locked
+            return true;
+        }
+
+        Path current = path;
+        while (null != current) {
+            if (lockedPaths.contains(current)) {
+                return true;
+            }
+
+            current = current.getParent();
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds all ancestors of the given path to the given set
+     *
+     * @param path      The path of which to add the ancestors
+     * @param ancestors The set to add them to
+     */
+    protected void addAncestors(Path path, Set<Path> ancestors) {
+        Path parent = path.getParent();
+        while (null != parent && ancestors.add(parent)) {
+            parent = parent.getParent();
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package org.rmatil.sync.core.syncer.sharing;
 
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.core.NodeLocationCache;
 import org.rmatil.sync.core.ShareNaming;
 import org.rmatil.sync.core.api.IShareEvent;
 import org.rmatil.sync.core.api.ISharingSyncer;
@@ -10,6 +12,8 @@ import org.rmatil.sync.core.messaging.sharingexchange.share.ShareExchangeHandler
 import org.rmatil.sync.core.messaging.sharingexchange.shared.SharedExchangeHandler;
 import org.rmatil.sync.core.messaging.sharingexchange.unshare.UnshareExchangeHandler;
 import org.rmatil.sync.core.messaging.sharingexchange.unshared.UnsharedExchangeHandler;
+import org.rmatil.sync.core.security.IAccessManager;
+import org.rmatil.sync.core.security.SharedPathTrie;
 import org.rmatil.sync.core.syncer.sharing.event.ShareEvent;
 import org.rmatil.sync.core.syncer.sharing.event.UnshareEvent;
 import org.rmatil.sync.network.api.INode;
@@ -34,12 +38,40 @@ public class SharingSyncer implements ISharingSyncer {
     protected ITreeStorageAdapter storageAdapter;
     protected IObjectStore        objectStore;
 
+    /**
+     * The access manager of which the cached access is invalidated after sharing or unsharing a path
+     */
+    protected IAccessManager accessManager;
+
+    /**
+     * The cache of the file ids of the node
+     */
+    protected IdentifierCache identifierCache;
+
+    /**
+     * The cache of the client locations of users
+     */
+    protected NodeLocationCache nodeLocationCache;
 
     public SharingSyncer(INode node, INodeManager nodeManager, ITreeStorageAdapter storageAdapter, IObjectStore objectStore) {
         this.node = node;
         this.nodeManager = nodeManager;
         this.storageAdapter = storageAdapter;
         this.objectStore = objectStore;
+        this.identifierCache = new IdentifierCache(node);
+        this.nodeLocationCache = new NodeLocationCache(nodeManager, 0L);
+    }
+
+    public void setAccessManager(IAccessManager accessManager) {
+        this.accessManager = accessManager;
+    }
+
+    public void setIdentifierCache(IdentifierCache identifierCache) {
+        this.identifierCache = identifierCache;
+    }
+
+    public void setNodeLocationCache(NodeLocationCache nodeLocationCache) {
+        this.nodeLocationCache = nodeLocationCache;
     }
 
     @Override
@@ -72,7 +104,7 @@ public class SharingSyncer implements ISharingSyncer {
 
         UUID fileId;
         try {
-            fileId = this.node.getIdentifierManager().getValue(sharingEvent.getRelativePath().toString());
+            fileId = this.identifierCache.getValue(sharingEvent.getRelativePath().toString());
         } catch (InputOutputException e) {
             String msg = "Could not find fileId for file " + sharingEvent.getRelativePath().toString() + ". Message: " + e.getMessage();
             logger.error(msg);
@@ -106,6 +138,7 @@ public class SharingSyncer implements ISharingSyncer {
                 sharingEvent.getRelativePath().toString(),
                 exchangeId
         );
+        sharedExchangeHandler.setNodeLocationCache(this.nodeLocationCache);
 
         this.node.getObjectDataReplyHandler().addResponseCallbackHandler(exchangeId, sharedExchangeHandler);
 
@@ -120,6 +153,7 @@ public class SharingSyncer implements ISharingSyncer {
         }
 
         this.node.getObjectDataReplyHandler().removeResponseCallbackHandler(exchangeId);
+        this.invalidateAccess(sharingEvent.getRelativePath().toString());
 
         if (! sharedExchangeHandler.isCompleted()) {
             String msg = "SharedExchangeHandler should be completed after awaiting. Did not send share request to sharer. Own clients may be inconsistent until next sync.";
@@ -131,7 +165,9 @@ public class SharingSyncer implements ISharingSyncer {
 
         String relativePathToSharedFolder;
         try {
-            relativePathToSharedFolder = ShareNaming.getRelativePathToSharedFolderBySharer(this.storageAdapter, this.objectStore, sharingEvent.getRelativePath().toString(), sharingEvent.getUsernameToShareWith(), sharingEvent.getAccessType());
+            // the sharers of the own clients have already been invalidated
+            SharedPathTrie sharedPathTrie = null != this.accessManager ? this.accessManager.getSharedPathTrie() : new SharedPathTrie(this.objectStore);
+            relativePathToSharedFolder = ShareNaming.getRelativePathToSharedFolderBySharer(sharedPathTrie, sharingEvent.getRelativePath().toString(), sharingEvent.getUsernameToShareWith(), sharingEvent.getAccessType());
         } catch (InputOutputException e) {
             logger.error("Can not determine the relative path to the shared folder. We continue with a shared file at the root of the shared directory. Message: " + e.getMessage(), e);
             relativePathToSharedFolder = "";
@@ -191,7 +227,7 @@ public class SharingSyncer implements ISharingSyncer {
 
         UUID fileId;
         try {
-            fileId = this.node.getIdentifierManager().getValue(unshareEvent.getRelativePath().toString());
+            fileId = this.identifierCache.getValue(unshareEvent.getRelativePath().toString());
         } catch (InputOutputException e) {
             String msg = "Could not fetch fileId for file " + unshareEvent.getRelativePath().toString() + ". Message: " + e.getMessage();
             logger.error(msg, e);
@@ -216,6 +252,7 @@ public class SharingSyncer implements ISharingSyncer {
                 unshareEvent.getUsernameToShareWith(),
                 exchangeId
         );
+        unsharedExchangeHandler.setNodeLocationCache(this.nodeLocationCache);
 
         this.node.getObjectDataReplyHandler().addResponseCallbackHandler(exchangeId, unsharedExchangeHandler);
 
@@ -230,6 +267,7 @@ public class SharingSyncer implements ISharingSyncer {
         }
 
         this.node.getObjectDataReplyHandler().removeResponseCallbackHandler(exchangeId);
+        this.invalidateAccess(unshareEvent.getRelativePath().toString());
 
         if (! unsharedExchangeHandler.isCompleted()) {
             String msg = "UnsharedExchangeHandler should be completed after awaiting. Unsharing might not be complete on own clients. Aborting";
@@ -279,7 +317,7 @@ public class SharingSyncer implements ISharingSyncer {
             throws SharingFailedException {
         List<NodeLocation> otherClientsLocations;
         try {
-            otherClientsLocations = this.nodeManager.getNodeLocations(sharer);
+            otherClientsLocations = this.nodeLocationCache.getNodeLocations(sharer);
         } catch (InputOutputException e) {
             logger.error("Could not fetch locations from " + sharer + ". Message: " + e.getMessage(), e);
             throw new SharingFailedException("Could not fetch locations from user " + sharer + ". Error: " + e.getMessage());
@@ -291,4 +329,15 @@ public class SharingSyncer implements ISharingSyncer {
 
         return otherClientsLocations.get(0);
     }
+
+    /**
+     * Discards the cached access of the given path, since its sharers have changed
+     *
+     * @param relativePath The relative path which has been shared or unshared
+     */
+    protected void invalidateAccess(String relativePath) {
+        if (null != this.accessManager) {
+            this.accessManager.invalidate(relativePath);
+        }
+    }
 }
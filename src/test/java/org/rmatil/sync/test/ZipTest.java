@@ -0,0 +1,90 @@
+package org.rmatil.sync.test;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.Zip;
+import org.rmatil.sync.persistence.core.tree.local.LocalStorageAdapter;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.rmatil.sync.test.base.BaseTest;
+import org.rmatil.sync.version.api.IObjectStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ZipTest extends BaseTest {
+
+    protected static final String OBJECT_STORE_NAME = "otherClient";
+    protected static final String LARGE_FILE        = OBJECT_FOLDER_NAME + "/ab/cdef.json";
+    protected static final String SMALL_FILE        = OBJECT_FOLDER_NAME + "/12/3456.json";
+    protected static final String EMPTY_FILE        = OBJECT_FOLDER_NAME + "/12/789a.json";
+    protected static final String UNSENT_FILE       = OBJECT_FOLDER_NAME + "/cd/ef01.json";
+
+    // spans multiple segments and ends with a partial one
+    protected static final byte[] LARGE_CONTENT = new byte[(Zip.SEGMENT_SIZE * 3) + 17];
+    protected static final byte[] SMALL_CONTENT = "some small object".getBytes();
+
+    protected static Path         objectStoreDir;
+    protected static IObjectStore objectStore;
+
+    @BeforeClass
+    public static void setUp()
+            throws IOException {
+        createTestDirs();
+        createObjectStoreDirs();
+        objectStore = createObjectStore(new LocalStorageAdapter(ROOT_TEST_DIR1));
+        objectStoreDir = ROOT_TEST_DIR1.resolve(SYNC_FOLDER_NAME);
+
+        new Random().nextBytes(LARGE_CONTENT);
+
+        write(objectStoreDir.resolve(LARGE_FILE), LARGE_CONTENT);
+        write(objectStoreDir.resolve(SMALL_FILE), SMALL_CONTENT);
+        write(objectStoreDir.resolve(EMPTY_FILE), new byte[0]);
+        write(objectStoreDir.resolve(UNSENT_FILE), SMALL_CONTENT);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        deleteTestDirs();
+    }
+
+    @Test
+    public void testZipPathsRoundTrip()
+            throws IOException, InputOutputException {
+        List<String> paths = new ArrayList<>();
+        paths.add(INDEX_FILE_NAME);
+        paths.add(LARGE_FILE);
+        paths.add(SMALL_FILE);
+        paths.add(EMPTY_FILE);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Zip.zipObjectStore(objectStore, paths, outputStream);
+
+        IObjectStore unzippedObjectStore = Zip.unzipObjectStore(objectStore, OBJECT_STORE_NAME, outputStream.toByteArray());
+        assertNotNull("Unzipped object store should not be null", unzippedObjectStore);
+
+        Path unzippedDir = objectStoreDir.resolve(OBJECT_STORE_NAME).resolve(SYNC_FOLDER_NAME);
+
+        assertArrayEquals("Index should be equal", Files.readAllBytes(objectStoreDir.resolve(INDEX_FILE_NAME)), Files.readAllBytes(unzippedDir.resolve(INDEX_FILE_NAME)));
+        assertArrayEquals("File spanning multiple segments should be equal", LARGE_CONTENT, Files.readAllBytes(unzippedDir.resolve(LARGE_FILE)));
+        assertArrayEquals("File of a single segment should be equal", SMALL_CONTENT, Files.readAllBytes(unzippedDir.resolve(SMALL_FILE)));
+
+        assertTrue("Empty file should be created", Files.exists(unzippedDir.resolve(EMPTY_FILE)));
+        assertEquals("Empty file should be empty", 0L, Files.size(unzippedDir.resolve(EMPTY_FILE)));
+
+        assertFalse("File not requested should not be zipped", Files.exists(unzippedDir.resolve(UNSENT_FILE)));
+    }
+
+    protected static void write(Path path, byte[] content)
+            throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, content);
+    }
+}
@@ -0,0 +1,73 @@
+package org.rmatil.sync.test.init.client;
+
+import org.junit.Test;
+import org.rmatil.sync.core.init.client.PathLeaseTable;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class PathLeaseTableTest {
+
+    @Test
+    public void testSiblings() {
+        PathLeaseTable pathLeases = new PathLeaseTable();
+        UUID exchangeId1 = UUID.randomUUID();
+        UUID exchangeId2 = UUID.randomUUID();
+
+        pathLeases.acquire(exchangeId1, "dir/file1.txt");
+
+        assertTrue("Exchange should hold its lease", pathLeases.isLeasedBy(exchangeId1, "dir/file1.txt"));
+        assertFalse("Other exchange should not hold the lease", pathLeases.isLeasedBy(exchangeId2, "dir/file1.txt"));
+
+        assertTrue("Same file should conflict", pathLeases.isConflicting(exchangeId2, "dir/file1.txt"));
+        assertFalse("Own lease should not conflict", pathLeases.isConflicting(exchangeId1, "dir/file1.txt"));
+        assertFalse("Sibling file should not conflict", pathLeases.isConflicting(exchangeId2, "dir/file2.txt"));
+        assertFalse("Unrelated path should not conflict", pathLeases.isConflicting(exchangeId2, "otherDir"));
+    }
+
+    @Test
+    public void testAncestorsAndDescendants() {
+        PathLeaseTable pathLeases = new PathLeaseTable();
+        UUID moveExchangeId = UUID.randomUUID();
+        UUID pushExchangeId = UUID.randomUUID();
+
+        pathLeases.acquire(moveExchangeId, "dir");
+        pathLeases.acquire(moveExchangeId, "movedDir");
+
+        assertTrue("Path below moved directory should conflict", pathLeases.isConflicting(pushExchangeId, "dir/sub/file.txt"));
+        assertTrue("Path below target directory should conflict", pathLeases.isConflicting(pushExchangeId, "movedDir/file.txt"));
+        assertFalse("Path with same prefix should not conflict", pathLeases.isConflicting(pushExchangeId, "dir2/file.txt"));
+
+        pathLeases.release(moveExchangeId);
+        assertEquals("No exchange should hold leases", 0, pathLeases.getNrOfExchanges());
+        assertFalse("Released lease should not conflict", pathLeases.isConflicting(pushExchangeId, "dir/sub/file.txt"));
+
+        pathLeases.acquire(pushExchangeId, "dir/sub/file.txt");
+        assertTrue("Move of parent directory should conflict", pathLeases.isConflicting(moveExchangeId, "dir"));
+        assertTrue("Move of parent directory should conflict", pathLeases.isConflicting(moveExchangeId, "dir/sub"));
+        assertFalse("Own exchange should not conflict with its parents", pathLeases.isConflicting(pushExchangeId, "dir"));
+    }
+
+    @Test
+    public void testRelease() {
+        PathLeaseTable pathLeases = new PathLeaseTable();
+        UUID exchangeId1 = UUID.randomUUID();
+        UUID exchangeId2 = UUID.randomUUID();
+        UUID exchangeId3 = UUID.randomUUID();
+
+        pathLeases.acquire(exchangeId1, "dir/file.txt");
+        pathLeases.acquire(exchangeId2, "dir/file.txt");
+        assertEquals("Both exchanges should hold leases", 2, pathLeases.getNrOfExchanges());
+
+        pathLeases.release(exchangeId1);
+        assertFalse("Released exchange should not hold the lease", pathLeases.isLeasedBy(exchangeId1, "dir/file.txt"));
+        assertTrue("Remaining lease should still conflict", pathLeases.isConflicting(exchangeId3, "dir"));
+
+        pathLeases.release(exchangeId2);
+        assertFalse("No lease should be left", pathLeases.isConflicting(exchangeId3, "dir"));
+
+        // releasing twice must not fail
+        pathLeases.release(exchangeId2);
+    }
+}
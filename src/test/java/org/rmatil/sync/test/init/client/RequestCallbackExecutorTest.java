@@ -0,0 +1,75 @@
+package org.rmatil.sync.test.init.client;
+
+import org.junit.Test;
+import org.rmatil.sync.core.init.client.RequestCallbackExecutor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RequestCallbackExecutorTest {
+
+    @Test
+    public void testDeferredCallbacks()
+            throws InterruptedException {
+        RequestCallbackExecutor executor = new RequestCallbackExecutor(1, 2, false);
+        assertFalse("Platform threads should be used", executor.isVirtual());
+
+        CountDownLatch blockingLatch = new CountDownLatch(1);
+        CountDownLatch startedLatch = new CountDownLatch(1);
+
+        executor.execute("RequestCallback-1", () -> {
+            startedLatch.countDown();
+            try {
+                blockingLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        assertTrue("First callback should be started", startedLatch.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch secondLatch = new CountDownLatch(1);
+        executor.execute("RequestCallback-2", secondLatch::countDown);
+
+        assertEquals("One callback should be running", 1, executor.getNrOfRunningCallbacks());
+        assertEquals("One callback should be queued", 1, executor.getQueueDepth());
+
+        assertTrue("Executor should be saturated by two pending callbacks", executor.isSaturated());
+
+        // the third callback is deferred until one of the others is completed
+        CountDownLatch thirdLatch = new CountDownLatch(1);
+        executor.execute("RequestCallback-3", thirdLatch::countDown);
+
+        assertEquals("Two callbacks should be waiting", 2, executor.getQueueDepth());
+        assertFalse("Deferred callback should not be run yet", thirdLatch.await(200L, TimeUnit.MILLISECONDS));
+
+        blockingLatch.countDown();
+
+        assertTrue("Second callback should be run", secondLatch.await(5, TimeUnit.SECONDS));
+        assertTrue("Deferred callback should be run once a callback is completed", thirdLatch.await(5, TimeUnit.SECONDS));
+        assertEquals("Submitting should have been deferred once", 1L, executor.getNrOfDeferredSubmissions());
+        assertEquals("Max queue depth should be recorded", 2, executor.getMaxQueueDepth());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRejectedAfterShutdown() {
+        RequestCallbackExecutor executor = new RequestCallbackExecutor(1, 1, false);
+        executor.shutdown();
+
+        try {
+            executor.execute("RequestCallback-1", () -> {
+            });
+            fail("Callbacks should be rejected once the executor has been shut down");
+        } catch (RejectedExecutionException e) {
+            // expected, the caller has to deny the request
+        }
+
+        assertEquals("Rejected callback should not be queued", 0, executor.getQueueDepth());
+        assertFalse("Rejected callback should not hold a slot", executor.isSaturated());
+    }
+}
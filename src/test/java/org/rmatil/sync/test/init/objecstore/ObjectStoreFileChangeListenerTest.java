@@ -0,0 +1,165 @@
+package org.rmatil.sync.test.init.objecstore;
+
+import org.junit.Test;
+import org.rmatil.sync.core.eventbus.AddOwnerAndAccessTypeToObjectStoreBusEvent;
+import org.rmatil.sync.core.eventbus.AddSharerToObjectStoreBusEvent;
+import org.rmatil.sync.core.init.objecstore.ObjectStoreFileChangeListener;
+import org.rmatil.sync.event.aggregator.core.events.*;
+import org.rmatil.sync.version.api.AccessType;
+import org.rmatil.sync.version.core.model.Sharer;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ObjectStoreFileChangeListenerTest {
+
+    protected static final Path   FILE       = Paths.get("myDir/myFile.txt");
+    protected static final Path   OTHER_FILE = Paths.get("myDir/myOtherFile.txt");
+    protected static final Path   MOVED_FILE = Paths.get("myDir/movedFile.txt");
+    protected static final String USERNAME   = "Tasha Yar";
+
+    @Test
+    public void testMergeModifyAndModify() {
+        RecordingObjectStoreFileChangeListener listener = new RecordingObjectStoreFileChangeListener();
+
+        List<IEvent> events = new ArrayList<>();
+        events.add(new ModifyEvent(FILE, FILE.getFileName().toString(), "hash1", 1L));
+        events.add(new ModifyEvent(OTHER_FILE, OTHER_FILE.getFileName().toString(), "otherHash", 2L));
+        events.add(new ModifyEvent(FILE, FILE.getFileName().toString(), "hash2", 3L));
+
+        listener.onChange(events);
+
+        assertEquals("Modifications of the same path should be merged", 2, listener.appliedEvents.size());
+        assertEquals("Merged modification should keep the position of the first one", FILE, listener.appliedEvents.get(0).getPath());
+        assertEquals("Only the last version should be stored", "hash2", listener.appliedEvents.get(0).getHash());
+        assertEquals("Other path should not be merged", "otherHash", listener.appliedEvents.get(1).getHash());
+    }
+
+    @Test
+    public void testMergeCreateAndModify() {
+        RecordingObjectStoreFileChangeListener listener = new RecordingObjectStoreFileChangeListener();
+
+        List<IEvent> events = new ArrayList<>();
+        events.add(new CreateEvent(FILE, FILE.getFileName().toString(), "hash1", 1L));
+        events.add(new ModifyEvent(FILE, FILE.getFileName().toString(), "hash2", 2L));
+        events.add(new ModifyEvent(FILE, FILE.getFileName().toString(), "hash3", 3L));
+
+        listener.onChange(events);
+
+        assertEquals("Creation and modifications should be merged", 1, listener.appliedEvents.size());
+
+        IEvent mergedEvent = listener.appliedEvents.get(0);
+        assertEquals("Path should be created", CreateEvent.EVENT_NAME, mergedEvent.getEventName());
+        assertEquals("Path should be created with its latest content", "hash3", mergedEvent.getHash());
+        assertEquals("Path should be created with the time of the latest modification", 3L, mergedEvent.getTimestamp());
+    }
+
+    @Test
+    public void testMoveClearsMerging() {
+        RecordingObjectStoreFileChangeListener listener = new RecordingObjectStoreFileChangeListener();
+
+        List<IEvent> events = new ArrayList<>();
+        events.add(new ModifyEvent(FILE, FILE.getFileName().toString(), "hash1", 1L));
+        events.add(new MoveEvent(OTHER_FILE, MOVED_FILE, OTHER_FILE.getFileName().toString(), "otherHash", 2L));
+        events.add(new ModifyEvent(FILE, FILE.getFileName().toString(), "hash2", 3L));
+
+        listener.onChange(events);
+
+        assertEquals("Modifications separated by a move should not be merged", 3, listener.appliedEvents.size());
+        assertEquals("First modification should be applied", "hash1", listener.appliedEvents.get(0).getHash());
+        assertEquals("Move should be applied in between", MoveEvent.EVENT_NAME, listener.appliedEvents.get(1).getEventName());
+        assertEquals("Second modification should be applied last", "hash2", listener.appliedEvents.get(2).getHash());
+    }
+
+    @Test
+    public void testDeleteAfterCreate() {
+        RecordingObjectStoreFileChangeListener listener = new RecordingObjectStoreFileChangeListener();
+        listener.handleSharerEvent(new AddSharerToObjectStoreBusEvent(FILE.toString(), createSharers()));
+        listener.handleOwnerEvent(new AddOwnerAndAccessTypeToObjectStoreBusEvent(USERNAME, AccessType.WRITE, FILE.toString()));
+
+        List<IEvent> events = new ArrayList<>();
+        events.add(new CreateEvent(FILE, FILE.getFileName().toString(), "hash1", 1L));
+        events.add(new DeleteEvent(FILE, FILE.getFileName().toString(), null, 2L));
+
+        listener.onChange(events);
+
+        assertEquals("Creation and deletion should both be applied", 2, listener.appliedEvents.size());
+        assertEquals("Path should be created first", CreateEvent.EVENT_NAME, listener.appliedEvents.get(0).getEventName());
+        assertEquals("Path should be deleted afterwards", DeleteEvent.EVENT_NAME, listener.appliedEvents.get(1).getEventName());
+        assertTrue("Sharers and owner of a deleted path should not be written", listener.writtenPaths.isEmpty());
+
+        // the discarded sharers and owner must not be written for a later creation
+        listener.onChange(Collections.singletonList(new CreateEvent(FILE, FILE.getFileName().toString(), "hash2", 3L)));
+        assertTrue("Discarded sharers and owner should not be written", listener.writtenPaths.isEmpty());
+    }
+
+    @Test
+    public void testApplySharersAndOwnerOnce() {
+        RecordingObjectStoreFileChangeListener listener = new RecordingObjectStoreFileChangeListener();
+        listener.handleSharerEvent(new AddSharerToObjectStoreBusEvent(FILE.toString(), createSharers()));
+        listener.handleOwnerEvent(new AddOwnerAndAccessTypeToObjectStoreBusEvent(USERNAME, AccessType.WRITE, FILE.toString()));
+
+        List<IEvent> events = new ArrayList<>();
+        events.add(new CreateEvent(FILE, FILE.getFileName().toString(), "hash1", 1L));
+        events.add(new ModifyEvent(FILE, FILE.getFileName().toString(), "hash2", 2L));
+        events.add(new ModifyEvent(OTHER_FILE, OTHER_FILE.getFileName().toString(), "otherHash", 3L));
+
+        listener.onChange(events);
+
+        assertEquals("Sharers and owner should be written once", 1, listener.writtenPaths.size());
+        assertEquals("Sharers and owner should be written for their path", FILE.toString(), listener.writtenPaths.get(0));
+        assertEquals("All sharers should be written", 1, listener.writtenSharers.size());
+        assertEquals("Owner should be written", USERNAME, listener.writtenOwners.get(0).getOwner());
+    }
+
+    protected static Set<Sharer> createSharers() {
+        Set<Sharer> sharers = new HashSet<>();
+        sharers.add(new Sharer("Geordi La Forge", AccessType.READ, new ArrayList<>()));
+
+        return sharers;
+    }
+
+    /**
+     * A listener recording the events and sharers to apply instead of writing them to an object store
+     */
+    protected static class RecordingObjectStoreFileChangeListener extends ObjectStoreFileChangeListener {
+
+        protected List<IEvent> appliedEvents = new ArrayList<>();
+
+        protected List<String> writtenPaths = new ArrayList<>();
+
+        protected Set<Sharer> writtenSharers = new HashSet<>();
+
+        protected List<AddOwnerAndAccessTypeToObjectStoreBusEvent> writtenOwners = new ArrayList<>();
+
+        public RecordingObjectStoreFileChangeListener() {
+            super(null);
+        }
+
+        @Override
+        protected void applyEvent(IEvent event) {
+            appliedEvents.add(event);
+        }
+
+        @Override
+        protected void removeSubtree(String path) {
+            appliedEvents.add(new DeleteEvent(Paths.get(path), Paths.get(path).getFileName().toString(), null, System.currentTimeMillis()));
+        }
+
+        @Override
+        protected void writeSharersAndOwner(String filePath, Set<Sharer> sharers, AddOwnerAndAccessTypeToObjectStoreBusEvent ownerEvent) {
+            writtenPaths.add(filePath);
+
+            if (null != sharers) {
+                writtenSharers.addAll(sharers);
+            }
+
+            if (null != ownerEvent) {
+                writtenOwners.add(ownerEvent);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.rmatil.sync.test.init.objecstore;
+
+import org.junit.Test;
+import org.rmatil.sync.core.init.objecstore.PathHashTree;
+
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class PathHashTreeTest {
+
+    @Test
+    public void testEqualTrees() {
+        PathHashTree tree1 = new PathHashTree();
+        PathHashTree tree2 = new PathHashTree();
+
+        assertEquals("Empty trees should have the same root hash", tree1.getRootHash(), tree2.getRootHash());
+
+        // insertion order must not matter
+        tree1.update(Paths.get("dir"), null);
+        tree1.update(Paths.get("dir/myFile.txt"), "hash1");
+        tree1.update(Paths.get("otherFile.txt"), "hash2");
+
+        tree2.update(Paths.get("otherFile.txt"), "hash2");
+        tree2.update(Paths.get("dir/myFile.txt"), "hash1");
+        tree2.update(Paths.get("dir"), null);
+
+        assertEquals("Trees should have the same root hash", tree1.getRootHash(), tree2.getRootHash());
+
+        tree2.update(Paths.get("dir/myFile.txt"), "changedHash");
+        assertNotEquals("Root hash should change", tree1.getRootHash(), tree2.getRootHash());
+
+        assertNotEquals("Changed subtree should differ", tree1.getHash(Paths.get("dir")), tree2.getHash(Paths.get("dir")));
+        assertEquals("Unchanged subtree should be equal", tree1.getHash(Paths.get("otherFile.txt")), tree2.getHash(Paths.get("otherFile.txt")));
+
+        tree2.update(Paths.get("dir/myFile.txt"), "hash1");
+        assertEquals("Root hash should be restored", tree1.getRootHash(), tree2.getRootHash());
+    }
+
+    @Test
+    public void testRemoveAndMove() {
+        PathHashTree tree1 = new PathHashTree();
+        tree1.update(Paths.get("dir/myFile.txt"), "hash1");
+        tree1.update(Paths.get("dir/sub/innerFile.txt"), "hash2");
+        String rootHash = tree1.getRootHash();
+
+        tree1.move(Paths.get("dir"), Paths.get("movedDir"));
+        assertNull("Old path should not exist anymore", tree1.getHash(Paths.get("dir")));
+        assertNotNull("Moved file should exist", tree1.getHash(Paths.get("movedDir/sub/innerFile.txt")));
+
+        PathHashTree tree2 = new PathHashTree();
+        tree2.update(Paths.get("movedDir/myFile.txt"), "hash1");
+        tree2.update(Paths.get("movedDir/sub/innerFile.txt"), "hash2");
+        assertEquals("Moved tree should match the newly created one", tree2.getRootHash(), tree1.getRootHash());
+
+        tree1.move(Paths.get("movedDir"), Paths.get("dir"));
+        assertEquals("Moving back should restore the root hash", rootHash, tree1.getRootHash());
+
+        tree1.remove(Paths.get("dir/sub"));
+        assertNull("Removed subtree should not exist", tree1.getHash(Paths.get("dir/sub/innerFile.txt")));
+        assertNotNull("Sibling of removed subtree should still exist", tree1.getHash(Paths.get("dir/myFile.txt")));
+    }
+}
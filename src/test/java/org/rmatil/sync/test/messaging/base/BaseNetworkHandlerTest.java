@@ -13,12 +13,16 @@ import org.rmatil.sync.core.init.client.ClientInitializer;
 import org.rmatil.sync.core.init.client.LocalStateObjectDataReplyHandler;
 import org.rmatil.sync.core.init.eventaggregator.EventAggregatorInitializer;
 import org.rmatil.sync.core.init.objecstore.ObjectStoreFileChangeListener;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleRequest;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleRequestHandler;
 import org.rmatil.sync.core.messaging.fileexchange.delete.FileDeleteRequest;
 import org.rmatil.sync.core.messaging.fileexchange.delete.FileDeleteRequestHandler;
 import org.rmatil.sync.core.messaging.fileexchange.demand.FileDemandRequest;
 import org.rmatil.sync.core.messaging.fileexchange.demand.FileDemandRequestHandler;
 import org.rmatil.sync.core.messaging.fileexchange.move.FileMoveRequest;
 import org.rmatil.sync.core.messaging.fileexchange.move.FileMoveRequestHandler;
+import org.rmatil.sync.core.messaging.fileexchange.offer.BatchFileOfferRequest;
+import org.rmatil.sync.core.messaging.fileexchange.offer.BatchFileOfferRequestHandler;
 import org.rmatil.sync.core.messaging.fileexchange.offer.FileOfferRequest;
 import org.rmatil.sync.core.messaging.fileexchange.offer.FileOfferRequestHandler;
 import org.rmatil.sync.core.messaging.fileexchange.push.FilePushRequest;
@@ -304,7 +308,9 @@ public abstract class BaseNetworkHandlerTest extends BaseTest {
         );
         // specify protocol
         objectDataReplyHandler.addRequestCallbackHandler(FileOfferRequest.class, FileOfferRequestHandler.class);
+        objectDataReplyHandler.addRequestCallbackHandler(BatchFileOfferRequest.class, BatchFileOfferRequestHandler.class);
         objectDataReplyHandler.addRequestCallbackHandler(FilePushRequest.class, FilePushRequestHandler.class);
+        objectDataReplyHandler.addRequestCallbackHandler(FileBundleRequest.class, FileBundleRequestHandler.class);
         objectDataReplyHandler.addRequestCallbackHandler(FileDeleteRequest.class, FileDeleteRequestHandler.class);
         objectDataReplyHandler.addRequestCallbackHandler(FileMoveRequest.class, FileMoveRequestHandler.class);
         objectDataReplyHandler.addRequestCallbackHandler(FetchObjectStoreRequest.class, FetchObjectStoreRequestHandler.class);
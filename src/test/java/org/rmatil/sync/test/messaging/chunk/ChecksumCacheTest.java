@@ -0,0 +1,102 @@
+package org.rmatil.sync.test.messaging.chunk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.chunk.ChecksumCache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class ChecksumCacheTest {
+
+    protected static final String CHECKSUM = "checksum";
+
+    protected Path rootDir;
+    protected Path file;
+
+    @Before
+    public void setUp()
+            throws IOException {
+        this.rootDir = Files.createTempDirectory("checksumCacheTest");
+        this.file = this.rootDir.resolve("myFile.txt");
+        Files.write(this.file, "some content".getBytes());
+    }
+
+    @After
+    public void tearDown()
+            throws IOException {
+        Files.deleteIfExists(this.rootDir.resolve("replacement.txt"));
+        Files.deleteIfExists(this.file);
+        Files.deleteIfExists(this.rootDir);
+    }
+
+    @Test
+    public void testUnchangedFile()
+            throws IOException {
+        ChecksumCache checksumCache = new ChecksumCache();
+        checksumCache.put(this.file.toString(), ChecksumCache.readState(this.file), CHECKSUM);
+
+        assertEquals("Checksum of unchanged file should be cached", CHECKSUM, checksumCache.get(this.file.toString(), ChecksumCache.readState(this.file)));
+
+        checksumCache.invalidate(this.file.toString());
+        assertNull("Invalidated checksum should not be returned", checksumCache.get(this.file.toString(), ChecksumCache.readState(this.file)));
+    }
+
+    @Test
+    public void testChangedSize()
+            throws IOException {
+        ChecksumCache checksumCache = new ChecksumCache();
+        checksumCache.put(this.file.toString(), ChecksumCache.readState(this.file), CHECKSUM);
+
+        Files.write(this.file, "some longer content".getBytes());
+
+        assertNull("Checksum of grown file should not be returned", checksumCache.get(this.file.toString(), ChecksumCache.readState(this.file)));
+    }
+
+    @Test
+    public void testWriteRestoringModificationTime()
+            throws IOException {
+        ChecksumCache checksumCache = new ChecksumCache();
+        ChecksumCache.FileState fileState = ChecksumCache.readState(this.file);
+        checksumCache.put(this.file.toString(), fileState, CHECKSUM);
+
+        FileTime lastModified = Files.getLastModifiedTime(this.file);
+        Files.write(this.file, "same length!".getBytes());
+        Files.setLastModifiedTime(this.file, lastModified);
+
+        ChecksumCache.FileState changedFileState = ChecksumCache.readState(this.file);
+
+        // only file systems providing a status change time detect such a write
+        if (! fileState.equals(changedFileState)) {
+            assertNull("Checksum of rewritten file should not be returned", checksumCache.get(this.file.toString(), changedFileState));
+        }
+    }
+
+    @Test
+    public void testReplacedFile()
+            throws IOException {
+        ChecksumCache checksumCache = new ChecksumCache();
+        ChecksumCache.FileState fileState = ChecksumCache.readState(this.file);
+        checksumCache.put(this.file.toString(), fileState, CHECKSUM);
+
+        // save by replacing, e.g. as editors do
+        FileTime lastModified = Files.getLastModifiedTime(this.file);
+        Path replacement = this.rootDir.resolve("replacement.txt");
+        Files.write(replacement, "some CONTENT".getBytes());
+        Files.setLastModifiedTime(replacement, lastModified);
+        Files.move(replacement, this.file, StandardCopyOption.REPLACE_EXISTING);
+
+        ChecksumCache.FileState replacedFileState = ChecksumCache.readState(this.file);
+
+        // only file systems providing a file key or a status change time detect the replacement
+        if (! fileState.equals(replacedFileState)) {
+            assertNull("Checksum of replaced file should not be returned", checksumCache.get(this.file.toString(), replacedFileState));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.rmatil.sync.test.messaging.chunk;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of compressing and decompressing a single chunk
+ * with the {@link ChunkCompressor} per compression level and content type.
+ * Since a chunk is 1MB, the reported operations per second equal MB/s.
+ * The compressed MB/s are reported along with the compression, i.e. their
+ * quotient is the compression ratio. Decompression is only measured for text,
+ * since incompressible chunks are sent as they are.
+ * <p>
+ * Run with <code>mvn test-compile exec:exec -Dbenchmark=org.rmatil.sync.test.messaging.chunk.ChunkCompressionBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkCompressionBenchmark {
+
+    protected static final int CHUNK_SIZE = 1024 * 1024; // 1MB
+
+    /**
+     * Compresses a chunk, including the trial on incompressible content
+     */
+    @Benchmark
+    public byte[] compress(UncompressedChunk chunk, CompressedSize compressedSize) {
+        byte[] compressedContent = chunk.chunkCompressor.compress(chunk.content);
+
+        // skipped chunks are sent uncompressed
+        compressedSize.compressedMegabytes += (null == compressedContent ? chunk.content.length : compressedContent.length) / (double) CHUNK_SIZE;
+
+        return compressedContent;
+    }
+
+    /**
+     * Restores a compressed chunk
+     */
+    @Benchmark
+    public byte[] decompress(CompressedTextChunk chunk)
+            throws InputOutputException {
+        return ChunkCompressor.decompress(chunk.compressedContent, CHUNK_SIZE);
+    }
+
+    /**
+     * A chunk to compress
+     */
+    @State(Scope.Benchmark)
+    public static class UncompressedChunk {
+
+        /**
+         * The deflate compression level
+         */
+        @Param({"1", "6", "9"})
+        public int level;
+
+        /**
+         * The content of the chunk: log-like text or random bytes like media files
+         */
+        @Param({"text", "random"})
+        public String contentType;
+
+        protected ChunkCompressor chunkCompressor;
+        protected byte[]          content;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            if ("text".equals(this.contentType)) {
+                this.content = ChunkCompressorTest.createText(CHUNK_SIZE);
+            } else {
+                this.content = new byte[CHUNK_SIZE];
+                new Random(42L).nextBytes(this.content);
+            }
+
+            this.chunkCompressor = new ChunkCompressor(this.level);
+        }
+    }
+
+    /**
+     * A text chunk compressed at each level
+     */
+    @State(Scope.Benchmark)
+    public static class CompressedTextChunk {
+
+        /**
+         * The deflate compression level
+         */
+        @Param({"1", "6", "9"})
+        public int level;
+
+        protected byte[] compressedContent;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.compressedContent = new ChunkCompressor(this.level).compress(ChunkCompressorTest.createText(CHUNK_SIZE));
+        }
+    }
+
+    /**
+     * The size of the compressed chunks, reported per second like the operations
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class CompressedSize {
+
+        public double compressedMegabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.compressedMegabytes = 0d;
+        }
+    }
+
+    public static void main(String[] args)
+            throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ChunkCompressionBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
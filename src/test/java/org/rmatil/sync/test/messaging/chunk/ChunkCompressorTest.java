@@ -0,0 +1,101 @@
+package org.rmatil.sync.test.messaging.chunk;
+
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.chunk.ChunkCompressor;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class ChunkCompressorTest {
+
+    protected static final int CHUNK_SIZE = 1024 * 1024; // 1MB
+
+    @Test
+    public void testCompressText()
+            throws InputOutputException {
+        byte[] content = createText(CHUNK_SIZE);
+
+        ChunkCompressor chunkCompressor = new ChunkCompressor(Deflater.BEST_SPEED);
+        byte[] compressedContent = chunkCompressor.compress(content);
+
+        assertNotNull("Text should be compressed", compressedContent);
+        assertTrue("Text should shrink considerably", compressedContent.length < content.length / 2);
+        assertArrayEquals("Decompressed content should be equal", content, ChunkCompressor.decompress(compressedContent, CHUNK_SIZE));
+    }
+
+    @Test
+    public void testSkipIncompressible() {
+        byte[] content = new byte[CHUNK_SIZE];
+        new Random(42L).nextBytes(content);
+
+        assertNull("Random data should not be compressed", new ChunkCompressor(Deflater.BEST_SPEED).compress(content));
+    }
+
+    @Test
+    public void testSkipIncompressibleSample() {
+        // the end of the chunk compresses well, the sample does not
+        byte[] content = createText(CHUNK_SIZE);
+        byte[] randomContent = new byte[ChunkCompressor.DEFAULT_SAMPLE_SIZE];
+        new Random(42L).nextBytes(randomContent);
+        System.arraycopy(randomContent, 0, content, 0, randomContent.length);
+
+        assertNull("Chunk with an incompressible sample should not be compressed", new ChunkCompressor(Deflater.BEST_SPEED).compress(content));
+    }
+
+    @Test
+    public void testDisabled() {
+        ChunkCompressor chunkCompressor = new ChunkCompressor(Deflater.NO_COMPRESSION);
+
+        assertFalse("Compressor should be disabled", chunkCompressor.isEnabled());
+        assertNull("Nothing should be compressed", chunkCompressor.compress(createText(CHUNK_SIZE)));
+    }
+
+    @Test
+    public void testSkipSmallChunks() {
+        assertNull("Small chunks should not be compressed", new ChunkCompressor(Deflater.BEST_SPEED).compress(createText(ChunkCompressor.MIN_CHUNK_SIZE - 1)));
+    }
+
+    @Test(expected = InputOutputException.class)
+    public void testExceedingChunkSize()
+            throws InputOutputException {
+        byte[] compressedContent = new ChunkCompressor(Deflater.BEST_SPEED).compress(createText(CHUNK_SIZE));
+
+        ChunkCompressor.decompress(compressedContent, CHUNK_SIZE / 2);
+    }
+
+    @Test(expected = InputOutputException.class)
+    public void testTruncated()
+            throws InputOutputException {
+        byte[] compressedContent = new ChunkCompressor(Deflater.BEST_SPEED).compress(createText(CHUNK_SIZE));
+
+        ChunkCompressor.decompress(Arrays.copyOf(compressedContent, compressedContent.length / 2), CHUNK_SIZE);
+    }
+
+    /**
+     * Creates log-like text of the given size
+     *
+     * @param size The size in bytes
+     *
+     * @return The text
+     */
+    public static byte[] createText(int size) {
+        StringBuilder stringBuilder = new StringBuilder(size);
+        Random random = new Random(42L);
+        while (stringBuilder.length() < size) {
+            stringBuilder.append("2016-05-21 14:03:")
+                    .append(random.nextInt(60))
+                    .append(" INFO  FilePushExchangeHandler - Sending chunk ")
+                    .append(random.nextInt(1000))
+                    .append(" to client 192.168.1.")
+                    .append(random.nextInt(255))
+                    .append(":4003\n");
+        }
+
+        return Arrays.copyOf(stringBuilder.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+}
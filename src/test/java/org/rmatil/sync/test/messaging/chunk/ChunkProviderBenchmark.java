@@ -0,0 +1,145 @@
+package org.rmatil.sync.test.messaging.chunk;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rmatil.sync.core.config.Config;
+import org.rmatil.sync.core.init.objecstore.ObjectStoreInitializer;
+import org.rmatil.sync.core.messaging.chunk.ChecksumCache;
+import org.rmatil.sync.core.messaging.chunk.ChunkProvider;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.persistence.core.tree.TreePathElement;
+import org.rmatil.sync.persistence.core.tree.local.LocalStorageAdapter;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.rmatil.sync.test.base.BaseTest;
+import org.rmatil.sync.version.api.IObjectStore;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of reading all chunks of a file through a {@link ChunkProvider}
+ * when the checksum of the whole file is computed for each chunk (as before)
+ * with a provider which caches the checksum. Apart from hashing,
+ * both read the same chunks and path objects.
+ * <p>
+ * Run with <code>mvn test-compile exec:exec -Dbenchmark=org.rmatil.sync.test.messaging.chunk.ChunkProviderBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkProviderBenchmark extends BaseTest {
+
+    protected static final int    CHUNK_SIZE = 1024 * 1024; // 1MB
+    protected static final String FILE_NAME  = "benchmarkFile.bin";
+
+    /**
+     * The size of the transferred file in megabytes
+     */
+    @Param({"1", "16", "128"})
+    public int fileSizeInMb;
+
+    protected Path                rootDir;
+    protected ITreeStorageAdapter storageAdapter;
+    protected IObjectStore        objectStore;
+    protected TreePathElement     pathElement;
+    protected long                totalNrOfChunks;
+
+    @Setup(Level.Trial)
+    public void setUp()
+            throws IOException, InputOutputException {
+        this.rootDir = Files.createTempDirectory("chunkProviderBenchmark");
+        Files.createDirectory(this.rootDir.resolve(Config.DEFAULT.getOsFolderName()));
+
+        byte[] content = new byte[CHUNK_SIZE];
+        new Random(42L).nextBytes(content);
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(this.rootDir.resolve(FILE_NAME).toString(), "rw");
+        for (int i = 0; i < this.fileSizeInMb; i++) {
+            randomAccessFile.write(content);
+        }
+        randomAccessFile.close();
+
+        this.storageAdapter = new LocalStorageAdapter(this.rootDir);
+
+        ObjectStoreInitializer objectStoreInitializer = new ObjectStoreInitializer(
+                this.storageAdapter,
+                Config.DEFAULT.getOsFolderName(),
+                Config.DEFAULT.getOsIndexName(),
+                Config.DEFAULT.getOsObjectFolderName()
+        );
+        this.objectStore = objectStoreInitializer.init();
+        objectStoreInitializer.start();
+
+        this.pathElement = new TreePathElement(FILE_NAME);
+        this.totalNrOfChunks = this.fileSizeInMb;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(this.rootDir.toFile());
+    }
+
+    /**
+     * Reads all chunks through a chunk provider which hashes the whole file for each of them
+     */
+    @Benchmark
+    public void checksumPerChunk(Blackhole blackhole)
+            throws InputOutputException {
+        ChunkProvider chunkProvider = new ChunkProvider(this.storageAdapter, this.objectStore, this.pathElement) {
+            @Override
+            protected String getChecksum()
+                    throws InputOutputException {
+                return this.storageAdapter.getChecksum(this.pathElement);
+            }
+        };
+
+        this.readAllChunks(chunkProvider, blackhole);
+    }
+
+    /**
+     * Reads all chunks through a chunk provider of a single exchange
+     */
+    @Benchmark
+    public void cachedChecksum(Blackhole blackhole)
+            throws InputOutputException {
+        // start each invocation with a cold cache
+        ChunkProvider chunkProvider = new ChunkProvider(this.storageAdapter, this.objectStore, this.pathElement, new ChecksumCache());
+
+        this.readAllChunks(chunkProvider, blackhole);
+    }
+
+    /**
+     * Reads all chunks of the file through the given chunk provider
+     *
+     * @param chunkProvider The chunk provider to read from
+     * @param blackhole     The blackhole consuming the chunks
+     *
+     * @throws InputOutputException If reading a chunk failed
+     */
+    protected void readAllChunks(ChunkProvider chunkProvider, Blackhole blackhole)
+            throws InputOutputException {
+        for (long chunkCounter = 0; chunkCounter < this.totalNrOfChunks; chunkCounter++) {
+            blackhole.consume(chunkProvider.getChunk(chunkCounter, CHUNK_SIZE));
+        }
+    }
+
+    public static void main(String[] args)
+            throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ChunkProviderBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
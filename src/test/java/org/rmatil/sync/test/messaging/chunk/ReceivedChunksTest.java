@@ -0,0 +1,74 @@
+package org.rmatil.sync.test.messaging.chunk;
+
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.chunk.ReceivedChunks;
+
+import static org.junit.Assert.*;
+
+public class ReceivedChunksTest {
+
+    protected static final long TOTAL_NR_OF_CHUNKS = 4L;
+
+    @Test
+    public void testNextMissingChunk() {
+        ReceivedChunks receivedChunks = new ReceivedChunks();
+        assertEquals("First chunk should be missing initially", 0L, receivedChunks.getNextMissingChunk());
+
+        assertFalse("File should not be complete after the first chunk", receivedChunks.markReceived(0, TOTAL_NR_OF_CHUNKS));
+        assertEquals("Second chunk should be missing", 1L, receivedChunks.getNextMissingChunk());
+
+        // chunks arrive out of order
+        assertFalse("File should not be complete with a gap", receivedChunks.markReceived(2, TOTAL_NR_OF_CHUNKS));
+        assertEquals("Chunk in the gap should be missing", 1L, receivedChunks.getNextMissingChunk());
+        assertTrue("Out of order chunk should be received", receivedChunks.isReceived(2));
+        assertFalse("Chunk in the gap should not be received", receivedChunks.isReceived(1));
+
+        assertFalse("File should not be complete with a gap", receivedChunks.markReceived(1, TOTAL_NR_OF_CHUNKS));
+        assertEquals("Chunk after the closed gap should be missing", 3L, receivedChunks.getNextMissingChunk());
+
+        assertTrue("File should be complete after the last chunk", receivedChunks.markReceived(3, TOTAL_NR_OF_CHUNKS));
+        assertEquals("Total number of chunks should be returned once complete", TOTAL_NR_OF_CHUNKS, receivedChunks.getNextMissingChunk());
+    }
+
+    @Test
+    public void testDuplicateChunks() {
+        ReceivedChunks receivedChunks = new ReceivedChunks();
+
+        for (long chunkCounter = 0; chunkCounter < TOTAL_NR_OF_CHUNKS - 1; chunkCounter++) {
+            receivedChunks.markReceived(chunkCounter, TOTAL_NR_OF_CHUNKS);
+        }
+
+        // a retransmitted chunk does not change the missing one
+        assertFalse("Duplicate should not complete the file", receivedChunks.markReceived(1, TOTAL_NR_OF_CHUNKS));
+        assertEquals("Last chunk should still be missing", TOTAL_NR_OF_CHUNKS - 1, receivedChunks.getNextMissingChunk());
+
+        assertTrue("Last chunk should complete the file", receivedChunks.markReceived(TOTAL_NR_OF_CHUNKS - 1, TOTAL_NR_OF_CHUNKS));
+        assertFalse("Completion should only be reported once", receivedChunks.markReceived(TOTAL_NR_OF_CHUNKS - 1, TOTAL_NR_OF_CHUNKS));
+    }
+
+    @Test
+    public void testEmptyFile() {
+        ReceivedChunks receivedChunks = new ReceivedChunks();
+
+        assertTrue("Empty file should be complete after its single chunk", receivedChunks.markReceived(0, 0));
+    }
+
+    @Test
+    public void testClear() {
+        ReceivedChunks receivedChunks = new ReceivedChunks();
+        receivedChunks.markReceived(0, TOTAL_NR_OF_CHUNKS);
+        receivedChunks.markReceived(1, TOTAL_NR_OF_CHUNKS);
+
+        // the file changed on the sending side
+        receivedChunks.clear();
+
+        assertEquals("All chunks should be missing after clearing", 0L, receivedChunks.getNextMissingChunk());
+        assertFalse("Cleared chunk should not be received", receivedChunks.isReceived(1));
+
+        for (long chunkCounter = 0; chunkCounter < TOTAL_NR_OF_CHUNKS - 1; chunkCounter++) {
+            assertFalse("File should not be complete before the last chunk", receivedChunks.markReceived(chunkCounter, TOTAL_NR_OF_CHUNKS));
+        }
+
+        assertTrue("Completion should be reported again after clearing", receivedChunks.markReceived(TOTAL_NR_OF_CHUNKS - 1, TOTAL_NR_OF_CHUNKS));
+    }
+}
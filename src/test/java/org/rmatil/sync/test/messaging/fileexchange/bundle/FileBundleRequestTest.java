@@ -0,0 +1,85 @@
+package org.rmatil.sync.test.messaging.fileexchange.bundle;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.BundledFile;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleRequest;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.Data;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.test.base.BaseMessageTest;
+import org.rmatil.sync.version.api.AccessType;
+import org.rmatil.sync.version.core.model.Sharer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.junit.Assert.*;
+
+public class FileBundleRequestTest extends BaseMessageTest {
+
+    protected static final String       RELATIVE_FILE_PATH = "path/to/myFile.txt";
+    protected static final String       RELATIVE_DIR_PATH  = "path/to/myDir";
+    protected static final UUID         FILE_ID            = UUID.randomUUID();
+    protected static final String       OWNER              = "Norman Gordon";
+    protected static final AccessType   ACCESS_TYPE        = AccessType.WRITE;
+    protected static final String       CHECKSUM           = "someChecksum";
+    protected static final Data         DATA               = new Data("Some content".getBytes(), false);
+    protected static final UUID         CLIENT_DEVICE_ID   = UUID.randomUUID();
+    protected static final ClientDevice CLIENT_DEVICE      = new ClientDevice("Inverness McKenzie", CLIENT_DEVICE_ID, null);
+    protected static final NodeLocation CLIENT_LOCATION    = new NodeLocation("Inverness McKenzie", CLIENT_DEVICE_ID, null);
+
+    protected static Set<Sharer>       sharers;
+    protected static List<BundledFile> bundledFiles;
+    protected static FileBundleRequest fileBundleRequest;
+
+    @BeforeClass
+    public static void setUp() {
+        sharers = new HashSet<>();
+        sharers.add(new Sharer("Dick Wheeler", AccessType.READ, new ArrayList<>()));
+
+        bundledFiles = new ArrayList<>();
+        bundledFiles.add(new BundledFile(RELATIVE_FILE_PATH, FILE_ID, OWNER, ACCESS_TYPE, sharers, CHECKSUM, true, DATA.getContent().length, DATA));
+        bundledFiles.add(new BundledFile(RELATIVE_DIR_PATH, null, null, null, new HashSet<>(), "", false, 0, null));
+
+        List<NodeLocation> receivers = new ArrayList<>();
+        receivers.add(CLIENT_LOCATION);
+
+        fileBundleRequest = new FileBundleRequest(
+                EXCHANGE_ID,
+                STATUS_CODE,
+                CLIENT_DEVICE,
+                bundledFiles,
+                receivers
+        );
+    }
+
+    @Test
+    public void test() {
+        assertEquals("ExchangeId not equal", EXCHANGE_ID, fileBundleRequest.getExchangeId());
+        assertEquals("StatusCode not equal", STATUS_CODE, fileBundleRequest.getStatusCode());
+        assertEquals("ClientDevice not equal", CLIENT_DEVICE, fileBundleRequest.getClientDevice());
+        assertThat("Receiver addresses should contain nodeLocation", fileBundleRequest.getReceiverAddresses(), hasItem(CLIENT_LOCATION));
+        assertEquals("Bundled files not equal", bundledFiles, fileBundleRequest.getBundledFiles());
+
+        BundledFile file = fileBundleRequest.getBundledFiles().get(0);
+        assertEquals("Path not equal", RELATIVE_FILE_PATH, file.getRelativeFilePath());
+        assertEquals("FileId not equal", FILE_ID, file.getFileId());
+        assertEquals("Owner not equal", OWNER, file.getOwner());
+        assertEquals("AccessType not equal", ACCESS_TYPE, file.getAccessType());
+        assertEquals("Sharers not equal", sharers, file.getSharers());
+        assertEquals("Checksum not equal", CHECKSUM, file.getChecksum());
+        assertTrue("Should be a file", file.isFile());
+        assertEquals("File size not equal", DATA.getContent().length, file.getTotalFileSize());
+        assertEquals("Data not equal", DATA, file.getData());
+
+        BundledFile dir = fileBundleRequest.getBundledFiles().get(1);
+        assertEquals("Path not equal", RELATIVE_DIR_PATH, dir.getRelativeFilePath());
+        assertFalse("Should be a directory", dir.isFile());
+        assertNull("Directory should not have data", dir.getData());
+    }
+}
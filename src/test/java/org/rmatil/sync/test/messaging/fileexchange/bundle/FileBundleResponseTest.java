@@ -0,0 +1,49 @@
+package org.rmatil.sync.test.messaging.fileexchange.bundle;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.fileexchange.bundle.FileBundleResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.test.base.BaseMessageTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class FileBundleResponseTest extends BaseMessageTest {
+
+    protected static final UUID         CLIENT_DEVICE_ID = UUID.randomUUID();
+    protected static final ClientDevice CLIENT_DEVICE    = new ClientDevice("Norman Gordon", CLIENT_DEVICE_ID, null);
+    protected static final NodeLocation CLIENT_LOCATION  = new NodeLocation("Norman Gordon", CLIENT_DEVICE_ID, null);
+
+    protected static List<StatusCode>   fileStatusCodes;
+    protected static FileBundleResponse fileBundleResponse;
+
+    @BeforeClass
+    public static void setUp() {
+        fileStatusCodes = new ArrayList<>();
+        fileStatusCodes.add(StatusCode.ACCEPTED);
+        fileStatusCodes.add(StatusCode.FILE_CHANGED);
+
+        fileBundleResponse = new FileBundleResponse(
+                EXCHANGE_ID,
+                STATUS_CODE,
+                CLIENT_DEVICE,
+                CLIENT_LOCATION,
+                fileStatusCodes
+        );
+    }
+
+    @Test
+    public void test() {
+        assertEquals("ExchangeId not equal", EXCHANGE_ID, fileBundleResponse.getExchangeId());
+        assertEquals("StatusCode not equal", STATUS_CODE, fileBundleResponse.getStatusCode());
+        assertEquals("ClientDevice not equal", CLIENT_DEVICE, fileBundleResponse.getClientDevice());
+        assertEquals("NodeLocation not equal", CLIENT_LOCATION, fileBundleResponse.getReceiverAddress());
+        assertEquals("File status codes not equal", fileStatusCodes, fileBundleResponse.getFileStatusCodes());
+    }
+}
@@ -0,0 +1,60 @@
+package org.rmatil.sync.test.messaging.fileexchange.delta;
+
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.fileexchange.delta.DeltaInstruction;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileDeltaRequest;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.test.base.BaseMessageTest;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.junit.Assert.*;
+
+public class FileDeltaRequestTest extends BaseMessageTest {
+
+    protected static final ClientDevice CLIENT_DEVICE      = new ClientDevice("Inverness McKenzie", UUID.randomUUID(), null);
+    protected static final NodeLocation RECEIVER_ADDRESS   = new NodeLocation("Inverness McKenzie", UUID.randomUUID(), null);
+    protected static final String       RELATIVE_FILE_PATH = "path/to/some/file.txt";
+    protected static final String       CHECKSUM           = "checksum";
+    protected static final long         TOTAL_FILE_SIZE    = 8192;
+    protected static final long         BATCH_COUNTER      = 2;
+    protected static final boolean      IS_LAST_BATCH      = true;
+
+    @Test
+    public void test() {
+        ArrayList<DeltaInstruction> instructions = new ArrayList<>();
+        instructions.add(DeltaInstruction.copy(0, 4096));
+        instructions.add(DeltaInstruction.literal(4096, 3).withData(new byte[]{1, 2, 3}));
+
+        FileDeltaRequest fileDeltaRequest = new FileDeltaRequest(
+                EXCHANGE_ID,
+                STATUS_CODE,
+                CLIENT_DEVICE,
+                RECEIVER_ADDRESS,
+                RELATIVE_FILE_PATH,
+                CHECKSUM,
+                TOTAL_FILE_SIZE,
+                BATCH_COUNTER,
+                IS_LAST_BATCH,
+                instructions
+        );
+
+        assertEquals("ExchangeId is not equal", EXCHANGE_ID, fileDeltaRequest.getExchangeId());
+        assertEquals("StatusCode is not equal", STATUS_CODE, fileDeltaRequest.getStatusCode());
+        assertEquals("ClientDevice is not equal", CLIENT_DEVICE, fileDeltaRequest.getClientDevice());
+        assertThat("Receiver address should be contained", fileDeltaRequest.getReceiverAddresses(), hasItem(RECEIVER_ADDRESS));
+        assertEquals("RelativeFilePath is not equal", RELATIVE_FILE_PATH, fileDeltaRequest.getRelativeFilePath());
+        assertEquals("Checksum is not equal", CHECKSUM, fileDeltaRequest.getChecksum());
+        assertEquals("TotalFileSize is not equal", TOTAL_FILE_SIZE, fileDeltaRequest.getTotalFileSize());
+        assertEquals("BatchCounter is not equal", BATCH_COUNTER, fileDeltaRequest.getBatchCounter());
+        assertEquals("IsLastBatch is not equal", IS_LAST_BATCH, fileDeltaRequest.isLastBatch());
+        assertEquals("Instructions are not equal", instructions, fileDeltaRequest.getInstructions());
+
+        DeltaInstruction literal = fileDeltaRequest.getInstructions().get(1);
+        assertFalse("Instruction should be a literal", literal.isCopy());
+        assertArrayEquals("Literal data is not equal", new byte[]{1, 2, 3}, literal.getData());
+    }
+}
@@ -0,0 +1,210 @@
+package org.rmatil.sync.test.messaging.fileexchange.delta;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.fileexchange.delta.BlockSignature;
+import org.rmatil.sync.core.messaging.fileexchange.delta.DeltaInstruction;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileDelta;
+import org.rmatil.sync.core.messaging.fileexchange.delta.RollingChecksum;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FileDeltaTest {
+
+    protected static final int FILE_SIZE  = 3 * 1024 * 1024 + 123; // 3MB and a partial block
+    protected static final int BLOCK_SIZE = 2 * 1024;
+
+    protected static Path tempDir;
+    protected static Path baseFile;
+
+    protected static byte[] baseContent;
+
+    @BeforeClass
+    public static void setUp()
+            throws IOException {
+        tempDir = Files.createTempDirectory("sync-delta");
+
+        baseContent = new byte[FILE_SIZE];
+        new Random(42L).nextBytes(baseContent);
+
+        baseFile = tempDir.resolve("base.bin");
+        Files.write(baseFile, baseContent);
+    }
+
+    @AfterClass
+    public static void tearDown()
+            throws IOException {
+        Files.deleteIfExists(baseFile);
+        Files.deleteIfExists(tempDir.resolve("new.bin"));
+        Files.deleteIfExists(tempDir);
+    }
+
+    @Test
+    public void testRollingChecksum() {
+        byte[] content = Arrays.copyOf(baseContent, 4 * BLOCK_SIZE);
+
+        RollingChecksum rollingChecksum = new RollingChecksum(content, 0, BLOCK_SIZE);
+        for (int i = 1; i <= 2 * BLOCK_SIZE; i++) {
+            rollingChecksum.roll(content[i - 1], content[i - 1 + BLOCK_SIZE]);
+            assertEquals("Rolled checksum should equal the computed one at offset " + i, new RollingChecksum(content, i, BLOCK_SIZE).getValue(), rollingChecksum.getValue());
+        }
+    }
+
+    @Test
+    public void testBlockSize() {
+        assertEquals("Small files should use the minimal block size", FileDelta.MIN_BLOCK_SIZE, FileDelta.getBlockSize(1024));
+        assertEquals("Huge files should use the maximal block size", FileDelta.MAX_BLOCK_SIZE, FileDelta.getBlockSize(Long.MAX_VALUE));
+        assertEquals("Block size should be the square root of the file size", 4 * 1024, FileDelta.getBlockSize(16L * 1024L * 1024L));
+    }
+
+    @Test
+    public void testUnchanged()
+            throws IOException {
+        List<DeltaInstruction> delta = this.computeDelta(baseContent);
+
+        assertEquals("Only the trailing partial block should be sent", FILE_SIZE % BLOCK_SIZE, FileDelta.getLiteralSize(delta));
+        assertTrue("Full blocks should be copied", delta.get(0).isCopy());
+        assertEquals("Copies of consecutive blocks should be merged", FILE_SIZE - FILE_SIZE % BLOCK_SIZE, delta.get(0).getLength());
+        assertArrayEquals("Reconstructed content should be equal", baseContent, this.apply(delta, baseContent));
+    }
+
+    @Test
+    public void testModifiedByte()
+            throws IOException {
+        byte[] newContent = Arrays.copyOf(baseContent, baseContent.length);
+        newContent[FILE_SIZE / 2] ^= 0xff;
+
+        List<DeltaInstruction> delta = this.computeDelta(newContent);
+
+        assertTrue("Only few blocks should be sent", FileDelta.getLiteralSize(delta) <= 2 * BLOCK_SIZE + FILE_SIZE % BLOCK_SIZE);
+        assertArrayEquals("Reconstructed content should be equal", newContent, this.apply(delta, newContent));
+    }
+
+    @Test
+    public void testInsertion()
+            throws IOException {
+        byte[] insertion = "some inserted bytes shifting the rest of the file".getBytes();
+        int position = FILE_SIZE / 3 + 7;
+
+        byte[] newContent = new byte[FILE_SIZE + insertion.length];
+        System.arraycopy(baseContent, 0, newContent, 0, position);
+        System.arraycopy(insertion, 0, newContent, position, insertion.length);
+        System.arraycopy(baseContent, position, newContent, position + insertion.length, FILE_SIZE - position);
+
+        List<DeltaInstruction> delta = this.computeDelta(newContent);
+
+        assertTrue("Shifted blocks should be found again", FileDelta.getLiteralSize(delta) <= 2 * BLOCK_SIZE + insertion.length + FILE_SIZE % BLOCK_SIZE);
+        assertArrayEquals("Reconstructed content should be equal", newContent, this.apply(delta, newContent));
+    }
+
+    @Test
+    public void testReplaced()
+            throws IOException {
+        byte[] newContent = new byte[FILE_SIZE];
+        new Random(1337L).nextBytes(newContent);
+
+        List<DeltaInstruction> delta = this.computeDelta(newContent);
+
+        assertEquals("Whole file should be sent", FILE_SIZE, FileDelta.getLiteralSize(delta));
+        assertArrayEquals("Reconstructed content should be equal", newContent, this.apply(delta, newContent));
+    }
+
+    @Test
+    public void testBatches() {
+        List<DeltaInstruction> delta = new ArrayList<>();
+        delta.add(DeltaInstruction.literal(0, 2500));
+        delta.add(DeltaInstruction.copy(0, 4096));
+        delta.add(DeltaInstruction.literal(2500, 700));
+
+        List<List<DeltaInstruction>> batches = FileDelta.toBatches(delta, 1000);
+
+        assertEquals("Literals should be split into batches", 4, batches.size());
+        for (List<DeltaInstruction> batch : batches) {
+            assertTrue("Batch should not exceed the maximal literal size", FileDelta.getLiteralSize(batch) <= 1000);
+        }
+
+        List<DeltaInstruction> batchedDelta = new ArrayList<>();
+        batches.forEach(batchedDelta::addAll);
+        assertEquals("Batches should contain all literal bytes", FileDelta.getLiteralSize(delta), FileDelta.getLiteralSize(batchedDelta));
+
+        assertEquals("An empty delta should result in a single batch", 1, FileDelta.toBatches(new ArrayList<>(), 1000).size());
+    }
+
+    @Test
+    public void testOverwrite()
+            throws IOException {
+        Path source = tempDir.resolve("source.bin");
+        Path target = tempDir.resolve("target.bin");
+
+        try {
+            byte[] content = Arrays.copyOf(baseContent, 4096);
+            Files.write(source, content);
+            Files.write(target, baseContent);
+
+            FileDelta.overwrite(source, target);
+
+            assertArrayEquals("Smaller content should replace the larger one", content, Files.readAllBytes(target));
+
+            Files.write(source, baseContent);
+            FileDelta.overwrite(source, target);
+
+            assertArrayEquals("Larger content should replace the smaller one", baseContent, Files.readAllBytes(target));
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingLiteralData()
+            throws IOException {
+        List<DeltaInstruction> delta = new ArrayList<>();
+        delta.add(DeltaInstruction.literal(0, 10));
+
+        FileDelta.apply(baseFile, delta, new ByteArrayOutputStream());
+    }
+
+    /**
+     * Writes the given content as new version and computes its delta against the base file
+     */
+    protected List<DeltaInstruction> computeDelta(byte[] newContent)
+            throws IOException {
+        Path newFile = tempDir.resolve("new.bin");
+        Files.write(newFile, newContent);
+
+        List<BlockSignature> signatures = FileDelta.computeSignatures(baseFile, BLOCK_SIZE);
+        assertEquals("Only full blocks should have a signature", FILE_SIZE / BLOCK_SIZE, signatures.size());
+
+        return FileDelta.computeDelta(newFile, BLOCK_SIZE, signatures);
+    }
+
+    /**
+     * Attaches the literal data like the sender and reconstructs the file like the receiver
+     */
+    protected byte[] apply(List<DeltaInstruction> delta, byte[] newContent)
+            throws IOException {
+        List<DeltaInstruction> instructions = new ArrayList<>();
+        for (DeltaInstruction instruction : delta) {
+            if (instruction.isCopy()) {
+                instructions.add(instruction);
+            } else {
+                instructions.add(instruction.withData(Arrays.copyOfRange(newContent, (int) instruction.getOffset(), (int) (instruction.getOffset() + instruction.getLength()))));
+            }
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        FileDelta.apply(baseFile, instructions, outputStream);
+
+        return outputStream.toByteArray();
+    }
+}
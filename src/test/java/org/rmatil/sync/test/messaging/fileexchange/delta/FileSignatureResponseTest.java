@@ -0,0 +1,46 @@
+package org.rmatil.sync.test.messaging.fileexchange.delta;
+
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.fileexchange.delta.BlockSignature;
+import org.rmatil.sync.core.messaging.fileexchange.delta.FileSignatureResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.test.base.BaseMessageTest;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class FileSignatureResponseTest extends BaseMessageTest {
+
+    protected static final ClientDevice CLIENT_DEVICE      = new ClientDevice("Inverness McKenzie", UUID.randomUUID(), null);
+    protected static final NodeLocation RECEIVER_ADDRESS   = new NodeLocation("Inverness McKenzie", UUID.randomUUID(), null);
+    protected static final String       RELATIVE_FILE_PATH = "path/to/some/file.txt";
+    protected static final int          BLOCK_SIZE         = 2048;
+
+    @Test
+    public void test() {
+        ArrayList<BlockSignature> signatures = new ArrayList<>();
+        signatures.add(new BlockSignature(0, 42, new byte[]{1, 2}));
+
+        FileSignatureResponse fileSignatureResponse = new FileSignatureResponse(
+                EXCHANGE_ID,
+                STATUS_CODE,
+                CLIENT_DEVICE,
+                RECEIVER_ADDRESS,
+                RELATIVE_FILE_PATH,
+                BLOCK_SIZE,
+                signatures
+        );
+
+        assertEquals("ExchangeId is not equal", EXCHANGE_ID, fileSignatureResponse.getExchangeId());
+        assertEquals("StatusCode is not equal", STATUS_CODE, fileSignatureResponse.getStatusCode());
+        assertEquals("ClientDevice is not equal", CLIENT_DEVICE, fileSignatureResponse.getClientDevice());
+        assertEquals("Receiver addresses should be equal", RECEIVER_ADDRESS, fileSignatureResponse.getReceiverAddress());
+        assertEquals("RelativeFilePath is not equal", RELATIVE_FILE_PATH, fileSignatureResponse.getRelativeFilePath());
+        assertEquals("BlockSize is not equal", BLOCK_SIZE, fileSignatureResponse.getBlockSize());
+        assertEquals("Signatures are not equal", signatures, fileSignatureResponse.getSignatures());
+        assertEquals("Weak checksum is not equal", 42, fileSignatureResponse.getSignatures().get(0).getWeakChecksum());
+    }
+}
@@ -0,0 +1,274 @@
+package org.rmatil.sync.test.messaging.fileexchange.demand;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.fileexchange.demand.FileDemandExchangeHandler;
+import org.rmatil.sync.core.messaging.fileexchange.demand.FileDemandResponse;
+import org.rmatil.sync.network.api.IResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.Data;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.test.messaging.base.BaseNetworkHandlerTest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests how the {@link FileDemandExchangeHandler} spreads chunk requests
+ * across multiple clients having the file and falls back to the others
+ * if one of them refuses or does not deliver in time
+ */
+public class FileDemandExchangeHandlerSourcesTest extends BaseNetworkHandlerTest {
+
+    protected static final int CHUNK_SIZE = 4;
+
+    protected static final long TOTAL_NR_OF_CHUNKS = 12L;
+
+    protected static final byte[] FILE_CONTENT = new byte[CHUNK_SIZE * (int) TOTAL_NR_OF_CHUNKS];
+
+    protected static ClientDevice SOURCE_1;
+    protected static ClientDevice SOURCE_2;
+    protected static ClientDevice SOURCE_3;
+
+    protected static Map<UUID, ClientDevice> SOURCES;
+
+    protected RecordingFileDemandExchangeHandler exchangeHandler;
+
+    protected UUID exchangeId;
+
+    protected String pathToFetch;
+
+    @BeforeClass
+    public static void setUpChild() {
+        new Random().nextBytes(FILE_CONTENT);
+
+        // the peer address is only used for logging
+        SOURCE_1 = new ClientDevice(USERNAME, UUID.randomUUID(), CLIENT_1.getPeerAddress());
+        SOURCE_2 = new ClientDevice(USERNAME, UUID.randomUUID(), CLIENT_1.getPeerAddress());
+        SOURCE_3 = new ClientDevice(USERNAME, UUID.randomUUID(), CLIENT_1.getPeerAddress());
+
+        SOURCES = new HashMap<>();
+        for (ClientDevice source : new ClientDevice[]{SOURCE_1, SOURCE_2, SOURCE_3}) {
+            SOURCES.put(source.getClientDeviceId(), source);
+        }
+    }
+
+    @Before
+    public void setUpHandler() {
+        List<NodeLocation> fetchAddresses = new ArrayList<>();
+        for (ClientDevice source : new ClientDevice[]{SOURCE_1, SOURCE_2, SOURCE_3}) {
+            fetchAddresses.add(new NodeLocation(source.getUserName(), source.getClientDeviceId(), source.getPeerAddress()));
+        }
+
+        this.exchangeId = UUID.randomUUID();
+        this.pathToFetch = UUID.randomUUID().toString() + ".txt";
+        this.exchangeHandler = new RecordingFileDemandExchangeHandler(fetchAddresses, this.pathToFetch, this.exchangeId);
+        this.exchangeHandler.start();
+    }
+
+    @Test
+    public void testSpreadChunkRequests()
+            throws IOException {
+        assertEquals("Only the first chunk should be requested initially", Collections.singletonList(0L), this.exchangeHandler.requestedChunks);
+        assertEquals("First chunk should be requested from the first client", SOURCE_1.getClientDeviceId(), this.exchangeHandler.requestedClients.get(0));
+
+        this.respond(0L);
+
+        assertEquals("Chunks should be requested from the first client up to the limit", FileDemandExchangeHandler.MAX_CHUNKS_IN_FLIGHT_PER_CLIENT, this.exchangeHandler.getNrOfChunksInFlightAt(SOURCE_1.getClientDeviceId()));
+        assertEquals("Chunks should be requested from the second client up to the limit", FileDemandExchangeHandler.MAX_CHUNKS_IN_FLIGHT_PER_CLIENT, this.exchangeHandler.getNrOfChunksInFlightAt(SOURCE_2.getClientDeviceId()));
+        assertEquals("Remaining chunks should be requested from the third client", 3, this.exchangeHandler.getNrOfChunksInFlightAt(SOURCE_3.getClientDeviceId()));
+
+        this.respondToAll();
+
+        assertTrue("Demand should be completed", this.exchangeHandler.isCompleted());
+        assertEquals("Each chunk should be requested exactly once", TOTAL_NR_OF_CHUNKS, this.exchangeHandler.requestedChunks.size());
+        assertEquals("Each chunk should be requested exactly once", TOTAL_NR_OF_CHUNKS, new HashSet<>(this.exchangeHandler.requestedChunks).size());
+        assertArrayEquals("File content should be equal", FILE_CONTENT, Files.readAllBytes(ROOT_TEST_DIR2.resolve(this.pathToFetch)));
+    }
+
+    @Test
+    public void testFallbackOnRefusal()
+            throws IOException {
+        this.respond(0L);
+
+        // chunks 5 to 8 are pending at the second client
+        this.exchangeHandler.onResponse(this.createResponse(SOURCE_2, StatusCode.DENIED, 5L));
+        int nrOfRequests = this.exchangeHandler.requestedChunks.size();
+
+        assertEquals("No chunk should be pending at the refusing client", 0, this.exchangeHandler.getNrOfChunksInFlightAt(SOURCE_2.getClientDeviceId()));
+        assertEquals("Chunk of the refusing client should be requested from a free client", SOURCE_3.getClientDeviceId(), this.exchangeHandler.getSource(5L));
+
+        this.respondToAll();
+
+        assertTrue("Demand should be completed", this.exchangeHandler.isCompleted());
+        assertFalse(
+                "Refusing client should not be requested anymore",
+                this.exchangeHandler.requestedClients.subList(nrOfRequests, this.exchangeHandler.requestedClients.size()).contains(SOURCE_2.getClientDeviceId())
+        );
+        assertArrayEquals("File content should be equal", FILE_CONTENT, Files.readAllBytes(ROOT_TEST_DIR2.resolve(this.pathToFetch)));
+    }
+
+    @Test
+    public void testFallbackOnTimeout()
+            throws IOException {
+        this.respond(0L);
+
+        // chunks 9 to 11 are pending at the third client
+        this.exchangeHandler.expireRequests(SOURCE_3.getClientDeviceId());
+        this.exchangeHandler.checkTimeouts();
+        int nrOfRequests = this.exchangeHandler.requestedChunks.size();
+
+        assertEquals("No chunk should be pending at the slow client", 0, this.exchangeHandler.getNrOfChunksInFlightAt(SOURCE_3.getClientDeviceId()));
+        assertNull("Chunk of the slow client should wait for a free client", this.exchangeHandler.getSource(9L));
+
+        // the slow client finally delivers, but the chunk is requested from another one
+        this.exchangeHandler.onResponse(this.createResponse(SOURCE_3, StatusCode.ACCEPTED, 9L));
+        assertNull("Late chunk of the slow client should be ignored", this.exchangeHandler.getSource(9L));
+
+        this.respondToAll();
+
+        assertTrue("Demand should be completed", this.exchangeHandler.isCompleted());
+        List<UUID> laterClients = this.exchangeHandler.requestedClients.subList(nrOfRequests, this.exchangeHandler.requestedClients.size());
+        assertFalse("Slow client should not be requested anymore", laterClients.contains(SOURCE_3.getClientDeviceId()));
+        assertTrue("Chunk of the slow client should be requested again", this.exchangeHandler.requestedChunks.subList(nrOfRequests, this.exchangeHandler.requestedChunks.size()).contains(9L));
+        assertArrayEquals("File content should be equal", FILE_CONTENT, Files.readAllBytes(ROOT_TEST_DIR2.resolve(this.pathToFetch)));
+    }
+
+    @Test
+    public void testTimeoutOfLastClient()
+            throws IOException {
+        this.respond(0L);
+
+        this.exchangeHandler.onResponse(this.createResponse(SOURCE_2, StatusCode.DENIED, 5L));
+        this.exchangeHandler.onResponse(this.createResponse(SOURCE_3, StatusCode.FILE_MISSING, 9L));
+
+        // the only client left is kept, even if it is slow
+        List<Long> pendingChunks = this.exchangeHandler.getChunksInFlight();
+        this.exchangeHandler.expireRequests(SOURCE_1.getClientDeviceId());
+        this.exchangeHandler.checkTimeouts();
+
+        for (Long chunkCounter : pendingChunks) {
+            assertEquals("Expired chunk should be requested again from the last client", SOURCE_1.getClientDeviceId(), this.exchangeHandler.getSource(chunkCounter));
+        }
+
+        this.respondToAll();
+
+        assertTrue("Demand should be completed", this.exchangeHandler.isCompleted());
+        assertArrayEquals("File content should be equal", FILE_CONTENT, Files.readAllBytes(ROOT_TEST_DIR2.resolve(this.pathToFetch)));
+    }
+
+    /**
+     * Responds to all pending chunk requests until the demand is completed
+     */
+    protected void respondToAll() {
+        for (int round = 0; round < TOTAL_NR_OF_CHUNKS && ! this.exchangeHandler.isCompleted(); round++) {
+            for (Long chunkCounter : this.exchangeHandler.getChunksInFlight()) {
+                this.respond(chunkCounter);
+            }
+        }
+    }
+
+    /**
+     * Delivers the given chunk from the client it has been requested from
+     *
+     * @param chunkCounter The chunk to deliver
+     */
+    protected void respond(long chunkCounter) {
+        this.exchangeHandler.onResponse(this.createResponse(SOURCES.get(this.exchangeHandler.getSource(chunkCounter)), StatusCode.ACCEPTED, chunkCounter));
+    }
+
+    protected FileDemandResponse createResponse(ClientDevice source, StatusCode statusCode, long chunkCounter) {
+        byte[] chunk = Arrays.copyOfRange(FILE_CONTENT, (int) chunkCounter * CHUNK_SIZE, (int) (chunkCounter + 1) * CHUNK_SIZE);
+
+        return new FileDemandResponse(
+                this.exchangeId,
+                statusCode,
+                source,
+                null,
+                this.pathToFetch,
+                true,
+                chunkCounter,
+                CHUNK_SIZE,
+                TOTAL_NR_OF_CHUNKS,
+                FILE_CONTENT.length,
+                new Data(chunk, false),
+                new NodeLocation(USERNAME, CLIENT_ID_2, CLIENT_2.getPeerAddress()),
+                new HashSet<>()
+        );
+    }
+
+    /**
+     * An exchange handler recording the chunks to request instead of sending the requests
+     */
+    protected static class RecordingFileDemandExchangeHandler extends FileDemandExchangeHandler {
+
+        protected List<Long> requestedChunks = new ArrayList<>();
+
+        protected List<UUID> requestedClients = new ArrayList<>();
+
+        public RecordingFileDemandExchangeHandler(List<NodeLocation> fetchAddresses, String pathToFetch, UUID exchangeId) {
+            super(STORAGE_ADAPTER_2, CLIENT_2, CLIENT_MANAGER_2, GLOBAL_EVENT_BUS_2, fetchAddresses, pathToFetch, exchangeId);
+        }
+
+        /**
+         * Requests the first chunk without starting the timer checking for timeouts
+         */
+        public synchronized void start() {
+            this.requestChunks();
+        }
+
+        /**
+         * Checks for timeouts without any deadline for the demand
+         */
+        public void checkTimeouts() {
+            super.checkTimeouts(Long.MAX_VALUE);
+        }
+
+        /**
+         * Lets all chunks pending at the given client time out
+         *
+         * @param clientDeviceId The id of the client
+         */
+        public synchronized void expireRequests(UUID clientDeviceId) {
+            for (Map.Entry<Long, UUID> entry : this.chunksInFlight.entrySet()) {
+                if (clientDeviceId.equals(entry.getValue())) {
+                    this.chunkRequestTimes.put(entry.getKey(), 0L);
+                }
+            }
+        }
+
+        public synchronized UUID getSource(long chunkCounter) {
+            return this.chunksInFlight.get(chunkCounter);
+        }
+
+        public synchronized List<Long> getChunksInFlight() {
+            return new ArrayList<>(this.chunksInFlight.keySet());
+        }
+
+        public synchronized int getNrOfChunksInFlightAt(UUID clientDeviceId) {
+            return this.getNrOfChunksInFlight(clientDeviceId);
+        }
+
+        @Override
+        protected void requestChunk(long chunkCounter, NodeLocation fetchAddress) {
+            this.requestedChunks.add(chunkCounter);
+            this.requestedClients.add(fetchAddress.getClientDeviceId());
+
+            this.chunksInFlight.put(chunkCounter, fetchAddress.getClientDeviceId());
+            this.chunkRequestTimes.put(chunkCounter, System.currentTimeMillis());
+        }
+
+        @Override
+        protected void finish(IResponse response) {
+            // no request has been sent over the network, i.e. there is no one to notify
+            this.chunksInFlight.clear();
+            this.chunkRequestTimes.clear();
+            this.receivedAllChunksCountDownLatch.countDown();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.rmatil.sync.test.messaging.fileexchange.move;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.fileexchange.move.SubtreeIdentifierMover;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class SubtreeIdentifierMoverTest {
+
+    protected static final Path ROOT_TEST_DIR = Paths.get("./org.rmatil.sync.test.subtreeIdentifierMover");
+
+    protected static final int NR_OF_CONCURRENT_MOVES = 4;
+
+    @BeforeClass
+    public static void setUp()
+            throws IOException {
+        Files.createDirectories(ROOT_TEST_DIR.resolve("newDir/innerDir"));
+        Files.write(ROOT_TEST_DIR.resolve("newDir/myFile.txt"), "content".getBytes());
+        Files.write(ROOT_TEST_DIR.resolve("newDir/innerDir/myFile.txt"), "content".getBytes());
+    }
+
+    @AfterClass
+    public static void tearDown()
+            throws IOException {
+        try (Stream<Path> paths = Files.walk(ROOT_TEST_DIR)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testGetSubtreeMoves()
+            throws IOException {
+        Map<String, String> moves = SubtreeIdentifierMover.getSubtreeMoves(ROOT_TEST_DIR, Paths.get("oldDir"), Paths.get("newDir"));
+
+        assertEquals("All paths of the directory should be moved", 4, moves.size());
+        assertEquals("Directory itself should be moved", "newDir", moves.get("oldDir"));
+        assertEquals("File should be moved", Paths.get("newDir/myFile.txt").toString(), moves.get(Paths.get("oldDir/myFile.txt").toString()));
+        assertEquals("Nested file should be moved", Paths.get("newDir/innerDir/myFile.txt").toString(), moves.get(Paths.get("oldDir/innerDir/myFile.txt").toString()));
+    }
+
+    @Test
+    public void testMoveAll()
+            throws InterruptedException {
+        Map<String, String> moves = new LinkedHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            moves.put("oldDir/myFile" + i + ".txt", "newDir/myFile" + i + ".txt");
+        }
+        moves.put("oldDir/missingFile.txt", "newDir/missingFile.txt");
+
+        RecordingSubtreeIdentifierMover mover = new RecordingSubtreeIdentifierMover();
+        int nrOfFailedMoves = mover.moveAll(moves);
+
+        assertEquals("Only the missing file should fail", 1, nrOfFailedMoves);
+        assertEquals("All other file ids should be moved", 20, mover.movedKeys.size());
+        assertEquals("File id should be moved to the new path", "newDir/myFile3.txt", mover.movedKeys.get("oldDir/myFile3.txt"));
+        assertTrue("At most " + NR_OF_CONCURRENT_MOVES + " moves should be in flight", mover.maxInFlight.get() <= NR_OF_CONCURRENT_MOVES);
+        assertTrue("Moves should run concurrently", mover.maxInFlight.get() > 1);
+    }
+
+    /**
+     * Records the moved file ids instead of moving them in the DHT
+     */
+    protected static class RecordingSubtreeIdentifierMover extends SubtreeIdentifierMover {
+
+        protected Map<String, String> movedKeys = new ConcurrentHashMap<>();
+
+        protected AtomicInteger inFlight = new AtomicInteger(0);
+
+        protected AtomicInteger maxInFlight = new AtomicInteger(0);
+
+        public RecordingSubtreeIdentifierMover() {
+            super(null, NR_OF_CONCURRENT_MOVES);
+        }
+
+        @Override
+        protected void moveKey(String oldPath, String newPath)
+                throws InputOutputException {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+            try {
+                Thread.sleep(10L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+
+            if (oldPath.contains("missingFile")) {
+                throw new InputOutputException("No file id for " + oldPath);
+            }
+
+            movedKeys.put(oldPath, newPath);
+        }
+    }
+}
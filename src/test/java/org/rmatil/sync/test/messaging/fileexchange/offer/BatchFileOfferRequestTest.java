@@ -0,0 +1,90 @@
+package org.rmatil.sync.test.messaging.fileexchange.offer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.fileexchange.offer.BatchFileOfferRequest;
+import org.rmatil.sync.core.messaging.fileexchange.offer.FileOffer;
+import org.rmatil.sync.core.messaging.fileexchange.offer.SerializableEvent;
+import org.rmatil.sync.event.aggregator.core.events.CreateEvent;
+import org.rmatil.sync.event.aggregator.core.events.DeleteEvent;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.test.base.BaseMessageTest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+public class BatchFileOfferRequestTest extends BaseMessageTest {
+
+    protected static final Path         PATH             = Paths.get("path/to/myFile.txt");
+    protected static final Path         OTHER_PATH       = Paths.get("path/to/myOtherFile.txt");
+    protected static final String       OWNER            = "owner";
+    protected static final UUID         FILE_ID          = UUID.randomUUID();
+    protected static final long         TIMESTAMP        = 1234567890;
+    protected static final String       HASH             = "thisIsAHash";
+    protected static final UUID         CLIENT_DEVICE_ID = UUID.randomUUID();
+    protected static final ClientDevice CLIENT_DEVICE    = new ClientDevice("Norman Gordon", CLIENT_DEVICE_ID, null);
+    protected static final NodeLocation CLIENT_LOCATION  = new NodeLocation("Norman Gordon", CLIENT_DEVICE_ID, null);
+
+    protected static SerializableEvent     createEvent;
+    protected static SerializableEvent     deleteEvent;
+    protected static List<FileOffer>       offers;
+    protected static BatchFileOfferRequest batchFileOfferRequest;
+
+    @BeforeClass
+    public static void setUp() {
+        List<NodeLocation> clientLocations = new ArrayList<>();
+        clientLocations.add(CLIENT_LOCATION);
+
+        createEvent = SerializableEvent.fromEvent(
+                new CreateEvent(PATH, PATH.getFileName().toString(), HASH, TIMESTAMP),
+                null,
+                true
+        );
+
+        deleteEvent = SerializableEvent.fromEvent(
+                new DeleteEvent(OTHER_PATH, OTHER_PATH.getFileName().toString(), HASH, TIMESTAMP),
+                null,
+                true
+        );
+
+        offers = new ArrayList<>();
+        offers.add(new FileOffer(FILE_ID, OWNER, createEvent));
+        offers.add(new FileOffer(null, null, deleteEvent));
+
+        batchFileOfferRequest = new BatchFileOfferRequest(
+                EXCHANGE_ID,
+                STATUS_CODE,
+                CLIENT_DEVICE,
+                offers,
+                clientLocations
+        );
+    }
+
+    @Test
+    public void test() {
+        assertEquals("ExchangeId not equal", EXCHANGE_ID, batchFileOfferRequest.getExchangeId());
+        assertEquals("StatusCode is not equal", STATUS_CODE, batchFileOfferRequest.getStatusCode());
+        assertEquals("ClientDevice not equal", CLIENT_DEVICE, batchFileOfferRequest.getClientDevice());
+        assertThat("Receiver addresses should contain nodeLocation", batchFileOfferRequest.getReceiverAddresses(), hasItem(CLIENT_LOCATION));
+        assertEquals("Offers are not equal", offers, batchFileOfferRequest.getOffers());
+
+        FileOffer first = batchFileOfferRequest.getOffers().get(0);
+        assertEquals("Event is not equal", createEvent, first.getEvent());
+        assertEquals("FileId should be equal", FILE_ID, first.getFileId());
+        assertEquals("Owner should be equal", OWNER, first.getOwner());
+
+        FileOffer second = batchFileOfferRequest.getOffers().get(1);
+        assertEquals("Event is not equal", deleteEvent, second.getEvent());
+        assertNull("FileId should be null", second.getFileId());
+        assertNull("Owner should be null", second.getOwner());
+    }
+}
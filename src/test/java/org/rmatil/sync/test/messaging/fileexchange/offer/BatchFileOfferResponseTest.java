@@ -0,0 +1,50 @@
+package org.rmatil.sync.test.messaging.fileexchange.offer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.fileexchange.offer.BatchFileOfferResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.test.base.BaseMessageTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchFileOfferResponseTest extends BaseMessageTest {
+
+    protected static final UUID         CLIENT_DEVICE_ID = UUID.randomUUID();
+    protected static final ClientDevice CLIENT_DEVICE    = new ClientDevice("Norman Gordon", CLIENT_DEVICE_ID, null);
+    protected static final NodeLocation CLIENT_LOCATION  = new NodeLocation("Norman Gordon", CLIENT_DEVICE_ID, null);
+
+    protected static List<StatusCode>       offerStatusCodes;
+    protected static BatchFileOfferResponse batchFileOfferResponse;
+
+    @BeforeClass
+    public static void setUp() {
+        offerStatusCodes = new ArrayList<>();
+        offerStatusCodes.add(StatusCode.ACCEPTED);
+        offerStatusCodes.add(StatusCode.CONFLICT);
+        offerStatusCodes.add(StatusCode.REQUEST_OBSOLETE);
+
+        batchFileOfferResponse = new BatchFileOfferResponse(
+                EXCHANGE_ID,
+                STATUS_CODE,
+                CLIENT_DEVICE,
+                CLIENT_LOCATION,
+                offerStatusCodes
+        );
+    }
+
+    @Test
+    public void test() {
+        assertEquals("ExchangeId not equal", EXCHANGE_ID, batchFileOfferResponse.getExchangeId());
+        assertEquals("StatusCode not equal", STATUS_CODE, batchFileOfferResponse.getStatusCode());
+        assertEquals("ClientDevice not equal", CLIENT_DEVICE, batchFileOfferResponse.getClientDevice());
+        assertEquals("NodeLocation not equal", CLIENT_LOCATION, batchFileOfferResponse.getReceiverAddress());
+        assertEquals("Offer status codes not equal", offerStatusCodes, batchFileOfferResponse.getOfferStatusCodes());
+    }
+}
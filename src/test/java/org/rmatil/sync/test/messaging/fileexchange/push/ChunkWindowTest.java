@@ -0,0 +1,132 @@
+package org.rmatil.sync.test.messaging.fileexchange.push;
+
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.fileexchange.push.ChunkWindow;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChunkWindowTest {
+
+    protected static final long TOTAL_NR_OF_CHUNKS = 10L;
+
+    @Test
+    public void testWindowLimits() {
+        ChunkWindow chunkWindow = new ChunkWindow(3);
+
+        chunkWindow.onSent(0, TOTAL_NR_OF_CHUNKS);
+        assertEquals("No chunk should be sent before the first one is acknowledged", - 1L, chunkWindow.getNextChunkToSend());
+
+        chunkWindow.onAcknowledged(0);
+        assertEquals("Second chunk should be sent once the first is acknowledged", 1L, chunkWindow.getNextChunkToSend());
+
+        chunkWindow.onSent(1, TOTAL_NR_OF_CHUNKS);
+        chunkWindow.onSent(2, TOTAL_NR_OF_CHUNKS);
+        chunkWindow.onSent(3, TOTAL_NR_OF_CHUNKS);
+        assertEquals("No chunk should be sent while the window is full", - 1L, chunkWindow.getNextChunkToSend());
+
+        chunkWindow.onAcknowledged(2);
+        assertEquals("Next chunk should be sent once a chunk is acknowledged", 4L, chunkWindow.getNextChunkToSend());
+
+        for (long chunkCounter = 4; chunkCounter < TOTAL_NR_OF_CHUNKS; chunkCounter++) {
+            chunkWindow.onAcknowledged(chunkCounter - 3);
+            chunkWindow.onSent(chunkCounter, TOTAL_NR_OF_CHUNKS);
+        }
+
+        chunkWindow.onAcknowledged(7);
+        assertEquals("No chunk should be sent after the last one", - 1L, chunkWindow.getNextChunkToSend());
+    }
+
+    @Test
+    public void testSingleChunk() {
+        ChunkWindow chunkWindow = new ChunkWindow(0);
+
+        // empty files are still sent as a single chunk
+        chunkWindow.onSent(0, 0);
+        chunkWindow.onAcknowledged(0);
+
+        assertEquals("No further chunk should be sent for an empty file", - 1L, chunkWindow.getNextChunkToSend());
+    }
+
+    @Test
+    public void testReset() {
+        ChunkWindow chunkWindow = new ChunkWindow(4);
+
+        chunkWindow.onSent(0, TOTAL_NR_OF_CHUNKS);
+        chunkWindow.onAcknowledged(0);
+        chunkWindow.onSent(1, TOTAL_NR_OF_CHUNKS);
+        chunkWindow.onSent(2, TOTAL_NR_OF_CHUNKS);
+        chunkWindow.onAcknowledged(1);
+
+        // the receiver got another checksum and starts over again
+        chunkWindow.reset();
+
+        assertEquals("No chunk should be sent before the first one is sent again", - 1L, chunkWindow.getNextChunkToSend());
+        assertTrue("No chunk should be in flight after a reset", chunkWindow.getExpiredChunks(- 1L).isEmpty());
+        assertFalse("Chunks of before the reset should not be missing", chunkWindow.isMissing(2));
+
+        chunkWindow.onSent(0, TOTAL_NR_OF_CHUNKS);
+        assertEquals("No chunk should be sent before the first one is acknowledged again", - 1L, chunkWindow.getNextChunkToSend());
+
+        chunkWindow.onAcknowledged(0);
+        assertEquals("Transfer should continue at the second chunk", 1L, chunkWindow.getNextChunkToSend());
+
+        chunkWindow.onSent(1, TOTAL_NR_OF_CHUNKS);
+        assertTrue("Chunk sent again should be in flight", chunkWindow.getExpiredChunks(- 1L).contains(1L));
+    }
+
+    @Test
+    public void testExpiredChunks()
+            throws InterruptedException {
+        ChunkWindow chunkWindow = new ChunkWindow(4);
+
+        chunkWindow.onSent(0, TOTAL_NR_OF_CHUNKS);
+        chunkWindow.onAcknowledged(0);
+        chunkWindow.onSent(1, TOTAL_NR_OF_CHUNKS);
+        chunkWindow.onSent(2, TOTAL_NR_OF_CHUNKS);
+
+        assertTrue("No chunk should be expired right after sending", chunkWindow.getExpiredChunks(60000L).isEmpty());
+
+        Thread.sleep(50L);
+        chunkWindow.onAcknowledged(1);
+
+        List<Long> expiredChunks = chunkWindow.getExpiredChunks(10L);
+        assertEquals("Only the unacknowledged chunk should be expired", 1, expiredChunks.size());
+        assertEquals("Unacknowledged chunk should be expired", 2L, (long) expiredChunks.get(0));
+
+        // retransmitting restarts the timeout
+        chunkWindow.onSent(2, TOTAL_NR_OF_CHUNKS);
+        assertTrue("Retransmitted chunk should not be expired", chunkWindow.getExpiredChunks(10L).isEmpty());
+    }
+
+    @Test
+    public void testOutOfOrderAcknowledgements() {
+        ChunkWindow chunkWindow = new ChunkWindow(4);
+
+        chunkWindow.onSent(0, TOTAL_NR_OF_CHUNKS);
+        chunkWindow.onAcknowledged(0);
+        for (long chunkCounter = 1; chunkCounter <= 4; chunkCounter++) {
+            chunkWindow.onSent(chunkCounter, TOTAL_NR_OF_CHUNKS);
+        }
+
+        // "ack 2 / request 4" is handled before "ack 3 / request 2"
+        chunkWindow.onAcknowledged(2);
+        assertFalse("Chunk in flight should not be missing", chunkWindow.isMissing(4));
+
+        chunkWindow.onAcknowledged(3);
+        assertFalse("Acknowledged chunk should not be missing", chunkWindow.isMissing(2));
+        assertFalse("Chunk in flight should not be missing", chunkWindow.isMissing(1));
+        assertFalse("Chunk never sent should not be missing", chunkWindow.isMissing(5));
+
+        assertEquals("Acknowledged chunks should free their slots", 5L, chunkWindow.getNextChunkToSend());
+        chunkWindow.onSent(5, TOTAL_NR_OF_CHUNKS);
+        chunkWindow.onSent(6, TOTAL_NR_OF_CHUNKS);
+
+        // a duplicate acknowledgement must not free another slot
+        chunkWindow.onAcknowledged(3);
+        assertEquals("Window should still be full", - 1L, chunkWindow.getNextChunkToSend());
+        assertEquals("Chunks 1, 4, 5 and 6 should be in flight", 4, chunkWindow.getExpiredChunks(- 1L).size());
+        assertFalse("Acknowledged chunk should not be missing after a duplicate acknowledgement", chunkWindow.isMissing(3));
+    }
+}
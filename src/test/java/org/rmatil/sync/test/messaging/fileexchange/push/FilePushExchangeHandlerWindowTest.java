@@ -0,0 +1,166 @@
+package org.rmatil.sync.test.messaging.fileexchange.push;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.messaging.fileexchange.push.ChunkWindow;
+import org.rmatil.sync.core.messaging.fileexchange.push.FilePushExchangeHandler;
+import org.rmatil.sync.core.messaging.fileexchange.push.FilePushResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests how the {@link FilePushExchangeHandler} fills the chunk window
+ * of a receiver when handling its responses
+ */
+public class FilePushExchangeHandlerWindowTest {
+
+    protected static final String RELATIVE_FILE_PATH = "myFile.txt";
+
+    protected static final long TOTAL_NR_OF_CHUNKS = 10L;
+
+    protected static final int WINDOW_SIZE = 3;
+
+    protected static final ClientDevice RECEIVER_DEVICE = new ClientDevice("Julian Bashir", UUID.randomUUID(), null);
+
+    protected RecordingFilePushExchangeHandler exchangeHandler;
+
+    protected UUID subExchangeId;
+
+    @Before
+    public void setUp() {
+        this.exchangeHandler = new RecordingFilePushExchangeHandler();
+        this.subExchangeId = UUID.randomUUID();
+        this.exchangeHandler.start(this.subExchangeId);
+    }
+
+    @Test
+    public void testFillWindow() {
+        assertEquals("Only the first chunk should be sent initially", Collections.singletonList(0L), this.exchangeHandler.sentChunks);
+
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 1, 0));
+        assertEquals("Window should be filled once the first chunk is acknowledged", createChunkList(0, 1, 2, 3), this.exchangeHandler.sentChunks);
+
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 2, 1));
+        assertEquals("One chunk should be sent per acknowledged chunk", createChunkList(0, 1, 2, 3, 4), this.exchangeHandler.sentChunks);
+
+        // the requested chunk is still in flight and is only retransmitted once expired
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 2, 3));
+        assertEquals("Chunk in flight should not be sent again", createChunkList(0, 1, 2, 3, 4, 5), this.exchangeHandler.sentChunks);
+
+        for (long chunkCounter = 2; chunkCounter < TOTAL_NR_OF_CHUNKS; chunkCounter++) {
+            this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, chunkCounter + 1, chunkCounter));
+        }
+
+        assertEquals("Each chunk should be sent exactly once", TOTAL_NR_OF_CHUNKS, this.exchangeHandler.sentChunks.size());
+    }
+
+    @Test
+    public void testOutOfOrderResponses() {
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 1, 0));
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 2, 1));
+
+        // "ack 2 / request 4" is handled before "ack 3 / request 2"
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 4, 2));
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 2, 3));
+
+        assertEquals("Acknowledged chunk should not be sent again", 1, Collections.frequency(this.exchangeHandler.sentChunks, 2L));
+        assertEquals("Window should be refilled for each acknowledged chunk", createChunkList(0, 1, 2, 3, 4, 5, 6), this.exchangeHandler.sentChunks);
+
+        // duplicate responses neither resend chunks nor exceed the window
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 2, 3));
+        assertEquals("Duplicate response should not send any chunk", 7, this.exchangeHandler.sentChunks.size());
+    }
+
+    @Test
+    public void testRestartOnFileChanged() {
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 1, 0));
+        this.exchangeHandler.sentChunks.clear();
+
+        // the receiver got another checksum than before
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.FILE_CHANGED, 0, 2));
+        assertEquals("Only the first chunk should be sent again", Collections.singletonList(0L), this.exchangeHandler.sentChunks);
+
+        // responses to chunks sent before the restart do not open the window
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 4, 3));
+        assertEquals("No chunk should be sent before the first one is acknowledged again", Collections.singletonList(0L), this.exchangeHandler.sentChunks);
+
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 1, 0));
+        assertEquals("Window should be filled again from the second chunk", createChunkList(0, 1, 2, 3), this.exchangeHandler.sentChunks);
+    }
+
+    @Test
+    public void testFailedWrite() {
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 1, 0));
+
+        // the receiver could not write chunk 2
+        this.exchangeHandler.onResponse(this.createResponse(StatusCode.ACCEPTED, 2, - 1));
+
+        assertEquals("Chunk which failed to be written should be sent again", createChunkList(0, 1, 2, 3, 2), this.exchangeHandler.sentChunks);
+    }
+
+    protected FilePushResponse createResponse(StatusCode statusCode, long requestedChunk, long acknowledgedChunk) {
+        return new FilePushResponse(
+                this.subExchangeId,
+                statusCode,
+                RECEIVER_DEVICE,
+                RELATIVE_FILE_PATH,
+                null,
+                requestedChunk,
+                acknowledgedChunk
+        );
+    }
+
+    protected static List<Long> createChunkList(long... chunkCounters) {
+        List<Long> chunks = new ArrayList<>();
+        for (long chunkCounter : chunkCounters) {
+            chunks.add(chunkCounter);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * An exchange handler recording the chunks to send instead of reading and sending them
+     */
+    protected static class RecordingFilePushExchangeHandler extends FilePushExchangeHandler {
+
+        protected List<Long> sentChunks = new ArrayList<>();
+
+        public RecordingFilePushExchangeHandler() {
+            super(UUID.randomUUID(), null, null, null, null, null, new ArrayList<>(), RELATIVE_FILE_PATH, WINDOW_SIZE);
+        }
+
+        /**
+         * Registers a receiver and sends it the first chunk
+         *
+         * @param subExchangeId The exchange id of the sub request to the receiver
+         */
+        public void start(UUID subExchangeId) {
+            NodeLocation receiver = new NodeLocation(RECEIVER_DEVICE.getUserName(), RECEIVER_DEVICE.getClientDeviceId(), null);
+            ChunkWindow chunkWindow = new ChunkWindow(this.windowSize);
+
+            this.chunkReceivers.put(subExchangeId, receiver);
+            this.chunkWindows.put(subExchangeId, chunkWindow);
+
+            synchronized (chunkWindow) {
+                this.sendChunk(0, null, null, subExchangeId, receiver, chunkWindow);
+            }
+        }
+
+        @Override
+        protected boolean sendChunk(long chunkCounter, UUID fileId, String owner, UUID exchangeId, NodeLocation receiver, ChunkWindow chunkWindow) {
+            this.sentChunks.add(chunkCounter);
+            chunkWindow.onSent(chunkCounter, TOTAL_NR_OF_CHUNKS);
+
+            return true;
+        }
+    }
+}
@@ -71,5 +71,6 @@ public class FilePushRequestTest extends BaseMessageTest {
         assertEquals("AccessType should be equal", ACCESS_TYPE, filePushRequest.getAccessType());
         assertEquals("Sharers should be equal", SHARERS, filePushRequest.getSharers());
         assertEquals("FileId should be equal", FILE_ID, filePushRequest.getFileId());
+        assertEquals("Data should not be compressed by default", false, filePushRequest.isCompressed());
     }
 }
@@ -15,6 +15,7 @@ public class FilePushResponseTest extends BaseMessageTest {
     protected static final ClientDevice CLIENT_DEVICE      = new ClientDevice("Inverness McKenzie", UUID.randomUUID(), null);
     protected static final String       RELATIVE_FILE_PATH = "path/to/some/file.txt";
     protected static final long         CHUNK_COUNTER      = 0;
+    protected static final long         ACKNOWLEDGED_CHUNK = 3;
     protected static final NodeLocation RECEIVER_ADDRESS   = new NodeLocation("Inverness McKenzie", UUID.randomUUID(), null);
 
     @Test
@@ -34,5 +35,19 @@ public class FilePushResponseTest extends BaseMessageTest {
         assertEquals("RelativeFilePath is not equal", RELATIVE_FILE_PATH, filePushResponse.getRelativeFilePath());
         assertEquals("ChunkCounter is not equal", CHUNK_COUNTER, filePushResponse.getChunkCounter());
         assertEquals("Receiver addresses should be equal", filePushResponse.getReceiverAddress(), RECEIVER_ADDRESS);
+        assertEquals("No chunk should be acknowledged", - 1, filePushResponse.getAcknowledgedChunkCounter());
+
+        FilePushResponse acknowledgingResponse = new FilePushResponse(
+                EXCHANGE_ID,
+                STATUS_CODE,
+                CLIENT_DEVICE,
+                RELATIVE_FILE_PATH,
+                RECEIVER_ADDRESS,
+                CHUNK_COUNTER,
+                ACKNOWLEDGED_CHUNK
+        );
+
+        assertEquals("ChunkCounter is not equal", CHUNK_COUNTER, acknowledgingResponse.getChunkCounter());
+        assertEquals("AcknowledgedChunkCounter is not equal", ACKNOWLEDGED_CHUNK, acknowledgingResponse.getAcknowledgedChunkCounter());
     }
 }
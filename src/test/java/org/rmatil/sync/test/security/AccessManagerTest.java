@@ -32,6 +32,9 @@ public class AccessManagerTest extends BaseTest {
     protected static final String OWNER_USER_NAME    = "owner";
     protected static final String SHARER_USER_NAME_1 = "sharer1";
     protected static final String SHARER_USER_NAME_2 = "sharer2";
+    protected static final String SHARER_USER_NAME_3 = "sharer3";
+    protected static final String SHARED_DIR_NAME    = "sharedDir";
+    protected static final String NESTED_FILE_NAME   = "nestedFile.txt";
 
     @BeforeClass
     public static void setUp()
@@ -67,6 +70,40 @@ public class AccessManagerTest extends BaseTest {
 
         objectStore.getObjectManager().writeObject(pathObject);
 
+        Set<Sharer> dirSharers = new HashSet<>();
+        dirSharers.add(new Sharer(
+                SHARER_USER_NAME_3,
+                AccessType.WRITE,
+                new ArrayList<>()
+        ));
+
+        PathObject sharedDir = new PathObject(
+                SHARED_DIR_NAME,
+                "",
+                PathType.DIRECTORY,
+                AccessType.WRITE,
+                true,
+                new Delete(DeleteType.EXISTENT, new ArrayList<>()),
+                OWNER_USER_NAME,
+                dirSharers,
+                new ArrayList<>()
+        );
+
+        PathObject nestedFile = new PathObject(
+                NESTED_FILE_NAME,
+                SHARED_DIR_NAME,
+                PathType.FILE,
+                AccessType.WRITE,
+                true,
+                new Delete(DeleteType.EXISTENT, new ArrayList<>()),
+                OWNER_USER_NAME,
+                new HashSet<>(),
+                new ArrayList<>()
+        );
+
+        objectStore.getObjectManager().writeObject(sharedDir);
+        objectStore.getObjectManager().writeObject(nestedFile);
+
         accessManager = new AccessManager(objectStore);
     }
 
@@ -91,4 +128,23 @@ public class AccessManagerTest extends BaseTest {
         assertTrue("User2 should have read permissions", accessManager.hasAccess(SHARER_USER_NAME_2, AccessType.READ, TEST_FILE_NAME));
         assertTrue("User2 should have access removed permissions", accessManager.hasAccess(SHARER_USER_NAME_2, AccessType.ACCESS_REMOVED, TEST_FILE_NAME));
     }
+
+    @Test
+    public void testInheritedAccess()
+            throws InputOutputException {
+        String nestedFilePath = SHARED_DIR_NAME + "/" + NESTED_FILE_NAME;
+
+        assertTrue("User3 should have write permissions inherited from the shared directory", accessManager.hasAccess(SHARER_USER_NAME_3, AccessType.WRITE, nestedFilePath));
+        assertFalse("User1 should not have permissions on the shared directory", accessManager.hasAccess(SHARER_USER_NAME_1, AccessType.READ, nestedFilePath));
+
+        // remove the sharer from the directory
+        PathObject sharedDir = objectStore.getObjectManager().getObjectForPath(SHARED_DIR_NAME);
+        sharedDir.setSharers(new HashSet<>());
+        objectStore.getObjectManager().writeObject(sharedDir);
+
+        accessManager.invalidate(SHARED_DIR_NAME);
+
+        assertFalse("User3 should not have write permissions after removing the sharer", accessManager.hasAccess(SHARER_USER_NAME_3, AccessType.WRITE, nestedFilePath));
+        assertFalse("User3 should not have write permissions on the directory after removing the sharer", accessManager.hasAccess(SHARER_USER_NAME_3, AccessType.WRITE, SHARED_DIR_NAME));
+    }
 }
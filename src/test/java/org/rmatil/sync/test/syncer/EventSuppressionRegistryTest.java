@@ -0,0 +1,88 @@
+package org.rmatil.sync.test.syncer;
+
+import org.junit.Test;
+import org.rmatil.sync.core.EventSuppressionRegistry;
+import org.rmatil.sync.event.aggregator.core.events.CreateEvent;
+import org.rmatil.sync.event.aggregator.core.events.DeleteEvent;
+import org.rmatil.sync.event.aggregator.core.events.IEvent;
+import org.rmatil.sync.event.aggregator.core.events.ModifyEvent;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class EventSuppressionRegistryTest {
+
+    protected static final Path PATH = Paths.get("somePath/to/testFile.txt");
+
+    protected static final IEvent CREATE_EVENT = new CreateEvent(PATH, PATH.getFileName().toString(), "someHash", System.currentTimeMillis());
+
+    protected static final IEvent MODIFY_EVENT = new ModifyEvent(PATH, PATH.getFileName().toString(), "someHash", System.currentTimeMillis());
+
+    @Test
+    public void testConsume() {
+        EventSuppressionRegistry registry = new EventSuppressionRegistry(60000L);
+
+        registry.suppress(MODIFY_EVENT);
+        registry.suppress(MODIFY_EVENT);
+        assertEquals("Both suppressions should be registered", 2, registry.getSize());
+
+        assertFalse("Event with other name should not be suppressed", registry.consume(CREATE_EVENT));
+        assertTrue("First modify event should be suppressed", registry.consume(MODIFY_EVENT));
+        assertTrue("Second modify event should be suppressed", registry.consume(MODIFY_EVENT));
+        assertFalse("Third modify event should not be suppressed", registry.consume(MODIFY_EVENT));
+
+        assertEquals("No suppression should be left", 0, registry.getSize());
+        assertEquals("Two suppressions should have matched", 2, registry.getNrOfMatchedSuppressions());
+    }
+
+    @Test
+    public void testClear() {
+        EventSuppressionRegistry registry = new EventSuppressionRegistry(60000L);
+
+        registry.suppress(MODIFY_EVENT);
+        registry.suppress(CREATE_EVENT);
+        registry.clear(ModifyEvent.EVENT_NAME, PATH.toString());
+
+        assertFalse("Cleared modify event should not be suppressed", registry.consume(MODIFY_EVENT));
+        assertTrue("Create event should still be suppressed", registry.consume(CREATE_EVENT));
+    }
+
+    @Test
+    public void testSuppressSubtree() {
+        EventSuppressionRegistry registry = new EventSuppressionRegistry(60000L);
+
+        Path dir = Paths.get("somePath/to");
+        registry.suppressSubtree(new DeleteEvent(dir, dir.getFileName().toString(), "someHash", System.currentTimeMillis()));
+
+        IEvent deleteEvent = new DeleteEvent(PATH, PATH.getFileName().toString(), "someHash", System.currentTimeMillis());
+        assertTrue("Delete of the directory itself should be suppressed", registry.consume(new DeleteEvent(dir, dir.getFileName().toString(), "someHash", System.currentTimeMillis())));
+        assertTrue("Delete below the directory should be suppressed", registry.consume(deleteEvent));
+        assertTrue("Subtree suppression should not be consumed", registry.consume(deleteEvent));
+
+        Path siblingPath = Paths.get("somePath/toOther.txt");
+        assertFalse("Delete of a sibling should not be suppressed", registry.consume(new DeleteEvent(siblingPath, siblingPath.getFileName().toString(), "someHash", System.currentTimeMillis())));
+        assertFalse("Other events below the directory should not be suppressed", registry.consume(MODIFY_EVENT));
+    }
+
+    @Test
+    public void testExpiry()
+            throws InterruptedException {
+        EventSuppressionRegistry registry = new EventSuppressionRegistry(10L);
+
+        registry.suppress(MODIFY_EVENT);
+        Thread.sleep(50L);
+
+        assertFalse("Expired suppression should not match", registry.consume(MODIFY_EVENT));
+        assertEquals("Suppression should have expired", 1, registry.getNrOfExpiredSuppressions());
+        assertEquals("No suppression should be left", 0, registry.getSize());
+
+        registry.suppress(CREATE_EVENT);
+        Thread.sleep(50L);
+        registry.purgeExpired();
+
+        assertEquals("Purged suppression should be removed", 0, registry.getSize());
+        assertEquals("Both suppressions should have expired", 2, registry.getNrOfExpiredSuppressions());
+    }
+}
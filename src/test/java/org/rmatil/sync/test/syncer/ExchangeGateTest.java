@@ -0,0 +1,57 @@
+package org.rmatil.sync.test.syncer;
+
+import org.junit.Test;
+import org.rmatil.sync.core.ExchangeGate;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ExchangeGateTest {
+
+    @Test
+    public void testAwaitActiveSyncs()
+            throws InterruptedException {
+        ExchangeGate gate = new ExchangeGate();
+
+        assertTrue("No sync should be active initially", gate.awaitActiveSyncs(0L));
+
+        gate.enter();
+        gate.close();
+        assertFalse("Entered sync should still be active", gate.awaitActiveSyncs(50L));
+
+        gate.leave();
+        assertTrue("No sync should be active after leaving", gate.awaitActiveSyncs(0L));
+
+        gate.open();
+    }
+
+    @Test
+    public void testEnterBlocksWhileClosed()
+            throws InterruptedException {
+        ExchangeGate gate = new ExchangeGate();
+        gate.close();
+        assertTrue("Gate should be closed", gate.isClosed());
+
+        CountDownLatch hasEntered = new CountDownLatch(1);
+        Thread syncThread = new Thread(() -> {
+            try {
+                gate.enter();
+                hasEntered.countDown();
+                gate.leave();
+            } catch (InterruptedException e) {
+                // test fails on the latch
+            }
+        });
+        syncThread.start();
+
+        assertFalse("Sync should not enter a closed gate", hasEntered.await(100L, TimeUnit.MILLISECONDS));
+
+        gate.open();
+        assertFalse("Gate should be open", gate.isClosed());
+        assertTrue("Sync should enter once the gate is opened", hasEntered.await(1000L, TimeUnit.MILLISECONDS));
+
+        syncThread.join(1000L);
+    }
+}
@@ -0,0 +1,149 @@
+package org.rmatil.sync.test.syncer;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.rmatil.sync.core.IdentifierCache;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class IdentifierCacheTest {
+
+    protected static final Path CACHE_FILE = Paths.get("./org.rmatil.sync.test.identifierCache.json");
+
+    @AfterClass
+    public static void tearDown()
+            throws IOException {
+        Files.deleteIfExists(CACHE_FILE);
+    }
+
+    @Test
+    public void testLookup()
+            throws InputOutputException {
+        RecordingIdentifierCache cache = new RecordingIdentifierCache(null);
+        UUID fileId = UUID.randomUUID();
+        cache.identifiers.put("myDir/myFile.txt", fileId);
+
+        assertEquals("File id should be fetched", fileId, cache.getValue("myDir/myFile.txt"));
+        assertEquals("File id should be cached", fileId, cache.getValue("myDir/myFile.txt"));
+        assertEquals("Path should be cached too", "myDir/myFile.txt", cache.getKey(fileId));
+        assertEquals("Only the first lookup should be fetched", 1, cache.nrOfFetches);
+        assertEquals("Two lookups should be hits", 2L, cache.getNrOfHits());
+
+        assertNull("Unknown path should have no file id", cache.getValue("myDir/otherFile.txt"));
+        assertNull("Unknown path should have no file id", cache.getValue("myDir/otherFile.txt"));
+        assertEquals("Absent file ids should not be cached", 3, cache.nrOfFetches);
+    }
+
+    @Test
+    public void testWriteThrough()
+            throws InputOutputException {
+        RecordingIdentifierCache cache = new RecordingIdentifierCache(null);
+        UUID fileId = UUID.randomUUID();
+
+        cache.addIdentifier("myDir/myFile.txt", fileId);
+        assertEquals("File id should be written to the identifier manager", fileId, cache.identifiers.get("myDir/myFile.txt"));
+        assertEquals("Added file id should be cached", fileId, cache.getValue("myDir/myFile.txt"));
+
+        cache.moveKey("myDir/myFile.txt", "myDir/movedFile.txt");
+        assertNull("Old path should be moved in the identifier manager", cache.identifiers.get("myDir/myFile.txt"));
+        assertNull("Old path should not be cached anymore", cache.getValue("myDir/myFile.txt"));
+        assertEquals("New path should be cached", "myDir/movedFile.txt", cache.getKey(fileId));
+
+        cache.removeIdentifier("myDir/movedFile.txt");
+        assertNull("File id should be removed from the identifier manager", cache.identifiers.get("myDir/movedFile.txt"));
+        assertEquals("No file id should be cached", 0, cache.size());
+        assertEquals("No lookup should have been fetched except the unknown ones", 1, cache.nrOfFetches);
+    }
+
+    @Test
+    public void testInvalidateSubtree()
+            throws InputOutputException {
+        RecordingIdentifierCache cache = new RecordingIdentifierCache(null);
+
+        cache.addIdentifier("myDir", UUID.randomUUID());
+        cache.addIdentifier("myDir/myFile.txt", UUID.randomUUID());
+        cache.addIdentifier("myDir2", UUID.randomUUID());
+
+        // another client has removed the directory
+        cache.identifiers.remove("myDir");
+        cache.identifiers.remove("myDir/myFile.txt");
+        cache.invalidateSubtree("myDir");
+
+        assertEquals("Only the sibling should be cached", 1, cache.size());
+        assertNull("Removed path should be fetched again", cache.getValue("myDir/myFile.txt"));
+        assertNotNull("Sibling should still be cached", cache.getValue("myDir2"));
+    }
+
+    @Test
+    public void testPersist()
+            throws InputOutputException, IOException {
+        RecordingIdentifierCache cache = new RecordingIdentifierCache(CACHE_FILE);
+        UUID fileId = UUID.randomUUID();
+        cache.addIdentifier("myDir/myFile.txt", fileId);
+        cache.persist();
+
+        RecordingIdentifierCache restoredCache = new RecordingIdentifierCache(CACHE_FILE);
+        assertEquals("Persisted file id should be loaded", fileId, restoredCache.getValue("myDir/myFile.txt"));
+        assertEquals("Persisted path should be loaded", "myDir/myFile.txt", restoredCache.getKey(fileId));
+        assertEquals("Loaded mappings should not be fetched", 0, restoredCache.nrOfFetches);
+    }
+
+    /**
+     * A cache using an in-memory map instead of the identifier manager of a node
+     */
+    protected static class RecordingIdentifierCache extends IdentifierCache {
+
+        protected Map<String, UUID> identifiers = new ConcurrentHashMap<>();
+
+        protected int nrOfFetches = 0;
+
+        public RecordingIdentifierCache(Path cacheFile) {
+            super(null, cacheFile);
+        }
+
+        @Override
+        protected UUID fetchValue(String path) {
+            nrOfFetches++;
+            return identifiers.get(path);
+        }
+
+        @Override
+        protected String fetchKey(UUID fileId) {
+            nrOfFetches++;
+            for (Map.Entry<String, UUID> entry : identifiers.entrySet()) {
+                if (entry.getValue().equals(fileId)) {
+                    return entry.getKey();
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        protected void storeIdentifier(String path, UUID fileId) {
+            identifiers.put(path, fileId);
+        }
+
+        @Override
+        protected void deleteIdentifier(String path) {
+            identifiers.remove(path);
+        }
+
+        @Override
+        protected void moveIdentifier(String oldPath, String newPath) {
+            UUID fileId = identifiers.remove(oldPath);
+            if (null != fileId) {
+                identifiers.put(newPath, fileId);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.rmatil.sync.test.syncer;
+
+import org.junit.Test;
+import org.rmatil.sync.core.IgnoreRuleSet;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IgnoreRuleSetTest {
+
+    protected static final List<Path> IGNORED_PATHS = Arrays.asList(
+            Paths.get(".sync"),
+            Paths.get("someDir/innerDir")
+    );
+
+    protected static final List<String> IGNORE_PATTERNS = Arrays.asList(
+            "**.DS_Store",
+            "*.tmp",
+            "exact/file.txt",
+            "report[0-9].pdf"
+    );
+
+    @Test
+    public void testIgnoredPaths() {
+        IgnoreRuleSet ignoreRules = new IgnoreRuleSet(IGNORED_PATHS, new ArrayList<>());
+
+        assertTrue("Ignored path itself should be ignored", ignoreRules.isIgnored(".sync"));
+        assertTrue("Path below ignored path should be ignored", ignoreRules.isIgnored(".sync/index.json"));
+        assertTrue("Path below nested ignored path should be ignored", ignoreRules.isIgnored("someDir/innerDir/myFile.txt"));
+
+        assertFalse("Parent of ignored path should not be ignored", ignoreRules.isIgnored("someDir"));
+        assertFalse("Sibling of ignored path should not be ignored", ignoreRules.isIgnored("someDir/innerDir2"));
+        assertFalse("Path with ignored path as string prefix should not be ignored", ignoreRules.isIgnored(".syncFolder"));
+    }
+
+    @Test
+    public void testIgnorePatterns() {
+        IgnoreRuleSet ignoreRules = new IgnoreRuleSet(new ArrayList<>(), IGNORE_PATTERNS);
+
+        assertTrue("Suffix pattern should match in root", ignoreRules.isIgnored(".DS_Store"));
+        assertTrue("Suffix pattern should match in subdirectory", ignoreRules.isIgnored("someDir/.DS_Store"));
+        assertTrue("Single star pattern should match in root", ignoreRules.isIgnored("myFile.tmp"));
+        assertFalse("Single star pattern should not match in subdirectory", ignoreRules.isIgnored("someDir/myFile.tmp"));
+        assertTrue("Literal pattern should match", ignoreRules.isIgnored("exact/file.txt"));
+        assertFalse("Literal pattern should not match longer path", ignoreRules.isIgnored("exact/file.txt.bak"));
+        assertTrue("Range pattern should match", ignoreRules.isIgnored("report1.pdf"));
+        assertFalse("Range pattern should not match other characters", ignoreRules.isIgnored("reportA.pdf"));
+    }
+
+    @Test
+    public void testSourceRules() {
+        IgnoreRuleSet ignoreRules = new IgnoreRuleSet(IGNORED_PATHS, IGNORE_PATTERNS);
+
+        assertEquals("Ignored paths should be the given ones", IGNORED_PATHS, ignoreRules.getIgnoredPaths());
+        assertEquals("Ignore patterns should be the given ones", IGNORE_PATTERNS, ignoreRules.getIgnorePatterns());
+
+        IgnoreRuleSet emptyRules = new IgnoreRuleSet(null, null);
+        assertFalse("No path should be ignored without rules", emptyRules.isIgnored("myFile.txt"));
+    }
+}
@@ -0,0 +1,140 @@
+package org.rmatil.sync.test.syncer;
+
+import org.junit.Test;
+import org.rmatil.sync.core.NodeLocationCache;
+import org.rmatil.sync.core.eventbus.BackgroundSyncHintBusEvent;
+import org.rmatil.sync.network.core.model.NodeLocation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class NodeLocationCacheTest {
+
+    protected static final String USERNAME = "Norman Gordon";
+
+    protected static final NodeLocation CLIENT_LOCATION = new NodeLocation(USERNAME, UUID.randomUUID(), null);
+
+    @Test
+    public void testLookup()
+            throws Exception {
+        RecordingNodeLocationCache cache = new RecordingNodeLocationCache(60000L);
+        cache.addLocation(USERNAME, CLIENT_LOCATION);
+
+        assertEquals("Location should be fetched", 1, cache.getNodeLocations(USERNAME).size());
+        assertEquals("Location should be cached", 1, cache.getNodeLocations(USERNAME).size());
+        assertEquals("Only the first lookup should be fetched", 1, cache.nrOfFetches);
+        assertEquals("Second lookup should be a hit", 1L, cache.getNrOfHits());
+        assertEquals("First lookup should be a miss", 1L, cache.getNrOfMisses());
+
+        // callers may modify the returned list
+        cache.getNodeLocations(USERNAME).clear();
+        assertEquals("Cached locations should not be modifiable", 1, cache.getNodeLocations(USERNAME).size());
+
+        assertTrue("Unknown user should have no locations", cache.getNodeLocations("Inverness McKenzie").isEmpty());
+        assertTrue("Unknown user should have no locations", cache.getNodeLocations("Inverness McKenzie").isEmpty());
+        assertEquals("Users without clients should not be cached", 3, cache.nrOfFetches);
+    }
+
+    @Test
+    public void testExpiry()
+            throws Exception {
+        RecordingNodeLocationCache cache = new RecordingNodeLocationCache(50L);
+        cache.addLocation(USERNAME, CLIENT_LOCATION);
+
+        cache.getNodeLocations(USERNAME);
+        Thread.sleep(100L);
+        cache.getNodeLocations(USERNAME);
+
+        assertEquals("Expired locations should be fetched again", 2, cache.nrOfFetches);
+    }
+
+    @Test
+    public void testNoCaching()
+            throws Exception {
+        RecordingNodeLocationCache cache = new RecordingNodeLocationCache(0L);
+        cache.addLocation(USERNAME, CLIENT_LOCATION);
+
+        cache.getNodeLocations(USERNAME);
+        cache.getNodeLocations(USERNAME);
+
+        assertEquals("Each lookup should be fetched without a time to live", 2, cache.nrOfFetches);
+        assertEquals("No lookup should be a hit", 0L, cache.getNrOfHits());
+    }
+
+    @Test
+    public void testInvalidation()
+            throws Exception {
+        RecordingNodeLocationCache cache = new RecordingNodeLocationCache(60000L);
+        cache.addLocation(USERNAME, CLIENT_LOCATION);
+
+        cache.getNodeLocations(USERNAME);
+        cache.handleHint(new BackgroundSyncHintBusEvent(BackgroundSyncHintBusEvent.Reason.EXCHANGE_DENIED));
+        cache.getNodeLocations(USERNAME);
+        assertEquals("Denied exchanges should not invalidate the cache", 1, cache.nrOfFetches);
+
+        cache.handleHint(new BackgroundSyncHintBusEvent(BackgroundSyncHintBusEvent.Reason.EXCHANGE_TIMED_OUT));
+        cache.getNodeLocations(USERNAME);
+        assertEquals("Timed out exchanges should invalidate the cache", 2, cache.nrOfFetches);
+
+        cache.handleHint(new BackgroundSyncHintBusEvent(BackgroundSyncHintBusEvent.Reason.CLIENT_JOINED));
+        cache.getNodeLocations(USERNAME);
+        assertEquals("Joined clients should invalidate the cache", 3, cache.nrOfFetches);
+
+        cache.invalidate(USERNAME);
+        cache.getNodeLocations(USERNAME);
+        assertEquals("Invalidated user should be fetched again", 4, cache.nrOfFetches);
+    }
+
+    @Test
+    public void testFailedSendInvalidation()
+            throws Exception {
+        String otherUsername = "Inverness McKenzie";
+        NodeLocation otherClientLocation = new NodeLocation(otherUsername, UUID.randomUUID(), null);
+
+        RecordingNodeLocationCache cache = new RecordingNodeLocationCache(60000L);
+        cache.addLocation(USERNAME, CLIENT_LOCATION);
+        cache.addLocation(otherUsername, otherClientLocation);
+
+        cache.getNodeLocations(USERNAME);
+        cache.getNodeLocations(otherUsername);
+        assertEquals("Both users should be fetched", 2, cache.nrOfFetches);
+
+        // sending to the client failed
+        cache.invalidate(new NodeLocation(USERNAME, CLIENT_LOCATION.getClientDeviceId(), null));
+
+        cache.getNodeLocations(USERNAME);
+        assertEquals("Locations containing the failed client should be fetched again", 3, cache.nrOfFetches);
+
+        cache.getNodeLocations(otherUsername);
+        assertEquals("Locations of other clients should be kept", 3, cache.nrOfFetches);
+    }
+
+    /**
+     * A cache using an in-memory map instead of the node manager
+     */
+    protected static class RecordingNodeLocationCache extends NodeLocationCache {
+
+        protected Map<String, List<NodeLocation>> nodeLocations = new HashMap<>();
+
+        protected int nrOfFetches = 0;
+
+        public RecordingNodeLocationCache(long timeToLive) {
+            super(null, timeToLive);
+        }
+
+        public void addLocation(String username, NodeLocation nodeLocation) {
+            nodeLocations.computeIfAbsent(username, k -> new ArrayList<>()).add(nodeLocation);
+        }
+
+        @Override
+        protected List<NodeLocation> fetchNodeLocations(String username) {
+            nrOfFetches++;
+            return new ArrayList<>(nodeLocations.getOrDefault(username, new ArrayList<>()));
+        }
+    }
+}
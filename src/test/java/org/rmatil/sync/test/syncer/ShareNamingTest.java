@@ -3,6 +3,7 @@ package org.rmatil.sync.test.syncer;
 import org.junit.Before;
 import org.junit.Test;
 import org.rmatil.sync.core.ShareNaming;
+import org.rmatil.sync.core.security.SharedPathTrie;
 import org.rmatil.sync.persistence.exceptions.InputOutputException;
 import org.rmatil.sync.test.messaging.base.BaseNetworkHandlerTest;
 import org.rmatil.sync.version.api.AccessType;
@@ -79,29 +80,29 @@ public class ShareNamingTest extends BaseNetworkHandlerTest {
     public void testGetUniqueFileName()
             throws InputOutputException, IOException {
 
-        String uniqueFile = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_FILE.toString(), true);
+        String uniqueFile = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_FILE.toString());
         assertEquals("Filename should be equal before a file exists", TEST_UNIQUE_FILE.toString(), uniqueFile);
 
         Files.write(ROOT_TEST_DIR1.resolve(TEST_UNIQUE_FILE), "blub".getBytes());
 
-        String uniqueFile2 = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_FILE.toString(), true);
+        String uniqueFile2 = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_FILE.toString());
         assertEquals("Filename should be different after a file has been written", TEST_DIR_1.toString() + "/myUniqueFile (1).txt", uniqueFile2);
 
         Files.write(ROOT_TEST_DIR1.resolve(uniqueFile2), "blub2".getBytes());
-        String uniqueFile3 = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_FILE.toString(), true);
+        String uniqueFile3 = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_FILE.toString());
         assertEquals("Filename should be different after a file has been written", TEST_DIR_1.toString() + "/myUniqueFile (2).txt", uniqueFile3);
 
         // test directories
-        String uniqueDir = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_DIR.toString(), false);
+        String uniqueDir = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_DIR.toString());
         assertEquals("Filename should be equal before a file exists", TEST_UNIQUE_DIR.toString(), uniqueDir);
 
         Files.createDirectory(ROOT_TEST_DIR1.resolve(TEST_UNIQUE_DIR));
 
-        String uniqueDir2 = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_DIR.toString(), false);
+        String uniqueDir2 = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_DIR.toString());
         assertEquals("Filename should be different after a file has been written", TEST_DIR_1.toString() + "/myUniqueDir (1)", uniqueDir2);
 
         Files.createDirectory(ROOT_TEST_DIR1.resolve(uniqueDir2));
-        String uniqueDir3 = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_DIR.toString(), false);
+        String uniqueDir3 = ShareNaming.getUniqueFileName(STORAGE_ADAPTER_1, TEST_UNIQUE_DIR.toString());
         assertEquals("Filename should be different after a file has been written", TEST_DIR_1.toString() + "/myUniqueDir (2)", uniqueDir3);
     }
 
@@ -110,7 +111,7 @@ public class ShareNamingTest extends BaseNetworkHandlerTest {
             throws InputOutputException, IOException {
 
         // try to get the name of a path which is not shared at all
-        String relativePath00 = ShareNaming.getRelativePathToSharedFolderBySharer(STORAGE_ADAPTER_1, OBJECT_STORE_1, TEST_DIR_1.toString(), USER_2.getUserName(), AccessType.WRITE);
+        String relativePath00 = ShareNaming.getRelativePathToSharedFolderBySharer(OBJECT_STORE_1, TEST_DIR_1.toString(), USER_2.getUserName(), AccessType.WRITE);
         assertEquals("Unshared path should be filename", TEST_DIR_1.getFileName().toString(), relativePath00);
 
         // ok, add the sharer to it
@@ -121,7 +122,7 @@ public class ShareNamingTest extends BaseNetworkHandlerTest {
         );
 
         // this should be still the same
-        relativePath00 = ShareNaming.getRelativePathToSharedFolderBySharer(STORAGE_ADAPTER_1, OBJECT_STORE_1, TEST_DIR_1.toString(), USER_2.getUserName(), AccessType.WRITE);
+        relativePath00 = ShareNaming.getRelativePathToSharedFolderBySharer(OBJECT_STORE_1, TEST_DIR_1.toString(), USER_2.getUserName(), AccessType.WRITE);
         assertEquals("Unshared path should be filename", TEST_DIR_1.getFileName().toString(), relativePath00);
 
         OBJECT_STORE_1.getSharerManager().removeSharer(
@@ -129,13 +130,13 @@ public class ShareNamingTest extends BaseNetworkHandlerTest {
                 TEST_DIR_1.toString()
         );
 
-        String relativePath0 = ShareNaming.getRelativePathToSharedFolderBySharer(STORAGE_ADAPTER_1, OBJECT_STORE_1, SOME_FILE.toString(), USER_2.getUserName(), AccessType.WRITE);
+        String relativePath0 = ShareNaming.getRelativePathToSharedFolderBySharer(OBJECT_STORE_1, SOME_FILE.toString(), USER_2.getUserName(), AccessType.WRITE);
         assertEquals("RelativePath should not be the whole path", SOME_INNER_INNER_DIR.getFileName().resolve(SOME_FILE.getFileName()).toString(), relativePath0);
 
-        String relativePath = ShareNaming.getRelativePathToSharedFolderBySharer(STORAGE_ADAPTER_1, OBJECT_STORE_1, SHARED_DIR.toString(), USER_2.getUserName(), AccessType.WRITE);
+        String relativePath = ShareNaming.getRelativePathToSharedFolderBySharer(OBJECT_STORE_1, SHARED_DIR.toString(), USER_2.getUserName(), AccessType.WRITE);
         assertEquals("RelativePathToSharedFolder should be equal", SHARED_DIR.getFileName().toString(), relativePath);
 
-        String relativePath2 = ShareNaming.getRelativePathToSharedFolderBySharer(STORAGE_ADAPTER_1, OBJECT_STORE_1, SHARED_FILE.toString(), USER_2.getUserName(), AccessType.WRITE);
+        String relativePath2 = ShareNaming.getRelativePathToSharedFolderBySharer(OBJECT_STORE_1, SHARED_FILE.toString(), USER_2.getUserName(), AccessType.WRITE);
         assertEquals("RelativePathToSharedFile should be equal", SHARED_DIR.getFileName().resolve(SHARED_FILE.getFileName()).toString(), relativePath2);
 
         OBJECT_STORE_1.getSharerManager().removeSharer(USER_2.getUserName(), SHARED_FILE.toString());
@@ -143,10 +144,10 @@ public class ShareNamingTest extends BaseNetworkHandlerTest {
         // add only read permissions to test file
         OBJECT_STORE_1.getSharerManager().removeSharer(USER_2.getUserName(), SHARED_FILE.toString());
         OBJECT_STORE_1.getSharerManager().addSharer(USER_2.getUserName(), AccessType.READ, SHARED_FILE.toString());
-        String relativePath3 = ShareNaming.getRelativePathToSharedFolderBySharer(STORAGE_ADAPTER_1, OBJECT_STORE_1, SHARED_DIR.toString(), USER_2.getUserName(), AccessType.WRITE);
+        String relativePath3 = ShareNaming.getRelativePathToSharedFolderBySharer(OBJECT_STORE_1, SHARED_DIR.toString(), USER_2.getUserName(), AccessType.WRITE);
         assertEquals("RelativePathToSharedFolder should be equal", SHARED_DIR.getFileName().toString(), relativePath3);
 
-        String relativePath4 = ShareNaming.getRelativePathToSharedFolderBySharer(STORAGE_ADAPTER_1, OBJECT_STORE_1, SHARED_FILE.toString(), USER_2.getUserName(), AccessType.READ);
+        String relativePath4 = ShareNaming.getRelativePathToSharedFolderBySharer(OBJECT_STORE_1, SHARED_FILE.toString(), USER_2.getUserName(), AccessType.READ);
         assertEquals("RelativePathToSharedFile should be equal", SHARED_FILE.getFileName().toString(), relativePath4);
 
         // re-add write permissions
@@ -166,14 +167,14 @@ public class ShareNamingTest extends BaseNetworkHandlerTest {
                 SOME_DIR.toString()
         );
 
-        String relativePath5 = ShareNaming.getRelativePathToSharedFolderBySharer(STORAGE_ADAPTER_1, OBJECT_STORE_1, SOME_INNER_DIR.toString(), USER_2.getUserName(), AccessType.WRITE);
+        String relativePath5 = ShareNaming.getRelativePathToSharedFolderBySharer(OBJECT_STORE_1, SOME_INNER_DIR.toString(), USER_2.getUserName(), AccessType.WRITE);
         assertEquals("Path should be the same", SOME_INNER_DIR.toString(), relativePath5);
 
-        String relativePath6 = ShareNaming.getRelativePathToSharedFolderBySharer(STORAGE_ADAPTER_1, OBJECT_STORE_1, SOME_DIR.toString(), USER_2.getUserName(), AccessType.WRITE);
+        String relativePath6 = ShareNaming.getRelativePathToSharedFolderBySharer(OBJECT_STORE_1, SOME_DIR.toString(), USER_2.getUserName(), AccessType.WRITE);
         assertEquals("Path should be the same", SOME_DIR.toString(), relativePath6);
 
         // check that the whole path is shared
-        String relativePath7 = ShareNaming.getRelativePathToSharedFolderBySharer(STORAGE_ADAPTER_1, OBJECT_STORE_1, SOME_FILE.toString(), USER_2.getUserName(), AccessType.WRITE);
+        String relativePath7 = ShareNaming.getRelativePathToSharedFolderBySharer(OBJECT_STORE_1, SOME_FILE.toString(), USER_2.getUserName(), AccessType.WRITE);
         assertEquals("Path should be the same", SOME_FILE.toString(), relativePath7);
     }
 
@@ -190,21 +191,47 @@ public class ShareNamingTest extends BaseNetworkHandlerTest {
                 SHARED_FILE.toString()
         );
 
-        String relativePath0 = ShareNaming.getRelativePathToSharedFolderByOwner(STORAGE_ADAPTER_1, OBJECT_STORE_1, SHARED_DIR.toString(), USER_1.getUserName());
+        String relativePath0 = ShareNaming.getRelativePathToSharedFolderByOwner(OBJECT_STORE_1, SHARED_DIR.toString(), USER_1.getUserName());
         assertEquals("RelativePath should be the name of the sharedDir", SHARED_DIR.getFileName().toString(), relativePath0);
 
-        String relativePath = ShareNaming.getRelativePathToSharedFolderByOwner(STORAGE_ADAPTER_1, OBJECT_STORE_1, SHARED_FILE.toString(), USER_1.getUserName());
+        String relativePath = ShareNaming.getRelativePathToSharedFolderByOwner(OBJECT_STORE_1, SHARED_FILE.toString(), USER_1.getUserName());
         assertEquals("RelativePath should be sharedDir/sharedFile", SHARED_DIR.getFileName().resolve(SHARED_FILE.getFileName()).toString(), relativePath);
 
         OBJECT_STORE_1.getSharerManager().removeOwner(SHARED_DIR.toString());
 
         // path should now only be sharedFile
-        String relativePath1 = ShareNaming.getRelativePathToSharedFolderByOwner(STORAGE_ADAPTER_1, OBJECT_STORE_1, SHARED_FILE.toString(), USER_1.getUserName());
+        String relativePath1 = ShareNaming.getRelativePathToSharedFolderByOwner(OBJECT_STORE_1, SHARED_FILE.toString(), USER_1.getUserName());
         assertEquals("RelativePath should be sharedFile", SHARED_FILE.getFileName().toString(), relativePath1);
 
         // check a file which does not have an owner
-        String relativePath2 = ShareNaming.getRelativePathToSharedFolderByOwner(STORAGE_ADAPTER_1, OBJECT_STORE_1, TEST_UNIQUE_FILE.toString(), USER_1.getUserName());
+        String relativePath2 = ShareNaming.getRelativePathToSharedFolderByOwner(OBJECT_STORE_1, TEST_UNIQUE_FILE.toString(), USER_1.getUserName());
         assertEquals("RelativePath should be filename", TEST_UNIQUE_FILE.getFileName().toString(), relativePath2);
     }
 
+    @Test
+    public void testGetRelativePathToSharedFolderWithSharedPathTrie()
+            throws InputOutputException {
+        SharedPathTrie sharedPathTrie = new SharedPathTrie(OBJECT_STORE_1);
+
+        String relativePath = ShareNaming.getRelativePathToSharedFolderBySharer(sharedPathTrie, SHARED_FILE.toString(), USER_2.getUserName(), AccessType.WRITE);
+        assertEquals("RelativePathToSharedFile should be equal", SHARED_DIR.getFileName().resolve(SHARED_FILE.getFileName()).toString(), relativePath);
+
+        OBJECT_STORE_1.getSharerManager().removeSharer(USER_2.getUserName(), SHARED_DIR.toString());
+
+        // sharers of the parent are kept until they are invalidated
+        relativePath = ShareNaming.getRelativePathToSharedFolderBySharer(sharedPathTrie, SHARED_FILE.toString(), USER_2.getUserName(), AccessType.WRITE);
+        assertEquals("RelativePathToSharedFile should still contain the parent", SHARED_DIR.getFileName().resolve(SHARED_FILE.getFileName()).toString(), relativePath);
+
+        sharedPathTrie.invalidate(SHARED_DIR.toString());
+
+        relativePath = ShareNaming.getRelativePathToSharedFolderBySharer(sharedPathTrie, SHARED_FILE.toString(), USER_2.getUserName(), AccessType.WRITE);
+        assertEquals("RelativePathToSharedFile should be filename after invalidating the parent", SHARED_FILE.getFileName().toString(), relativePath);
+
+        OBJECT_STORE_1.getSharerManager().addOwner(USER_1.getUserName(), SHARED_DIR.toString());
+        OBJECT_STORE_1.getSharerManager().addOwner(USER_1.getUserName(), SHARED_FILE.toString());
+        sharedPathTrie.invalidate(SHARED_DIR.toString());
+
+        relativePath = ShareNaming.getRelativePathToSharedFolderByOwner(sharedPathTrie, SHARED_FILE.toString(), USER_1.getUserName());
+        assertEquals("RelativePath should be sharedDir/sharedFile", SHARED_DIR.getFileName().resolve(SHARED_FILE.getFileName()).toString(), relativePath);
+    }
 }
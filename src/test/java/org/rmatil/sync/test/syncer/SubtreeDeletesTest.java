@@ -0,0 +1,62 @@
+package org.rmatil.sync.test.syncer;
+
+import org.junit.Test;
+import org.rmatil.sync.core.SubtreeDeletes;
+import org.rmatil.sync.event.aggregator.core.events.CreateEvent;
+import org.rmatil.sync.event.aggregator.core.events.DeleteEvent;
+import org.rmatil.sync.event.aggregator.core.events.IEvent;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SubtreeDeletesTest {
+
+    @Test
+    public void testCollapseDeletes() {
+        // deleting recursively removes the contents first
+        List<IEvent> events = Arrays.asList(
+                createDeleteEvent("myDir/innerDir/myFile.txt"),
+                createDeleteEvent("myDir/innerDir"),
+                createDeleteEvent("myDir/myFile.txt"),
+                createDeleteEvent("myDir"),
+                createDeleteEvent("otherFile.txt")
+        );
+
+        SubtreeDeletes subtreeDeletes = new SubtreeDeletes(events);
+
+        assertEquals("Only top-most deletes should be left", Arrays.asList(events.get(3), events.get(4)), subtreeDeletes.getEvents());
+        assertEquals("Deletes below myDir should be collapsed", 3, subtreeDeletes.getNrOfCollapsedEvents());
+        assertEquals("myDir should be the only subtree root", 1, subtreeDeletes.getSubtreeRoots().size());
+        assertTrue("myDir should be the subtree root", subtreeDeletes.getSubtreeRoots().contains("myDir"));
+    }
+
+    @Test
+    public void testDoNotCollapseChangedSubtrees() {
+        List<IEvent> events = Arrays.asList(
+                createDeleteEvent("myDir/innerDir/myFile.txt"),
+                createDeleteEvent("myDir/innerDir"),
+                createDeleteEvent("myDir"),
+                new CreateEvent(Paths.get("myDir/myFile.txt"), "myFile.txt", "someHash", System.currentTimeMillis())
+        );
+
+        SubtreeDeletes subtreeDeletes = new SubtreeDeletes(events);
+
+        // myDir has been recreated, only innerDir can be collapsed
+        assertEquals("Only deletes below innerDir should be collapsed", 1, subtreeDeletes.getNrOfCollapsedEvents());
+        assertEquals("All other events should be left", Arrays.asList(events.get(1), events.get(2), events.get(3)), subtreeDeletes.getEvents());
+        assertTrue("innerDir should be the subtree root", subtreeDeletes.getSubtreeRoots().contains("myDir/innerDir"));
+
+        SubtreeDeletes emptyDeletes = new SubtreeDeletes(new ArrayList<>());
+        assertTrue("No event should be left", emptyDeletes.getEvents().isEmpty());
+    }
+
+    protected static IEvent createDeleteEvent(String path) {
+        Path filePath = Paths.get(path);
+        return new DeleteEvent(filePath, filePath.getFileName().toString(), "someHash", System.currentTimeMillis());
+    }
+}
@@ -78,7 +78,7 @@ public class SyncIT extends BaseIT {
 
         IEventAggregator eventAggregator = sync.getEventAggregator();
         assertNotNull("Event Aggregator should not be null after connecting", eventAggregator);
-        assertEquals("2 Listeners (ObjectStoreListener & PathChangeListener) should be registered", 2, eventAggregator.getListeners().size());
+        assertEquals("1 Listener (SyncWindowEventListener forwarding to ObjectStoreListener & PathChangeListener) should be registered", 1, eventAggregator.getListeners().size());
         assertEquals("4 modifiers (RelativePathModifier, AddDirectoryContentModifier, IgnorePathsModifier, SameHashModifier) should be registered", 4, eventAggregator.getModifiers().size());
         assertEquals("1 aggregator (HistoryMoveAggregator) should be registered", 1, eventAggregator.getAggregators().size());
 
@@ -0,0 +1,140 @@
+package org.rmatil.sync.test.syncer.background;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.rmatil.sync.core.eventbus.BackgroundSyncHintBusEvent;
+import org.rmatil.sync.core.syncer.background.BackgroundSyncRun;
+import org.rmatil.sync.core.syncer.background.BackgroundSyncScheduler;
+import org.rmatil.sync.core.syncer.background.IBackgroundSyncer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class BackgroundSyncSchedulerTest {
+
+    protected static final long BASE_INTERVAL = 60000L;
+    protected static final long MAX_INTERVAL  = 300000L;
+
+    protected ScheduledExecutorService executorService;
+
+    protected ScriptedBackgroundSyncer backgroundSyncer;
+
+    protected BackgroundSyncScheduler scheduler;
+
+    @Before
+    public void before() {
+        this.executorService = Executors.newSingleThreadScheduledExecutor();
+        this.backgroundSyncer = new ScriptedBackgroundSyncer();
+        // use long delays, runs are invoked directly by the tests
+        this.scheduler = new BackgroundSyncScheduler(this.backgroundSyncer, this.executorService, BASE_INTERVAL, MAX_INTERVAL, 60000L, 60000L);
+    }
+
+    @After
+    public void after() {
+        this.scheduler.stop();
+        this.executorService.shutdownNow();
+    }
+
+    @Test
+    public void testBackoffWithoutDifferences() {
+        for (int i = 0; i < BackgroundSyncScheduler.IDLE_RUNS_BEFORE_BACKOFF - 1; i++) {
+            this.backgroundSyncer.outcomes.add(BackgroundSyncRun.Outcome.IN_SYNC);
+            this.scheduler.run();
+            assertEquals("Interval should not be increased before enough idle runs", BASE_INTERVAL, this.scheduler.getCurrentInterval());
+        }
+
+        this.backgroundSyncer.outcomes.add(BackgroundSyncRun.Outcome.IN_SYNC);
+        this.scheduler.run();
+        assertEquals("Interval should be doubled", 2 * BASE_INTERVAL, this.scheduler.getCurrentInterval());
+
+        for (int i = 0; i < 5; i++) {
+            this.backgroundSyncer.outcomes.add(BackgroundSyncRun.Outcome.IN_SYNC);
+            this.scheduler.run();
+        }
+        assertEquals("Interval should not exceed the maximum", MAX_INTERVAL, this.scheduler.getCurrentInterval());
+
+        this.backgroundSyncer.outcomes.add(BackgroundSyncRun.Outcome.COMPLETED);
+        this.backgroundSyncer.nrOfUpdatedPaths = 1;
+        this.scheduler.run();
+        assertEquals("Interval should be reset after differences have been found", BASE_INTERVAL, this.scheduler.getCurrentInterval());
+        assertEquals("Idle runs should be reset", 0, this.scheduler.getConsecutiveIdleRuns());
+    }
+
+    @Test
+    public void testForcedRunAfterSkips() {
+        for (int i = 0; i < BackgroundSyncScheduler.MAX_CONSECUTIVE_SKIPS; i++) {
+            this.backgroundSyncer.outcomes.add(BackgroundSyncRun.Outcome.SKIPPED);
+            this.scheduler.run();
+        }
+
+        assertEquals("All skipped runs should be counted", BackgroundSyncScheduler.MAX_CONSECUTIVE_SKIPS, this.scheduler.getConsecutiveSkippedRuns());
+        assertFalse("Runs should not be forced before too many skips", this.backgroundSyncer.forcedRuns.contains(true));
+
+        this.backgroundSyncer.outcomes.add(BackgroundSyncRun.Outcome.COMPLETED);
+        this.scheduler.run();
+
+        assertTrue("Run after too many skips should be forced", this.backgroundSyncer.forcedRuns.get(this.backgroundSyncer.forcedRuns.size() - 1));
+        assertEquals("Skipped runs should be reset", 0, this.scheduler.getConsecutiveSkippedRuns());
+    }
+
+    @Test
+    public void testHintResetsInterval() {
+        for (int i = 0; i < BackgroundSyncScheduler.IDLE_RUNS_BEFORE_BACKOFF; i++) {
+            this.backgroundSyncer.outcomes.add(BackgroundSyncRun.Outcome.IN_SYNC);
+            this.scheduler.run();
+        }
+        assertEquals("Interval should be doubled", 2 * BASE_INTERVAL, this.scheduler.getCurrentInterval());
+
+        this.scheduler.handleHint(new BackgroundSyncHintBusEvent(BackgroundSyncHintBusEvent.Reason.CLIENT_JOINED));
+        assertEquals("Interval should be reset when a client joins", BASE_INTERVAL, this.scheduler.getCurrentInterval());
+
+        for (int i = 0; i < BackgroundSyncScheduler.IDLE_RUNS_BEFORE_BACKOFF; i++) {
+            this.backgroundSyncer.outcomes.add(BackgroundSyncRun.Outcome.IN_SYNC);
+            this.scheduler.run();
+        }
+
+        for (int i = 0; i < BackgroundSyncScheduler.FAILURE_THRESHOLD - 1; i++) {
+            this.scheduler.handleHint(new BackgroundSyncHintBusEvent(BackgroundSyncHintBusEvent.Reason.EXCHANGE_DENIED));
+        }
+        assertEquals("Interval should not be reset by single failures", 2 * BASE_INTERVAL, this.scheduler.getCurrentInterval());
+
+        this.scheduler.handleHint(new BackgroundSyncHintBusEvent(BackgroundSyncHintBusEvent.Reason.EXCHANGE_TIMED_OUT));
+        assertEquals("Interval should be reset after too many failures", BASE_INTERVAL, this.scheduler.getCurrentInterval());
+    }
+
+    /**
+     * Returns the scripted outcomes in order
+     */
+    protected static class ScriptedBackgroundSyncer implements IBackgroundSyncer {
+
+        protected Deque<BackgroundSyncRun.Outcome> outcomes = new ArrayDeque<>();
+
+        protected List<Boolean> forcedRuns = new ArrayList<>();
+
+        protected int nrOfUpdatedPaths = 0;
+
+        @Override
+        public BackgroundSyncRun sync(boolean drainRunningExchanges) {
+            this.forcedRuns.add(drainRunningExchanges);
+
+            BackgroundSyncRun run = new BackgroundSyncRun(UUID.randomUUID(), drainRunningExchanges);
+            run.setNrOfUpdatedPaths(this.nrOfUpdatedPaths);
+            run.finish(this.outcomes.removeFirst());
+
+            return run;
+        }
+
+        @Override
+        public void run() {
+            this.sync(false);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.rmatil.sync.test.syncer.background;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.IgnoreRuleSet;
+import org.rmatil.sync.core.syncer.background.DirtyPathSet;
+import org.rmatil.sync.event.aggregator.core.events.IEvent;
+import org.rmatil.sync.event.aggregator.core.events.ModifyEvent;
+import org.rmatil.sync.event.aggregator.core.events.MoveEvent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DirtyPathSetTest {
+
+    protected static final Path ROOT_TEST_DIR = Paths.get("./org.rmatil.sync.test.dirtyPathSet");
+
+    protected static final long OLD_TIME = 1000000000000L;
+    protected static final long NEW_TIME = 2000000000000L;
+
+    protected static IgnoreRuleSet ignoreRules;
+
+    @BeforeClass
+    public static void setUp()
+            throws IOException {
+        Files.createDirectories(ROOT_TEST_DIR.resolve("unchangedDir"));
+        Files.createDirectories(ROOT_TEST_DIR.resolve("changedDir"));
+        Files.createDirectories(ROOT_TEST_DIR.resolve(".sync"));
+        Files.write(ROOT_TEST_DIR.resolve("unchangedDir/myFile.txt"), "unchanged".getBytes());
+        Files.write(ROOT_TEST_DIR.resolve("changedDir/myFile.txt"), "changed".getBytes());
+        Files.write(ROOT_TEST_DIR.resolve("changedDir/myFile2.txt"), "unchanged".getBytes());
+        Files.write(ROOT_TEST_DIR.resolve(".sync/index.json"), "ignored".getBytes());
+
+        for (String path : Arrays.asList("", "unchangedDir", "unchangedDir/myFile.txt", "changedDir/myFile2.txt")) {
+            Files.setLastModifiedTime(ROOT_TEST_DIR.resolve(path), FileTime.fromMillis(OLD_TIME));
+        }
+
+        for (String path : Arrays.asList("changedDir", "changedDir/myFile.txt", ".sync", ".sync/index.json")) {
+            Files.setLastModifiedTime(ROOT_TEST_DIR.resolve(path), FileTime.fromMillis(NEW_TIME));
+        }
+
+        ignoreRules = new IgnoreRuleSet(Arrays.asList(Paths.get(".sync")), new ArrayList<>());
+    }
+
+    @AfterClass
+    public static void tearDown()
+            throws IOException {
+        try (Stream<Path> paths = Files.walk(ROOT_TEST_DIR)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testAddModifiedSince()
+            throws IOException {
+        DirtyPathSet dirtyPaths = new DirtyPathSet();
+        dirtyPaths.addModifiedSince(ROOT_TEST_DIR, NEW_TIME, ignoreRules);
+
+        assertEquals("Only modified paths should be dirty", Arrays.asList("changedDir", "changedDir/myFile.txt"), dirtyPaths.getPaths());
+        assertFalse("Root should not be dirty", dirtyPaths.contains(DirtyPathSet.ROOT_PATH));
+
+        dirtyPaths.remove("changedDir");
+        assertEquals("Path should be removed", 1, dirtyPaths.size());
+
+        // paths which have not been reconciled are kept
+        dirtyPaths.addModifiedSince(ROOT_TEST_DIR, OLD_TIME, ignoreRules);
+        assertTrue("Root should be dirty", dirtyPaths.contains(DirtyPathSet.ROOT_PATH));
+        assertEquals("All not ignored paths should be dirty", 6, dirtyPaths.size());
+        assertEquals("Root should be first", DirtyPathSet.ROOT_PATH, dirtyPaths.getPaths().get(0));
+    }
+
+    @Test
+    public void testAddSubtree()
+            throws IOException {
+        DirtyPathSet dirtyPaths = new DirtyPathSet();
+        dirtyPaths.addSubtree(ROOT_TEST_DIR, "unchangedDir", ignoreRules);
+
+        assertEquals("Whole subtree should be dirty regardless of time", Arrays.asList("unchangedDir", "unchangedDir/myFile.txt"), dirtyPaths.getPaths());
+        assertFalse("Set should not be empty", dirtyPaths.isEmpty());
+    }
+
+    @Test
+    public void testAddEvents() {
+        List<IEvent> events = new ArrayList<>();
+        events.add(new ModifyEvent(Paths.get("changedDir/myFile.txt"), "myFile.txt", "someHash", System.currentTimeMillis()));
+        events.add(new MoveEvent(Paths.get("unchangedDir/myFile.txt"), Paths.get("changedDir/myFile3.txt"), "myFile.txt", "someHash", System.currentTimeMillis()));
+
+        DirtyPathSet dirtyPaths = new DirtyPathSet();
+        dirtyPaths.addEvents(events);
+
+        assertEquals("Paths of all events including the new path of the move should be dirty", 3, dirtyPaths.size());
+        assertTrue("Modified path should be dirty", dirtyPaths.contains("changedDir/myFile.txt"));
+        assertTrue("Old path of move should be dirty", dirtyPaths.contains("unchangedDir/myFile.txt"));
+        assertTrue("New path of move should be dirty", dirtyPaths.contains("changedDir/myFile3.txt"));
+    }
+
+    @Test
+    public void testScanSince() {
+        DirtyPathSet dirtyPaths = new DirtyPathSet();
+        assertTrue("No scan should be required initially", dirtyPaths.getScanSince() < 0);
+
+        dirtyPaths.requireScanSince(NEW_TIME);
+        dirtyPaths.requireScanSince(OLD_TIME);
+        assertEquals("Earliest time should be kept", OLD_TIME, dirtyPaths.getScanSince());
+
+        dirtyPaths.markRecordedSince(NEW_TIME);
+        assertEquals("Scan for earlier changes should be kept", OLD_TIME, dirtyPaths.getScanSince());
+
+        dirtyPaths.markRecordedSince(OLD_TIME);
+        assertTrue("No scan should be required after recording all changes", dirtyPaths.getScanSince() < 0);
+    }
+
+    @Test
+    public void testPersist()
+            throws IOException {
+        Path file = ROOT_TEST_DIR.resolve(".sync/dirtyPaths.json");
+
+        DirtyPathSet dirtyPaths = new DirtyPathSet(file);
+        dirtyPaths.add("changedDir/myFile.txt");
+        dirtyPaths.requireScanSince(NEW_TIME);
+        dirtyPaths.persist();
+
+        DirtyPathSet loadedDirtyPaths = new DirtyPathSet(file);
+        assertEquals("Dirty paths should be loaded", Arrays.asList("changedDir/myFile.txt"), loadedDirtyPaths.getPaths());
+        assertEquals("Required scan should be loaded", NEW_TIME, loadedDirtyPaths.getScanSince());
+
+        Files.write(file, "{ no json".getBytes());
+        DirtyPathSet corruptDirtyPaths = new DirtyPathSet(file);
+        assertTrue("No paths should be loaded from a corrupt file", corruptDirtyPaths.isEmpty());
+        assertEquals("Whole folder should be scanned after loading a corrupt file", 0L, corruptDirtyPaths.getScanSince());
+
+        Files.delete(file);
+    }
+}
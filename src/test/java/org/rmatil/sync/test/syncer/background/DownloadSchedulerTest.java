@@ -0,0 +1,87 @@
+package org.rmatil.sync.test.syncer.background;
+
+import org.junit.Test;
+import org.rmatil.sync.core.syncer.background.DownloadScheduler;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DownloadSchedulerTest {
+
+    protected static final int MAX_CONCURRENT_DOWNLOADS = 3;
+
+    @Test
+    public void testParentsBeforeChildren()
+            throws InterruptedException {
+        Map<String, Long> finishTimes = new ConcurrentHashMap<>();
+        Map<String, Long> startTimes = new ConcurrentHashMap<>();
+
+        List<String> paths = Arrays.asList(
+                "myDir",
+                "otherDir",
+                "myDir/innerDir",
+                "otherDir/myFile.txt",
+                "myDir/innerDir/myFile.txt",
+                "myDir/innerDir/myFile2.txt"
+        );
+
+        Map<String, Runnable> downloads = new LinkedHashMap<>();
+        for (String path : paths) {
+            downloads.put(path, () -> {
+                startTimes.put(path, System.nanoTime());
+                sleep(20L);
+                finishTimes.put(path, System.nanoTime());
+            });
+        }
+
+        new DownloadScheduler(MAX_CONCURRENT_DOWNLOADS).runAll(downloads);
+
+        assertEquals("All downloads should have been run", paths.size(), finishTimes.size());
+
+        assertTrue("innerDir should start after myDir finished", startTimes.get("myDir/innerDir") >= finishTimes.get("myDir"));
+        assertTrue("myFile.txt should start after innerDir finished", startTimes.get("myDir/innerDir/myFile.txt") >= finishTimes.get("myDir/innerDir"));
+        assertTrue("myFile2.txt should start after innerDir finished", startTimes.get("myDir/innerDir/myFile2.txt") >= finishTimes.get("myDir/innerDir"));
+        assertTrue("otherDir/myFile.txt should start after otherDir finished", startTimes.get("otherDir/myFile.txt") >= finishTimes.get("otherDir"));
+    }
+
+    @Test
+    public void testBoundedConcurrency()
+            throws InterruptedException {
+        AtomicInteger inProgress = new AtomicInteger(0);
+        AtomicInteger maxInProgress = new AtomicInteger(0);
+        AtomicInteger finished = new AtomicInteger(0);
+
+        Map<String, Runnable> downloads = new LinkedHashMap<>();
+        for (int i = 0; i < 12; i++) {
+            downloads.put("myFile" + i + ".txt", () -> {
+                int current = inProgress.incrementAndGet();
+                maxInProgress.accumulateAndGet(current, Math::max);
+                sleep(20L);
+                inProgress.decrementAndGet();
+                finished.incrementAndGet();
+            });
+        }
+
+        // a failing download must not prevent the others
+        downloads.put("failingFile.txt", () -> {
+            throw new IllegalStateException("Failing on purpose");
+        });
+
+        new DownloadScheduler(MAX_CONCURRENT_DOWNLOADS).runAll(downloads);
+
+        assertEquals("All downloads should have been run", 12, finished.get());
+        assertTrue("At most " + MAX_CONCURRENT_DOWNLOADS + " downloads should run at the same time", maxInProgress.get() <= MAX_CONCURRENT_DOWNLOADS);
+        assertTrue("Downloads should run concurrently", maxInProgress.get() > 1);
+    }
+
+    protected static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
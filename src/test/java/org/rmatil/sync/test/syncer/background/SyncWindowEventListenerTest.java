@@ -0,0 +1,47 @@
+package org.rmatil.sync.test.syncer.background;
+
+import org.junit.Test;
+import org.rmatil.sync.core.syncer.background.DirtyPathSet;
+import org.rmatil.sync.core.syncer.background.SyncWindowEventListener;
+import org.rmatil.sync.event.aggregator.api.IEventListener;
+import org.rmatil.sync.event.aggregator.core.events.CreateEvent;
+import org.rmatil.sync.event.aggregator.core.events.IEvent;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SyncWindowEventListenerTest {
+
+    @Test
+    public void testOnChange() {
+        List<IEvent> receivedEvents = new ArrayList<>();
+        IEventListener listener = receivedEvents::addAll;
+
+        SyncWindowEventListener syncWindowEventListener = new SyncWindowEventListener(Arrays.asList(listener));
+        DirtyPathSet dirtyPaths = new DirtyPathSet();
+
+        IEvent firstEvent = new CreateEvent(Paths.get("myFile.txt"), "myFile.txt", "someHash", System.currentTimeMillis());
+        IEvent secondEvent = new CreateEvent(Paths.get("myFile2.txt"), "myFile2.txt", "someHash", System.currentTimeMillis());
+
+        syncWindowEventListener.onChange(Arrays.asList(firstEvent));
+        assertEquals("Event should be forwarded while the window is closed", 1, receivedEvents.size());
+        assertTrue("No path should be dirty", dirtyPaths.isEmpty());
+
+        syncWindowEventListener.open(dirtyPaths);
+        assertTrue("Window should be open", syncWindowEventListener.isOpen());
+
+        syncWindowEventListener.onChange(Arrays.asList(secondEvent));
+        assertEquals("Event should not be forwarded while the window is open", 1, receivedEvents.size());
+        assertTrue("Path of event should be dirty", dirtyPaths.contains("myFile2.txt"));
+
+        syncWindowEventListener.close();
+        assertFalse("Window should be closed", syncWindowEventListener.isOpen());
+
+        syncWindowEventListener.onChange(Arrays.asList(secondEvent));
+        assertEquals("Event should be forwarded again", 2, receivedEvents.size());
+    }
+}
@@ -0,0 +1,186 @@
+package org.rmatil.sync.test.syncer.background.fetchobjectstore;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.Zip;
+import org.rmatil.sync.core.messaging.StatusCode;
+import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreRequest;
+import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreRequestHandler;
+import org.rmatil.sync.network.api.INode;
+import org.rmatil.sync.network.core.ANetworkHandler;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.test.messaging.base.BaseNetworkHandlerTest;
+import org.rmatil.sync.version.api.IObjectStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class FetchObjectStoreRequestHandlerTest extends BaseNetworkHandlerTest {
+
+    protected static final String LARGE_OBJECT = OBJECT_FOLDER_NAME + "/zz/largeObject.json";
+
+    // does not compress, i.e. the zip file consists of three chunks
+    protected static final byte[] LARGE_OBJECT_CONTENT = new byte[(FetchObjectStoreRequestHandler.CHUNK_SIZE * 2) + 15];
+
+    @BeforeClass
+    public static void setUpChild()
+            throws IOException {
+        new Random().nextBytes(LARGE_OBJECT_CONTENT);
+
+        Path largeObject = ROOT_TEST_DIR1.resolve(SYNC_FOLDER_NAME).resolve(LARGE_OBJECT);
+        Files.createDirectories(largeObject.getParent());
+        Files.write(largeObject, LARGE_OBJECT_CONTENT);
+    }
+
+    @Test
+    public void testPullChunks()
+            throws IOException {
+        UUID exchangeId = UUID.randomUUID();
+
+        RecordingFetchObjectStoreRequestHandler firstHandler = createHandler(CLIENT_1, OBJECT_STORE_1, exchangeId, - 1);
+        firstHandler.run();
+
+        assertEquals("Only the first chunk should be sent initially", 1, firstHandler.chunkCounters.size());
+        assertEquals("First chunk should be sent", 0L, (long) firstHandler.chunkCounters.get(0));
+
+        long totalNrOfChunks = firstHandler.totalNrOfChunks;
+        assertEquals("Zip file should consist of three chunks", 3L, totalNrOfChunks);
+        assertTrue("Zip file should be kept until all chunks are pulled", firstHandler.hasPreparedArchive());
+        assertEquals("Zip file should be kept on disk", 1, getArchives(exchangeId).size());
+
+        ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+        zipFile.write(firstHandler.chunks.get(0));
+
+        for (long chunkCounter = 1; chunkCounter < totalNrOfChunks; chunkCounter++) {
+            RecordingFetchObjectStoreRequestHandler handler = createHandler(CLIENT_1, OBJECT_STORE_1, exchangeId, chunkCounter);
+            handler.run();
+
+            assertEquals("Requested chunk should be sent", chunkCounter, (long) handler.chunkCounters.get(0));
+            assertEquals("Total number of chunks should not change", totalNrOfChunks, handler.totalNrOfChunks);
+            zipFile.write(handler.chunks.get(0));
+        }
+
+        assertFalse("Zip file should be removed once all chunks are pulled", firstHandler.hasPreparedArchive());
+        assertTrue("Zip file should be deleted once all chunks are pulled", getArchives(exchangeId).isEmpty());
+
+        // the pulled chunks make up the complete object store
+        IObjectStore fetchedObjectStore = Zip.unzipObjectStore(OBJECT_STORE_2, CLIENT_ID_1.toString(), zipFile.toByteArray());
+        assertNotNull("Fetched object store should not be null", fetchedObjectStore);
+
+        Path fetchedObject = ROOT_TEST_DIR2.resolve(SYNC_FOLDER_NAME).resolve(CLIENT_ID_1.toString()).resolve(SYNC_FOLDER_NAME).resolve(LARGE_OBJECT);
+        assertArrayEquals("Object should be equal after pulling all chunks", LARGE_OBJECT_CONTENT, Files.readAllBytes(fetchedObject));
+    }
+
+    @Test
+    public void testRemoveStalePreparedArchives()
+            throws IOException {
+        UUID exchangeId = UUID.randomUUID();
+
+        // both clients prepare a zip file for the same exchange
+        RecordingFetchObjectStoreRequestHandler handler1 = createHandler(CLIENT_1, OBJECT_STORE_1, exchangeId, - 1);
+        handler1.run();
+        RecordingFetchObjectStoreRequestHandler handler2 = createHandler(CLIENT_2, OBJECT_STORE_1, exchangeId, - 1);
+        handler2.run();
+
+        assertTrue("Zip file of client1 should be kept", handler1.hasPreparedArchive());
+        assertTrue("Zip file of client2 should be kept", handler2.hasPreparedArchive());
+        assertEquals("Each client should keep its own zip file", 2, getArchives(exchangeId).size());
+
+        // pulling a chunk of one client does not affect the zip file of the other
+        RecordingFetchObjectStoreRequestHandler pullHandler = createHandler(CLIENT_2, OBJECT_STORE_1, exchangeId, 1);
+        pullHandler.run();
+        assertEquals("Chunk of client2 should be sent", 1L, (long) pullHandler.chunkCounters.get(0));
+
+        handler1.removeStalePreparedArchives(System.currentTimeMillis());
+        assertTrue("Recently used zip file should not be removed", handler1.hasPreparedArchive());
+        assertTrue("Recently used zip file should not be removed", handler2.hasPreparedArchive());
+
+        handler1.removeStalePreparedArchives(System.currentTimeMillis() + ANetworkHandler.MAX_WAITING_TIME + 1);
+        assertFalse("Stale zip file of client1 should be removed", handler1.hasPreparedArchive());
+        assertFalse("Stale zip file of client2 should be removed", handler2.hasPreparedArchive());
+        assertTrue("Stale zip files should be deleted", getArchives(exchangeId).isEmpty());
+    }
+
+    protected static RecordingFetchObjectStoreRequestHandler createHandler(INode node, IObjectStore objectStore, UUID exchangeId, long chunkCounter) {
+        List<NodeLocation> receivers = new ArrayList<>();
+        receivers.add(new NodeLocation(USERNAME, node.getClientDeviceId(), node.getPeerAddress()));
+
+        FetchObjectStoreRequest request = new FetchObjectStoreRequest(
+                exchangeId,
+                StatusCode.NONE,
+                CLIENT_DEVICE_2,
+                receivers,
+                null,
+                null,
+                chunkCounter
+        );
+
+        RecordingFetchObjectStoreRequestHandler handler = new RecordingFetchObjectStoreRequestHandler();
+        handler.setNode(node);
+        handler.setObjectStore(objectStore);
+        handler.setRequest(request);
+
+        return handler;
+    }
+
+    /**
+     * Returns the zip files written for the given exchange
+     *
+     * @param exchangeId The id of the exchange
+     *
+     * @return The zip files
+     */
+    protected static List<File> getArchives(UUID exchangeId) {
+        List<File> archives = new ArrayList<>();
+        File[] files = Paths.get(System.getProperty("java.io.tmpdir")).toFile().listFiles();
+
+        if (null != files) {
+            for (File file : files) {
+                if (file.getName().startsWith("objectStore-" + exchangeId)) {
+                    archives.add(file);
+                }
+            }
+        }
+
+        return archives;
+    }
+
+    /**
+     * A request handler recording the chunks it sends instead of sending them
+     */
+    protected static class RecordingFetchObjectStoreRequestHandler extends FetchObjectStoreRequestHandler {
+
+        protected List<Long> chunkCounters = new ArrayList<>();
+
+        protected List<byte[]> chunks = new ArrayList<>();
+
+        protected long totalNrOfChunks = - 1;
+
+        public boolean hasPreparedArchive() {
+            return preparedArchives.containsKey(this.getPreparedArchiveKey());
+        }
+
+        @Override
+        public void removeStalePreparedArchives(long now) {
+            super.removeStalePreparedArchives(now);
+        }
+
+        @Override
+        protected void sendChunk(NodeLocation receiver, byte[] chunk, boolean isDelta, Set<Integer> staleBuckets, String rootHash, long chunkCounter, long totalNrOfChunks) {
+            this.chunkCounters.add(chunkCounter);
+            this.chunks.add(chunk);
+            this.totalNrOfChunks = totalNrOfChunks;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.rmatil.sync.test.syncer.background.fetchobjectstore;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.syncer.background.fetchobjectstore.FetchObjectStoreResponse;
+import org.rmatil.sync.network.core.model.ClientDevice;
+import org.rmatil.sync.network.core.model.NodeLocation;
+import org.rmatil.sync.test.base.BaseMessageTest;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class FetchObjectStoreResponseTest extends BaseMessageTest {
+
+    protected static final UUID         CLIENT_DEVICE_ID  = UUID.randomUUID();
+    protected static final ClientDevice CLIENT_DEVICE     = new ClientDevice("Norman Gordon", CLIENT_DEVICE_ID, null);
+    protected static final NodeLocation CLIENT_LOCATION   = new NodeLocation("Norman Gordon", CLIENT_DEVICE_ID, null);
+    protected static final byte[]       CHUNK             = "some chunk of the zip file".getBytes();
+    protected static final String       ROOT_HASH         = "someRootHash";
+    protected static final long         CHUNK_COUNTER     = 2L;
+    protected static final long         TOTAL_NR_OF_CHUNK = 5L;
+    protected static final int          CHUNK_SIZE        = 1024;
+
+    protected static Set<Integer>             staleBuckets;
+    protected static FetchObjectStoreResponse fetchObjectStoreResponse;
+    protected static FetchObjectStoreResponse singleChunkResponse;
+
+    @BeforeClass
+    public static void setUp() {
+        staleBuckets = new HashSet<>();
+        staleBuckets.add(3);
+        staleBuckets.add(42);
+
+        fetchObjectStoreResponse = new FetchObjectStoreResponse(
+                EXCHANGE_ID,
+                STATUS_CODE,
+                CLIENT_DEVICE,
+                CLIENT_LOCATION,
+                CHUNK,
+                true,
+                staleBuckets,
+                ROOT_HASH,
+                CHUNK_COUNTER,
+                TOTAL_NR_OF_CHUNK,
+                CHUNK_SIZE
+        );
+
+        singleChunkResponse = new FetchObjectStoreResponse(
+                EXCHANGE_ID,
+                STATUS_CODE,
+                CLIENT_DEVICE,
+                CLIENT_LOCATION,
+                CHUNK
+        );
+    }
+
+    @Test
+    public void test() {
+        assertEquals("ExchangeId not equal", EXCHANGE_ID, fetchObjectStoreResponse.getExchangeId());
+        assertEquals("StatusCode not equal", STATUS_CODE, fetchObjectStoreResponse.getStatusCode());
+        assertEquals("ClientDevice not equal", CLIENT_DEVICE, fetchObjectStoreResponse.getClientDevice());
+        assertEquals("NodeLocation not equal", CLIENT_LOCATION, fetchObjectStoreResponse.getReceiverAddress());
+        assertArrayEquals("Chunk not equal", CHUNK, fetchObjectStoreResponse.getObjectStore());
+        assertTrue("Response should be a delta", fetchObjectStoreResponse.isDelta());
+        assertEquals("Stale buckets not equal", staleBuckets, fetchObjectStoreResponse.getStaleBuckets());
+        assertEquals("Root hash not equal", ROOT_HASH, fetchObjectStoreResponse.getRootHash());
+        assertEquals("Chunk counter not equal", CHUNK_COUNTER, fetchObjectStoreResponse.getChunkCounter());
+        assertEquals("Total nr of chunks not equal", TOTAL_NR_OF_CHUNK, fetchObjectStoreResponse.getTotalNrOfChunks());
+        assertEquals("Chunk size not equal", CHUNK_SIZE, fetchObjectStoreResponse.getChunkSize());
+
+        assertFalse("Response should not be a delta", singleChunkResponse.isDelta());
+        assertEquals("Response should consist of a single chunk", 1L, singleChunkResponse.getTotalNrOfChunks());
+        assertEquals("Chunk size should be the length of the zip file", CHUNK.length, singleChunkResponse.getChunkSize());
+    }
+}
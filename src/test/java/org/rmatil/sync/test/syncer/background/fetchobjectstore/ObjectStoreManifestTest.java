@@ -0,0 +1,93 @@
+package org.rmatil.sync.test.syncer.background.fetchobjectstore;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rmatil.sync.core.syncer.background.fetchobjectstore.ObjectStoreManifest;
+import org.rmatil.sync.persistence.api.StorageType;
+import org.rmatil.sync.persistence.core.tree.ITreeStorageAdapter;
+import org.rmatil.sync.persistence.core.tree.TreePathElement;
+import org.rmatil.sync.persistence.core.tree.local.LocalStorageAdapter;
+import org.rmatil.sync.persistence.exceptions.InputOutputException;
+import org.rmatil.sync.test.base.BaseTest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ObjectStoreManifestTest extends BaseTest {
+
+    protected static final String INDEX_FILE    = "index.json";
+    protected static final String OBJECT_FILE_1 = "object/ab/cdef.json";
+    protected static final String OBJECT_FILE_2 = "object/12/3456.json";
+    protected static final String OTHER_FILE    = "otherClient/.sync/index.json";
+
+    protected static ITreeStorageAdapter storageAdapter1;
+    protected static ITreeStorageAdapter storageAdapter2;
+
+    @BeforeClass
+    public static void setUp()
+            throws IOException, InputOutputException {
+        createTestDirs();
+
+        storageAdapter1 = new LocalStorageAdapter(ROOT_TEST_DIR1);
+        storageAdapter2 = new LocalStorageAdapter(ROOT_TEST_DIR2);
+
+        for (ITreeStorageAdapter storageAdapter : new ITreeStorageAdapter[]{storageAdapter1, storageAdapter2}) {
+            storageAdapter.persist(StorageType.DIRECTORY, new TreePathElement("object"), null);
+            storageAdapter.persist(StorageType.DIRECTORY, new TreePathElement("object/ab"), null);
+            storageAdapter.persist(StorageType.DIRECTORY, new TreePathElement("object/12"), null);
+            storageAdapter.persist(StorageType.DIRECTORY, new TreePathElement("otherClient"), null);
+            storageAdapter.persist(StorageType.DIRECTORY, new TreePathElement("otherClient/.sync"), null);
+
+            storageAdapter.persist(StorageType.FILE, new TreePathElement(INDEX_FILE), "{}".getBytes());
+            storageAdapter.persist(StorageType.FILE, new TreePathElement(OBJECT_FILE_1), "first object".getBytes());
+            storageAdapter.persist(StorageType.FILE, new TreePathElement(OBJECT_FILE_2), "second object".getBytes());
+        }
+
+        // files of other object stores must not be part of the manifest
+        storageAdapter2.persist(StorageType.FILE, new TreePathElement(OTHER_FILE), "some other index".getBytes());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        deleteTestDirs();
+    }
+
+    @Test
+    public void test()
+            throws InputOutputException {
+        ObjectStoreManifest manifest1 = new ObjectStoreManifest(storageAdapter1);
+        ObjectStoreManifest manifest2 = new ObjectStoreManifest(storageAdapter2);
+
+        assertEquals("Manifest should only contain index and objects", 3, manifest2.getPaths().size());
+        assertFalse("Manifest should not contain other object stores", manifest2.getPaths().contains(OTHER_FILE));
+
+        assertTrue("Equal object stores should not have stale buckets", manifest1.getStaleBuckets(manifest2.getBucketHashes()).isEmpty());
+
+        // checksums of unchanged files are taken from the cache
+        assertEquals("Manifest of unchanged object store should not change", manifest1.getBucketHashes(), new ObjectStoreManifest(storageAdapter1).getBucketHashes());
+
+        // change a single object
+        storageAdapter2.persist(StorageType.FILE, new TreePathElement(OBJECT_FILE_1), "changed first object".getBytes());
+        manifest2 = new ObjectStoreManifest(storageAdapter2);
+
+        Set<Integer> staleBuckets = manifest2.getStaleBuckets(manifest1.getBucketHashes());
+        assertEquals("Only the bucket of the changed object should be stale", 1, staleBuckets.size());
+        assertTrue("Bucket of changed object should be stale", staleBuckets.contains(ObjectStoreManifest.getBucket(OBJECT_FILE_1)));
+
+        List<String> paths = manifest2.getPaths(staleBuckets);
+        assertTrue("Changed object should be sent", paths.contains(OBJECT_FILE_1));
+
+        // remove an object
+        storageAdapter2.delete(new TreePathElement(OBJECT_FILE_2));
+        manifest2 = new ObjectStoreManifest(storageAdapter2);
+
+        Map<Integer, String> bucketHashes = manifest2.getBucketHashes();
+        staleBuckets = manifest1.getStaleBuckets(bucketHashes);
+        assertTrue("Bucket of removed object should be stale", staleBuckets.contains(ObjectStoreManifest.getBucket(OBJECT_FILE_2)));
+    }
+}
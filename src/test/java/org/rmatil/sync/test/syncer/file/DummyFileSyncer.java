@@ -3,6 +3,7 @@ package org.rmatil.sync.test.syncer.file;
 import org.rmatil.sync.core.api.IFileSyncer;
 import org.rmatil.sync.event.aggregator.core.events.IEvent;
 
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class DummyFileSyncer implements IFileSyncer {
@@ -14,6 +15,11 @@ public class DummyFileSyncer implements IFileSyncer {
         this.events.add(event);
     }
 
+    @Override
+    public void sync(List<IEvent> events) {
+        this.events.addAll(events);
+    }
+
     public ConcurrentLinkedQueue<IEvent> getLinkedQueue() {
         return events;
     }
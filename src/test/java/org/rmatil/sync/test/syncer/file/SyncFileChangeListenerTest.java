@@ -2,6 +2,7 @@ package org.rmatil.sync.test.syncer.file;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.rmatil.sync.core.api.IFileSyncer;
 import org.rmatil.sync.core.eventbus.CreateBusEvent;
 import org.rmatil.sync.core.syncer.file.SyncFileChangeListener;
 import org.rmatil.sync.event.aggregator.core.events.CreateEvent;
@@ -12,8 +13,11 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class SyncFileChangeListenerTest {
 
@@ -66,4 +70,60 @@ public class SyncFileChangeListenerTest {
         assertEquals("First event should be createEvent", testEvent, queue.poll());
         assertEquals("2nd event should be modifyEvent", testEvent2, queue.poll());
     }
+
+    @Test
+    public void testConcurrentSyncOfIndependentPaths()
+            throws InterruptedException {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ConcurrentLinkedQueue<IEvent> syncedEvents = new ConcurrentLinkedQueue<>();
+
+        // blocks each sync until both independent paths are being synced
+        SyncFileChangeListener listener = new SyncFileChangeListener(new IFileSyncer() {
+            @Override
+            public void sync(IEvent event) {
+                bothStarted.countDown();
+                try {
+                    release.await(10L, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                syncedEvents.add(event);
+            }
+
+            @Override
+            public void sync(List<IEvent> events) {
+                for (IEvent event : events) {
+                    this.sync(event);
+                }
+            }
+        }, 2);
+
+        Thread listenerThread = new Thread(listener);
+        listenerThread.setName("TEST-concurrentSyncFileChangeListener");
+        listenerThread.start();
+
+        IEvent dirEvent = new CreateEvent(Paths.get("dir"), "dir", "someHash", System.currentTimeMillis());
+        IEvent childEvent = new CreateEvent(Paths.get("dir/myFile.txt"), "myFile.txt", "someHash", System.currentTimeMillis());
+        IEvent otherEvent = new CreateEvent(Paths.get("otherFile.txt"), "otherFile.txt", "someHash", System.currentTimeMillis());
+
+        List<IEvent> events = new ArrayList<>();
+        events.add(dirEvent);
+        events.add(childEvent);
+        events.add(otherEvent);
+
+        listener.onChange(events);
+
+        assertTrue("Independent paths should be synced concurrently", bothStarted.await(5L, TimeUnit.SECONDS));
+        assertEquals("No event should be synced before releasing", 0, syncedEvents.size());
+
+        release.countDown();
+        listener.shutdown();
+        listenerThread.join(5000L);
+
+        assertEquals("All events should be synced", 3, syncedEvents.size());
+
+        List<IEvent> syncedList = new ArrayList<>(syncedEvents);
+        assertTrue("Child should be synced after its parent directory", syncedList.indexOf(dirEvent) < syncedList.indexOf(childEvent));
+    }
 }